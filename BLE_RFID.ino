@@ -4,12 +4,13 @@
 #include <BLE2902.h>
 #include <SPI.h>
 #include <MFRC522.h>
+#include "rfid_queue.h"
+#include "card_read.h"
 
 BLEServer* pServer = NULL;
 BLECharacteristic* pCharacteristic = NULL;
 bool deviceConnected = false;
 bool oldDeviceConnected = false;
-uint32_t value = 0;
 
 
 
@@ -20,15 +21,59 @@ uint32_t value = 0;
 MFRC522 rfid(SS_PIN, RST_PIN); 
 MFRC522::MIFARE_Key key; 
 
-byte nuidPICC[4];
-
 #define SERVICE_UUID "4fafc201-1fb5-459e-8fcc-c5c9c331914b"
 #define CHARACTERISTIC_UUID "beb5483e-36e1-4688-b7f5-ea07361b26a8"
 
+// Set to 1 for old app versions that expect one raw UID per notification
+#define LEGACY_PAYLOAD 0
+// Set to 1 to print connection changes and every UID to the serial monitor
+#define SERIAL_LOG 0
+
+#if SERIAL_LOG
+#define LOG(x) Serial.print(x)
+#define LOGLN(x) Serial.println(x)
+#else
+#define LOG(x)
+#define LOGLN(x)
+#endif
+
+// The MFRC522 is polled on a fixed schedule instead of as fast as loop() spins
+#define POLL_INTERVAL_MS 10
+// Queued UIDs go out once per connection event, matching the interval asked for below
+#define NOTIFY_INTERVAL_MS 15
+// Connection interval in 1.25 ms units: 7.5 to 15 ms, no slave latency, 4 s supervision timeout
+#define CONN_MIN_INTERVAL 6
+#define CONN_MAX_INTERVAL 12
+#define CONN_TIMEOUT 400
+// Notifications sent per drain, more than the stack can send in one connection event only queue up
+#define MAX_NOTIFY_PER_DRAIN 4
+// A card left on the antenna is reported again after this long, like the old delay(100)
+#define REPEAT_HOLD_MS 100
+// Time the stack gets before advertising restarts after a disconnect
+#define READVERTISE_DELAY_MS 500
+
+UidRing<64> uidQueue;
+FrameBuilder frameBuilder;
+RepeatFilter repeatFilter(REPEAT_HOLD_MS);
+uint32_t lastPollMs = 0;
+uint32_t lastDrainMs = 0;
+uint32_t disconnectedMs = 0;
+bool readvertisePending = false;
+// set by the BLE task on connect, the queue and frame are only touched from loop()
+volatile bool resetPending = false;
+// sector reads asked for by the app, written on the BLE task and served from loop()
+RequestQueue<REQUEST_QUEUE> requestQueue;
+ResponseChunker responseChunker;
+uint8_t sectorData[SECTOR_DATA_MAX];
+uint8_t responseBuffer[FRAME_MAX];
+
 
 class MyServerCallbacks : public BLEServerCallbacks {
-  void onConnect(BLEServer* pServer) {
+  void onConnect(BLEServer* pServer, esp_ble_gatts_cb_param_t* param) {
     deviceConnected = true;
+    // sequence numbers start over with every connection, the app resets its tracking too
+    resetPending = true;
+    pServer->updateConnParams(param->connect.remote_bda, CONN_MIN_INTERVAL, CONN_MAX_INTERVAL, 0, CONN_TIMEOUT);
   };
 
   void onDisconnect(BLEServer* pServer) {
@@ -37,6 +82,117 @@ class MyServerCallbacks : public BLEServerCallbacks {
 };
 
 
+class RequestCallbacks : public BLECharacteristicCallbacks {
+  void onWrite(BLECharacteristic* characteristic) {
+    if (!requestQueue.push(characteristic->getData(), characteristic->getLength())) {
+      LOGLN("Request dropped");
+    }
+  }
+};
+
+
+// Payload limit of the current connection, 20 bytes until the app has raised the MTU
+size_t framePayloadLimit() {
+  uint16_t mtu = pServer->getPeerMTU(pServer->getConnId());
+  if (mtu < 23) {
+    mtu = 23;
+  }
+  return min((size_t)(mtu - 3), (size_t)FRAME_MAX);
+}
+
+void pollReader(uint32_t now) {
+  if (!rfid.PICC_IsNewCardPresent() || !rfid.PICC_ReadCardSerial()) {
+    return;
+  }
+  if (!repeatFilter.accept(rfid.uid.uidByte, rfid.uid.size, now)) {
+    return;
+  }
+  if (!uidQueue.push(rfid.uid.uidByte, rfid.uid.size, now)) {
+    LOGLN("UID queue full, read dropped");
+    return;
+  }
+#if SERIAL_LOG
+  Serial.print("Card UID:");
+  for (byte i = 0; i < rfid.uid.size; i++) {
+    Serial.print(rfid.uid.uidByte[i] < 0x10 ? " 0" : " ");
+    Serial.print(rfid.uid.uidByte[i], HEX);
+  }
+  Serial.println();
+#endif
+}
+
+// Authenticates with key A and reads the data blocks of the sector into sectorData
+uint8_t readSector(const SectorRequest& request, size_t* length) {
+  *length = 0;
+  if (request.status != READ_OK) {
+    return request.status;
+  }
+  byte atqa[2];
+  byte atqaSize = sizeof(atqa);
+  // wakes the card even if the poll left it selected, then selects the one asked for
+  if (rfid.PICC_WakeupA(atqa, &atqaSize) != MFRC522::STATUS_OK) {
+    return READ_NO_CARD;
+  }
+  MFRC522::Uid uid;
+  memset(&uid, 0, sizeof(uid));
+  uid.size = request.uidLength;
+  memcpy(uid.uidByte, request.uid, request.uidLength);
+  if (rfid.PICC_Select(&uid, request.uidLength * 8) != MFRC522::STATUS_OK) {
+    return READ_NO_CARD;
+  }
+  uint8_t status = READ_OK;
+  if (rfid.PCD_Authenticate(MFRC522::PICC_CMD_MF_AUTH_KEY_A, sectorTrailerBlock(request.sector), &key, &uid) != MFRC522::STATUS_OK) {
+    status = READ_AUTH_FAILED;
+  }
+  for (uint8_t i = 0; status == READ_OK && i < sectorDataBlocks(request.sector); i++) {
+    byte block[18];
+    byte size = sizeof(block);
+    if (rfid.MIFARE_Read(sectorFirstBlock(request.sector) + i, block, &size) != MFRC522::STATUS_OK) {
+      status = READ_FAILED;
+    } else {
+      memcpy(sectorData + *length, block, 16);
+      *length += 16;
+    }
+  }
+  // not halted, so the poll keeps reporting the card while it stays on the antenna
+  rfid.PCD_StopCrypto1();
+  if (status != READ_OK) {
+    *length = 0;
+  }
+  return status;
+}
+
+// One request at a time, its chunks go out with the tag frames before the next is read
+void serveRequest() {
+  const SectorRequest* request = requestQueue.peek();
+  if (responseChunker.pending() || request == NULL) {
+    return;
+  }
+  size_t length;
+  uint8_t status = readSector(*request, &length);
+  responseChunker.begin(request->id, status, sectorData, length);
+  requestQueue.pop();
+}
+
+void drainQueue() {
+  size_t limit = framePayloadLimit();
+  for (int sent = 0; sent < MAX_NOTIFY_PER_DRAIN && responseChunker.pending(); sent++) {
+    size_t length = responseChunker.next(responseBuffer, limit);
+    pCharacteristic->setValue(responseBuffer, length);
+    pCharacteristic->notify();
+  }
+  for (int sent = 0; sent < MAX_NOTIFY_PER_DRAIN && !uidQueue.empty(); sent++) {
+#if LEGACY_PAYLOAD
+    const UidRead* read = uidQueue.peek();
+    pCharacteristic->setValue((uint8_t*)read->bytes, read->length);
+    uidQueue.pop();
+#else
+    size_t length = drainFrame(uidQueue, frameBuilder, limit);
+    pCharacteristic->setValue((uint8_t*)frameBuilder.data(), length);
+#endif
+    pCharacteristic->notify();
+  }
+}
 
 void setup() {
   Serial.begin(115200);
@@ -44,9 +200,15 @@ void setup() {
   //rfid inti 
     SPI.begin();
   rfid.PCD_Init();
+  // factory default key A, sector reads authenticate with it
+  for (byte i = 0; i < 6; i++) {
+    key.keyByte[i] = 0xFF;
+  }
 
   // Create the BLE Device
   BLEDevice::init("NEW_ESP32");
+  // accept the larger MTU the app requests so several UIDs fit in one notification
+  BLEDevice::setMTU(FRAME_MAX + 3);
 
   // Create the BLE Server
   pServer = BLEDevice::createServer();
@@ -58,7 +220,8 @@ void setup() {
   // Create a BLE Characteristic
   pCharacteristic = pService->createCharacteristic(
     CHARACTERISTIC_UUID,
-    BLECharacteristic::PROPERTY_READ | BLECharacteristic::PROPERTY_WRITE | BLECharacteristic::PROPERTY_NOTIFY | BLECharacteristic::PROPERTY_INDICATE);
+    BLECharacteristic::PROPERTY_READ | BLECharacteristic::PROPERTY_WRITE | BLECharacteristic::PROPERTY_WRITE_NR | BLECharacteristic::PROPERTY_NOTIFY | BLECharacteristic::PROPERTY_INDICATE);
+  pCharacteristic->setCallbacks(new RequestCallbacks());
 
   pCharacteristic->addDescriptor(new BLE2902());
 
@@ -71,44 +234,48 @@ void setup() {
   pAdvertising->setScanResponse(false);
   pAdvertising->setMinPreferred(0x0);  // set value to 0x00 to not advertise this parameter
   BLEDevice::startAdvertising();
-  Serial.println("Waiting a client connection to notify...");
+  LOGLN("Waiting a client connection to notify...");
 }
 
 void loop() {
+  uint32_t now = millis();
+
+  if (resetPending) {
+    resetPending = false;
+    uidQueue.clear();
+    frameBuilder.reset();
+    // requests of the old connection get no answer, the app sends them again
+    requestQueue.clear();
+    responseChunker.clear();
+  }
 
   if (deviceConnected) {
-    Serial.println("Connected");
-    if (rfid.PICC_IsNewCardPresent() && rfid.PICC_ReadCardSerial()) {
-      Serial.println();
-      Serial.print("NFC Card Detected");
-      Serial.println();
-      Serial.print("Card UID (Dec): ");
-      for (byte i = 0; i < rfid.uid.size; i++) {
-        Serial.print(rfid.uid.uidByte[i] < 0x10 ? "0" : "");
-        Serial.print(rfid.uid.uidByte[i], DEC);
-      }
-      Serial.println();
-      Serial.print("Card UID (Hex): ");
-      for (byte i = 0; i < rfid.uid.size; i++) {
-        Serial.print(rfid.uid.uidByte[i] < 0x10 ? " 0" : " ");
-        Serial.print(rfid.uid.uidByte[i], HEX);
-      }
-      pCharacteristic->setValue(rfid.uid.uidByte, rfid.uid.size);
-      pCharacteristic->notify();
-      delay(100);
+    if (now - lastPollMs >= POLL_INTERVAL_MS) {
+      lastPollMs = now;
+      pollReader(now);
+    }
+    serveRequest();
+    if (now - lastDrainMs >= NOTIFY_INTERVAL_MS) {
+      lastDrainMs = now;
+      drainQueue();
     }
-
   }
-  // disconnecting
+  // disconnecting, advertising restarts once the stack had its time instead of blocking in delay()
   if (!deviceConnected && oldDeviceConnected) {
-    delay(500);                   // give the bluetooth stack the chance to get things ready
-    pServer->startAdvertising();  // restart advertising
-    Serial.println("start advertising");
+    disconnectedMs = now;
+    readvertisePending = true;
     oldDeviceConnected = deviceConnected;
+    LOGLN("Disconnected");
+  }
+  if (readvertisePending && now - disconnectedMs >= READVERTISE_DELAY_MS) {
+    readvertisePending = false;
+    pServer->startAdvertising();  // restart advertising
+    LOGLN("start advertising");
   }
   // connecting
   if (deviceConnected && !oldDeviceConnected) {
-    // do stuff here on connecting
+    readvertisePending = false;
     oldDeviceConnected = deviceConnected;
+    LOGLN("Connected");
   }
 }
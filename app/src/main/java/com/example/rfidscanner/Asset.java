@@ -0,0 +1,33 @@
+package com.example.rfidscanner;
+
+/**
+ * Catalog record a tag UID resolves to.
+ */
+public final class Asset {
+    private final String sku;
+    private final String description;
+    private final String location;
+
+    public Asset(String sku, String description, String location) {
+        this.sku = sku;
+        this.description = description;
+        this.location = location;
+    }
+
+    public String getSku() {
+        return sku;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    @Override
+    public String toString() {
+        return sku + " " + description + " @ " + location;
+    }
+}
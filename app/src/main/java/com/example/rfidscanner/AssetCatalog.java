@@ -0,0 +1,216 @@
+package com.example.rfidscanner;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only asset catalog in one memory-mapped file, looked up by binary search over a sorted
+ * index of fixed size entries. Nothing is parsed up front, so opening 500k entries is instant
+ * and only the pages a lookup touches are read; load() pulls the whole file in ahead of time.
+ *
+ * File layout, little endian:
+ *   0   magic "RFAC" (int), version (int), entry count (int), data section offset (int)
+ *   16  count x 16 byte index entries sorted by UID: length, UID padded to 10 bytes, unused
+ *       byte, offset of the record in the data section (int)
+ *   ... records: SKU, description, location, each as a uint16 length and UTF-8 bytes
+ *
+ * UIDs sort by length first, then bytes unsigned. Lookups are thread safe.
+ */
+public final class AssetCatalog {
+    private static final int MAGIC = 0x43414652;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 16;
+    private static final int ENTRY_OFFSET = 12;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int dataOffset;
+
+    private AssetCatalog(MappedByteBuffer buffer, int count, int dataOffset) {
+        this.buffer = buffer;
+        this.count = count;
+        this.dataOffset = dataOffset;
+    }
+
+    public static AssetCatalog open(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an asset catalog: " + file);
+        }
+        int count = buffer.getInt(8);
+        int dataOffset = buffer.getInt(12);
+        if (count < 0 || dataOffset != HEADER_SIZE + (long) count * ENTRY_SIZE || dataOffset > buffer.capacity()) {
+            throw new IOException("Corrupt asset catalog header: " + file);
+        }
+        return new AssetCatalog(buffer, count, dataOffset);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Reads the whole file into memory so later lookups do not fault pages in from storage
+    public void load() {
+        buffer.load();
+    }
+
+    /**
+     * Returns the asset of the UID, or null when the catalog has no entry for it.
+     */
+    public Asset find(byte[] uid, int offset, int length) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareEntry(HEADER_SIZE + mid * ENTRY_SIZE, uid, offset, length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return readRecord(dataOffset + buffer.getInt(HEADER_SIZE + mid * ENTRY_SIZE + ENTRY_OFFSET));
+            }
+        }
+        return null;
+    }
+
+    private int compareEntry(int entry, byte[] uid, int offset, int length) {
+        int entryLength = buffer.get(entry) & 0xFF;
+        if (entryLength != length) {
+            return entryLength - length;
+        }
+        for (int i = 0; i < length; i++) {
+            int a = buffer.get(entry + 1 + i) & 0xFF;
+            int b = uid[offset + i] & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    private Asset readRecord(int position) {
+        int[] cursor = {position};
+        String sku = readString(cursor);
+        String description = readString(cursor);
+        String location = readString(cursor);
+        return new Asset(sku, description, location);
+    }
+
+    private String readString(int[] cursor) {
+        int length = buffer.getShort(cursor[0]) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(cursor[0] + 2 + i);
+        }
+        cursor[0] += 2 + length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int compareUids(byte[] a, byte[] b) {
+        if (a.length != b.length) {
+            return a.length - b.length;
+        }
+        for (int i = 0; i < a.length; i++) {
+            int x = a[i] & 0xFF;
+            int y = b[i] & 0xFF;
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Builds a catalog file, e.g. from an export of the asset system. Entries can be added in
+     * any order.
+     */
+    public static final class Writer {
+        private final List<byte[]> uids = new ArrayList<>();
+        private final List<Asset> assets = new ArrayList<>();
+
+        public Writer add(byte[] uid, Asset asset) {
+            if (uid.length == 0 || uid.length > TagIdTable.MAX_UID_LENGTH) {
+                throw new IllegalArgumentException("Invalid UID length: " + uid.length);
+            }
+            uids.add(uid.clone());
+            assets.add(asset);
+            return this;
+        }
+
+        public void write(File file) throws IOException {
+            List<Integer> order = new ArrayList<>(uids.size());
+            for (int i = 0; i < uids.size(); i++) {
+                order.add(i);
+            }
+            Collections.sort(order, (a, b) -> compareUids(uids.get(a), uids.get(b)));
+            for (int i = 1; i < order.size(); i++) {
+                if (compareUids(uids.get(order.get(i - 1)), uids.get(order.get(i))) == 0) {
+                    throw new IllegalArgumentException("Duplicate UID " + TagIdTable.toHex(uids.get(order.get(i)), 0, uids.get(order.get(i)).length));
+                }
+            }
+
+            ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE + order.size() * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            index.putInt(MAGIC).putInt(VERSION).putInt(order.size()).putInt(index.capacity());
+            File tmp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024)) {
+                // index first with the final offsets, the records follow in the same order
+                int dataSize = 0;
+                for (int i : order) {
+                    byte[] uid = uids.get(i);
+                    int entry = index.position();
+                    index.put((byte) uid.length).put(uid);
+                    index.position(entry + ENTRY_OFFSET);
+                    index.putInt(dataSize);
+                    dataSize += recordSize(assets.get(i));
+                }
+                out.write(index.array());
+                for (int i : order) {
+                    Asset asset = assets.get(i);
+                    writeString(out, asset.getSku());
+                    writeString(out, asset.getDescription());
+                    writeString(out, asset.getLocation());
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot replace catalog " + file);
+            }
+        }
+
+        private static int recordSize(Asset asset) {
+            return 6 + utf8(asset.getSku()).length + utf8(asset.getDescription()).length + utf8(asset.getLocation()).length;
+        }
+
+        private static void writeString(OutputStream out, String value) throws IOException {
+            byte[] bytes = utf8(value);
+            out.write(bytes.length);
+            out.write(bytes.length >>> 8);
+            out.write(bytes);
+        }
+
+        private static byte[] utf8(String value) {
+            byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("Field too long: " + bytes.length + " bytes");
+            }
+            return bytes;
+        }
+    }
+}
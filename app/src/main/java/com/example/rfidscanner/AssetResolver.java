@@ -0,0 +1,134 @@
+package com.example.rfidscanner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves tag ids to catalog assets without ever blocking the caller on I/O. Hits come from
+ * a size bounded LRU cache; a miss returns null right away and the catalog lookup runs on the
+ * io scheduler, which calls back and fills the cache. Concurrent misses for the same tag share
+ * one lookup, and tags missing from the catalog are cached too so they are not looked up on
+ * every read.
+ */
+public final class AssetResolver {
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    // Called on the io scheduler, asset is null when the catalog has no entry for the tag
+    public interface Callback {
+        void onAssetResolved(int tagId, Asset asset);
+    }
+
+    // cached for tags the catalog does not know
+    private static final Asset MISSING = new Asset("", "", "");
+
+    private final TagIdTable tagIds;
+    private final AssetCatalog catalog;
+    private final TaskScheduler io;
+    private final int cacheSize;
+    private final LinkedHashMap<Integer, Asset> cache;
+    private final Map<Integer, List<Callback>> pending = new HashMap<>();
+
+    private long hits;
+    private long misses;
+    private long lookups;
+
+    public AssetResolver(TagIdTable tagIds, AssetCatalog catalog, TaskScheduler io, int cacheSize) {
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("cacheSize must be positive");
+        }
+        this.tagIds = tagIds;
+        this.catalog = catalog;
+        this.io = io;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<Integer, Asset>(Math.min(cacheSize, 1024) * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Asset> eldest) {
+                return size() > AssetResolver.this.cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached asset, or null when it is not cached yet or not in the catalog. On a
+     * miss the lookup is started and callback, if not null, gets the result.
+     */
+    public Asset resolve(int tagId, Callback callback) {
+        synchronized (this) {
+            Asset cached = cache.get(tagId);
+            if (cached != null) {
+                hits++;
+                return cached == MISSING ? null : cached;
+            }
+            misses++;
+            List<Callback> waiting = pending.get(tagId);
+            if (waiting != null) {
+                if (callback != null) {
+                    waiting.add(callback);
+                }
+                return null;
+            }
+            waiting = new ArrayList<>(1);
+            if (callback != null) {
+                waiting.add(callback);
+            }
+            pending.put(tagId, waiting);
+        }
+        io.post(() -> lookup(tagId));
+        return null;
+    }
+
+    // Cached result only, never starts a lookup
+    public synchronized Asset getCached(int tagId) {
+        Asset cached = cache.get(tagId);
+        return cached == MISSING ? null : cached;
+    }
+
+    public synchronized boolean isCached(int tagId) {
+        return cache.containsKey(tagId);
+    }
+
+    private void lookup(int tagId) {
+        byte[] uid = tagIds.uid(tagId);
+        Asset asset = catalog.find(uid, 0, uid.length);
+        List<Callback> waiting;
+        synchronized (this) {
+            lookups++;
+            cache.put(tagId, asset != null ? asset : MISSING);
+            waiting = pending.remove(tagId);
+        }
+        if (waiting != null) {
+            for (Callback callback : waiting) {
+                callback.onAssetResolved(tagId, asset);
+            }
+        }
+    }
+
+    // Pulls the catalog file into memory on the io scheduler so misses are served from RAM
+    public void preload() {
+        io.post(catalog::load);
+    }
+
+    public AssetCatalog getCatalog() {
+        return catalog;
+    }
+
+    public synchronized int cachedTags() {
+        return cache.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // Catalog lookups done on the io scheduler, fewer than misses when lookups were shared
+    public synchronized long getLookups() {
+        return lookups;
+    }
+}
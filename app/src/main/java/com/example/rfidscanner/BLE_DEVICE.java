@@ -19,7 +19,7 @@ public class BLE_DEVICE {
         return name;
     }
     public void setRSSI(int _rssi){
-        this.rssi = rssi;
+        this.rssi = _rssi;
     }
     public int getRSSI(){
         return rssi;
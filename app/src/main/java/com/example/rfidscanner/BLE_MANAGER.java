@@ -1,22 +1,16 @@
 package com.example.rfidscanner;
-import static android.bluetooth.BluetoothDevice.BOND_BONDED;
-import static android.bluetooth.BluetoothDevice.BOND_BONDING;
-import static android.bluetooth.BluetoothDevice.TRANSPORT_LE;
 
 import android.Manifest;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -25,19 +19,22 @@ import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 
-import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.ActivityCompat;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.UUID;
+import java.util.Collections;
+import java.util.List;
 
 public class BLE_MANAGER {
     private static final String TAG = "BLE_MANAGER";
@@ -46,26 +43,260 @@ public class BLE_MANAGER {
     private final BluetoothAdapter btAdapter;
     private final BluetoothLeScanner btScanner;
     private final BLE_STATE btState;
-    BluetoothGatt gatt;
     private static final long SCAN_PERIOD = 10000;
-    ArrayList<BLE_DEVICE> devices;
+    private static final ParcelUuid SERVICE_PARCEL_UUID = new ParcelUuid(BLE_READER.SERVICE_UUID);
+    private final ReaderScanTracker<BluetoothDevice> scanTracker = new ReaderScanTracker<>();
+    private final ConnectTimeline timeline = new ConnectTimeline();
+    private ReaderScanListener scanListener;
+    private boolean autoConnect = true;
+    private volatile boolean scanning;
     BluetoothDevice peripheral;
     Handler bleHandler;
     private boolean peripheralAvailable = false;
 
-    private Queue<Runnable> commandQueue = new LinkedList<>();
-    private boolean commandQueueBusy = false;
+    // GATT commands of all readers run on their own thread so UI jank never delays BLE operations
+    private final HandlerTaskScheduler gattScheduler = new HandlerTaskScheduler("GattWorker");
+    // Merged tag stream is processed here, off the BLE callback threads
+    private final HandlerTaskScheduler ingestScheduler = new HandlerTaskScheduler("TagIngest");
+    // Catalog lookups for asset names, the only place allowed to wait on storage for them
+    private final HandlerTaskScheduler assetScheduler = new HandlerTaskScheduler("AssetLookup");
+    private volatile AssetResolver assetResolver;
+    // Upload batching and the backend requests, so a slow network never holds up sealing batches.
+    // One uploader per process: a manager rebuilt on rotation must not open a second one on the
+    // same outbox, so these threads are never quit.
+    private static final HandlerTaskScheduler uploadScheduler = new HandlerTaskScheduler("TagUpload");
+    private static final HandlerTaskScheduler networkScheduler = new HandlerTaskScheduler("TagUploadNet");
+    private static TagUploader sharedUploader;
+    private volatile TagUploader uploader;
+    private final BLE_READER[] readers = new BLE_READER[TagFanIn.MAX_READERS];
+    private static final int MAX_READS_PER_FRAME = 512;
+    private final TagPipeline pipeline = new TagPipeline(ingestScheduler, UiBatchScheduler.perFrame(), MAX_READS_PER_FRAME);
+    private final BleTransport bleTransport = new BleTransport(this);
+    private final RfidMetrics metrics = new RfidMetrics();
+    private RfidTransport transport = bleTransport;
+    // only touched on the UI thread
+    private TraceRecorder traceRecorder;
+    private NotificationReadPolicy.Mode readMode = NotificationReadPolicy.Mode.STREAMING;
+    private long integrityIntervalMs = NotificationReadPolicy.DEFAULT_INTEGRITY_INTERVAL_MS;
+    private ReaderConnectionListener connectionListener;
+    private int peripheralRssi = TagJournal.RSSI_UNKNOWN;
+    private static final String INVENTORY_FILE = "inventory.snap";
+    private static final String CATALOG_FILE = "assets.catalog";
+
+    private final ReaderStore readerStore;
     private RfidDataListener rfidDataListener;
+    private RfidTagListener rfidTagListener;
+    private RfidBatchListener rfidBatchListener;
+
+    // Scan progress, called on the UI thread
+    public interface ReaderScanListener {
+        void onReaderFound(String name, String address, int rssi);
+
+        void onScanFinished(boolean readerFound);
+    }
+
+    // Connection state of one reader, called on the GATT thread
+    public interface ReaderConnectionListener {
+        void onReaderStateChanged(BLE_READER reader, ReconnectStateMachine.State state, int attempt, long retryDelayMs);
+    }
 
     // Interface for RFID data callbacks
     public interface RfidDataListener {
         void onRfidDataReceived(String data);
     }
 
+    // Variant that receives the compact tag id, use getTagIds() to get the UID bytes or hex string
+    public interface RfidTagListener {
+        void onRfidTagReceived(int tagId);
+    }
+
+    public void setReaderScanListener(ReaderScanListener listener) {
+        this.scanListener = listener;
+    }
+
+    // When enabled the scan connects to the first reader that passes the RSSI threshold
+    public void setAutoConnect(boolean autoConnect) {
+        this.autoConnect = autoConnect;
+    }
+
+    public ConnectTimeline getConnectTimeline() {
+        return timeline;
+    }
+
     public void setRfidDataListener(RfidDataListener listener) {
         this.rfidDataListener = listener;
     }
 
+    public void setRfidTagListener(RfidTagListener listener) {
+        this.rfidTagListener = listener;
+    }
+
+    public void setRfidBatchListener(RfidBatchListener listener) {
+        this.rfidBatchListener = listener;
+    }
+
+    // Shared by the pipeline and every reader's command queue and reconnect state machine
+    public RfidMetrics getMetrics() {
+        return metrics;
+    }
+
+    public TagPipeline getPipeline() {
+        return pipeline;
+    }
+
+    // Null while the catalog is opening or when there is none
+    public AssetResolver getAssetResolver() {
+        return assetResolver;
+    }
+
+    // Null until the snapshot and journal have been loaded on the ingest thread
+    public TagInventory getInventory() {
+        return pipeline.getInventory();
+    }
+
+    // null until the stores are open or when the outbox could not be opened
+    public TagUploader getUploader() {
+        return uploader;
+    }
+
+    // Arrivals and departures of tags in the zone, the listener is called on the ingest thread
+    public TagPresence getPresence() {
+        return pipeline.getPresence();
+    }
+
+    // Reads per second, unique tags and busiest periods, snapshots are cheap enough to poll
+    public TagAnalytics getAnalytics() {
+        return pipeline.getAnalytics();
+    }
+
+    public TagBatchDispatcher getBatchDispatcher() {
+        return pipeline.getBatchDispatcher();
+    }
+
+    // Every read, repeats included, once per frame on the UI thread; for counts and last seen times
+    public void setMergedBatchListener(RfidBatchListener listener) {
+        pipeline.setMergedBatchListener(listener);
+    }
+
+    // Unlike the single listeners above, every subscriber gets its own executor, buffer and overflow policy
+    public TagStream getTagStream() {
+        return pipeline.getTagStream();
+    }
+
+    public TagIdTable getTagIds() {
+        return pipeline.getTagIds();
+    }
+
+    // Receives every dedup event including GONE, called on the ingest thread
+    public void setTagEventListener(TagDeduplicator.Listener listener) {
+        pipeline.setTagEventListener(listener);
+    }
+
+    // Repeated reads of a tag inside windowMs are dropped (DROP) or reported once per window (COLLAPSE)
+    public void setDeduplication(long windowMs, TagDeduplicator.Mode mode) {
+        pipeline.setDeduplication(windowMs, mode);
+    }
+
+    public TagDeduplicator getDeduplicator() {
+        return pipeline.getDeduplicator();
+    }
+
+    /**
+     * Feeds the tag pipeline from another transport, e.g. a SimulatedReader for a load test.
+     * The BLE readers keep their connections but their reads are ignored until
+     * useBleTransport() is called.
+     */
+    public void setTransport(RfidTransport next) {
+        stopTraceCapture();
+        RfidTransport previous = transport;
+        if (previous == bleTransport) {
+            // detach without dropping the connections
+            bleTransport.start(null);
+        } else {
+            previous.stop();
+        }
+        pipeline.stop();
+        transport = next;
+        next.start(pipeline);
+        if (next == bleTransport) {
+            for (BLE_READER reader : getReaders()) {
+                if (reader.isReady()) {
+                    pipeline.onReaderConnected(reader.getReaderId());
+                }
+            }
+        }
+    }
+
+    public void useBleTransport() {
+        setTransport(bleTransport);
+    }
+
+    /**
+     * Records the raw notifications and connection changes of the BLE readers into a trace
+     * file until stopTraceCapture(), so a site's traffic can be replayed with TraceReplayer.
+     */
+    public void startTraceCapture(File file) throws IOException {
+        if (transport != bleTransport) {
+            throw new IllegalStateException("Only the BLE readers can be recorded");
+        }
+        stopTraceCapture();
+        NotificationTrace.Writer writer = new NotificationTrace.Writer(new FileOutputStream(file));
+        TraceRecorder recorder = new TraceRecorder(writer, SystemClock::elapsedRealtimeNanos, pipeline);
+        traceRecorder = recorder;
+        bleTransport.start(recorder);
+        // readers that are already up start the trace, the pipeline ignores the repeated connect
+        for (BLE_READER reader : getReaders()) {
+            if (reader.isReady()) {
+                recorder.onReaderConnected(reader.getReaderId());
+            }
+        }
+        Log.d(TAG, "Recording notifications to " + file);
+    }
+
+    public void stopTraceCapture() {
+        TraceRecorder recorder = traceRecorder;
+        if (recorder == null) {
+            return;
+        }
+        traceRecorder = null;
+        if (transport == bleTransport) {
+            bleTransport.start(pipeline);
+        }
+        try {
+            recorder.close();
+            Log.d(TAG, "Trace closed, " + recorder.getEvents() + " events in " + recorder.getBytes() + " bytes");
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot finish the trace", e);
+        }
+        if (recorder.getError() != null) {
+            Log.e(TAG, "Trace stopped early", recorder.getError());
+        }
+    }
+
+    public boolean isCapturingTrace() {
+        return traceRecorder != null;
+    }
+
+    private void onRfidBatch(TagReadBatch batch) {
+        if (rfidBatchListener != null) {
+            rfidBatchListener.onRfidBatch(batch);
+        }
+        if (rfidTagListener == null && rfidDataListener == null) {
+            return;
+        }
+        // The per read listeners still see every read, but from one main thread message per frame
+        for (int i = 0; i < batch.size(); i++) {
+            int tagId = batch.tagId(i);
+            if (rfidTagListener != null) {
+                rfidTagListener.onRfidTagReceived(tagId);
+            }
+            if (rfidDataListener != null) {
+                // The hex string is only built once per tag and cached in the table
+                rfidDataListener.onRfidDataReceived(pipeline.getTagIds().hex(tagId));
+            }
+        }
+    }
+
     public BLE_MANAGER(Activity _activity) {
         context = _activity.getApplicationContext();
         activity = _activity;
@@ -74,6 +305,119 @@ public class BLE_MANAGER {
         btScanner = btAdapter.getBluetoothLeScanner();
         btState = new BLE_STATE(context);
         bleHandler = new Handler(Looper.getMainLooper());
+        pipeline.setMetrics(metrics);
+        pipeline.setBatchListener(this::onRfidBatch);
+        pipeline.setPresence(new TagPresence());
+        pipeline.setAnalytics(new TagAnalytics());
+        ReaderDiscoveryService.setAppHandoff(this::onReaderAppeared);
+        bleTransport.start(pipeline);
+        readerStore = new ReaderStore(context);
+        // recovery scans the last segment and the inventory snapshot, keep that disk work off the UI thread
+        ingestScheduler.post(this::openStores);
+        assetScheduler.post(this::openCatalog);
+    }
+
+    // The catalog is provisioned into files/ by the asset system export, without it reads stay hex only
+    private void openCatalog() {
+        File file = new File(context.getFilesDir(), CATALOG_FILE);
+        if (!file.exists()) {
+            Log.d(TAG, "No asset catalog, showing raw UIDs");
+            return;
+        }
+        try {
+            AssetCatalog catalog = AssetCatalog.open(file);
+            AssetResolver resolver = new AssetResolver(pipeline.getTagIds(), catalog, assetScheduler, AssetResolver.DEFAULT_CACHE_SIZE);
+            resolver.preload();
+            Log.d(TAG, "Asset catalog opened with " + catalog.size() + " entries");
+            assetResolver = resolver;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open the asset catalog", e);
+        }
+    }
+
+    private void openStores() {
+        File files = context.getFilesDir();
+        TagUploader upload = sharedUploader(context);
+        TagInventory inventory = new TagInventory(pipeline.getTagIds());
+        long snapshotMs = 0;
+        try {
+            snapshotMs = inventory.restore(new File(files, INVENTORY_FILE));
+        } catch (IOException e) {
+            Log.w(TAG, "Inventory snapshot unusable, rebuilding from the journal", e);
+        }
+        try {
+            TagJournal journal = new TagJournal(new File(files, "journal"),
+                    TagJournal.DEFAULT_SEGMENT_SIZE, TagJournal.DEFAULT_MAX_SEGMENTS, ingestScheduler);
+            Log.d(TAG, "Journal opened, " + journal.getRecoveredRecords() + " reads recovered, "
+                    + journal.getTruncatedBytes() + " torn bytes dropped");
+            // only what happened after the snapshot; the journal holds deduplicated reads, so
+            // read counts of that stretch are per dedup window rather than per notification
+            long since = snapshotMs;
+            // reads the uploader has not seen are only left in the journal; after a rotation it
+            // still buffers what the previous manager gave it. By position, not time, as a frame
+            // puts many reads in the same millisecond. A cursor past the end means the journal
+            // was lost, everything in the new one is unsent.
+            long recorded = upload == null ? Long.MAX_VALUE : upload.getRecordedThroughPosition();
+            long unsentAfter = upload != null && recorded > journal.getPosition() ? 0 : recorded;
+            journal.replay((position, timeMs, readerId, rssi, uid, offset, length) -> {
+                if (timeMs > since) {
+                    inventory.record(readerId, uid, offset, length, timeMs);
+                }
+                if (position > unsentAfter) {
+                    upload.record(readerId, uid, offset, length, timeMs, position);
+                }
+            });
+            pipeline.setJournal(journal);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open the tag journal, reads are not persisted", e);
+        }
+        Log.d(TAG, "Inventory ready with " + inventory.size() + " tags");
+        pipeline.setInventory(inventory);
+        if (upload != null) {
+            // still on the ingest thread, nothing was journaled between the replay and this
+            pipeline.setUploader(upload);
+            uploader = upload;
+        }
+    }
+
+    // Without a backend URL batches still collect in the outbox, up to TagUploader.MAX_OUTBOX_BATCHES
+    private static synchronized TagUploader sharedUploader(Context context) {
+        if (sharedUploader == null) {
+            sharedUploader = openUploader(context, new File(context.getFilesDir(), "upload"));
+        }
+        return sharedUploader;
+    }
+
+    private static TagUploader openUploader(Context context, File dir) {
+        TagUploader.Sender sender = null;
+        String url = context.getString(R.string.upload_url);
+        if (!url.isEmpty()) {
+            try {
+                sender = new HttpBatchSender(new URL(url));
+            } catch (MalformedURLException e) {
+                Log.e(TAG, "Invalid upload URL " + url, e);
+            }
+        }
+        try {
+            TagUploader upload = new TagUploader(dir, uploadScheduler, networkScheduler, sender);
+            Log.d(TAG, "Uploader opened, " + upload.getPendingBatches() + " batches waiting");
+            return upload;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open the upload outbox, reads are not uploaded", e);
+            return null;
+        }
+    }
+
+    private void saveInventory() {
+        TagInventory inventory = pipeline.getInventory();
+        if (inventory == null) {
+            return;
+        }
+        try {
+            inventory.save(new File(context.getFilesDir(), INVENTORY_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot save the inventory snapshot", e);
+        }
     }
 
     @RequiresApi(api = Build.VERSION_CODES.M)
@@ -89,209 +433,309 @@ public class BLE_MANAGER {
         }
 
         Log.d(TAG, "Peripheral available, attempting to connect devices");
-        gatt = peripheral.connectGatt(context, false, gattCallback, TRANSPORT_LE);
+        BLE_READER reader = addReader(peripheral.getAddress());
+        if (reader != null) {
+            pipeline.setReaderRssi(reader.getReaderId(), peripheralRssi);
+            reader.connect();
+        }
     }
 
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            super.onConnectionStateChange(gatt, status, newState);
+    // Connects straight to the readers that worked before, returns how many were started
+    public int connectKnownReaders() {
+        int started = 0;
+        for (String address : readerStore.getKnownAddresses()) {
+            if (!BluetoothAdapter.checkBluetoothAddress(address)) {
+                continue;
+            }
+            BLE_READER reader = addReader(address);
+            if (reader == null) {
+                break;
+            }
+            if (started == 0) {
+                timeline.start(SystemClock.elapsedRealtime());
+            }
+            Log.d(TAG, "Reconnecting to reader " + address + " without scanning");
+            reader.connect();
+            started++;
+        }
+        return started;
+    }
 
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                Log.d(TAG, "Connected to GATT server.");
-                // Attempts to discover services after successful connection.
-                if (ActivityCompat.checkSelfPermission(activity, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-                    requestPermissions();
-                    return;
-                }
-                int bondState = peripheral.getBondState();
-                //
-                // If BOND_BONDING: bonding is in progress, don't call discoverServices()
-                if (bondState == BluetoothDevice.BOND_NONE || bondState == BOND_BONDED) {
-                    int delayWhenBonded = 0;
-                    //for some version need to
-                    if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.N) {
-                        delayWhenBonded = 1000;
+    public String getLastReaderName() {
+        return readerStore.getLastName();
+    }
+
+    /**
+     * Registers a reader and gives it the next free reader id, or returns the existing one for
+     * that address. Returns null when all TagFanIn.MAX_READERS slots are taken.
+     */
+    public BLE_READER addReader(String address) {
+        synchronized (readers) {
+            int free = -1;
+            for (int id = 0; id < readers.length; id++) {
+                if (readers[id] == null) {
+                    if (free < 0) {
+                        free = id;
                     }
-                    final int delay = bondState == BOND_BONDED ? delayWhenBonded : 0;
-
-                    Runnable discoveryServicesRunnable = new Runnable() {
-                        @Override
-                        public void run() {
-                            if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                                requestPermissions();
-                                return;
-                            }
-                            boolean success = gatt.discoverServices();
-                            if (!success) {
-                                Log.d(TAG, "DiscoveryServiceRunnable: discoverServices failed to start");
-                            }
-                        }
-                    };
-                    bleHandler.postDelayed(discoveryServicesRunnable, delay);
-                } else if (bondState == BOND_BONDING) {
-                    Log.d(TAG, "Waiting for bonding to complete");
+                } else if (readers[id].getAddress().equals(address)) {
+                    return readers[id];
                 }
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                Log.d(TAG, "Disconnected from GATT server.");
-                gatt.close();
             }
+            if (free < 0) {
+                Log.d(TAG, "Reader limit reached, ignoring " + address);
+                return null;
+            }
+            BLE_READER reader = new BLE_READER(this, free, address, gattScheduler);
+            reader.setNotificationReadPolicy(new NotificationReadPolicy(readMode, integrityIntervalMs));
+            pipeline.addReader(free);
+            readers[free] = reader;
+            return reader;
         }
+    }
 
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            super.onServicesDiscovered(gatt, status);
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                // ESP32 Service and Characteristic UUIDs
-                UUID serviceUUID = UUID.fromString("4fafc201-1fb5-459e-8fcc-c5c9c331914b");
-                UUID characteristicUUID = UUID.fromString("beb5483e-36e1-4688-b7f5-ea07361b26a8");
-
-                // get the ble gatt service
-                BluetoothGattService service = gatt.getService(serviceUUID);
-                if (service != null) {
-                    //get the characteristic
-                    BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUUID);
-
-                    if (characteristic != null) {
-                        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                            requestPermissions();
-                            return;
-                        }
-                        gatt.setCharacteristicNotification(characteristic, true);
-                        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"));
-                        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                        gatt.writeDescriptor(descriptor);
-                    } else {
-                        Log.d(TAG, "Characteristic not found");
-                    }
-                } else {
-                    Log.d(TAG, "Service not found");
+    public void removeReader(int readerId) {
+        BLE_READER reader;
+        synchronized (readers) {
+            reader = readers[readerId];
+            readers[readerId] = null;
+        }
+        if (reader != null) {
+            reader.disconnect();
+            pipeline.removeReader(readerId);
+        }
+    }
+
+    public BLE_READER getReader(int readerId) {
+        synchronized (readers) {
+            return readers[readerId];
+        }
+    }
+
+    public List<BLE_READER> getReaders() {
+        List<BLE_READER> list = new ArrayList<>();
+        synchronized (readers) {
+            for (BLE_READER reader : readers) {
+                if (reader != null) {
+                    list.add(reader);
                 }
-            } else {
-                Log.d(TAG, "Service discovery failed with status: " + status);
             }
         }
+        return list;
+    }
 
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                // The data is contained in the characteristic's value
-                byte[] data = characteristic.getValue();
-                int value = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt();
-            } else {
-                Log.d(TAG, "Failed to read characteristic");
-            }
-            completedCommand();
+    /**
+     * Reads sectors of a MIFARE Classic card on the reader's antenna, an empty uid takes
+     * whatever card is there. Results arrive in sector order on the GATT thread, to this
+     * listener only, also while other reads of the same reader are outstanding.
+     */
+    public boolean readCardSectors(int readerId, byte[] uid, int firstSector, int lastSector, CardMemoryReader.Listener listener) {
+        if (firstSector < 0 || lastSector >= CardMemoryReader.SECTOR_COUNT || uid.length > CardMemoryReader.MAX_UID_LENGTH) {
+            // checked here, on the GATT thread it would take the worker down
+            throw new IllegalArgumentException("Invalid sector range or UID");
+        }
+        BLE_READER reader = getReader(readerId);
+        if (reader == null) {
+            return false;
         }
+        byte[] copy = uid.clone();
+        gattScheduler.post(() -> reader.getCardMemoryReader().readSectors(copy, firstSector, lastSector, listener));
+        return true;
+    }
 
-        @Override
-        public void onCharacteristicChanged(@NonNull BluetoothGatt gatt, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
-            super.onCharacteristicChanged(gatt, characteristic, value);
+    public TagFanIn getFanIn() {
+        return pipeline.getFanIn();
+    }
 
-            StringBuilder stringValue = new StringBuilder();
-            for (byte b : value) {
-                stringValue.append(String.format("%02X ", b));
-            }
-            String rfidData = stringValue.toString().trim();
-            Log.d(TAG, "NFC TAG: " + rfidData);
-
-            boolean success = readCharacteristic(characteristic);
-            if(success){
-                nextCommand();
-            } else {
-                Log.d(TAG, "Failed to receive data");
-            }
+    // Drops all connections and stops reconnecting
+    public void disconnect() {
+        for (BLE_READER reader : getReaders()) {
+            reader.disconnect();
+        }
+    }
 
-            // Notify listener of the new RFID data
-            if (rfidDataListener != null) {
-                // Using handler to make sure it runs on UI thread
-                bleHandler.post(() -> rfidDataListener.onRfidDataReceived(rfidData));
-            }
+    public void setConnectionListener(ReaderConnectionListener listener) {
+        this.connectionListener = listener;
+    }
+
+    // NotificationReadPolicy.Mode.READ_AFTER_NOTIFY restores the extra read after every notification
+    public void setNotificationReadPolicy(NotificationReadPolicy.Mode mode, long integrityIntervalMs) {
+        this.readMode = mode;
+        this.integrityIntervalMs = integrityIntervalMs;
+        for (BLE_READER reader : getReaders()) {
+            reader.setNotificationReadPolicy(new NotificationReadPolicy(mode, integrityIntervalMs));
         }
-    };
+    }
+
+    void onReaderStateChanged(BLE_READER reader, ReconnectStateMachine.State state, int attempt, long retryDelayMs) {
+        if (connectionListener != null) {
+            connectionListener.onReaderStateChanged(reader, state, attempt, retryDelayMs);
+        }
+    }
+
+    void onReaderReady(BLE_READER reader, BluetoothDevice device) {
+        if (hasConnectPermission()) {
+            readerStore.saveReader(device.getAddress(), device.getName());
+        }
+        bleTransport.onReaderConnected(reader.getReaderId());
+    }
+
+    void onReaderDisconnected(BLE_READER reader) {
+        bleTransport.onReaderDisconnected(reader.getReaderId());
+    }
+
+    // Called on the BLE callback thread of the reader, everything after the fan-in runs on the ingest thread
+    void onNotification(int readerId, byte[] value, long nowMs) {
+        if (timeline.mark(ConnectTimeline.Step.FIRST_TAG, nowMs)) {
+            metrics.recordScanToFirstTag(timeline.elapsedMs(ConnectTimeline.Step.FIRST_TAG));
+            Log.d(TAG, "Time to first tag: " + timeline.elapsedMs(ConnectTimeline.Step.FIRST_TAG) + "ms (" + timeline.summary() + ")");
+        }
+        bleTransport.onNotification(readerId, value, nowMs);
+    }
+
+    BluetoothDevice getRemoteDevice(String address) {
+        return btAdapter.getRemoteDevice(address);
+    }
 
     public void startScan() {
         Log.d(TAG, "Scanning started");
-        devices = new ArrayList<>();
+        scanTracker.clear();
+        for (BLE_READER reader : getReaders()) {
+            // already connected, keep looking for another one
+            scanTracker.ignore(reader.getAddress());
+        }
+        peripheralAvailable = false;
+        timeline.start(SystemClock.elapsedRealtime());
         AsyncTask.execute(new Runnable() {
             @Override
             public void run() {
-                if (ActivityCompat.checkSelfPermission(activity, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
+                // CONNECT as well since results read the device name, checked once here rather than per advertisement
+                if (ActivityCompat.checkSelfPermission(activity, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED
+                        || ActivityCompat.checkSelfPermission(activity, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
                     requestPermissions();
                     return;
                 }
-                btScanner.startScan(leScanCallback);
-
-                // Stop scanning after SCAN_PERIOD
-                bleHandler.postDelayed(() -> stopScan(), SCAN_PERIOD);
+                // Filter on the reader service so the controller drops every other advertisement
+                List<ScanFilter> filters = Collections.singletonList(
+                        new ScanFilter.Builder().setServiceUuid(SERVICE_PARCEL_UUID).build());
+                ScanSettings settings = new ScanSettings.Builder()
+                        .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                        .build();
+                scanning = true;
+                btScanner.startScan(filters, settings, leScanCallback);
+
+                // Stop scanning after SCAN_PERIOD if no reader showed up
+                bleHandler.postDelayed(scanTimeout, SCAN_PERIOD);
             }
         });
     }
 
-    public boolean readCharacteristic(final BluetoothGattCharacteristic characteristic) {
-        if (gatt == null) {
-            Log.d(TAG, "ERROR: Gatt is 'null', ignoring read request");
-            return false;
+    private final Runnable scanTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (!scanning) {
+                return;
+            }
+            stopScan();
+            showDevices();
+            if (scanListener != null) {
+                scanListener.onScanFinished(peripheralAvailable);
+            }
         }
-        if (characteristic == null) {
-            Log.d(TAG, "ERROR: Characteristic is 'null', ignoring read request");
-            return false;
+    };
+
+    // Runs on the UI thread when a reader passed the RSSI threshold
+    private void onReaderMatched(ReaderScanTracker.Entry<BluetoothDevice> reader) {
+        if (!scanning) {
+            return;
         }
-        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) == 0) {
-            Log.d(TAG, "ERROR: Characteristic cannot be read");
-            return false;
+        stopScan();
+        peripheral = reader.getDevice();
+        peripheralRssi = reader.getRssi();
+        peripheralAvailable = true;
+        timeline.mark(ConnectTimeline.Step.READER_FOUND, SystemClock.elapsedRealtime());
+        Log.d(TAG, "Reader found after " + timeline.elapsedMs(ConnectTimeline.Step.READER_FOUND) + "ms: " + reader.getAddress() + " rssi: " + reader.getRssi());
+        if (scanListener != null) {
+            scanListener.onReaderFound(reader.getName(), reader.getAddress(), reader.getRssi());
+            scanListener.onScanFinished(true);
         }
-        return commandQueue.add(new Runnable() {
-            @Override
-            public void run() {
-                if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                    requestPermissions();
-                    return;
-                }
-                if (!gatt.readCharacteristic(characteristic)) {
-                    completedCommand();
-                } else {
-                    Log.d(TAG, String.format("Reading characteristic <%s>", characteristic.getUuid()));
-                    nextCommand();
-                }
+        if (autoConnect && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            connectPeripheral();
+        }
+    }
+
+    /**
+     * Keeps looking for a reader at low power while the app is in the background, returns
+     * false when a reader is streaming and there is nothing to look for.
+     */
+    public boolean startBackgroundDiscovery() {
+        List<String> ignored = new ArrayList<>();
+        for (BLE_READER reader : getReaders()) {
+            if (reader.isReady()) {
+                return false;
             }
-        });
+            // reconnecting by itself
+            ignored.add(reader.getAddress());
+        }
+        ReaderDiscoveryService.start(context, ignored);
+        return true;
     }
 
-    private void nextCommand() {
-        if(commandQueueBusy) {
-            return;
+    public void stopBackgroundDiscovery() {
+        ReaderDiscoveryService.stop(context);
+    }
+
+    // A reader found by ReaderDiscoveryService, runs on the UI thread
+    private void onReaderAppeared(ReaderScanTracker.Entry<BluetoothDevice> reader) {
+        peripheral = reader.getDevice();
+        peripheralRssi = reader.getRssi();
+        peripheralAvailable = true;
+        Log.d(TAG, "Background discovery found " + reader.getAddress() + " rssi: " + reader.getRssi());
+        if (scanListener != null) {
+            scanListener.onReaderFound(reader.getName(), reader.getAddress(), reader.getRssi());
         }
-        if (gatt == null) {
-            Log.d(TAG, String.format("ERROR: GATT is 'null' for peripheral '%s', clearing command queue", peripheral.getAddress()));
-            commandQueue.clear();
-            commandQueueBusy = false;
-            return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            connectPeripheral();
         }
-        if (commandQueue.size() > 0) {
-            final Runnable bluetoothCommand = commandQueue.peek();
-            commandQueueBusy = true;
-            bleHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        bluetoothCommand.run();
-                    } catch (Exception ex) {
-                        Log.d(TAG, String.format("ERROR: Command exception for device '%s'", peripheral.getAddress()));
-                    }
-                }
-            });
+    }
+
+    // Permission check usable from the GATT thread, the request itself is made on the main thread
+    boolean hasConnectPermission() {
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+            bleHandler.post(this::requestPermissions);
+            return false;
         }
+        return true;
     }
 
-    private void completedCommand() {
-        commandQueueBusy = false;
-        commandQueue.poll();
-        nextCommand();
+    // Stops the worker threads, the manager cannot be used afterwards
+    public void close() {
+        stopTraceCapture();
+        if (transport != bleTransport) {
+            transport.stop();
+        }
+        ReaderDiscoveryService.setAppHandoff(null);
+        disconnect();
+        pipeline.stop();
+        pipeline.getTagStream().close();
+        // before the journal closes, later reads are only journaled and the next manager replays them;
+        // the uploader stays open for it and its age timer seals what is still buffered
+        pipeline.setUploader(null);
+        TagJournal journal = pipeline.getJournal();
+        if (journal != null) {
+            // commits what is still pending, reads arriving afterwards are counted as journal errors
+            journal.close();
+        }
+        // runs before the ingest thread quits, quitSafely() still delivers it
+        ingestScheduler.post(this::saveInventory);
+        gattScheduler.quit();
+        ingestScheduler.quit();
+        assetScheduler.quit();
     }
 
     public void stopScan() {
         Log.d(TAG, "Scan Stopping");
+        scanning = false;
+        bleHandler.removeCallbacks(scanTimeout);
         AsyncTask.execute(() -> {
             if (ActivityCompat.checkSelfPermission(activity, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
                 requestPermissions();
@@ -301,20 +745,33 @@ public class BLE_MANAGER {
         });
     }
 
+    // One entry per address with the smoothed RSSI
+    public List<BLE_DEVICE> getDevices() {
+        List<BLE_DEVICE> devices = new ArrayList<>();
+        for (ReaderScanTracker.Entry<BluetoothDevice> entry : scanTracker.getEntries()) {
+            devices.add(new BLE_DEVICE(entry.getDevice(), entry.getName(), entry.getRssi()));
+        }
+        return devices;
+    }
+
     public void showDevices() {
+        List<BLE_DEVICE> devices = getDevices();
         if (devices.size() != 0) {
+            BLE_DEVICE strongest = null;
             for (BLE_DEVICE device : devices) {
-                String name = device.getName();
-                String deviceInfo = "Device Name: " + name + " Address: " + device.getAddress() + " rssi: " + device.getRSSI() + "\n";
+                String deviceInfo = "Device Name: " + device.getName() + " Address: " + device.getAddress() + " rssi: " + device.getRSSI() + "\n";
                 Log.d(TAG, deviceInfo);
 
-                // Make sure null string pass because it will have a null pointer exception
-                if(name == null) continue;
-                if(name.equals("ESP32")) {
-                    peripheralAvailable = true;
-                    peripheral = device.getDevice();
+                // The scan filter only lets readers through, so any of them will do
+                if (strongest == null || device.getRSSI() > strongest.getRSSI()) {
+                    strongest = device;
                 }
             }
+            if (!peripheralAvailable) {
+                peripheralAvailable = true;
+                peripheral = strongest.getDevice();
+                peripheralRssi = strongest.getRSSI();
+            }
         } else {
             Log.d(TAG, "No devices found");
         }
@@ -324,17 +781,25 @@ public class BLE_MANAGER {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
             super.onScanResult(callbackType, result);
-            if (ActivityCompat.checkSelfPermission(activity, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                requestPermissions();
-                return;
+            BluetoothDevice device = result.getDevice();
+            ScanRecord record = result.getScanRecord();
+            boolean isReader = record != null && record.getServiceUuids() != null
+                    && record.getServiceUuids().contains(SERVICE_PARCEL_UUID);
+            ReaderScanTracker.Entry<BluetoothDevice> match = scanTracker.onAdvertisement(device.getAddress(),
+                    device.getName(), result.getRssi(), isReader, device, SystemClock.elapsedRealtime());
+            if (match != null) {
+                bleHandler.post(() -> onReaderMatched(match));
             }
-            BLE_DEVICE device = new BLE_DEVICE(result.getDevice(), result.getDevice().getName(), result.getRssi());
-            devices.add(device);
         }
 
         public void onScanFailed(int errorCode) {
             Log.d(TAG, "onScanFailed: scan failed");
             stopScan();
+            bleHandler.post(() -> {
+                if (scanListener != null) {
+                    scanListener.onScanFinished(false);
+                }
+            });
         }
     };
 
@@ -0,0 +1,413 @@
+package com.example.rfidscanner;
+import static android.bluetooth.BluetoothDevice.BOND_BONDED;
+import static android.bluetooth.BluetoothDevice.BOND_BONDING;
+import static android.bluetooth.BluetoothDevice.TRANSPORT_LE;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One connected ESP32 reader: its own GATT connection, command queue, reconnect state machine and counters.
+// Notifications are handed to BLE_MANAGER, which merges all readers into one tag stream.
+public class BLE_READER {
+    private static final String TAG = "BLE_READER";
+    // ESP32 Service and Characteristic UUIDs
+    static final UUID SERVICE_UUID = UUID.fromString("4fafc201-1fb5-459e-8fcc-c5c9c331914b");
+    static final UUID CHARACTERISTIC_UUID = UUID.fromString("beb5483e-36e1-4688-b7f5-ea07361b26a8");
+    private static final UUID CCCD_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    // Largest ATT MTU the ESP32 stack accepts, room for about 20 UIDs per notification frame
+    static final int REQUESTED_MTU = 247;
+    private static final int DEFAULT_MTU = 23;
+
+    private final BLE_MANAGER manager;
+    private final int readerId;
+    private final String address;
+    private final TaskScheduler gattScheduler;
+    private final GattCommandQueue commandQueue;
+    // token of the command handed to the stack last, see GattCommandQueue
+    private final AtomicLong gattToken = new AtomicLong();
+    private final ReconnectStateMachine reconnect;
+    private volatile NotificationReadPolicy readPolicy = NotificationReadPolicy.streaming();
+    private final CardMemoryReader cardReader;
+
+    private volatile BluetoothGatt gatt;
+    // Characteristic from the last discovery, valid as long as the same BluetoothGatt is reused
+    private volatile BluetoothGattCharacteristic rfidCharacteristic;
+    private volatile boolean usingCachedHandles;
+
+    private volatile int mtu = DEFAULT_MTU;
+    private volatile long notifications;
+    private volatile long invalidPayloads;
+
+    BLE_READER(BLE_MANAGER manager, int readerId, String address, TaskScheduler gattScheduler) {
+        this.manager = manager;
+        this.readerId = readerId;
+        this.address = address;
+        this.gattScheduler = gattScheduler;
+        this.commandQueue = new GattCommandQueue(gattScheduler);
+        this.commandQueue.setMetrics(manager.getMetrics());
+        this.reconnect = new ReconnectStateMachine(gattScheduler, connector);
+        this.reconnect.setMetrics(manager.getMetrics());
+        this.reconnect.setListener((state, attempt, retryDelayMs) ->
+                manager.onReaderStateChanged(this, state, attempt, retryDelayMs));
+        this.cardReader = new CardMemoryReader(gattScheduler, this::writeRequest);
+    }
+
+    public int getReaderId() {
+        return readerId;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public GattCommandQueue getCommandQueue() {
+        return commandQueue;
+    }
+
+    public ReconnectStateMachine getReconnectStateMachine() {
+        return reconnect;
+    }
+
+    public NotificationReadPolicy getNotificationReadPolicy() {
+        return readPolicy;
+    }
+
+    public void setNotificationReadPolicy(NotificationReadPolicy policy) {
+        this.readPolicy = policy;
+    }
+
+    // Negotiated ATT MTU of the current connection, notifications carry up to mtu - 3 bytes
+    public int getMtu() {
+        return mtu;
+    }
+
+    public long getNotifications() {
+        return notifications;
+    }
+
+    public long getInvalidPayloads() {
+        return invalidPayloads;
+    }
+
+    // Sector reads of the card on this reader's antenna, only use it on the GATT thread
+    public CardMemoryReader getCardMemoryReader() {
+        return cardReader;
+    }
+
+    public boolean isReady() {
+        return reconnect.getState() == ReconnectStateMachine.State.READY;
+    }
+
+    // Connects and keeps reconnecting until disconnect()
+    public void connect() {
+        reconnect.start(address);
+    }
+
+    public void disconnect() {
+        reconnect.stop();
+        commandQueue.clear();
+        gattScheduler.post(cardReader::cancel);
+    }
+
+    // Called by the state machine on the GATT thread for every attempt
+    private final ReconnectStateMachine.Connector connector = new ReconnectStateMachine.Connector() {
+        @Override
+        public void connect(String address, int attempt) {
+            if (!manager.hasConnectPermission()) {
+                reconnect.onDisconnected();
+                return;
+            }
+            BluetoothGatt current = gatt;
+            if (current != null && attempt == 1) {
+                // Reusing the BluetoothGatt keeps its service list, so setup can skip discovery
+                if (current.connect()) {
+                    return;
+                }
+            }
+            if (current != null) {
+                current.close();
+            }
+            rfidCharacteristic = null;
+            BluetoothDevice device = manager.getRemoteDevice(address);
+            gatt = device.connectGatt(manager.context, false, gattCallback, TRANSPORT_LE);
+            if (gatt == null) {
+                reconnect.onDisconnected();
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            BluetoothGatt current = gatt;
+            gatt = null;
+            rfidCharacteristic = null;
+            if (current != null && manager.hasConnectPermission()) {
+                current.disconnect();
+                current.close();
+            }
+        }
+    };
+
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            super.onConnectionStateChange(gatt, status, newState);
+
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                Log.d(TAG, "Reader " + readerId + ": connected to GATT server.");
+                manager.getConnectTimeline().mark(ConnectTimeline.Step.CONNECTED, SystemClock.elapsedRealtime());
+                reconnect.onConnected();
+                if (!manager.hasConnectPermission()) {
+                    return;
+                }
+                mtu = DEFAULT_MTU;
+                requestMtu(gatt);
+                BluetoothGattCharacteristic cached = rfidCharacteristic;
+                if (cached != null && gatt.getService(SERVICE_UUID) != null) {
+                    // Same BluetoothGatt as before the drop, the handles are still valid
+                    Log.d(TAG, "Reader " + readerId + ": using cached service handles, skipping discovery");
+                    usingCachedHandles = true;
+                    enableNotifications(gatt, cached);
+                    return;
+                }
+                usingCachedHandles = false;
+                int bondState = gatt.getDevice().getBondState();
+                //
+                // If BOND_BONDING: bonding is in progress, don't call discoverServices()
+                if (bondState == BluetoothDevice.BOND_NONE || bondState == BOND_BONDED) {
+                    int delayWhenBonded = 0;
+                    //for some version need to
+                    if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.N) {
+                        delayWhenBonded = 1000;
+                    }
+                    final int delay = bondState == BOND_BONDED ? delayWhenBonded : 0;
+
+                    GattCommand discoverServices = command(GattCommand.Type.DISCOVER_SERVICES, () -> {
+                        if (!manager.hasConnectPermission()) {
+                            return false;
+                        }
+                        boolean success = gatt.discoverServices();
+                        if (!success) {
+                            Log.d(TAG, "DiscoverServices: discoverServices failed to start");
+                        }
+                        return success;
+                    });
+                    gattScheduler.postDelayed(() -> commandQueue.enqueue(discoverServices), delay);
+                } else if (bondState == BOND_BONDING) {
+                    Log.d(TAG, "Waiting for bonding to complete");
+                }
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                Log.d(TAG, "Reader " + readerId + ": disconnected from GATT server, status: " + status);
+                commandQueue.clear();
+                gattScheduler.post(cardReader::onDisconnected);
+                manager.onReaderDisconnected(BLE_READER.this);
+                // The gatt object is kept open so the state machine can reconnect with its cached handles
+                reconnect.onDisconnected();
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            super.onMtuChanged(gatt, mtu, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                BLE_READER.this.mtu = mtu;
+                Log.d(TAG, "Reader " + readerId + ": MTU " + mtu);
+            }
+            completed(GattCommand.Type.REQUEST_MTU, status);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            super.onServicesDiscovered(gatt, status);
+            completed(GattCommand.Type.DISCOVER_SERVICES, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                // get the ble gatt service
+                BluetoothGattService service = gatt.getService(SERVICE_UUID);
+                if (service != null) {
+                    //get the characteristic
+                    BluetoothGattCharacteristic characteristic = service.getCharacteristic(CHARACTERISTIC_UUID);
+
+                    if (characteristic != null) {
+                        rfidCharacteristic = characteristic;
+                        enableNotifications(gatt, characteristic);
+                    } else {
+                        Log.d(TAG, "Characteristic not found");
+                    }
+                } else {
+                    Log.d(TAG, "Service not found");
+                }
+            } else {
+                Log.d(TAG, "Service discovery failed with status: " + status);
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                // The data is contained in the characteristic's value
+                byte[] data = characteristic.getValue();
+                if (!readPolicy.onReadResult(data)) {
+                    Log.d(TAG, "Integrity check: characteristic holds a value that was never notified");
+                }
+            } else {
+                Log.d(TAG, "Failed to read characteristic");
+            }
+            completed(GattCommand.Type.READ_CHARACTERISTIC, status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicWrite(gatt, characteristic, status);
+            completed(GattCommand.Type.WRITE_CHARACTERISTIC, status);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            super.onDescriptorWrite(gatt, descriptor, status);
+            completed(GattCommand.Type.WRITE_DESCRIPTOR, status);
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "Descriptor write failed with status: " + status);
+                if (usingCachedHandles) {
+                    // The cached handles went stale, fall back to a full discovery
+                    usingCachedHandles = false;
+                    rfidCharacteristic = null;
+                    commandQueue.enqueue(command(GattCommand.Type.DISCOVER_SERVICES,
+                            () -> manager.hasConnectPermission() && gatt.discoverServices()));
+                }
+                return;
+            }
+            ConnectTimeline timeline = manager.getConnectTimeline();
+            if (timeline.mark(ConnectTimeline.Step.NOTIFICATIONS_ENABLED, SystemClock.elapsedRealtime())) {
+                manager.getMetrics().recordScanToConnect(timeline.elapsedMs(ConnectTimeline.Step.NOTIFICATIONS_ENABLED));
+            }
+            reconnect.onReady();
+            gattScheduler.post(cardReader::onConnected);
+            manager.onReaderReady(BLE_READER.this, gatt.getDevice());
+        }
+
+        @Override
+        public void onCharacteristicChanged(@NonNull BluetoothGatt gatt, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+            super.onCharacteristicChanged(gatt, characteristic, value);
+            notifications++;
+
+            if (value.length == 0) {
+                invalidPayloads++;
+                Log.d(TAG, "Ignoring empty notification");
+                return;
+            }
+            // Response chunks never reach the tag pipeline, even late ones after a timeout or a
+            // cancel, which the card reader drops and counts as stale. A legacy UID would need
+            // manufacturer code 0xB2 in its first byte to be taken for one, 4 byte UIDs are too short.
+            if (CardMemoryReader.isResponse(value, 0, value.length)) {
+                // still the characteristic's value, an integrity read may return it
+                readPolicy.onRoutedNotification(value, 0, value.length);
+                // the array is not reused by the stack, no copy needed
+                gattScheduler.post(() -> cardReader.onNotification(value, 0, value.length));
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            manager.onNotification(readerId, value, now);
+
+            // In streaming mode the payload is trusted and the characteristic is only read for the integrity check
+            if (readPolicy.onNotification(value, 0, value.length, now)) {
+                boolean success = readCharacteristic(characteristic);
+                if (!success) {
+                    Log.d(TAG, "Failed to receive data");
+                }
+            }
+        }
+    };
+
+    // Remembers the token the command starts under, its callback hands it back to the queue
+    private GattCommand command(GattCommand.Type type, GattCommand.Action action) {
+        return new GattCommand(type, () -> {
+            gattToken.set(commandQueue.getRunningToken());
+            return action.start();
+        });
+    }
+
+    // The stack runs one operation at a time, so a callback belongs to the last one it accepted
+    private void completed(GattCommand.Type type, int status) {
+        commandQueue.onCommandCompleted(type, gattToken.getAndSet(0), status == BluetoothGatt.GATT_SUCCESS);
+    }
+
+    // A larger MTU lets the firmware pack several UIDs into one notification frame.
+    // Queued ahead of discovery, both are CONNECTION priority and run in order.
+    private void requestMtu(BluetoothGatt gatt) {
+        commandQueue.enqueue(command(GattCommand.Type.REQUEST_MTU, () ->
+                manager.hasConnectPermission() && gatt.requestMtu(REQUESTED_MTU)));
+    }
+
+    private void enableNotifications(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        if (!manager.hasConnectPermission()) {
+            return;
+        }
+        gatt.setCharacteristicNotification(characteristic, true);
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CCCD_UUID);
+        commandQueue.enqueue(command(GattCommand.Type.WRITE_DESCRIPTOR, () -> {
+            if (!manager.hasConnectPermission()) {
+                return false;
+            }
+            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+            return gatt.writeDescriptor(descriptor);
+        }));
+    }
+
+    // A sector read request, written without response so several can be in flight
+    private boolean writeRequest(byte[] request) {
+        final BluetoothGatt currentGatt = gatt;
+        final BluetoothGattCharacteristic characteristic = rfidCharacteristic;
+        if (currentGatt == null || characteristic == null) {
+            return false;
+        }
+        commandQueue.enqueue(command(GattCommand.Type.WRITE_CHARACTERISTIC, () -> {
+            if (!manager.hasConnectPermission()) {
+                return false;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                return currentGatt.writeCharacteristic(characteristic, request,
+                        BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) == BluetoothStatusCodes.SUCCESS;
+            }
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            characteristic.setValue(request);
+            return currentGatt.writeCharacteristic(characteristic);
+        }));
+        return true;
+    }
+
+    public boolean readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+        final BluetoothGatt currentGatt = gatt;
+        if (currentGatt == null) {
+            Log.d(TAG, "ERROR: Gatt is 'null', ignoring read request");
+            return false;
+        }
+        if (characteristic == null) {
+            Log.d(TAG, "ERROR: Characteristic is 'null', ignoring read request");
+            return false;
+        }
+        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) == 0) {
+            Log.d(TAG, "ERROR: Characteristic cannot be read");
+            return false;
+        }
+        commandQueue.enqueue(command(GattCommand.Type.READ_CHARACTERISTIC, () -> {
+            if (!manager.hasConnectPermission()) {
+                return false;
+            }
+            return currentGatt.readCharacteristic(characteristic);
+        }));
+        return true;
+    }
+}
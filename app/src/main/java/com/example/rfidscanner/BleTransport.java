@@ -0,0 +1,44 @@
+package com.example.rfidscanner;
+
+// The BLE reader pool of BLE_MANAGER seen as an RfidTransport, reader callbacks are
+// forwarded to whatever sink is attached. Connecting is still driven by BLE_MANAGER.
+class BleTransport implements RfidTransport {
+    private final BLE_MANAGER manager;
+    private volatile Sink sink;
+
+    BleTransport(BLE_MANAGER manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public void start(Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void stop() {
+        sink = null;
+        manager.disconnect();
+    }
+
+    void onReaderConnected(int readerId) {
+        Sink target = sink;
+        if (target != null) {
+            target.onReaderConnected(readerId);
+        }
+    }
+
+    void onReaderDisconnected(int readerId) {
+        Sink target = sink;
+        if (target != null) {
+            target.onReaderDisconnected(readerId);
+        }
+    }
+
+    void onNotification(int readerId, byte[] value, long timeMs) {
+        Sink target = sink;
+        if (target != null) {
+            target.onNotification(readerId, value, 0, value.length, timeMs);
+        }
+    }
+}
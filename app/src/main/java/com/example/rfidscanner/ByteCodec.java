@@ -0,0 +1,106 @@
+package com.example.rfidscanner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Varint, zigzag and stream helpers shared by the binary formats: upload batches, history
+ * files and notification traces. Varints are unsigned LEB128, signed values go through
+ * zigzag first so small negative deltas stay one or two bytes.
+ */
+final class ByteCodec {
+    private ByteCodec() {
+    }
+
+    // Growable buffer whose array can be written out or parsed without a copy
+    static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    // Read position in a range of an array, reset for every payload so parsing does not allocate
+    static final class Cursor {
+        private byte[] array = new byte[0];
+        private int position;
+        private int limit;
+
+        void reset(byte[] array, int limit) {
+            this.array = array;
+            this.position = 0;
+            this.limit = limit;
+        }
+
+        int position() {
+            return position;
+        }
+
+        int remaining() {
+            return limit - position;
+        }
+
+        void skip(int n) throws IOException {
+            if (n < 0 || n > remaining()) {
+                throw new IOException("Truncated payload");
+            }
+            position += n;
+        }
+
+        int readByte() throws IOException {
+            if (position >= limit) {
+                throw new IOException("Truncated payload");
+            }
+            return array[position++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt varint");
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    // false on a clean end of the stream before the first byte
+    static boolean readFully(InputStream in, byte[] buffer, int length, boolean required) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int n = in.read(buffer, done, length - done);
+            if (n < 0) {
+                if (done == 0 && !required) {
+                    return false;
+                }
+                throw new EOFException("Truncated after " + done + " of " + length + " bytes");
+            }
+            done += n;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,432 @@
+package com.example.rfidscanner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads MIFARE Classic sectors through the reader, see card_read.h for the wire format.
+ * Requests are written without response and up to MAX_IN_FLIGHT are outstanding at once,
+ * so the firmware always has the next sector queued while it streams the current one back.
+ * Response chunks are reassembled by their byte offset and results are delivered in the
+ * order the sectors were asked for, whatever order they complete in. A request that times
+ * out, loses a chunk or fails on the RF side is sent again under a new request id, so late
+ * chunks of the old attempt are recognised and dropped.
+ *
+ * Not thread safe, everything runs on the scheduler's thread.
+ */
+public final class CardMemoryReader {
+    static final byte REQUEST_MAGIC = (byte) 0xB1;
+    static final byte RESPONSE_MAGIC = (byte) 0xB2;
+    static final int REQUEST_HEADER = 4;
+    static final int RESPONSE_HEADER = 5;
+    public static final int SECTOR_COUNT = 40;
+    public static final int MAX_UID_LENGTH = 10;
+    // REQUEST_QUEUE in card_read.h, more would be dropped by the firmware
+    public static final int MAX_IN_FLIGHT = 4;
+    public static final long DEFAULT_TIMEOUT_MS = 2000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    // Before writing again after the transport refused a request
+    static final long WRITE_RETRY_MS = 100;
+
+    public enum Status {
+        // the first five match the firmware's status codes
+        OK,
+        NO_CARD,
+        AUTH_FAILED,
+        READ_FAILED,
+        BAD_REQUEST,
+        // no complete response within the timeout
+        TIMEOUT,
+        // cancel() was called
+        CANCELLED
+    }
+
+    // Writes a request to the reader without response, false if it could not be queued
+    public interface Transport {
+        boolean write(byte[] request);
+    }
+
+    public interface Listener {
+        void onSectorRead(SectorRead read);
+    }
+
+    public static final class SectorRead {
+        private final long sequence;
+        private final byte[] uid;
+        private final int sector;
+        private final Status status;
+        private final byte[] data;
+        private final int attempts;
+
+        SectorRead(long sequence, byte[] uid, int sector, Status status, byte[] data, int attempts) {
+            this.sequence = sequence;
+            this.uid = uid;
+            this.sector = sector;
+            this.status = status;
+            this.data = data;
+            this.attempts = attempts;
+        }
+
+        // As returned by readSector()
+        public long getSequence() {
+            return sequence;
+        }
+
+        public byte[] getUid() {
+            return uid.clone();
+        }
+
+        public int getSector() {
+            return sector;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        // The sector's blocks without the trailer, empty unless the status is OK
+        public byte[] getData() {
+            return data.clone();
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    private final class Request implements Runnable {
+        final long sequence;
+        final byte[] uid;
+        final int sector;
+        final Listener listener;
+        int wireId = -1;
+        int attempts;
+        Status status;
+        byte[] data;
+        int received;
+        // chunk offsets seen in this attempt, duplicates are ignored
+        final long[] offsets = new long[4];
+
+        Request(long sequence, byte[] uid, int sector, Listener listener) {
+            this.sequence = sequence;
+            this.uid = uid;
+            this.sector = sector;
+            this.listener = listener;
+        }
+
+        // Timeout of the current attempt
+        @Override
+        public void run() {
+            if (wireId >= 0 && inFlight[wireId] == this) {
+                timeouts++;
+                attemptFailed(this, Status.TIMEOUT);
+            }
+        }
+    }
+
+    private final TaskScheduler scheduler;
+    private final Transport transport;
+    private final int window;
+    private final long timeoutMs;
+    private final int maxAttempts;
+    private Listener listener;
+
+    // not delivered yet, in the order they were asked for
+    private final ArrayDeque<Request> pending = new ArrayDeque<>();
+    // not sent yet, or to be sent again
+    private final ArrayDeque<Request> waiting = new ArrayDeque<>();
+    private final Request[] inFlight = new Request[256];
+    private int inFlightCount;
+    private int nextWireId;
+    private long nextSequence;
+    private boolean connected;
+    private boolean writeRetryPosted;
+    // read off the scheduler thread to route notifications
+    private volatile int outstanding;
+
+    private long writes;
+    private long retries;
+    private long timeouts;
+    private long staleChunks;
+    private long invalidChunks;
+    private long bytesReceived;
+    private int maxInFlight;
+
+    private final Runnable writeRetry = () -> {
+        writeRetryPosted = false;
+        pump();
+    };
+
+    public CardMemoryReader(TaskScheduler scheduler, Transport transport) {
+        this(scheduler, transport, MAX_IN_FLIGHT, DEFAULT_TIMEOUT_MS, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public CardMemoryReader(TaskScheduler scheduler, Transport transport, int window, long timeoutMs, int maxAttempts) {
+        if (window < 1 || window > MAX_IN_FLIGHT) {
+            throw new IllegalArgumentException("window must be between 1 and " + MAX_IN_FLIGHT);
+        }
+        if (timeoutMs <= 0 || maxAttempts < 1) {
+            throw new IllegalArgumentException("timeoutMs and maxAttempts must be positive");
+        }
+        this.scheduler = scheduler;
+        this.transport = transport;
+        this.window = window;
+        this.timeoutMs = timeoutMs;
+        this.maxAttempts = maxAttempts;
+    }
+
+    // Gets the results of reads queued without a listener of their own, from now on
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public long readSector(byte[] uid, int sector) {
+        return readSector(uid, sector, listener);
+    }
+
+    /**
+     * Queues a read of one sector of the card with this UID, an empty UID reads whatever
+     * card is on the antenna. The result goes to this listener, whoever else queues reads
+     * meanwhile. Returns the sequence the result will carry.
+     */
+    public long readSector(byte[] uid, int sector, Listener listener) {
+        if (sector < 0 || sector >= SECTOR_COUNT) {
+            throw new IllegalArgumentException("sector must be between 0 and " + (SECTOR_COUNT - 1));
+        }
+        if (uid.length > MAX_UID_LENGTH) {
+            throw new IllegalArgumentException("UID longer than " + MAX_UID_LENGTH + " bytes");
+        }
+        Request request = new Request(nextSequence++, uid.clone(), sector, listener);
+        pending.add(request);
+        waiting.add(request);
+        outstanding = pending.size();
+        pump();
+        return request.sequence;
+    }
+
+    // Sectors from first to last inclusive, results arrive in that order
+    public void readSectors(byte[] uid, int first, int last) {
+        readSectors(uid, first, last, listener);
+    }
+
+    public void readSectors(byte[] uid, int first, int last, Listener listener) {
+        for (int sector = first; sector <= last; sector++) {
+            readSector(uid, sector, listener);
+        }
+    }
+
+    // Notifications are flowing, requests can be written
+    public void onConnected() {
+        connected = true;
+        pump();
+    }
+
+    // Requests in flight are lost with the link, they are sent again after onConnected()
+    public void onDisconnected() {
+        connected = false;
+        List<Request> lost = new ArrayList<>();
+        for (Request request : pending) {
+            if (request.wireId >= 0) {
+                lost.add(request);
+            }
+        }
+        for (int i = lost.size() - 1; i >= 0; i--) {
+            Request request = lost.get(i);
+            release(request);
+            // not the request's fault, the attempt is not counted
+            request.attempts--;
+            waiting.addFirst(request);
+        }
+    }
+
+    // Every read not delivered yet is delivered as CANCELLED
+    public void cancel() {
+        for (Request request : pending) {
+            if (request.wireId >= 0) {
+                release(request);
+            }
+            request.status = Status.CANCELLED;
+        }
+        waiting.clear();
+        deliver();
+    }
+
+    public static boolean isResponse(byte[] value, int offset, int length) {
+        return length >= RESPONSE_HEADER && value[offset] == RESPONSE_MAGIC;
+    }
+
+    // True while reads are outstanding, safe to call from any thread
+    public boolean isReading() {
+        return outstanding > 0;
+    }
+
+    /**
+     * Takes one notification, returns false if it is not a response chunk and belongs to
+     * the tag pipeline.
+     */
+    public boolean onNotification(byte[] value, int offset, int length) {
+        if (!isResponse(value, offset, length)) {
+            return false;
+        }
+        Request request = inFlight[value[offset + 1] & 0xFF];
+        if (request == null) {
+            // an attempt that already timed out, or one from before a reconnect
+            staleChunks++;
+            return true;
+        }
+        int code = value[offset + 2] & 0xFF;
+        int chunkOffset = value[offset + 3] & 0xFF;
+        int total = value[offset + 4] & 0xFF;
+        int chunkLength = length - RESPONSE_HEADER;
+        if (code != Status.OK.ordinal()) {
+            Status status = code <= Status.BAD_REQUEST.ordinal() ? Status.values()[code] : Status.READ_FAILED;
+            if (status == Status.AUTH_FAILED || status == Status.BAD_REQUEST) {
+                // the same request would fail the same way
+                release(request);
+                finish(request, status, new byte[0]);
+            } else {
+                attemptFailed(request, status);
+            }
+            return true;
+        }
+        if (request.data == null) {
+            request.data = new byte[total];
+        }
+        if (total != request.data.length || chunkOffset + chunkLength > total) {
+            invalidChunks++;
+            return true;
+        }
+        long bit = 1L << (chunkOffset & 63);
+        if ((request.offsets[chunkOffset >> 6] & bit) != 0) {
+            staleChunks++;
+            return true;
+        }
+        request.offsets[chunkOffset >> 6] |= bit;
+        System.arraycopy(value, offset + RESPONSE_HEADER, request.data, chunkOffset, chunkLength);
+        request.received += chunkLength;
+        bytesReceived += chunkLength;
+        if (request.received == total) {
+            byte[] data = request.data;
+            release(request);
+            finish(request, Status.OK, data);
+        }
+        return true;
+    }
+
+    private void pump() {
+        while (connected && inFlightCount < window && !waiting.isEmpty()) {
+            Request request = waiting.poll();
+            if (!send(request)) {
+                waiting.addFirst(request);
+                if (!writeRetryPosted) {
+                    writeRetryPosted = true;
+                    scheduler.postDelayed(writeRetry, WRITE_RETRY_MS);
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean send(Request request) {
+        int id = nextWireId;
+        while (inFlight[id] != null) {
+            id = (id + 1) & 0xFF;
+        }
+        nextWireId = (id + 1) & 0xFF;
+        byte[] bytes = new byte[REQUEST_HEADER + request.uid.length];
+        bytes[0] = REQUEST_MAGIC;
+        bytes[1] = (byte) id;
+        bytes[2] = (byte) request.sector;
+        bytes[3] = (byte) request.uid.length;
+        System.arraycopy(request.uid, 0, bytes, REQUEST_HEADER, request.uid.length);
+        if (!transport.write(bytes)) {
+            return false;
+        }
+        writes++;
+        request.attempts++;
+        request.wireId = id;
+        request.data = null;
+        request.received = 0;
+        Arrays.fill(request.offsets, 0);
+        inFlight[id] = request;
+        inFlightCount++;
+        maxInFlight = Math.max(maxInFlight, inFlightCount);
+        scheduler.postDelayed(request, timeoutMs);
+        return true;
+    }
+
+    private void release(Request request) {
+        scheduler.cancel(request);
+        inFlight[request.wireId] = null;
+        request.wireId = -1;
+        inFlightCount--;
+    }
+
+    private void attemptFailed(Request request, Status status) {
+        release(request);
+        if (request.attempts < maxAttempts) {
+            retries++;
+            // ahead of the reads not sent yet, it is older than all of them
+            waiting.addFirst(request);
+            pump();
+        } else {
+            finish(request, status, new byte[0]);
+        }
+    }
+
+    private void finish(Request request, Status status, byte[] data) {
+        request.status = status;
+        request.data = data;
+        deliver();
+        pump();
+    }
+
+    private void deliver() {
+        Request head;
+        while ((head = pending.peek()) != null && head.status != null) {
+            pending.poll();
+            outstanding = pending.size();
+            Listener l = head.listener;
+            if (l != null) {
+                l.onSectorRead(new SectorRead(head.sequence, head.uid, head.sector, head.status,
+                        head.data != null && head.status == Status.OK ? head.data : new byte[0], head.attempts));
+            }
+        }
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    // Requests written, retries included
+    public long getWrites() {
+        return writes;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    // Chunks of attempts that were given up on, and duplicates
+    public long getStaleChunks() {
+        return staleChunks;
+    }
+
+    public long getInvalidChunks() {
+        return invalidChunks;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.rfidscanner;
+
+import java.util.Arrays;
+
+/**
+ * Timestamps of the steps between pressing scan and the first tag arriving, used to report
+ * time-to-first-tag. Each step is only recorded once per run, start() begins a new run.
+ */
+public final class ConnectTimeline {
+    public enum Step {
+        SCAN_STARTED,
+        READER_FOUND,
+        CONNECTED,
+        NOTIFICATIONS_ENABLED,
+        FIRST_TAG
+    }
+
+    private final long[] times = new long[Step.values().length];
+
+    public ConnectTimeline() {
+        Arrays.fill(times, -1);
+    }
+
+    public synchronized void start(long nowMs) {
+        Arrays.fill(times, -1);
+        times[Step.SCAN_STARTED.ordinal()] = nowMs;
+    }
+
+    // Returns true if this was the first time the step was reached in the current run
+    public synchronized boolean mark(Step step, long nowMs) {
+        if (times[Step.SCAN_STARTED.ordinal()] < 0 && step != Step.SCAN_STARTED) {
+            // reconnects without a scan are timed from the connection attempt
+            times[Step.SCAN_STARTED.ordinal()] = nowMs;
+        }
+        if (times[step.ordinal()] >= 0) {
+            return false;
+        }
+        times[step.ordinal()] = nowMs;
+        return true;
+    }
+
+    // Milliseconds from the start of the run to the step, or -1 if it has not happened
+    public synchronized long elapsedMs(Step step) {
+        long start = times[Step.SCAN_STARTED.ordinal()];
+        long at = times[step.ordinal()];
+        return start < 0 || at < 0 ? -1 : at - start;
+    }
+
+    public synchronized String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Step step : Step.values()) {
+            if (step == Step.SCAN_STARTED) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            long elapsed = elapsedMs(step);
+            sb.append(step.name().toLowerCase()).append('=').append(elapsed < 0 ? "-" : elapsed + "ms");
+        }
+        return sb.toString();
+    }
+}
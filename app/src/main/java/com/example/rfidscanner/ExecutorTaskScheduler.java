@@ -0,0 +1,89 @@
+package com.example.rfidscanner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// TaskScheduler on a single plain Java thread, for running the pipeline on a JVM without a Looper
+public class ExecutorTaskScheduler implements TaskScheduler {
+    private final class Scheduled implements Runnable {
+        final Runnable task;
+        ScheduledFuture<?> future;
+
+        Scheduled(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            synchronized (pending) {
+                List<Scheduled> list = pending.get(task);
+                if (list != null) {
+                    list.remove(this);
+                    if (list.isEmpty()) {
+                        pending.remove(task);
+                    }
+                }
+            }
+            task.run();
+        }
+    }
+
+    private final ScheduledThreadPoolExecutor executor;
+    // what is still queued per task, so cancel() can remove every posting like Handler.removeCallbacks
+    private final Map<Runnable, List<Scheduled>> pending = new HashMap<>();
+
+    public ExecutorTaskScheduler(String threadName) {
+        executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        Scheduled scheduled = new Scheduled(task);
+        synchronized (pending) {
+            if (executor.isShutdown()) {
+                return;
+            }
+            pending.computeIfAbsent(task, t -> new ArrayList<>()).add(scheduled);
+            scheduled.future = executor.schedule(scheduled, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        synchronized (pending) {
+            List<Scheduled> list = pending.remove(task);
+            if (list != null) {
+                for (Scheduled scheduled : list) {
+                    scheduled.future.cancel(false);
+                }
+            }
+        }
+    }
+
+    @Override
+    public long nowMs() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    public void quit() {
+        synchronized (pending) {
+            pending.clear();
+            executor.shutdownNow();
+        }
+    }
+}
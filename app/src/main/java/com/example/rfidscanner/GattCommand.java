@@ -0,0 +1,110 @@
+package com.example.rfidscanner;
+
+/**
+ * A single GATT operation for the command queue. Android only allows one outstanding
+ * operation per connection, so every read, write and discovery goes through the queue.
+ */
+public class GattCommand {
+    // Lower ordinal runs first
+    public enum Priority {
+        CONNECTION,
+        DESCRIPTOR,
+        WRITE,
+        READ
+    }
+
+    public enum Type {
+        DISCOVER_SERVICES(Priority.CONNECTION),
+        REQUEST_MTU(Priority.CONNECTION),
+        REQUEST_CONNECTION_PRIORITY(Priority.CONNECTION),
+        WRITE_DESCRIPTOR(Priority.DESCRIPTOR),
+        WRITE_CHARACTERISTIC(Priority.WRITE),
+        READ_CHARACTERISTIC(Priority.READ);
+
+        final Priority priority;
+
+        Type(Priority priority) {
+            this.priority = priority;
+        }
+    }
+
+    // Starts the operation, returns false if the stack refused it
+    public interface Action {
+        boolean start();
+    }
+
+    // Called on the queue thread once the command succeeded or ran out of retries
+    public interface ResultListener {
+        void onResult(GattCommand command, boolean success);
+    }
+
+    public static final long DEFAULT_TIMEOUT_MS = 3000;
+    public static final int DEFAULT_MAX_RETRIES = 1;
+
+    private final Type type;
+    private final Priority priority;
+    private final long timeoutMs;
+    private final int maxRetries;
+    private final Action action;
+    private ResultListener resultListener;
+
+    long enqueuedAtMs;
+    long startedAtMs;
+    int attempts;
+    // of the current attempt, see GattCommandQueue.getRunningToken()
+    long token;
+
+    public GattCommand(Type type, Action action) {
+        this(type, type.priority, DEFAULT_TIMEOUT_MS, DEFAULT_MAX_RETRIES, action);
+    }
+
+    public GattCommand(Type type, Priority priority, long timeoutMs, int maxRetries, Action action) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("timeoutMs must be positive");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        this.type = type;
+        this.priority = priority;
+        this.timeoutMs = timeoutMs;
+        this.maxRetries = maxRetries;
+        this.action = action;
+    }
+
+    public GattCommand setResultListener(ResultListener listener) {
+        this.resultListener = listener;
+        return this;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    boolean start() {
+        attempts++;
+        return action.start();
+    }
+
+    void finish(boolean success) {
+        if (resultListener != null) {
+            resultListener.onResult(this, success);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.rfidscanner;
+
+// What BLE_MANAGER needs from a GATT command engine, implemented by GattCommandQueue
+public interface GattCommandExecutor {
+    // Safe to call from any thread
+    void enqueue(GattCommand command);
+
+    // Called from the GATT callback with the token its command started under, stale completions are ignored
+    void onCommandCompleted(GattCommand.Type type, long token, boolean success);
+
+    // Drops everything queued, e.g. after a disconnect
+    void clear();
+
+    int getDepth();
+}
@@ -0,0 +1,252 @@
+package com.example.rfidscanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs GATT commands one at a time on the scheduler thread (a HandlerThread on the device).
+ * Commands are taken from priority lanes so descriptor writes and connection control get
+ * ahead of queued reads, each command has a timeout so a lost callback cannot stall the
+ * queue, and failed or timed out commands are retried up to their limit.
+ *
+ * Every attempt starts under a new token, which the GATT callback hands back with its
+ * completion. After a timeout the next command may already be running when the abandoned
+ * one's callback finally shows up; its token tells the two apart.
+ *
+ * Anything may call enqueue and onCommandCompleted, all other state is only touched on
+ * the scheduler thread.
+ */
+public final class GattCommandQueue implements GattCommandExecutor {
+    private static final int LANES = GattCommand.Priority.values().length;
+    private static final int TYPES = GattCommand.Type.values().length;
+
+    private final TaskScheduler scheduler;
+    private final List<ConcurrentLinkedDeque<GattCommand>> lanes = new ArrayList<>(LANES);
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean pumpScheduled = new AtomicBoolean();
+    private final Runnable pump = this::pump;
+    private final Runnable timeout = this::onTimeout;
+
+    private GattCommand current;
+    private long lastToken;
+    private volatile RfidMetrics metrics;
+
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private volatile long commandsStarted;
+    private volatile long completed;
+    private volatile long failed;
+    private volatile long timeouts;
+    private volatile long retries;
+    private volatile long staleCompletions;
+    private volatile long totalWaitMs;
+    private volatile long maxWaitMs;
+    private final long[] executedByType = new long[TYPES];
+    private final long[] execMsByType = new long[TYPES];
+
+    public GattCommandQueue(TaskScheduler scheduler) {
+        this.scheduler = scheduler;
+        for (int i = 0; i < LANES; i++) {
+            lanes.add(new ConcurrentLinkedDeque<>());
+        }
+    }
+
+    // Optional, wait and execution times are also recorded here when set
+    public void setMetrics(RfidMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void enqueue(GattCommand command) {
+        command.enqueuedAtMs = scheduler.nowMs();
+        lanes.get(command.getPriority().ordinal()).addLast(command);
+        maxDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+        schedulePump();
+    }
+
+    @Override
+    public void onCommandCompleted(GattCommand.Type type, long token, boolean success) {
+        scheduler.post(() -> {
+            if (current == null || current.getType() != type || current.token != token) {
+                // the command already timed out, or this callback was not triggered by the queue
+                staleCompletions++;
+                return;
+            }
+            finishCurrent(success);
+        });
+    }
+
+    @Override
+    public void clear() {
+        scheduler.post(() -> {
+            scheduler.cancel(timeout);
+            if (current != null) {
+                GattCommand dropped = current;
+                current = null;
+                dropped.finish(false);
+            }
+            for (ConcurrentLinkedDeque<GattCommand> lane : lanes) {
+                GattCommand command;
+                while ((command = lane.pollFirst()) != null) {
+                    depth.decrementAndGet();
+                    command.finish(false);
+                }
+            }
+        });
+    }
+
+    private void schedulePump() {
+        if (pumpScheduled.compareAndSet(false, true)) {
+            scheduler.post(pump);
+        }
+    }
+
+    private void pump() {
+        pumpScheduled.set(false);
+        while (current == null) {
+            GattCommand next = pollNext();
+            if (next == null) {
+                return;
+            }
+            long now = scheduler.nowMs();
+            if (next.attempts == 0) {
+                long waited = now - next.enqueuedAtMs;
+                commandsStarted++;
+                totalWaitMs += waited;
+                if (waited > maxWaitMs) {
+                    maxWaitMs = waited;
+                }
+                RfidMetrics m = metrics;
+                if (m != null) {
+                    m.recordQueueWait(waited);
+                }
+            }
+            current = next;
+            next.startedAtMs = now;
+            next.token = ++lastToken;
+            boolean started;
+            try {
+                started = next.start();
+            } catch (RuntimeException e) {
+                started = false;
+            }
+            if (started) {
+                scheduler.postDelayed(timeout, next.getTimeoutMs());
+            } else {
+                finishCurrent(false);
+            }
+        }
+    }
+
+    private GattCommand pollNext() {
+        for (ConcurrentLinkedDeque<GattCommand> lane : lanes) {
+            GattCommand command = lane.pollFirst();
+            if (command != null) {
+                depth.decrementAndGet();
+                return command;
+            }
+        }
+        return null;
+    }
+
+    private void onTimeout() {
+        if (current == null) {
+            return;
+        }
+        timeouts++;
+        RfidMetrics m = metrics;
+        if (m != null) {
+            m.increment(RfidMetrics.Counter.GATT_TIMEOUTS);
+        }
+        finishCurrent(false);
+    }
+
+    private void finishCurrent(boolean success) {
+        scheduler.cancel(timeout);
+        GattCommand command = current;
+        current = null;
+        int type = command.getType().ordinal();
+        long execMs = scheduler.nowMs() - command.startedAtMs;
+        executedByType[type]++;
+        execMsByType[type] += execMs;
+        RfidMetrics m = metrics;
+        if (m != null) {
+            m.recordGattOp(command.getType(), execMs);
+        }
+
+        if (success) {
+            completed++;
+            command.finish(true);
+        } else if (command.attempts <= command.getMaxRetries()) {
+            // retry ahead of everything else in its lane
+            retries++;
+            lanes.get(command.getPriority().ordinal()).addFirst(command);
+            depth.incrementAndGet();
+        } else {
+            failed++;
+            if (m != null) {
+                m.increment(RfidMetrics.Counter.GATT_FAILURES);
+            }
+            command.finish(false);
+        }
+        schedulePump();
+    }
+
+    @Override
+    public int getDepth() {
+        return depth.get();
+    }
+
+    // Token of the command being started, for its Action to pass on to the GATT callback.
+    // Only meaningful on the scheduler thread while Action.start() runs.
+    public long getRunningToken() {
+        GattCommand command = current;
+        return command == null ? 0 : command.token;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getStaleCompletions() {
+        return staleCompletions;
+    }
+
+    public long getMaxWaitMs() {
+        return maxWaitMs;
+    }
+
+    // Over every command that got to run, including ones clear() dropped afterwards
+    public double getAverageWaitMs() {
+        long n = commandsStarted;
+        return n == 0 ? 0 : (double) totalWaitMs / n;
+    }
+
+    // Average time from start to callback (or timeout) for one command type, retries counted separately
+    public double getAverageExecMs(GattCommand.Type type) {
+        long executed = executedByType[type.ordinal()];
+        return executed == 0 ? 0 : (double) execMsByType[type.ordinal()] / executed;
+    }
+
+    public long getExecuted(GattCommand.Type type) {
+        return executedByType[type.ordinal()];
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.rfidscanner;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+// TaskScheduler running on a Looper, either an existing one or a dedicated HandlerThread
+public class HandlerTaskScheduler implements TaskScheduler {
+    private final Handler handler;
+    private final HandlerThread thread;
+
+    public HandlerTaskScheduler(Looper looper) {
+        this.handler = new Handler(looper);
+        this.thread = null;
+    }
+
+    public HandlerTaskScheduler(String threadName) {
+        this.thread = new HandlerThread(threadName);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        handler.postDelayed(task, delayMs);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+
+    // Same clock as the notification timestamps, the dedup sweep compares the two
+    @Override
+    public long nowMs() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    // Stops the dedicated thread, no-op for schedulers on an existing looper
+    public void quit() {
+        if (thread != null) {
+            thread.quitSafely();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.rfidscanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Posts upload batches to the backend. The body is sent as is, it is already zlib
+ * compressed, and the install and batch id go in an Idempotency-Key header so the backend
+ * can drop a batch it has seen before. Connections are kept alive between batches.
+ */
+public final class HttpBatchSender implements TagUploader.Sender {
+    public static final int DEFAULT_TIMEOUT_MS = 15_000;
+
+    private final URL url;
+    private final int timeoutMs;
+
+    public HttpBatchSender(URL url) {
+        this(url, DEFAULT_TIMEOUT_MS);
+    }
+
+    public HttpBatchSender(URL url, int timeoutMs) {
+        this.url = url;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public int send(String installId, long batchId, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(timeoutMs);
+        connection.setReadTimeout(timeoutMs);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/vnd.rfid-batch");
+        connection.setRequestProperty("Content-Encoding", "deflate");
+        connection.setRequestProperty("Idempotency-Key", installId + ":" + batchId);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        int status = connection.getResponseCode();
+        // the response has to be read to the end for the connection to be reused
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in != null) {
+            try (InputStream response = in) {
+                byte[] skip = new byte[512];
+                while (response.read(skip) != -1) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+}
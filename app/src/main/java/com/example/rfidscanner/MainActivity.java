@@ -4,18 +4,26 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DefaultItemAnimator;
+import androidx.recyclerview.widget.RecyclerView;
 
 import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-public class MainActivity extends AppCompatActivity implements BLE_MANAGER.RfidDataListener {
+import java.io.File;
+import java.io.IOException;
+
+public class MainActivity extends AppCompatActivity implements RfidBatchListener, BLE_MANAGER.ReaderScanListener, BLE_MANAGER.ReaderConnectionListener {
     private static final String TAG = "MainActivity";
     private static final int PERMISSION_REQUEST_CODE = 1;
 
@@ -24,6 +32,13 @@ public class MainActivity extends AppCompatActivity implements BLE_MANAGER.RfidD
     private Button btnConnect;
     private TextView txtRfidData;
     private TextView txtStatus;
+    private TextView txtMetrics;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private static final long METRICS_REFRESH_MS = 1000;
+    // every tag of this session, fed once per frame and diffed off the main thread
+    private final SessionTagList sessionTags = new SessionTagList();
+    private SessionTagAdapter sessionAdapter;
+    private int tagsInRange;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -35,10 +50,30 @@ public class MainActivity extends AppCompatActivity implements BLE_MANAGER.RfidD
         btnConnect = findViewById(R.id.btn_connect);
         txtRfidData = findViewById(R.id.txt_rfid_data);
         txtStatus = findViewById(R.id.txt_status);
+        txtMetrics = findViewById(R.id.txt_metrics);
+        findViewById(R.id.txt_title).setOnLongClickListener(v -> {
+            toggleMetricsPanel();
+            return true;
+        });
+        txtMetrics.setOnLongClickListener(v -> {
+            toggleTraceCapture();
+            return true;
+        });
 
         // Initialize BLE manager
         bleManager = new BLE_MANAGER(this);
-        bleManager.setRfidDataListener(this);
+        // the offset the journal and inventory use, so the list shows the same times
+        sessionAdapter = new SessionTagAdapter(bleManager.getTagIds(), bleManager.getPipeline().getWallClockOffsetMs());
+        RecyclerView listTags = findViewById(R.id.list_tags);
+        listTags.setHasFixedSize(true);
+        // counts change many times a second, a cross-fade per update would only flicker
+        ((DefaultItemAnimator) listTags.getItemAnimator()).setSupportsChangeAnimations(false);
+        listTags.setAdapter(sessionAdapter);
+        bleManager.setRfidBatchListener(this);
+        bleManager.setMergedBatchListener(this::onMergedBatch);
+        bleManager.setReaderScanListener(this);
+        bleManager.setConnectionListener(this);
+        bleManager.getPresence().setListener(this::onPresenceChanged);
 
         // Check Bluetooth permissions
         if (checkPermissions()) {
@@ -120,27 +155,40 @@ public class MainActivity extends AppCompatActivity implements BLE_MANAGER.RfidD
             bleManager.enableBluetooth();
             updateStatus("Enabling Bluetooth...");
         } else {
-            updateStatus("Bluetooth is ready");
             btnScan.setEnabled(true);
+            // Go straight to the readers used last time, scanning is only needed for a new one
+            int readers = bleManager.connectKnownReaders();
+            if (readers == 1) {
+                String name = bleManager.getLastReaderName();
+                updateStatus("Connecting to " + (name != null ? name : "last reader") + "...");
+            } else if (readers > 1) {
+                updateStatus("Connecting to " + readers + " readers...");
+            } else {
+                updateStatus("Bluetooth is ready");
+            }
         }
     }
 
     private void scanForDevices() {
         updateStatus("Scanning for devices...");
         btnScan.setEnabled(false);
+        btnConnect.setEnabled(false);
         bleManager.startScan();
+    }
 
-        // Wait for scan to complete
-        new android.os.Handler().postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                bleManager.stopScan();
-                bleManager.showDevices();
-                btnScan.setEnabled(true);
-                btnConnect.setEnabled(true);
-                updateStatus("Scan complete");
-            }
-        }, 10000); // 10 seconds scan time
+    @Override
+    public void onReaderFound(String name, String address, int rssi) {
+        // The manager connects right away, no need to press Connect
+        updateStatus("Connecting to " + (name != null ? name : address) + " (" + rssi + " dBm)...");
+    }
+
+    @Override
+    public void onScanFinished(boolean readerFound) {
+        btnScan.setEnabled(true);
+        btnConnect.setEnabled(readerFound);
+        if (!readerFound) {
+            updateStatus("No reader found");
+        }
     }
 
     private void connectToDevice() {
@@ -152,10 +200,106 @@ public class MainActivity extends AppCompatActivity implements BLE_MANAGER.RfidD
     }
 
     @Override
-    public void onRfidDataReceived(String data) {
-        Log.d(TAG, "RFID data received: " + data);
-        txtRfidData.setText(data);
-        updateStatus("RFID tag detected");
+    public void onReaderStateChanged(BLE_READER reader, ReconnectStateMachine.State state, int attempt, long retryDelayMs) {
+        // Called on the GATT thread
+        int readerId = reader.getReaderId();
+        runOnUiThread(() -> {
+            switch (state) {
+                case READY:
+                    updateStatus("Reader " + readerId + " connected, waiting for tags");
+                    break;
+                case BACKOFF:
+                    updateStatus("Reader " + readerId + " lost, retrying in " + retryDelayMs + " ms");
+                    break;
+                case GAVE_UP:
+                    updateStatus("Could not reconnect reader " + readerId + ", scan again");
+                    btnConnect.setEnabled(true);
+                    break;
+                default:
+                    break;
+            }
+        });
+    }
+
+    @Override
+    public void onRfidBatch(TagReadBatch batch) {
+        txtStatus.setText(batch.size() == 1 ? "RFID tag detected" : batch.size() + " RFID tags detected");
+    }
+
+    // Repeats included, a tag that stays on the antenna keeps its count and last seen time moving
+    private void onMergedBatch(TagReadBatch batch) {
+        sessionTags.record(batch);
+        AssetResolver resolver = bleManager.getAssetResolver();
+        if (resolver != null) {
+            // the catalog opens in the background, rows bound before that stay hex only
+            sessionAdapter.setAssetResolver(resolver, this::onAssetResolved);
+        }
+        sessionAdapter.update(sessionTags);
+        showTagCount();
+    }
+
+    // Called on the ingest thread once per presence tick with changes
+    private void onPresenceChanged(TagPresence.Changes changes) {
+        int present = bleManager.getPresence().getPresentTags();
+        uiHandler.post(() -> {
+            tagsInRange = present;
+            showTagCount();
+        });
+    }
+
+    private void showTagCount() {
+        txtRfidData.setText((sessionTags.size() == 1 ? "1 tag" : sessionTags.size() + " tags") + ", " + tagsInRange + " in range");
+    }
+
+    // Called on the asset lookup thread
+    private void onAssetResolved(int tagId, Asset asset) {
+        if (asset != null) {
+            uiHandler.post(() -> sessionAdapter.onAssetResolved(tagId));
+        }
+    }
+
+    private final Runnable refreshMetrics = new Runnable() {
+        @Override
+        public void run() {
+            TagUploader uploader = bleManager.getUploader();
+            long now = SystemClock.elapsedRealtime();
+            txtMetrics.setText(bleManager.getAnalytics().snapshot(now).toText()
+                    + bleManager.getMetrics().snapshot(now).toText()
+                    + bleManager.getTagStream().describe() + (uploader == null ? "" : uploader.describe()));
+            uiHandler.postDelayed(this, METRICS_REFRESH_MS);
+        }
+    };
+
+    private void toggleMetricsPanel() {
+        if (txtMetrics.getVisibility() == View.VISIBLE) {
+            txtMetrics.setVisibility(View.GONE);
+            uiHandler.removeCallbacks(refreshMetrics);
+            return;
+        }
+        txtMetrics.setVisibility(View.VISIBLE);
+        // the JSON form goes to logcat so a run can be pulled off the device with adb
+        Log.i(TAG, "Metrics: " + bleManager.getMetrics().snapshot(SystemClock.elapsedRealtime()).toJson());
+        uiHandler.post(refreshMetrics);
+    }
+
+    // Raw reader traffic for a bug report, pulled off the device with adb run-as
+    private void toggleTraceCapture() {
+        if (bleManager.isCapturingTrace()) {
+            bleManager.stopTraceCapture();
+            updateStatus("Trace saved");
+            return;
+        }
+        File dir = new File(getFilesDir(), "traces");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            updateStatus("Cannot create " + dir);
+            return;
+        }
+        try {
+            bleManager.startTraceCapture(new File(dir, "trace-" + System.currentTimeMillis() + ".rfnt"));
+            updateStatus("Recording reader traffic");
+        } catch (IOException | IllegalStateException e) {
+            updateStatus("Cannot record a trace: " + e.getMessage());
+        }
     }
 
     private void updateStatus(String message) {
@@ -163,11 +307,28 @@ public class MainActivity extends AppCompatActivity implements BLE_MANAGER.RfidD
         Log.d(TAG, "Status: " + message);
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bleManager.stopBackgroundDiscovery();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // keep looking for a reader at low power while the handheld sits in a pocket
+        if (!isChangingConfigurations() && checkPermissions() && bleManager.hasBluetooth()) {
+            bleManager.startBackgroundDiscovery();
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        uiHandler.removeCallbacks(refreshMetrics);
         if (bleManager != null) {
             bleManager.stopScan();
+            bleManager.close();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+package com.example.rfidscanner;
+
+import java.util.ArrayDeque;
+
+/**
+ * Decides whether a notification is followed by a characteristic read.
+ *
+ * READ_AFTER_NOTIFY is the old behaviour where every notification costs an extra GATT
+ * round trip. STREAMING trusts the notification payload and only reads the characteristic
+ * every integrityIntervalMs, comparing the value with the notifications to spot ones that
+ * never arrived.
+ *
+ * A read is queued behind other GATT operations and the firmware keeps notifying meanwhile,
+ * so the value read back may be any one notified from the last notification before the read
+ * was requested up to the read result. Only a value outside that window counts as a mismatch.
+ */
+public final class NotificationReadPolicy {
+    public enum Mode {
+        READ_AFTER_NOTIFY,
+        STREAMING
+    }
+
+    public static final long DEFAULT_INTEGRITY_INTERVAL_MS = 5000;
+    private static final int MAX_VALUE_LENGTH = 512;
+    // values kept for the integrity check, a read whose window is longer goes unchecked
+    private static final int HISTORY = 64;
+
+    private final Mode mode;
+    private final long integrityIntervalMs;
+
+    private final byte[][] history = new byte[HISTORY][];
+    private final int[] historyLengths = new int[HISTORY];
+    // number of values recorded, value n is in slot n % HISTORY
+    private long recorded;
+    // per outstanding read, the number of the last value recorded when it was requested
+    private final ArrayDeque<Long> pendingReads = new ArrayDeque<>();
+    private long lastReadRequestMs = Long.MIN_VALUE / 2;
+
+    private long notifications;
+    private long readsRequested;
+    private long integrityMatches;
+    private long integrityMismatches;
+
+    public static NotificationReadPolicy streaming() {
+        return new NotificationReadPolicy(Mode.STREAMING, DEFAULT_INTEGRITY_INTERVAL_MS);
+    }
+
+    public static NotificationReadPolicy readAfterNotify() {
+        return new NotificationReadPolicy(Mode.READ_AFTER_NOTIFY, 0);
+    }
+
+    // integrityIntervalMs of 0 turns the periodic check off in STREAMING mode
+    public NotificationReadPolicy(Mode mode, long integrityIntervalMs) {
+        if (integrityIntervalMs < 0) {
+            throw new IllegalArgumentException("integrityIntervalMs must not be negative");
+        }
+        this.mode = mode;
+        this.integrityIntervalMs = integrityIntervalMs;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Records a notification and returns true if the characteristic should be read after it.
+     */
+    public synchronized boolean onNotification(byte[] value, int offset, int length, long nowMs) {
+        notifications++;
+        record(value, offset, length);
+
+        boolean read;
+        if (mode == Mode.READ_AFTER_NOTIFY) {
+            read = true;
+        } else {
+            read = integrityIntervalMs > 0 && nowMs - lastReadRequestMs >= integrityIntervalMs;
+        }
+        if (read) {
+            readsRequested++;
+            lastReadRequestMs = nowMs;
+            if (pendingReads.size() < HISTORY) {
+                pendingReads.addLast(recorded - 1);
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Records a notification of the same characteristic that is handled elsewhere, such as a
+     * card response chunk. It is not counted and never causes a read, but a read may return it.
+     */
+    public synchronized void onRoutedNotification(byte[] value, int offset, int length) {
+        record(value, offset, length);
+    }
+
+    /**
+     * Compares a read result with the values notified since the read was requested, returns
+     * false on a mismatch. A mismatch means the peripheral moved on to a value we were never
+     * notified about.
+     */
+    public synchronized boolean onReadResult(byte[] value) {
+        Long requested = pendingReads.pollFirst();
+        if (recorded == 0 || value == null) {
+            return true;
+        }
+        // more results than requests, only the latest value is a fair comparison
+        long from = requested != null ? requested : recorded - 1;
+        if (recorded - from > HISTORY) {
+            return true;
+        }
+        boolean same = false;
+        for (long n = from; !same && n < recorded; n++) {
+            same = matches(value, (int) (n % HISTORY));
+        }
+        if (same) {
+            integrityMatches++;
+        } else {
+            integrityMismatches++;
+        }
+        return same;
+    }
+
+    private void record(byte[] value, int offset, int length) {
+        int slot = (int) (recorded++ % HISTORY);
+        int n = Math.min(length, MAX_VALUE_LENGTH);
+        if (history[slot] == null || history[slot].length < n) {
+            history[slot] = new byte[n];
+        }
+        System.arraycopy(value, offset, history[slot], 0, n);
+        historyLengths[slot] = n;
+    }
+
+    private boolean matches(byte[] value, int slot) {
+        int length = historyLengths[slot];
+        if (value.length != length) {
+            return false;
+        }
+        byte[] stored = history[slot];
+        for (int i = 0; i < length; i++) {
+            if (value[i] != stored[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized long getNotifications() {
+        return notifications;
+    }
+
+    public synchronized long getReadsRequested() {
+        return readsRequested;
+    }
+
+    public synchronized long getIntegrityMatches() {
+        return integrityMatches;
+    }
+
+    public synchronized long getIntegrityMismatches() {
+        return integrityMismatches;
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.rfidscanner;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Trace file of what a transport delivered to the pipeline: raw notification payloads and
+ * reader connects and disconnects, each with a monotonic nanosecond timestamp. TraceRecorder
+ * writes one while the app runs, TraceReplayer plays it back through a pipeline on a plain JVM.
+ *
+ * File layout, little endian:
+ *   magic "RFNT" (int), version (int)
+ *   blocks until the end of the file, each
+ *     header: payload length (int), event count (int), time of the first event in ns (long),
+ *             CRC32 of the payload (int)
+ *     payload, per event: type (byte), reader id (byte), ns since the previous event (varint),
+ *       for notifications the payload length (varint) and bytes
+ *
+ * A notification of a framed reader costs its bytes plus four or five, the timestamp delta
+ * is two to four bytes at typical rates. A block that fails its CRC or is cut short ends the
+ * trace, everything before it is still replayed.
+ */
+public final class NotificationTrace {
+    public static final int DEFAULT_BLOCK_BYTES = 64 * 1024;
+    // largest attribute value the ATT protocol allows
+    public static final int MAX_VALUE_LENGTH = 512;
+    private static final int MAGIC = 0x544E4652;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 20;
+    private static final int MAX_BLOCK_BYTES = 16 * 1024 * 1024;
+
+    public enum Event {
+        CONNECTED,
+        DISCONNECTED,
+        NOTIFICATION
+    }
+
+    private static final Event[] EVENTS = Event.values();
+
+    private NotificationTrace() {
+    }
+
+    /**
+     * Collects events into blocks and writes a block each time it reaches blockBytes and on
+     * close(). Times must not go backwards. Not thread safe.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final OutputStream out;
+        private final int blockBytes;
+        private final ByteCodec.Buffer payload = new ByteCodec.Buffer(DEFAULT_BLOCK_BYTES + MAX_VALUE_LENGTH + 16);
+        private final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private int count;
+        private long firstNs;
+        private long previousNs;
+        private long events;
+        private long blocks;
+        private long bytes = FILE_HEADER_SIZE;
+        private boolean closed;
+
+        public Writer(OutputStream out) throws IOException {
+            this(out, DEFAULT_BLOCK_BYTES);
+        }
+
+        public Writer(OutputStream out, int blockBytes) throws IOException {
+            if (blockBytes <= 0 || blockBytes > MAX_BLOCK_BYTES - MAX_VALUE_LENGTH) {
+                throw new IllegalArgumentException("Invalid block size: " + blockBytes);
+            }
+            this.out = out;
+            this.blockBytes = blockBytes;
+            ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            fileHeader.putInt(MAGIC).putInt(VERSION);
+            out.write(fileHeader.array());
+        }
+
+        public void connected(long timeNs, int readerId) throws IOException {
+            append(Event.CONNECTED, timeNs, readerId, null, 0, 0);
+        }
+
+        public void disconnected(long timeNs, int readerId) throws IOException {
+            append(Event.DISCONNECTED, timeNs, readerId, null, 0, 0);
+        }
+
+        public void notification(long timeNs, int readerId, byte[] value, int offset, int length) throws IOException {
+            if (length > MAX_VALUE_LENGTH) {
+                throw new IllegalArgumentException("Notification of " + length + " bytes");
+            }
+            append(Event.NOTIFICATION, timeNs, readerId, value, offset, length);
+        }
+
+        private void append(Event event, long timeNs, int readerId, byte[] value, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            if (readerId < 0 || readerId > 0xFF) {
+                throw new IllegalArgumentException("Invalid reader id: " + readerId);
+            }
+            if (count == 0) {
+                firstNs = timeNs;
+                previousNs = timeNs;
+            }
+            if (timeNs < previousNs) {
+                throw new IllegalArgumentException("Time went backwards by " + (previousNs - timeNs) + " ns");
+            }
+            payload.write(event.ordinal());
+            payload.write(readerId);
+            ByteCodec.writeVarLong(payload, timeNs - previousNs);
+            if (event == Event.NOTIFICATION) {
+                ByteCodec.writeVarLong(payload, length);
+                payload.write(value, offset, length);
+            }
+            previousNs = timeNs;
+            count++;
+            events++;
+            if (payload.size() >= blockBytes) {
+                writeBlock();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            int length = payload.size();
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            header.clear();
+            header.putInt(length).putInt(count).putLong(firstNs).putInt((int) crc.getValue());
+            out.write(header.array());
+            out.write(payload.array(), 0, length);
+            bytes += BLOCK_HEADER_SIZE + length;
+            blocks++;
+            count = 0;
+            payload.reset();
+        }
+
+        // Writes the collected events as a block now, e.g. before the app goes to the background
+        public void flush() throws IOException {
+            writeBlock();
+            out.flush();
+        }
+
+        public long getEvents() {
+            return events;
+        }
+
+        public long getBlocks() {
+            return blocks;
+        }
+
+        // Bytes written to the stream so far
+        public long getBytes() {
+            return bytes;
+        }
+
+        // Writes the last block and closes the stream
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                closed = true;
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a trace front to back, one event per next(). The payload of a notification is
+     * only valid until the next call. Not thread safe.
+     */
+    public static final class Reader implements AutoCloseable {
+        private final InputStream in;
+        private final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private byte[] payload = new byte[0];
+        private final ByteCodec.Cursor block = new ByteCodec.Cursor();
+        private int remaining;
+
+        private Event event;
+        private long timeNs;
+        private int readerId;
+        private int valueOffset;
+        private int valueLength;
+        private long blocksRead;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = in;
+            byte[] fileHeader = new byte[FILE_HEADER_SIZE];
+            if (!ByteCodec.readFully(in, fileHeader, FILE_HEADER_SIZE, true)) {
+                throw new IOException("Not a notification trace");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(fileHeader).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a notification trace");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported notification trace version " + buffer.getInt(4));
+            }
+        }
+
+        // Moves to the next event, false at the end of the trace
+        public boolean next() throws IOException {
+            if (remaining == 0 && !readBlock()) {
+                event = null;
+                return false;
+            }
+            int type = block.readByte();
+            if (type >= EVENTS.length) {
+                throw new IOException("Unknown event type " + type);
+            }
+            event = EVENTS[type];
+            readerId = block.readByte();
+            long delta = block.readVarLong();
+            if (delta < 0) {
+                throw new IOException("Corrupt time delta");
+            }
+            timeNs += delta;
+            valueOffset = block.position();
+            valueLength = 0;
+            if (event == Event.NOTIFICATION) {
+                long n = block.readVarLong();
+                if (n < 0 || n > MAX_VALUE_LENGTH || n > block.remaining()) {
+                    throw new IOException("Corrupt notification length " + n);
+                }
+                valueOffset = block.position();
+                valueLength = (int) n;
+                block.skip(valueLength);
+            }
+            remaining--;
+            return true;
+        }
+
+        private boolean readBlock() throws IOException {
+            if (!ByteCodec.readFully(in, header.array(), BLOCK_HEADER_SIZE, false)) {
+                return false;
+            }
+            int blockLength = header.getInt(0);
+            int count = header.getInt(4);
+            if (blockLength <= 0 || blockLength > MAX_BLOCK_BYTES || count <= 0) {
+                throw new IOException("Corrupt block header");
+            }
+            if (payload.length < blockLength) {
+                payload = new byte[blockLength];
+            }
+            if (!ByteCodec.readFully(in, payload, blockLength, true)) {
+                throw new EOFException("Truncated block");
+            }
+            crc.reset();
+            crc.update(payload, 0, blockLength);
+            if ((int) crc.getValue() != header.getInt(16)) {
+                throw new IOException("Block CRC mismatch");
+            }
+            block.reset(payload, blockLength);
+            remaining = count;
+            // the first delta of a block is 0
+            timeNs = header.getLong(8);
+            blocksRead++;
+            return true;
+        }
+
+        public Event getEvent() {
+            return event;
+        }
+
+        public long getTimeNs() {
+            return timeNs;
+        }
+
+        public int getReaderId() {
+            return readerId;
+        }
+
+        // Payload of a notification in getValue() from getValueOffset(), getValueLength() bytes
+        public byte[] getValue() {
+            return payload;
+        }
+
+        public int getValueOffset() {
+            return valueOffset;
+        }
+
+        public int getValueLength() {
+            return valueLength;
+        }
+
+        public long getBlocksRead() {
+            return blocksRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.rfidscanner;
+
+import android.Manifest;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import androidx.core.app.ActivityCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Looks for readers while the app is in the background, so a handheld left on for a shift
+ * picks its reader up again without anyone opening the app. The scan runs in low power mode
+ * with a report delay, the controller collects advertisements and wakes the app once per
+ * REPORT_DELAY_MS through onBatchScanResults. The first reader found is handed to the running
+ * BLE_MANAGER, or remembered in the ReaderStore with a notification when the app is gone.
+ * Either way the scan stops there.
+ */
+public class ReaderDiscoveryService extends Service {
+    private static final String TAG = "ReaderDiscovery";
+    private static final String CHANNEL_ID = "reader_discovery";
+    private static final int NOTIFICATION_ID = 1;
+    private static final int FOUND_NOTIFICATION_ID = 2;
+    // addresses that must not end the discovery, e.g. readers still reconnecting on their own
+    static final String EXTRA_IGNORED = "ignored";
+    // how long the controller holds advertisements before waking the app
+    static final long REPORT_DELAY_MS = 10_000;
+    private static final ParcelUuid SERVICE_PARCEL_UUID = new ParcelUuid(BLE_READER.SERVICE_UUID);
+
+    private static volatile ScanBatchProcessor.Handoff<BluetoothDevice> appHandoff;
+
+    private static final ScanBatchProcessor.Fields<ScanResult, BluetoothDevice> SCAN_RESULT = new ScanBatchProcessor.Fields<ScanResult, BluetoothDevice>() {
+        @Override
+        public String address(ScanResult result) {
+            return result.getDevice().getAddress();
+        }
+
+        @Override
+        public String name(ScanResult result) {
+            // from the advertisement, device.getName() would need BLUETOOTH_CONNECT
+            ScanRecord record = result.getScanRecord();
+            return record != null ? record.getDeviceName() : null;
+        }
+
+        @Override
+        public int rssi(ScanResult result) {
+            return result.getRssi();
+        }
+
+        @Override
+        public boolean isReader(ScanResult result) {
+            ScanRecord record = result.getScanRecord();
+            return record != null && record.getServiceUuids() != null
+                    && record.getServiceUuids().contains(SERVICE_PARCEL_UUID);
+        }
+
+        @Override
+        public BluetoothDevice device(ScanResult result) {
+            return result.getDevice();
+        }
+
+        @Override
+        public long timeMs(ScanResult result) {
+            // elapsedRealtime of the advertisement, a batch can be REPORT_DELAY_MS old
+            return result.getTimestampNanos() / 1_000_000;
+        }
+    };
+
+    private final ScanBatchProcessor<ScanResult, BluetoothDevice> processor = new ScanBatchProcessor<>(SCAN_RESULT);
+    private BluetoothLeScanner scanner;
+    private boolean scanning;
+
+    public static void start(Context context, List<String> ignoredAddresses) {
+        Intent intent = new Intent(context, ReaderDiscoveryService.class)
+                .putExtra(EXTRA_IGNORED, ignoredAddresses.toArray(new String[0]));
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, ReaderDiscoveryService.class));
+    }
+
+    // Set by the running BLE_MANAGER, called on the main thread with the reader to connect
+    static void setAppHandoff(ScanBatchProcessor.Handoff<BluetoothDevice> handoff) {
+        appHandoff = handoff;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        processor.setHandoff(this::onReaderAppeared);
+        BluetoothManager manager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        if (manager != null && manager.getAdapter() != null && manager.getAdapter().isEnabled()) {
+            scanner = manager.getAdapter().getBluetoothLeScanner();
+        }
+        createChannel();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        NotificationCompat.Builder notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle("Looking for RFID readers")
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setOngoing(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification.build(), ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        } else {
+            startForeground(NOTIFICATION_ID, notification.build());
+        }
+        String[] ignored = intent != null ? intent.getStringArrayExtra(EXTRA_IGNORED) : null;
+        processor.reset(ignored != null ? Arrays.asList(ignored) : Collections.<String>emptyList());
+        if (!scanning && !startScan()) {
+            stopSelf();
+        }
+        return START_NOT_STICKY;
+    }
+
+    // The permission is checked once here, a revoked permission kills the process anyway
+    private boolean startScan() {
+        String permission = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? Manifest.permission.BLUETOOTH_SCAN : Manifest.permission.ACCESS_FINE_LOCATION;
+        if (scanner == null || ActivityCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
+            Log.w(TAG, "Cannot scan in the background, Bluetooth off or " + permission + " missing");
+            return false;
+        }
+        List<ScanFilter> filters = Collections.singletonList(
+                new ScanFilter.Builder().setServiceUuid(SERVICE_PARCEL_UUID).build());
+        ScanSettings.Builder settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER);
+        BluetoothManager manager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+        if (manager.getAdapter().isOffloadedScanBatchingSupported()) {
+            settings.setReportDelay(REPORT_DELAY_MS);
+        }
+        scanner.startScan(filters, settings.build(), scanCallback);
+        scanning = true;
+        Log.d(TAG, "Background discovery started");
+        return true;
+    }
+
+    private void stopScan() {
+        if (!scanning) {
+            return;
+        }
+        scanning = false;
+        try {
+            scanner.stopScan(scanCallback);
+        } catch (SecurityException | IllegalStateException e) {
+            // permission revoked or Bluetooth turned off, the scan is gone either way
+            Log.w(TAG, "Cannot stop the scan", e);
+        }
+        Log.d(TAG, "Background discovery stopped after " + processor.getBatches() + " wake-ups, "
+                + processor.getResults() + " advertisements");
+    }
+
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            processor.process(results);
+        }
+
+        // Only used when the controller cannot batch
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            processor.process(Collections.singletonList(result));
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.w(TAG, "Background scan failed: " + errorCode);
+            scanning = false;
+            stopSelf();
+        }
+    };
+
+    // Called on the main thread from the scan callback
+    private void onReaderAppeared(ReaderScanTracker.Entry<BluetoothDevice> reader) {
+        Log.d(TAG, "Reader appeared: " + reader.getAddress() + " rssi: " + reader.getRssi());
+        stopScan();
+        ScanBatchProcessor.Handoff<BluetoothDevice> handoff = appHandoff;
+        if (handoff != null) {
+            handoff.onReaderAppeared(reader);
+        } else {
+            // connectKnownReaders() picks it up when the app is opened
+            new ReaderStore(this).saveReader(reader.getAddress(), reader.getName());
+            notifyReaderFound(reader);
+        }
+        stopSelf();
+    }
+
+    private void notifyReaderFound(ReaderScanTracker.Entry<BluetoothDevice> reader) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ActivityCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        PendingIntent open = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.notify(FOUND_NOTIFICATION_ID, new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle("RFID reader in range")
+                .setContentText("Tap to connect to " + (reader.getName() != null ? reader.getName() : reader.getAddress()))
+                .setContentIntent(open)
+                .setAutoCancel(true)
+                .build());
+    }
+
+    private void createChannel() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Reader discovery", NotificationManager.IMPORTANCE_LOW);
+        ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+    }
+
+    @Override
+    public void onDestroy() {
+        stopScan();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.rfidscanner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps one entry per advertising address during a scan, with an exponentially smoothed
+ * RSSI, and tells the caller as soon as a reader is close enough to connect to so the scan
+ * can stop early instead of running for a fixed period.
+ *
+ * @param <D> platform device handle, BluetoothDevice on Android
+ */
+public final class ReaderScanTracker<D> {
+    public static final int DEFAULT_RSSI_THRESHOLD = -85;
+    public static final int DEFAULT_MIN_SAMPLES = 2;
+    private static final double SMOOTHING = 0.3;
+
+    public static final class Entry<D> {
+        private final String address;
+        private D device;
+        private String name;
+        private double smoothedRssi;
+        private int lastRssi;
+        private int samples;
+        private long firstSeenMs;
+        private long lastSeenMs;
+
+        Entry(String address) {
+            this.address = address;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public D getDevice() {
+            return device;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getRssi() {
+            return (int) Math.round(smoothedRssi);
+        }
+
+        public int getLastRssi() {
+            return lastRssi;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public long getFirstSeenMs() {
+            return firstSeenMs;
+        }
+
+        public long getLastSeenMs() {
+            return lastSeenMs;
+        }
+    }
+
+    private final Map<String, Entry<D>> entries = new HashMap<>();
+    private final Set<String> ignored = new HashSet<>();
+    private final int rssiThreshold;
+    private final int minSamples;
+    private Entry<D> match;
+
+    public ReaderScanTracker() {
+        this(DEFAULT_RSSI_THRESHOLD, DEFAULT_MIN_SAMPLES);
+    }
+
+    public ReaderScanTracker(int rssiThreshold, int minSamples) {
+        if (minSamples < 1) {
+            throw new IllegalArgumentException("minSamples must be at least 1");
+        }
+        this.rssiThreshold = rssiThreshold;
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * Records an advertisement. isReader is true when it carries the reader service UUID.
+     * Returns the entry the first time a reader passes the RSSI threshold, null otherwise.
+     */
+    public synchronized Entry<D> onAdvertisement(String address, String name, int rssi, boolean isReader, D device, long nowMs) {
+        Entry<D> entry = entries.get(address);
+        if (entry == null) {
+            entry = new Entry<>(address);
+            entry.firstSeenMs = nowMs;
+            entry.smoothedRssi = rssi;
+            entries.put(address, entry);
+        } else {
+            entry.smoothedRssi += SMOOTHING * (rssi - entry.smoothedRssi);
+        }
+        entry.device = device;
+        entry.lastRssi = rssi;
+        entry.lastSeenMs = nowMs;
+        entry.samples++;
+        if (name != null) {
+            entry.name = name;
+        }
+
+        if (match == null && isReader && !ignored.contains(address) && entry.samples >= minSamples && entry.smoothedRssi >= rssiThreshold) {
+            match = entry;
+            return entry;
+        }
+        return null;
+    }
+
+    // The reader that ended the scan, or null if none qualified yet
+    public synchronized Entry<D> getMatch() {
+        return match;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized List<Entry<D>> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    // The address is still tracked but can no longer end the scan, e.g. a reader that is already connected
+    public synchronized void ignore(String address) {
+        ignored.add(address);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        ignored.clear();
+        match = null;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.rfidscanner;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+// Remembers the readers that got as far as streaming notifications
+public class ReaderStore {
+    private static final String PREFS = "rfid_readers";
+    private static final String KEY_LAST_ADDRESS = "last_address";
+    private static final String KEY_LAST_NAME = "last_name";
+    private static final String KEY_KNOWN_ADDRESSES = "known_addresses";
+
+    private final SharedPreferences prefs;
+
+    public ReaderStore(Context context) {
+        prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    public String getLastAddress() {
+        return prefs.getString(KEY_LAST_ADDRESS, null);
+    }
+
+    public String getLastName() {
+        return prefs.getString(KEY_LAST_NAME, null);
+    }
+
+    // Every reader that ever streamed, so a multi reader setup comes back without scanning
+    public Set<String> getKnownAddresses() {
+        Set<String> known = new HashSet<>(prefs.getStringSet(KEY_KNOWN_ADDRESSES, Collections.emptySet()));
+        String last = getLastAddress();
+        if (last != null) {
+            known.add(last);
+        }
+        return known;
+    }
+
+    public void saveReader(String address, String name) {
+        // the returned set must not be modified, so write a copy
+        Set<String> known = new HashSet<>(prefs.getStringSet(KEY_KNOWN_ADDRESSES, Collections.emptySet()));
+        known.add(address);
+        prefs.edit()
+                .putString(KEY_LAST_ADDRESS, address)
+                .putString(KEY_LAST_NAME, name)
+                .putStringSet(KEY_KNOWN_ADDRESSES, known)
+                .apply();
+    }
+
+    public void forgetReader(String address) {
+        Set<String> known = new HashSet<>(prefs.getStringSet(KEY_KNOWN_ADDRESSES, Collections.emptySet()));
+        known.remove(address);
+        SharedPreferences.Editor editor = prefs.edit().putStringSet(KEY_KNOWN_ADDRESSES, known);
+        if (address.equals(getLastAddress())) {
+            editor.remove(KEY_LAST_ADDRESS).remove(KEY_LAST_NAME);
+        }
+        editor.apply();
+    }
+
+    public void forget() {
+        prefs.edit().clear().apply();
+    }
+}
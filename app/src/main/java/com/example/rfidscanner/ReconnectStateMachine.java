@@ -0,0 +1,305 @@
+package com.example.rfidscanner;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps a reader connected. After an unexpected disconnect (or a connect attempt that
+ * takes too long) it waits with exponential backoff and connects again directly to the
+ * known address, without a scan. Timers go through the TaskScheduler so the whole thing
+ * can be driven by a manual clock and a fake connector in tests.
+ *
+ * State changes are made under the monitor, the connector and listener calls they cause
+ * are queued and made after it is released, in the order the changes happened, so a
+ * connector or listener that takes its own locks cannot deadlock against the machine.
+ */
+public final class ReconnectStateMachine {
+    public enum State {
+        // not trying to connect
+        IDLE,
+        // connection attempt in progress
+        CONNECTING,
+        // link is up, services / notifications being set up
+        SETTING_UP,
+        // notifications are flowing
+        READY,
+        // waiting before the next attempt
+        BACKOFF,
+        // maxAttempts failed in a row
+        GAVE_UP
+    }
+
+    public interface Connector {
+        // Starts a connection attempt, attempt is 1 for the first try after start() or a drop
+        void connect(String address, int attempt);
+
+        // Abandons the current attempt or connection
+        void disconnect();
+    }
+
+    public interface Listener {
+        void onStateChanged(State state, int attempt, long retryDelayMs);
+    }
+
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 250;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 30_000;
+    public static final long DEFAULT_ATTEMPT_TIMEOUT_MS = 10_000;
+    // 0 means keep trying until stop() is called
+    public static final int DEFAULT_MAX_ATTEMPTS = 0;
+
+    private final TaskScheduler scheduler;
+    private final Connector connector;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final long attemptTimeoutMs;
+    private final int maxAttempts;
+    private Listener listener;
+    private RfidMetrics metrics;
+
+    private State state = State.IDLE;
+    private String address;
+    private int attempt;
+    private long droppedAtMs = -1;
+
+    private long connects;
+    private long reconnects;
+    private long failedAttempts;
+    private long timeouts;
+    private long lastReconnectMs = -1;
+
+    // callbacks waiting for the monitor to be released, see flush()
+    private final ArrayDeque<Runnable> effects = new ArrayDeque<>();
+    private boolean flushing;
+
+    private final Runnable retry = this::onRetry;
+    private final Runnable attemptTimeout = this::onAttemptTimeout;
+
+    public ReconnectStateMachine(TaskScheduler scheduler, Connector connector) {
+        this(scheduler, connector, DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_MAX_BACKOFF_MS,
+                DEFAULT_ATTEMPT_TIMEOUT_MS, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public ReconnectStateMachine(TaskScheduler scheduler, Connector connector, long initialBackoffMs,
+                                 long maxBackoffMs, long attemptTimeoutMs, int maxAttempts) {
+        if (initialBackoffMs <= 0 || maxBackoffMs < initialBackoffMs) {
+            throw new IllegalArgumentException("Invalid backoff range");
+        }
+        this.scheduler = scheduler;
+        this.connector = connector;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.attemptTimeoutMs = attemptTimeoutMs;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Optional, connects and reconnect times are also recorded here when set
+    public synchronized void setMetrics(RfidMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Connects to the address and keeps the connection up until stop()
+    public void start(String address) {
+        synchronized (this) {
+            cancelTimers();
+            this.address = address;
+            attempt = 0;
+            droppedAtMs = -1;
+            connectNext();
+        }
+        flush();
+    }
+
+    public void stop() {
+        synchronized (this) {
+            cancelTimers();
+            State previous = state;
+            moveTo(State.IDLE, 0);
+            if (previous != State.IDLE && previous != State.GAVE_UP) {
+                effects.add(connector::disconnect);
+            }
+        }
+        flush();
+    }
+
+    public void onConnected() {
+        synchronized (this) {
+            if (state != State.CONNECTING) {
+                return;
+            }
+            scheduler.cancel(attemptTimeout);
+            moveTo(State.SETTING_UP, 0);
+            scheduler.postDelayed(attemptTimeout, attemptTimeoutMs);
+        }
+        flush();
+    }
+
+    public void onReady() {
+        synchronized (this) {
+            if (state != State.SETTING_UP && state != State.CONNECTING) {
+                return;
+            }
+            scheduler.cancel(attemptTimeout);
+            connects++;
+            if (metrics != null) {
+                metrics.increment(RfidMetrics.Counter.CONNECTS);
+            }
+            if (droppedAtMs >= 0) {
+                reconnects++;
+                lastReconnectMs = scheduler.nowMs() - droppedAtMs;
+                droppedAtMs = -1;
+                if (metrics != null) {
+                    metrics.increment(RfidMetrics.Counter.RECONNECTS);
+                    metrics.recordReconnect(lastReconnectMs);
+                }
+            }
+            attempt = 0;
+            moveTo(State.READY, 0);
+        }
+        flush();
+    }
+
+    // Link dropped or the attempt failed, either way schedule the next one
+    public void onDisconnected() {
+        synchronized (this) {
+            if (state == State.IDLE || state == State.BACKOFF || state == State.GAVE_UP) {
+                return;
+            }
+            scheduler.cancel(attemptTimeout);
+            if (state == State.READY) {
+                droppedAtMs = scheduler.nowMs();
+            } else {
+                failedAttempts++;
+            }
+            scheduleRetry();
+        }
+        flush();
+    }
+
+    private void onAttemptTimeout() {
+        synchronized (this) {
+            if (state != State.CONNECTING && state != State.SETTING_UP) {
+                return;
+            }
+            timeouts++;
+            failedAttempts++;
+            scheduleRetry();
+            // a late disconnect callback for the abandoned attempt lands in BACKOFF and is ignored
+            effects.add(connector::disconnect);
+        }
+        flush();
+    }
+
+    private void scheduleRetry() {
+        if (maxAttempts > 0 && attempt >= maxAttempts) {
+            moveTo(State.GAVE_UP, 0);
+            return;
+        }
+        long delay = backoffMs(attempt);
+        moveTo(State.BACKOFF, delay);
+        scheduler.postDelayed(retry, delay);
+    }
+
+    // Backoff before the given attempt number, attempt 0 is the retry right after a drop
+    long backoffMs(int attempt) {
+        long delay = initialBackoffMs;
+        for (int i = 0; i < attempt && delay < maxBackoffMs; i++) {
+            delay <<= 1;
+        }
+        return Math.min(delay, maxBackoffMs);
+    }
+
+    private void onRetry() {
+        synchronized (this) {
+            if (state != State.BACKOFF) {
+                return;
+            }
+            connectNext();
+        }
+        flush();
+    }
+
+    private void connectNext() {
+        attempt++;
+        moveTo(State.CONNECTING, 0);
+        scheduler.postDelayed(attemptTimeout, attemptTimeoutMs);
+        String target = address;
+        int number = attempt;
+        effects.add(() -> connector.connect(target, number));
+    }
+
+    private void cancelTimers() {
+        scheduler.cancel(retry);
+        scheduler.cancel(attemptTimeout);
+    }
+
+    // Called with the monitor held, the listener hears about it from flush()
+    private void moveTo(State next, long retryDelayMs) {
+        state = next;
+        Listener l = listener;
+        if (l != null) {
+            int number = attempt;
+            effects.add(() -> l.onStateChanged(next, number, retryDelayMs));
+        }
+    }
+
+    // Runs the queued callbacks without the monitor. Only one thread drains at a time so they
+    // keep their order; a call made from inside a callback leaves its own to the running drain.
+    private void flush() {
+        while (true) {
+            Runnable effect;
+            synchronized (this) {
+                if (flushing) {
+                    return;
+                }
+                effect = effects.poll();
+                if (effect == null) {
+                    return;
+                }
+                flushing = true;
+            }
+            try {
+                effect.run();
+            } finally {
+                synchronized (this) {
+                    flushing = false;
+                }
+            }
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized String getAddress() {
+        return address;
+    }
+
+    public synchronized int getAttempt() {
+        return attempt;
+    }
+
+    public synchronized long getConnects() {
+        return connects;
+    }
+
+    public synchronized long getReconnects() {
+        return reconnects;
+    }
+
+    public synchronized long getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    // Dead time of the last drop, from disconnect to notifications flowing again
+    public synchronized long getLastReconnectMs() {
+        return lastReconnectMs;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.rfidscanner;
+
+// Batched counterpart of BLE_MANAGER.RfidDataListener, called on the UI thread at most once per frame.
+// The batch is reused after the call returns, copy out anything that needs to be kept.
+public interface RfidBatchListener {
+    void onRfidBatch(TagReadBatch batch);
+}
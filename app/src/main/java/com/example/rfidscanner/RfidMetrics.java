@@ -0,0 +1,246 @@
+package com.example.rfidscanner;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the path from a card on the antenna to the UI.
+ * Everything is recorded with atomics into preallocated arrays, so the hot path takes no
+ * locks and allocates nothing; snapshot() does the copying and formatting off that path.
+ *
+ * All times are milliseconds.
+ */
+public final class RfidMetrics {
+    public enum Counter {
+        // notifications received from any transport
+        NOTIFICATIONS,
+        INVALID_PAYLOADS,
+        // reads handed to the UI listener
+        READS_DELIVERED,
+        // reads dropped because a reader's fan-in lane was full
+        FAN_IN_DROPS,
+        // reads dropped because the UI fell behind
+        BATCH_DROPS,
+        CONNECTS,
+        RECONNECTS,
+        GATT_TIMEOUTS,
+        GATT_FAILURES,
+        // version 1 frames, each carrying one or more UIDs
+        FRAMES,
+        // frames the reader sent that never arrived, from sequence gaps
+        MISSED_FRAMES,
+        // reads that could not be written to the TagJournal
+        JOURNAL_ERRORS
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+    private static final GattCommand.Type[] GATT_TYPES = GattCommand.Type.values();
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS.length);
+    private final LatencyHistogram notifyToListener = new LatencyHistogram();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram[] gattOps = new LatencyHistogram[GATT_TYPES.length];
+    private final LatencyHistogram scanToConnect = new LatencyHistogram();
+    private final LatencyHistogram scanToFirstTag = new LatencyHistogram();
+    private final LatencyHistogram reconnect = new LatencyHistogram();
+
+    public RfidMetrics() {
+        for (int i = 0; i < gattOps.length; i++) {
+            gattOps[i] = new LatencyHistogram();
+        }
+    }
+
+    public void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public void add(Counter counter, long delta) {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    // From the notification timestamp to the moment the batch listener returned
+    public void recordNotifyToListener(long ms) {
+        notifyToListener.record(ms);
+    }
+
+    // Time a GATT command waited in the queue before it was started
+    public void recordQueueWait(long ms) {
+        queueWait.record(ms);
+    }
+
+    // Time from starting a GATT command to its callback (or timeout)
+    public void recordGattOp(GattCommand.Type type, long ms) {
+        gattOps[type.ordinal()].record(ms);
+    }
+
+    public void recordScanToConnect(long ms) {
+        scanToConnect.record(ms);
+    }
+
+    public void recordScanToFirstTag(long ms) {
+        scanToFirstTag.record(ms);
+    }
+
+    // Dead time of a dropped link, from the disconnect to notifications flowing again
+    public void recordReconnect(long ms) {
+        reconnect.record(ms);
+    }
+
+    public LatencyHistogram getNotifyToListener() {
+        return notifyToListener;
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram getGattOp(GattCommand.Type type) {
+        return gattOps[type.ordinal()];
+    }
+
+    public void reset() {
+        for (int i = 0; i < COUNTERS.length; i++) {
+            counters.set(i, 0);
+        }
+        notifyToListener.reset();
+        queueWait.reset();
+        for (LatencyHistogram histogram : gattOps) {
+            histogram.reset();
+        }
+        scanToConnect.reset();
+        scanToFirstTag.reset();
+        reconnect.reset();
+    }
+
+    public Snapshot snapshot(long nowMs) {
+        long[] values = new long[COUNTERS.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = counters.get(i);
+        }
+        LatencyHistogram.Snapshot[] ops = new LatencyHistogram.Snapshot[gattOps.length];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = gattOps[i].snapshot();
+        }
+        return new Snapshot(nowMs, values, notifyToListener.snapshot(), queueWait.snapshot(), ops,
+                scanToConnect.snapshot(), scanToFirstTag.snapshot(), reconnect.snapshot());
+    }
+
+    /**
+     * Point in time copy of all metrics, formatted as JSON for export or as text for the
+     * debug panel.
+     */
+    public static final class Snapshot {
+        private final long timeMs;
+        private final long[] counters;
+        private final LatencyHistogram.Snapshot notifyToListener;
+        private final LatencyHistogram.Snapshot queueWait;
+        private final LatencyHistogram.Snapshot[] gattOps;
+        private final LatencyHistogram.Snapshot scanToConnect;
+        private final LatencyHistogram.Snapshot scanToFirstTag;
+        private final LatencyHistogram.Snapshot reconnect;
+
+        Snapshot(long timeMs, long[] counters, LatencyHistogram.Snapshot notifyToListener,
+                 LatencyHistogram.Snapshot queueWait, LatencyHistogram.Snapshot[] gattOps,
+                 LatencyHistogram.Snapshot scanToConnect, LatencyHistogram.Snapshot scanToFirstTag,
+                 LatencyHistogram.Snapshot reconnect) {
+            this.timeMs = timeMs;
+            this.counters = counters;
+            this.notifyToListener = notifyToListener;
+            this.queueWait = queueWait;
+            this.gattOps = gattOps;
+            this.scanToConnect = scanToConnect;
+            this.scanToFirstTag = scanToFirstTag;
+            this.reconnect = reconnect;
+        }
+
+        public long get(Counter counter) {
+            return counters[counter.ordinal()];
+        }
+
+        public LatencyHistogram.Snapshot getNotifyToListener() {
+            return notifyToListener;
+        }
+
+        public LatencyHistogram.Snapshot getQueueWait() {
+            return queueWait;
+        }
+
+        public LatencyHistogram.Snapshot getGattOp(GattCommand.Type type) {
+            return gattOps[type.ordinal()];
+        }
+
+        public LatencyHistogram.Snapshot getScanToConnect() {
+            return scanToConnect;
+        }
+
+        public LatencyHistogram.Snapshot getScanToFirstTag() {
+            return scanToFirstTag;
+        }
+
+        public LatencyHistogram.Snapshot getReconnect() {
+            return reconnect;
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder(2048);
+            json.append("{\"time_ms\":").append(timeMs).append(",\"counters\":{");
+            for (int i = 0; i < COUNTERS.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append('"').append(COUNTERS[i].name().toLowerCase(Locale.US)).append("\":").append(counters[i]);
+            }
+            json.append("},\"latency_ms\":{");
+            appendJson(json, "notify_to_listener", notifyToListener).append(',');
+            appendJson(json, "queue_wait", queueWait).append(',');
+            appendJson(json, "scan_to_connect", scanToConnect).append(',');
+            appendJson(json, "scan_to_first_tag", scanToFirstTag).append(',');
+            appendJson(json, "reconnect", reconnect);
+            json.append("},\"gatt_op_ms\":{");
+            for (int i = 0; i < GATT_TYPES.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                appendJson(json, GATT_TYPES[i].name().toLowerCase(Locale.US), gattOps[i]);
+            }
+            return json.append("}}").toString();
+        }
+
+        private static StringBuilder appendJson(StringBuilder json, String name, LatencyHistogram.Snapshot h) {
+            return json.append('"').append(name).append("\":{\"count\":").append(h.getCount())
+                    .append(",\"mean\":").append(String.format(Locale.US, "%.1f", h.getMean()))
+                    .append(",\"p50\":").append(h.getPercentile(0.5))
+                    .append(",\"p90\":").append(h.getPercentile(0.9))
+                    .append(",\"p99\":").append(h.getPercentile(0.99))
+                    .append(",\"max\":").append(h.getMax()).append('}');
+        }
+
+        public String toText() {
+            StringBuilder text = new StringBuilder(1024);
+            for (int i = 0; i < COUNTERS.length; i++) {
+                text.append(String.format(Locale.US, "%-18s %d%n", COUNTERS[i].name().toLowerCase(Locale.US), counters[i]));
+            }
+            text.append(String.format(Locale.US, "%-18s %6s %6s %6s %6s %6s%n", "latency ms", "count", "p50", "p90", "p99", "max"));
+            appendText(text, "notify_to_listener", notifyToListener);
+            appendText(text, "queue_wait", queueWait);
+            for (int i = 0; i < GATT_TYPES.length; i++) {
+                if (gattOps[i].getCount() > 0) {
+                    appendText(text, GATT_TYPES[i].name().toLowerCase(Locale.US), gattOps[i]);
+                }
+            }
+            appendText(text, "scan_to_connect", scanToConnect);
+            appendText(text, "scan_to_first_tag", scanToFirstTag);
+            appendText(text, "reconnect", reconnect);
+            return text.toString();
+        }
+
+        private static void appendText(StringBuilder text, String name, LatencyHistogram.Snapshot h) {
+            text.append(String.format(Locale.US, "%-18s %6d %6d %6d %6d %6d%n", name, h.getCount(),
+                    h.getPercentile(0.5), h.getPercentile(0.9), h.getPercentile(0.99), h.getMax()));
+        }
+    }
+}
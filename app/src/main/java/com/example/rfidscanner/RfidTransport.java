@@ -0,0 +1,23 @@
+package com.example.rfidscanner;
+
+/**
+ * Source of raw tag notifications. The BLE readers are one backend, SimulatedReader is
+ * another, so everything behind the Sink (TagPipeline) runs the same way on a phone and
+ * on a plain JVM.
+ */
+public interface RfidTransport {
+    // Called from the transport's own threads, implementations must not block
+    interface Sink {
+        void onReaderConnected(int readerId);
+
+        void onReaderDisconnected(int readerId);
+
+        // value is only valid during the call
+        void onNotification(int readerId, byte[] value, int offset, int length, long timeMs);
+    }
+
+    void start(Sink sink);
+
+    // Stops producing notifications, a callback already in flight may still arrive
+    void stop();
+}
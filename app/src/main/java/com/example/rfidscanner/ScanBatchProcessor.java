@@ -0,0 +1,120 @@
+package com.example.rfidscanner;
+
+import java.util.List;
+
+/**
+ * Handles batched scan results, as delivered by onBatchScanResults when the scan has a report
+ * delay. The controller collects advertisements while the CPU sleeps and wakes the app once
+ * per delay. Each batch goes through a ReaderScanTracker in order, and the first reader that
+ * qualifies is handed off to the connection side. After that the processor ignores batches
+ * until reset(), so one discovery leads to at most one connection attempt.
+ *
+ * @param <R> platform scan result, ScanResult on Android
+ * @param <D> platform device handle, BluetoothDevice on Android
+ */
+public final class ScanBatchProcessor<R, D> {
+    // Reads one scan result, so the processor does not depend on the Android classes
+    public interface Fields<R, D> {
+        String address(R result);
+
+        // null when the advertisement carries no name
+        String name(R result);
+
+        int rssi(R result);
+
+        boolean isReader(R result);
+
+        D device(R result);
+
+        // When the advertisement was received, not when the batch was delivered
+        long timeMs(R result);
+    }
+
+    public interface Handoff<D> {
+        void onReaderAppeared(ReaderScanTracker.Entry<D> reader);
+    }
+
+    private final ReaderScanTracker<D> tracker;
+    private final Fields<R, D> fields;
+    private volatile Handoff<D> handoff;
+    private boolean handedOff;
+
+    private long batches;
+    private long results;
+    private int largestBatch;
+
+    public ScanBatchProcessor(Fields<R, D> fields) {
+        this(new ReaderScanTracker<>(), fields);
+    }
+
+    public ScanBatchProcessor(ReaderScanTracker<D> tracker, Fields<R, D> fields) {
+        this.tracker = tracker;
+        this.fields = fields;
+    }
+
+    public void setHandoff(Handoff<D> handoff) {
+        this.handoff = handoff;
+    }
+
+    /**
+     * Feeds one batch to the tracker. Returns the reader that was handed off because of
+     * this batch, or null.
+     */
+    public synchronized ReaderScanTracker.Entry<D> process(List<R> batch) {
+        batches++;
+        results += batch.size();
+        largestBatch = Math.max(largestBatch, batch.size());
+        if (handedOff) {
+            return null;
+        }
+        ReaderScanTracker.Entry<D> match = null;
+        for (int i = 0; i < batch.size(); i++) {
+            R result = batch.get(i);
+            ReaderScanTracker.Entry<D> entry = tracker.onAdvertisement(fields.address(result), fields.name(result),
+                    fields.rssi(result), fields.isReader(result), fields.device(result), fields.timeMs(result));
+            if (entry != null) {
+                // the rest of the batch only refreshes RSSI, no second reader is handed off
+                match = entry;
+            }
+        }
+        if (match == null) {
+            return null;
+        }
+        handedOff = true;
+        Handoff<D> h = handoff;
+        if (h != null) {
+            h.onReaderAppeared(match);
+        }
+        return match;
+    }
+
+    // Starts a new discovery, addresses to skip (e.g. connected readers) are passed again
+    public synchronized void reset(Iterable<String> ignored) {
+        tracker.clear();
+        for (String address : ignored) {
+            tracker.ignore(address);
+        }
+        handedOff = false;
+    }
+
+    public synchronized boolean isHandedOff() {
+        return handedOff;
+    }
+
+    public ReaderScanTracker<D> getTracker() {
+        return tracker;
+    }
+
+    // Wake-ups so far, one per batch
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getResults() {
+        return results;
+    }
+
+    public synchronized int getLargestBatch() {
+        return largestBatch;
+    }
+}
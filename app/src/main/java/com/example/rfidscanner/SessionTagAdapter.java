@@ -0,0 +1,121 @@
+package com.example.rfidscanner;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Shows a SessionTagList in a RecyclerView. ListAdapter diffs snapshots on its background
+ * executor and only the rows that changed are rebound. While a diff is running new reads just
+ * mark the list dirty, and the next snapshot is taken once that diff has been applied, so a
+ * burst of reads costs one diff per pass instead of one per frame. Main thread only.
+ */
+public class SessionTagAdapter extends ListAdapter<SessionTagList.Row, SessionTagAdapter.ViewHolder> {
+    private static final DiffUtil.ItemCallback<SessionTagList.Row> DIFF = new DiffUtil.ItemCallback<SessionTagList.Row>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull SessionTagList.Row oldRow, @NonNull SessionTagList.Row newRow) {
+            return oldRow.getTagId() == newRow.getTagId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull SessionTagList.Row oldRow, @NonNull SessionTagList.Row newRow) {
+            return oldRow.sameContents(newRow);
+        }
+    };
+
+    private final TagIdTable tagIds;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.US);
+    // read times are on the ingest clock, this turns them into wall clock for display
+    private final long wallClockOffsetMs;
+    private AssetResolver assetResolver;
+    private AssetResolver.Callback assetCallback;
+    private SessionTagList session;
+    private boolean diffing;
+    private boolean dirty;
+
+    public SessionTagAdapter(TagIdTable tagIds, long wallClockOffsetMs) {
+        super(DIFF);
+        this.tagIds = tagIds;
+        this.wallClockOffsetMs = wallClockOffsetMs;
+    }
+
+    // callback runs on the asset lookup thread, see onAssetResolved
+    public void setAssetResolver(AssetResolver resolver, AssetResolver.Callback callback) {
+        assetResolver = resolver;
+        assetCallback = callback;
+    }
+
+    /**
+     * Takes a snapshot of the session and diffs it against what is shown, or, while a diff is
+     * still running, takes one as soon as that diff has been applied.
+     */
+    public void update(SessionTagList session) {
+        this.session = session;
+        if (diffing) {
+            dirty = true;
+            return;
+        }
+        diffing = true;
+        dirty = false;
+        submitList(session.snapshot(), this::onDiffApplied);
+    }
+
+    private void onDiffApplied() {
+        diffing = false;
+        if (dirty) {
+            update(session);
+        }
+    }
+
+    // Rebinds the row of the tag once its asset is known
+    public void onAssetResolved(int tagId) {
+        List<SessionTagList.Row> rows = getCurrentList();
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).getTagId() == tagId) {
+                notifyItemChanged(i);
+                return;
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_session_tag, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        SessionTagList.Row row = getItem(position);
+        int tagId = row.getTagId();
+        Asset asset = assetResolver == null ? null : assetResolver.resolve(tagId, assetCallback);
+        String hex = tagIds.hex(tagId);
+        holder.title.setText(asset == null ? hex : asset.toString());
+        String seen = timeFormat.format(new Date(row.getLastSeenMs() + wallClockOffsetMs));
+        String detail = "x" + row.getCount() + "  reader " + row.getReaderId() + "  " + seen;
+        holder.detail.setText(asset == null ? detail : hex + "  " + detail);
+    }
+
+    static final class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView title;
+        final TextView detail;
+
+        ViewHolder(View view) {
+            super(view);
+            title = view.findViewById(R.id.txt_tag_title);
+            detail = view.findViewById(R.id.txt_tag_detail);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.rfidscanner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The tags seen in this session, one row per tag id, newest tag first. A read of a known tag
+ * updates its row in place, so the list only grows when a new tag shows up; when it is full
+ * the tag that has not been seen for the longest makes room.
+ *
+ * Rows are immutable and a row is only rebuilt after its tag was read again, so snapshots can
+ * be diffed on another thread and unchanged rows compare by identity. Not thread safe, the
+ * UI thread owns it.
+ */
+public final class SessionTagList {
+    public static final int DEFAULT_CAPACITY = 500;
+
+    /**
+     * One tag of a snapshot.
+     */
+    public static final class Row {
+        private final int tagId;
+        private final int readerId;
+        private final int count;
+        private final long firstSeenMs;
+        private final long lastSeenMs;
+
+        Row(int tagId, int readerId, int count, long firstSeenMs, long lastSeenMs) {
+            this.tagId = tagId;
+            this.readerId = readerId;
+            this.count = count;
+            this.firstSeenMs = firstSeenMs;
+            this.lastSeenMs = lastSeenMs;
+        }
+
+        public int getTagId() {
+            return tagId;
+        }
+
+        // reader of the latest read
+        public int getReaderId() {
+            return readerId;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getFirstSeenMs() {
+            return firstSeenMs;
+        }
+
+        public long getLastSeenMs() {
+            return lastSeenMs;
+        }
+
+        public boolean sameContents(Row other) {
+            return this == other || (tagId == other.tagId && readerId == other.readerId && count == other.count
+                    && lastSeenMs == other.lastSeenMs);
+        }
+    }
+
+    private static final class Entry {
+        final int tagId;
+        final long firstSeenMs;
+        // order the tag was first seen in, newer tags sort first
+        final long sequence;
+        int readerId;
+        int count;
+        long lastSeenMs;
+        // null after an update until the next snapshot
+        Row row;
+
+        Entry(int tagId, long firstSeenMs, long sequence) {
+            this.tagId = tagId;
+            this.firstSeenMs = firstSeenMs;
+            this.sequence = sequence;
+        }
+    }
+
+    private final int capacity;
+    private final HashMap<Integer, Entry> entries;
+    // insertion order, index 0 is the oldest; evicted slots are null until compacted
+    private Entry[] order;
+    private int orderSize;
+    private long nextSequence;
+    private boolean changed;
+    private long evicted;
+
+    public SessionTagList(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        entries = new HashMap<>(capacity * 2);
+        order = new Entry[capacity * 2];
+    }
+
+    public SessionTagList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public void record(TagReadBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            record(batch.readerId(i), batch.tagId(i), batch.timeMs(i));
+        }
+    }
+
+    public void record(int readerId, int tagId, long timeMs) {
+        Entry entry = entries.get(tagId);
+        if (entry == null) {
+            if (entries.size() == capacity) {
+                evictStalest();
+            }
+            entry = new Entry(tagId, timeMs, nextSequence++);
+            entries.put(tagId, entry);
+            append(entry);
+        }
+        entry.count++;
+        // a late read from another reader counts but does not move last seen back
+        if (entry.count == 1 || timeMs >= entry.lastSeenMs) {
+            entry.readerId = readerId;
+            entry.lastSeenMs = timeMs;
+        }
+        entry.row = null;
+        changed = true;
+    }
+
+    private void evictStalest() {
+        Entry stalest = null;
+        for (Entry entry : entries.values()) {
+            if (stalest == null || entry.lastSeenMs < stalest.lastSeenMs
+                    || (entry.lastSeenMs == stalest.lastSeenMs && entry.sequence < stalest.sequence)) {
+                stalest = entry;
+            }
+        }
+        entries.remove(stalest.tagId);
+        for (int i = 0; i < orderSize; i++) {
+            if (order[i] == stalest) {
+                order[i] = null;
+                break;
+            }
+        }
+        evicted++;
+    }
+
+    private void append(Entry entry) {
+        if (orderSize == order.length) {
+            // only live entries are kept, there is room for at least capacity more
+            int live = 0;
+            for (int i = 0; i < orderSize; i++) {
+                if (order[i] != null) {
+                    order[live++] = order[i];
+                }
+            }
+            Arrays.fill(order, live, orderSize, null);
+            orderSize = live;
+        }
+        order[orderSize++] = entry;
+    }
+
+    /**
+     * Rows newest tag first. The list is immutable and keeps its values after later reads.
+     */
+    public List<Row> snapshot() {
+        Row[] rows = new Row[entries.size()];
+        int index = 0;
+        for (int i = orderSize - 1; i >= 0; i--) {
+            Entry entry = order[i];
+            if (entry == null) {
+                continue;
+            }
+            if (entry.row == null) {
+                entry.row = new Row(entry.tagId, entry.readerId, entry.count, entry.firstSeenMs, entry.lastSeenMs);
+            }
+            rows[index++] = entry.row;
+        }
+        changed = false;
+        return Collections.unmodifiableList(Arrays.asList(rows));
+    }
+
+    // True when a read came in after the last snapshot
+    public boolean isChanged() {
+        return changed;
+    }
+
+    public boolean contains(int tagId) {
+        return entries.containsKey(tagId);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Tags pushed out to make room for new ones
+    public long getEvicted() {
+        return evicted;
+    }
+
+    public void clear() {
+        entries.clear();
+        Arrays.fill(order, 0, orderSize, null);
+        orderSize = 0;
+        changed = true;
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.rfidscanner;
+
+import java.util.Random;
+
+/**
+ * In-process stand-in for one or more ESP32 readers, for load and latency tests without
+ * hardware. Every reader produces bursts of reads as a Poisson process; a burst is the
+ * cards the antenna saw in one sweep, mostly tags still in its field (repeats) and now and
+ * then a new tag from the population. Readers can also drop out and come back after a
+ * random outage.
+ *
+ * All state is confined to the scheduler thread. Configure before start(), the setters
+ * return this so a run can be described in one expression.
+ */
+public final class SimulatedReader implements RfidTransport {
+    private final TaskScheduler scheduler;
+
+    private int readers = 1;
+    private int tagPopulation = 1000;
+    private int uidLength = 7;
+    private double burstsPerSecond = 20;
+    private double meanBurstSize = 4;
+    private double repeatProbability = 0.8;
+    private int fieldSize = 16;
+    private double disconnectsPerMinute;
+    private long meanOutageMs = 2000;
+    private long seed = 1;
+    // 0 sends one raw UID per notification like the legacy firmware
+    private int frameSize;
+
+    private Random random;
+    private byte[][] uids;
+    private Reader[] simulated;
+    private volatile Sink sink;
+    private volatile boolean running;
+
+    private volatile long notifications;
+    private volatile long bursts;
+    private volatile long disconnects;
+
+    private final class Reader {
+        final int readerId;
+        // tags currently on the antenna, oldest is replaced when a new tag arrives
+        final int[] field;
+        int fieldCount;
+        int fieldNext;
+        boolean connected;
+        TagFrameWriter writer;
+        int sequence;
+
+        final Runnable burst = this::onBurst;
+        final Runnable drop = this::onDrop;
+        final Runnable restore = this::onRestore;
+
+        Reader(int readerId) {
+            this.readerId = readerId;
+            this.field = new int[fieldSize];
+            if (frameSize > 0) {
+                writer = new TagFrameWriter(frameSize);
+            }
+        }
+
+        void onConnected() {
+            connected = true;
+            sequence = 0;
+            sink.onReaderConnected(readerId);
+            scheduler.postDelayed(burst, nextArrivalMs(burstsPerSecond / 1000.0));
+            if (disconnectsPerMinute > 0) {
+                scheduler.postDelayed(drop, nextArrivalMs(disconnectsPerMinute / 60_000.0));
+            }
+        }
+
+        void onBurst() {
+            if (!running || !connected) {
+                return;
+            }
+            bursts++;
+            long now = scheduler.nowMs();
+            int size = 1 + poisson(meanBurstSize - 1);
+            Sink target = sink;
+            for (int i = 0; i < size; i++) {
+                byte[] uid = uids[nextTag()];
+                if (writer == null) {
+                    notifications++;
+                    target.onNotification(readerId, uid, 0, uid.length, now);
+                } else if (!writer.add(uid, 0, uid.length)) {
+                    sendFrame(target, now);
+                    writer.add(uid, 0, uid.length);
+                }
+            }
+            if (writer != null) {
+                sendFrame(target, now);
+            }
+            scheduler.postDelayed(burst, nextArrivalMs(burstsPerSecond / 1000.0));
+        }
+
+        void sendFrame(Sink target, long now) {
+            int length = writer.finish(sequence, now);
+            sequence = (sequence + 1) & 0xFFFF;
+            notifications++;
+            target.onNotification(readerId, writer.buffer(), 0, length, now);
+        }
+
+        int nextTag() {
+            if (fieldCount > 0 && random.nextDouble() < repeatProbability) {
+                return field[random.nextInt(fieldCount)];
+            }
+            int tag = random.nextInt(tagPopulation);
+            field[fieldNext] = tag;
+            fieldNext = (fieldNext + 1) % field.length;
+            if (fieldCount < field.length) {
+                fieldCount++;
+            }
+            return tag;
+        }
+
+        void onDrop() {
+            if (!running || !connected) {
+                return;
+            }
+            disconnects++;
+            connected = false;
+            // the tags walked off while the link was down
+            fieldCount = 0;
+            scheduler.cancel(burst);
+            sink.onReaderDisconnected(readerId);
+            scheduler.postDelayed(restore, nextArrivalMs(1.0 / meanOutageMs));
+        }
+
+        void onRestore() {
+            if (running) {
+                onConnected();
+            }
+        }
+
+        void cancel() {
+            scheduler.cancel(burst);
+            scheduler.cancel(drop);
+            scheduler.cancel(restore);
+        }
+    }
+
+    public SimulatedReader(TaskScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public SimulatedReader setReaders(int readers) {
+        if (readers <= 0 || readers > TagFanIn.MAX_READERS) {
+            throw new IllegalArgumentException("readers must be between 1 and " + TagFanIn.MAX_READERS);
+        }
+        this.readers = readers;
+        return this;
+    }
+
+    public SimulatedReader setTagPopulation(int tagPopulation) {
+        if (tagPopulation <= 0) {
+            throw new IllegalArgumentException("tagPopulation must be positive");
+        }
+        this.tagPopulation = tagPopulation;
+        return this;
+    }
+
+    // 4 to 10 bytes, like the ISO 14443 single, double and triple size UIDs
+    public SimulatedReader setUidLength(int uidLength) {
+        if (uidLength < 4 || uidLength > TagIdTable.MAX_UID_LENGTH) {
+            throw new IllegalArgumentException("uidLength must be between 4 and " + TagIdTable.MAX_UID_LENGTH);
+        }
+        this.uidLength = uidLength;
+        return this;
+    }
+
+    // Mean burst rate of each reader
+    public SimulatedReader setBurstsPerSecond(double burstsPerSecond) {
+        if (burstsPerSecond <= 0) {
+            throw new IllegalArgumentException("burstsPerSecond must be positive");
+        }
+        this.burstsPerSecond = burstsPerSecond;
+        return this;
+    }
+
+    // Mean reads per burst, at least one
+    public SimulatedReader setMeanBurstSize(double meanBurstSize) {
+        if (meanBurstSize < 1) {
+            throw new IllegalArgumentException("meanBurstSize must be at least 1");
+        }
+        this.meanBurstSize = meanBurstSize;
+        return this;
+    }
+
+    // Chance that a read is a tag already in the field rather than a new arrival
+    public SimulatedReader setRepeatProbability(double repeatProbability, int fieldSize) {
+        if (repeatProbability < 0 || repeatProbability > 1 || fieldSize <= 0) {
+            throw new IllegalArgumentException("Invalid repeat settings");
+        }
+        this.repeatProbability = repeatProbability;
+        this.fieldSize = fieldSize;
+        return this;
+    }
+
+    // 0 keeps every reader connected
+    public SimulatedReader setDisconnects(double disconnectsPerMinute, long meanOutageMs) {
+        if (disconnectsPerMinute < 0 || meanOutageMs <= 0) {
+            throw new IllegalArgumentException("Invalid disconnect settings");
+        }
+        this.disconnectsPerMinute = disconnectsPerMinute;
+        this.meanOutageMs = meanOutageMs;
+        return this;
+    }
+
+    // Packs the reads of a burst into version 1 frames of at most maxFrameSize bytes, 0 for legacy payloads
+    public SimulatedReader setFrameSize(int maxFrameSize) {
+        if (maxFrameSize != 0 && maxFrameSize < TagFrameParser.HEADER_SIZE + 1 + TagIdTable.MAX_UID_LENGTH) {
+            throw new IllegalArgumentException("Frame too small for one UID: " + maxFrameSize);
+        }
+        this.frameSize = maxFrameSize;
+        return this;
+    }
+
+    // Same seed and settings give the same stream of reads
+    public SimulatedReader setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    @Override
+    public void start(Sink sink) {
+        this.sink = sink;
+        random = new Random(seed);
+        uids = newPopulation(random, tagPopulation, uidLength);
+        simulated = new Reader[readers];
+        running = true;
+        for (int r = 0; r < readers; r++) {
+            Reader reader = new Reader(r);
+            simulated[r] = reader;
+            scheduler.post(reader.restore);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Reader[] current = simulated;
+        if (current != null) {
+            for (Reader reader : current) {
+                reader.cancel();
+            }
+        }
+    }
+
+    // The UID bytes of a tag in the population, e.g. to check what the pipeline delivered
+    public byte[] uid(int tag) {
+        return uids[tag];
+    }
+
+    public long getNotifications() {
+        return notifications;
+    }
+
+    public long getBursts() {
+        return bursts;
+    }
+
+    public long getDisconnects() {
+        return disconnects;
+    }
+
+    private static byte[][] newPopulation(Random random, int population, int uidLength) {
+        byte[][] uids = new byte[population][uidLength];
+        for (int tag = 0; tag < population; tag++) {
+            byte[] uid = uids[tag];
+            random.nextBytes(uid);
+            // the last four bytes are a bijection of the index, so UIDs never collide
+            int scrambled = tag * 0x9E3779B1;
+            for (int i = 0; i < 4; i++) {
+                uid[uidLength - 1 - i] = (byte) (scrambled >>> (8 * i));
+            }
+        }
+        return uids;
+    }
+
+    // Exponential inter-arrival time of a Poisson process with the given rate per millisecond
+    private long nextArrivalMs(double ratePerMs) {
+        return Math.round(-Math.log(1 - random.nextDouble()) / ratePerMs);
+    }
+
+    private int poisson(double mean) {
+        if (mean <= 0) {
+            return 0;
+        }
+        // Knuth, fine for the small means used here
+        double limit = Math.exp(-mean);
+        double product = random.nextDouble();
+        int count = 0;
+        while (product > limit) {
+            product *= random.nextDouble();
+            count++;
+        }
+        return count;
+    }
+}
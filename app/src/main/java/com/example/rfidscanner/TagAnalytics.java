@@ -0,0 +1,426 @@
+package com.example.rfidscanner;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Live read statistics for the supervisor view: reads per second overall and per reader over
+ * a sliding window, unique tags and the re-read ratio over the last minute, reads and unique
+ * tags of every tumbling minute of the last hour, and the busiest second and minute so far.
+ *
+ * Reads land in a ring of per second buckets, each with its read counts and a HyperLogLog of
+ * the tags seen in it. The sliding windows keep running sums that gain a bucket when its
+ * second is over and lose the one that falls out, so a read costs the same few array writes
+ * and two sketch updates however long the windows are. Unique counts union the bucket
+ * sketches at query time; the union of the finished seconds is cached, so a snapshot merges
+ * at most a minute of sketches once per second and one sketch otherwise.
+ *
+ * Times are on the pipeline's clock. Thread safe, reads come from the ingest thread and
+ * snapshots from the UI.
+ */
+public final class TagAnalytics {
+    public static final int DEFAULT_RATE_WINDOW_SECONDS = 10;
+    public static final int UNIQUE_WINDOW_SECONDS = 60;
+    public static final int HISTORY_MINUTES = 60;
+    // a power of two above both windows, the bucket of a second is reused 64 seconds later
+    private static final int SLOTS = 64;
+    private static final int READERS = TagFanIn.MAX_READERS;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final int rateWindow;
+
+    // per second bucket, indexed by second & (SLOTS - 1)
+    private final long[] slotSecond = new long[SLOTS];
+    private final int[] slotReads = new int[SLOTS];
+    private final int[] slotReaderReads = new int[SLOTS * READERS];
+    private final HyperLogLog[] slotTags = new HyperLogLog[SLOTS];
+
+    private long firstSecond = NONE;
+    private long currentSecond = NONE;
+    // finished seconds inside the rate window and inside the unique window
+    private long rateReads;
+    private final long[] rateReaderReads = new long[READERS];
+    private long uniqueWindowReads;
+    // union of the finished seconds of the unique window, valid for closedUnionSecond
+    private final HyperLogLog closedUnion = new HyperLogLog();
+    private long closedUnionSecond = NONE;
+    private final HyperLogLog scratch = new HyperLogLog();
+
+    // tumbling minutes, the open one and a ring of the closed ones
+    private long currentMinute;
+    private long minuteReads;
+    private final HyperLogLog minuteTags = new HyperLogLog();
+    private final long[] closedMinute = new long[HISTORY_MINUTES];
+    private final long[] closedMinuteReads = new long[HISTORY_MINUTES];
+    private final long[] closedMinuteTags = new long[HISTORY_MINUTES];
+
+    private long peakSecond = NONE;
+    private int peakSecondReads;
+    private long busiestMinute = NONE;
+    private long busiestMinuteReads;
+    private long busiestMinuteTags;
+    private long totalReads;
+    private long lateReads;
+    private long sketchMerges;
+
+    public TagAnalytics() {
+        this(DEFAULT_RATE_WINDOW_SECONDS);
+    }
+
+    public TagAnalytics(int rateWindowSeconds) {
+        if (rateWindowSeconds < 1 || rateWindowSeconds > UNIQUE_WINDOW_SECONDS) {
+            throw new IllegalArgumentException("rateWindowSeconds must be between 1 and " + UNIQUE_WINDOW_SECONDS);
+        }
+        this.rateWindow = rateWindowSeconds;
+        for (int i = 0; i < SLOTS; i++) {
+            slotTags[i] = new HyperLogLog();
+        }
+        Arrays.fill(slotSecond, NONE);
+        Arrays.fill(closedMinute, NONE);
+    }
+
+    // Every read, repeats included
+    public synchronized void onRead(int readerId, int tagId, long timeMs) {
+        long second = Math.floorDiv(timeMs, 1000);
+        advanceTo(second);
+        totalReads++;
+        long hash = HyperLogLog.hash(tagId);
+        int slot = (int) second & (SLOTS - 1);
+        if (second != currentSecond) {
+            // fan-in merges readers in time order only roughly, a read can be a second behind
+            if (slotSecond[slot] != second) {
+                lateReads++;
+                return;
+            }
+            if (second >= currentSecond - rateWindow) {
+                rateReads++;
+                rateReaderReads[readerId]++;
+            }
+            if (second > currentSecond - UNIQUE_WINDOW_SECONDS) {
+                uniqueWindowReads++;
+                closedUnionSecond = NONE;
+            }
+            if (slotReads[slot] + 1 > peakSecondReads) {
+                peakSecond = second;
+                peakSecondReads = slotReads[slot] + 1;
+            }
+        }
+        slotReads[slot]++;
+        slotReaderReads[slot * READERS + readerId]++;
+        slotTags[slot].add(hash);
+        if (Math.floorDiv(second, 60) == currentMinute) {
+            minuteReads++;
+            minuteTags.add(hash);
+        }
+    }
+
+    // Moves the open second forward, finishing every second in between
+    private void advanceTo(long second) {
+        if (currentSecond == NONE) {
+            firstSecond = second;
+            currentSecond = second;
+            currentMinute = Math.floorDiv(second, 60);
+            openSlot(second);
+            return;
+        }
+        if (second <= currentSecond) {
+            return;
+        }
+        if (second - currentSecond > SLOTS) {
+            // nothing of the windows survives a gap this long, start them over
+            finishSecond(currentSecond);
+            rateReads = 0;
+            Arrays.fill(rateReaderReads, 0);
+            uniqueWindowReads = 0;
+            closedUnionSecond = NONE;
+            Arrays.fill(slotSecond, NONE);
+            currentSecond = second;
+            rollMinute(second);
+            openSlot(second);
+            return;
+        }
+        while (currentSecond < second) {
+            long s = currentSecond;
+            finishSecond(s);
+            addToWindows(s, 1);
+            addToWindows(s - rateWindow, -1, true);
+            addToWindows(s - UNIQUE_WINDOW_SECONDS + 1, -1, false);
+            currentSecond = s + 1;
+            rollMinute(currentSecond);
+            openSlot(currentSecond);
+        }
+    }
+
+    private void finishSecond(long second) {
+        int slot = (int) second & (SLOTS - 1);
+        if (slotReads[slot] > peakSecondReads) {
+            peakSecond = second;
+            peakSecondReads = slotReads[slot];
+        }
+    }
+
+    // A finished second joins both windows
+    private void addToWindows(long second, int sign) {
+        addToWindows(second, sign, true);
+        addToWindows(second, sign, false);
+    }
+
+    private void addToWindows(long second, int sign, boolean rate) {
+        int slot = (int) second & (SLOTS - 1);
+        if (slotSecond[slot] != second) {
+            return;
+        }
+        if (rate) {
+            rateReads += sign * slotReads[slot];
+            for (int r = 0; r < READERS; r++) {
+                rateReaderReads[r] += sign * slotReaderReads[slot * READERS + r];
+            }
+        } else {
+            uniqueWindowReads += sign * slotReads[slot];
+        }
+    }
+
+    private void openSlot(long second) {
+        int slot = (int) second & (SLOTS - 1);
+        slotSecond[slot] = second;
+        slotReads[slot] = 0;
+        Arrays.fill(slotReaderReads, slot * READERS, (slot + 1) * READERS, 0);
+        slotTags[slot].clear();
+    }
+
+    private void rollMinute(long second) {
+        long minute = Math.floorDiv(second, 60);
+        if (minute == currentMinute) {
+            return;
+        }
+        // minutes without reads are not kept, their ring entry stays stale
+        if (minuteReads > 0) {
+            long tags = minuteTags.estimate();
+            int slot = Math.floorMod(currentMinute, HISTORY_MINUTES);
+            closedMinute[slot] = currentMinute;
+            closedMinuteReads[slot] = minuteReads;
+            closedMinuteTags[slot] = tags;
+            if (minuteReads > busiestMinuteReads) {
+                busiestMinute = currentMinute;
+                busiestMinuteReads = minuteReads;
+                busiestMinuteTags = tags;
+            }
+        }
+        currentMinute = minute;
+        minuteReads = 0;
+        minuteTags.clear();
+    }
+
+    public synchronized Snapshot snapshot(long nowMs) {
+        if (currentSecond == NONE) {
+            return new Snapshot(nowMs, 0, new double[READERS], 0, 0, 0, NONE, 0, NONE, 0, 0,
+                    new long[0], new long[0], new long[0], 0, 0, 0, 0);
+        }
+        advanceTo(Math.floorDiv(nowMs, 1000));
+        // only whole seconds count, early on the window is as long as the reads go back
+        long seconds = Math.min(rateWindow, currentSecond - firstSecond);
+        double readsPerSecond = seconds == 0 ? 0 : (double) rateReads / seconds;
+        double[] readerReadsPerSecond = new double[READERS];
+        for (int r = 0; r < READERS && seconds > 0; r++) {
+            readerReadsPerSecond[r] = (double) rateReaderReads[r] / seconds;
+        }
+
+        if (closedUnionSecond != currentSecond) {
+            closedUnion.clear();
+            for (long s = currentSecond - UNIQUE_WINDOW_SECONDS + 1; s < currentSecond; s++) {
+                int slot = (int) s & (SLOTS - 1);
+                if (slotSecond[slot] == s) {
+                    closedUnion.merge(slotTags[slot]);
+                    sketchMerges++;
+                }
+            }
+            closedUnionSecond = currentSecond;
+        }
+        int current = (int) currentSecond & (SLOTS - 1);
+        scratch.copyFrom(closedUnion);
+        scratch.merge(slotTags[current]);
+        sketchMerges++;
+        long windowReads = uniqueWindowReads + slotReads[current];
+        // the estimate can be a few percent above the reads it came from
+        long uniqueTags = Math.min(scratch.estimate(), windowReads);
+        double reReadRatio = windowReads == 0 ? 0 : (double) (windowReads - uniqueTags) / windowReads;
+
+        int count = 0;
+        long[] minutes = new long[HISTORY_MINUTES];
+        long[] reads = new long[HISTORY_MINUTES];
+        long[] tags = new long[HISTORY_MINUTES];
+        for (long m = currentMinute - HISTORY_MINUTES; m < currentMinute; m++) {
+            int slot = Math.floorMod(m, HISTORY_MINUTES);
+            if (closedMinute[slot] == m) {
+                minutes[count] = m * 60_000;
+                reads[count] = closedMinuteReads[slot];
+                tags[count] = closedMinuteTags[slot];
+                count++;
+            }
+        }
+        return new Snapshot(nowMs, readsPerSecond, readerReadsPerSecond, uniqueTags, windowReads, reReadRatio,
+                peakSecond == NONE ? NONE : peakSecond * 1000, peakSecondReads,
+                busiestMinute == NONE ? NONE : busiestMinute * 60_000, busiestMinuteReads, busiestMinuteTags,
+                Arrays.copyOf(minutes, count), Arrays.copyOf(reads, count), Arrays.copyOf(tags, count),
+                minuteReads, minuteTags.estimate(), totalReads, lateReads);
+    }
+
+    public int getRateWindowSeconds() {
+        return rateWindow;
+    }
+
+    // Per second sketches merged by snapshots so far
+    public synchronized long getSketchMerges() {
+        return sketchMerges;
+    }
+
+    public static final class Snapshot {
+        private final long timeMs;
+        private final double readsPerSecond;
+        private final double[] readerReadsPerSecond;
+        private final long uniqueTags;
+        private final long windowReads;
+        private final double reReadRatio;
+        private final long peakSecondMs;
+        private final int peakSecondReads;
+        private final long busiestMinuteMs;
+        private final long busiestMinuteReads;
+        private final long busiestMinuteTags;
+        private final long[] minuteStartMs;
+        private final long[] minuteReads;
+        private final long[] minuteTags;
+        private final long openMinuteReads;
+        private final long openMinuteTags;
+        private final long totalReads;
+        private final long lateReads;
+
+        Snapshot(long timeMs, double readsPerSecond, double[] readerReadsPerSecond, long uniqueTags, long windowReads,
+                 double reReadRatio, long peakSecondMs, int peakSecondReads, long busiestMinuteMs,
+                 long busiestMinuteReads, long busiestMinuteTags, long[] minuteStartMs, long[] minuteReads,
+                 long[] minuteTags, long openMinuteReads, long openMinuteTags, long totalReads, long lateReads) {
+            this.timeMs = timeMs;
+            this.readsPerSecond = readsPerSecond;
+            this.readerReadsPerSecond = readerReadsPerSecond;
+            this.uniqueTags = uniqueTags;
+            this.windowReads = windowReads;
+            this.reReadRatio = reReadRatio;
+            this.peakSecondMs = peakSecondMs;
+            this.peakSecondReads = peakSecondReads;
+            this.busiestMinuteMs = busiestMinuteMs;
+            this.busiestMinuteReads = busiestMinuteReads;
+            this.busiestMinuteTags = busiestMinuteTags;
+            this.minuteStartMs = minuteStartMs;
+            this.minuteReads = minuteReads;
+            this.minuteTags = minuteTags;
+            this.openMinuteReads = openMinuteReads;
+            this.openMinuteTags = openMinuteTags;
+            this.totalReads = totalReads;
+            this.lateReads = lateReads;
+        }
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+        // Over the rate window, finished seconds only
+        public double getReadsPerSecond() {
+            return readsPerSecond;
+        }
+
+        public double getReadsPerSecond(int readerId) {
+            return readerReadsPerSecond[readerId];
+        }
+
+        // Distinct tags over the last UNIQUE_WINDOW_SECONDS, approximate
+        public long getUniqueTags() {
+            return uniqueTags;
+        }
+
+        public long getWindowReads() {
+            return windowReads;
+        }
+
+        // Share of the last minute's reads that were of a tag already read in it
+        public double getReReadRatio() {
+            return reReadRatio;
+        }
+
+        // Start of the second with the most reads, Long.MIN_VALUE before the first read
+        public long getPeakSecondMs() {
+            return peakSecondMs;
+        }
+
+        public int getPeakSecondReads() {
+            return peakSecondReads;
+        }
+
+        // Start of the closed minute with the most reads, Long.MIN_VALUE until a minute closed
+        public long getBusiestMinuteMs() {
+            return busiestMinuteMs;
+        }
+
+        public long getBusiestMinuteReads() {
+            return busiestMinuteReads;
+        }
+
+        public long getBusiestMinuteTags() {
+            return busiestMinuteTags;
+        }
+
+        // Closed minutes of the last hour that had reads, oldest first
+        public int getMinuteCount() {
+            return minuteStartMs.length;
+        }
+
+        public long getMinuteStartMs(int index) {
+            return minuteStartMs[index];
+        }
+
+        public long getMinuteReads(int index) {
+            return minuteReads[index];
+        }
+
+        public long getMinuteTags(int index) {
+            return minuteTags[index];
+        }
+
+        // The minute still open
+        public long getOpenMinuteReads() {
+            return openMinuteReads;
+        }
+
+        public long getOpenMinuteTags() {
+            return openMinuteTags;
+        }
+
+        public long getTotalReads() {
+            return totalReads;
+        }
+
+        // Reads too far behind the newest to be counted in a window
+        public long getLateReads() {
+            return lateReads;
+        }
+
+        public String toText() {
+            StringBuilder text = new StringBuilder(512);
+            text.append(String.format(Locale.US, "%-18s %.1f%n", "reads/s", readsPerSecond));
+            for (int r = 0; r < readerReadsPerSecond.length; r++) {
+                if (readerReadsPerSecond[r] > 0) {
+                    text.append(String.format(Locale.US, "%-18s %.1f%n", "reader " + r + " reads/s", readerReadsPerSecond[r]));
+                }
+            }
+            text.append(String.format(Locale.US, "%-18s %d%n", "unique tags/min", uniqueTags));
+            text.append(String.format(Locale.US, "%-18s %.2f%n", "re-read ratio", reReadRatio));
+            if (peakSecondMs != NONE) {
+                text.append(String.format(Locale.US, "%-18s %d reads, %d s ago%n", "busiest second",
+                        peakSecondReads, (timeMs - peakSecondMs) / 1000));
+            }
+            if (busiestMinuteMs != NONE) {
+                text.append(String.format(Locale.US, "%-18s %d reads, %d tags, %d min ago%n", "busiest minute",
+                        busiestMinuteReads, busiestMinuteTags, (timeMs - busiestMinuteMs) / 60_000));
+            }
+            return text.toString();
+        }
+    }
+}
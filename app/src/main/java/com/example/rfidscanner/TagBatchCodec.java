@@ -0,0 +1,216 @@
+package com.example.rfidscanner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Wire format of the upload batches. Reads are stored column by column, each column packs
+ * well on its own and deflate does better on runs of similar bytes:
+ *
+ *   magic "RFUB" (4 bytes), version
+ *   batch id, read count, dictionary size (varints)
+ *   dictionary: every distinct UID of the batch once, length byte then bytes
+ *   time of the first read (zigzag varint), then per read the difference to the previous one
+ *   per read the reader id (byte)
+ *   per read the dictionary index of its UID (varint)
+ *
+ * The whole thing is zlib compressed, which is what Content-Encoding: deflate means in HTTP.
+ */
+public final class TagBatchCodec {
+    private static final byte[] MAGIC = {'R', 'F', 'U', 'B'};
+    private static final int VERSION = 1;
+
+    private TagBatchCodec() {
+    }
+
+    /**
+     * Collects the reads of one batch. Reusable through reset(), not thread safe.
+     */
+    public static final class Encoder {
+        private TagIdTable dictionary = new TagIdTable(256);
+        private long[] timesMs = new long[256];
+        private byte[] readerIds = new byte[256];
+        private int[] uidIndexes = new int[256];
+        private int size;
+        private long lastTimeMs = Long.MIN_VALUE;
+        private int rawSize;
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final byte[] chunk = new byte[4096];
+
+        public void add(long timeMs, int readerId, byte[] uid, int offset, int length) {
+            if (size == timesMs.length) {
+                int capacity = size << 1;
+                timesMs = Arrays.copyOf(timesMs, capacity);
+                readerIds = Arrays.copyOf(readerIds, capacity);
+                uidIndexes = Arrays.copyOf(uidIndexes, capacity);
+            }
+            timesMs[size] = timeMs;
+            readerIds[size] = (byte) readerId;
+            // ids are handed out in order, so they double as dictionary indexes
+            uidIndexes[size] = dictionary.intern(uid, offset, length);
+            size++;
+            lastTimeMs = Math.max(lastTimeMs, timeMs);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Newest read time of the batch
+        public long getLastTimeMs() {
+            return lastTimeMs;
+        }
+
+        // Size before compression of the last encode()
+        public int getRawSize() {
+            return rawSize;
+        }
+
+        public byte[] encode(long batchId) {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream(64 + size * 4);
+            raw.write(MAGIC, 0, MAGIC.length);
+            raw.write(VERSION);
+            ByteCodec.writeVarLong(raw, batchId);
+            ByteCodec.writeVarLong(raw, size);
+            int tags = dictionary.size();
+            ByteCodec.writeVarLong(raw, tags);
+            byte[] uid = new byte[TagIdTable.MAX_UID_LENGTH];
+            for (int tag = 0; tag < tags; tag++) {
+                int length = dictionary.copyUid(tag, uid, 0);
+                raw.write(length);
+                raw.write(uid, 0, length);
+            }
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                ByteCodec.writeVarLong(raw, ByteCodec.zigzag(timesMs[i] - previous));
+                previous = timesMs[i];
+            }
+            raw.write(readerIds, 0, size);
+            for (int i = 0; i < size; i++) {
+                ByteCodec.writeVarLong(raw, uidIndexes[i]);
+            }
+            rawSize = raw.size();
+            return deflate(raw.toByteArray());
+        }
+
+        private byte[] deflate(byte[] input) {
+            deflater.reset();
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 64);
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        }
+
+        public void reset() {
+            dictionary = new TagIdTable(256);
+            size = 0;
+            lastTimeMs = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * A decoded batch, what the backend sees.
+     */
+    public static final class Batch {
+        public final long batchId;
+        public final long[] timesMs;
+        public final int[] readerIds;
+        public final byte[][] uids;
+
+        Batch(long batchId, long[] timesMs, int[] readerIds, byte[][] uids) {
+            this.batchId = batchId;
+            this.timesMs = timesMs;
+            this.readerIds = readerIds;
+            this.uids = uids;
+        }
+
+        public int size() {
+            return timesMs.length;
+        }
+    }
+
+    public static Batch decode(byte[] body) throws IOException {
+        byte[] raw = inflate(body);
+        ByteCodec.Cursor in = new ByteCodec.Cursor();
+        in.reset(raw, raw.length);
+        for (byte b : MAGIC) {
+            if (in.remaining() == 0 || (byte) in.readByte() != b) {
+                throw new IOException("Not a tag batch");
+            }
+        }
+        if (in.readByte() != VERSION) {
+            throw new IOException("Unsupported tag batch version");
+        }
+        long batchId = in.readVarLong();
+        int count = checkedInt(in.readVarLong());
+        int tags = checkedInt(in.readVarLong());
+        // every read takes at least three bytes, a larger count is garbage
+        if (count > raw.length || tags > raw.length) {
+            throw new IOException("Corrupt tag batch count");
+        }
+        byte[][] dictionary = new byte[tags][];
+        for (int tag = 0; tag < tags; tag++) {
+            int length = in.readByte();
+            if (length == 0 || length > TagIdTable.MAX_UID_LENGTH || length > in.remaining()) {
+                throw new IOException("Corrupt tag batch dictionary");
+            }
+            dictionary[tag] = Arrays.copyOfRange(raw, in.position(), in.position() + length);
+            in.skip(length);
+        }
+        long[] timesMs = new long[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += ByteCodec.unzigzag(in.readVarLong());
+            timesMs[i] = previous;
+        }
+        int[] readerIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            readerIds[i] = in.readByte();
+        }
+        byte[][] uids = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            long index = in.readVarLong();
+            if (index >= tags) {
+                throw new IOException("Corrupt tag batch index");
+            }
+            uids[i] = dictionary[(int) index];
+        }
+        return new Batch(batchId, timesMs, readerIds, uids);
+    }
+
+    private static byte[] inflate(byte[] body) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+            byte[] chunk = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated tag batch");
+                }
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt tag batch", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int checkedInt(long value) throws IOException {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt tag batch count");
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.rfidscanner;
+
+/**
+ * Collects tag reads on the BLE callback thread and hands them to the UI as one batch per
+ * frame instead of posting a message per read. Two batches are swapped back and forth so
+ * neither side allocates once the arrays have grown, and the pending batch is capped so a
+ * slow UI turns into dropped reads (counted) rather than an ever growing queue.
+ */
+public final class TagBatchDispatcher {
+    // Decides when a pending batch gets delivered, e.g. on the next display frame
+    public interface Scheduler {
+        void schedule(Runnable deliver);
+    }
+
+    private final Scheduler scheduler;
+    private final int maxBatchSize;
+    private final Runnable deliverRunnable = this::deliver;
+    private RfidBatchListener listener;
+
+    private TagReadBatch pending;
+    private TagReadBatch delivering;
+    private boolean scheduled;
+    private long droppedSinceDelivery;
+
+    private long offeredReads;
+    private long deliveredReads;
+    private long droppedReads;
+    private long deliveredBatches;
+    private int largestBatch;
+
+    public TagBatchDispatcher(Scheduler scheduler, int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.scheduler = scheduler;
+        this.maxBatchSize = maxBatchSize;
+        int initial = Math.min(maxBatchSize, 64);
+        pending = new TagReadBatch(initial);
+        delivering = new TagReadBatch(initial);
+    }
+
+    public void setListener(RfidBatchListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a read for the next batch. Returns false if the batch is full and the read was dropped.
+     */
+    public boolean offer(int readerId, int tagId, long timeMs) {
+        boolean schedule;
+        synchronized (this) {
+            offeredReads++;
+            if (pending.size() >= maxBatchSize) {
+                droppedReads++;
+                droppedSinceDelivery++;
+                return false;
+            }
+            pending.add(readerId, tagId, timeMs);
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            scheduler.schedule(deliverRunnable);
+        }
+        return true;
+    }
+
+    /**
+     * Delivers whatever is pending to the listener, on the thread the scheduler runs it on.
+     */
+    public void deliver() {
+        TagReadBatch batch;
+        synchronized (this) {
+            batch = pending;
+            pending = delivering;
+            delivering = batch;
+            scheduled = false;
+            batch.setDroppedBefore(droppedSinceDelivery);
+            droppedSinceDelivery = 0;
+            if (!batch.isEmpty()) {
+                deliveredBatches++;
+                deliveredReads += batch.size();
+                largestBatch = Math.max(largestBatch, batch.size());
+            }
+        }
+        try {
+            if (!batch.isEmpty() && listener != null) {
+                listener.onRfidBatch(batch);
+            }
+        } finally {
+            // delivering is only touched again on the next deliver, which runs on this same thread
+            batch.clear();
+        }
+    }
+
+    public synchronized long getOfferedReads() {
+        return offeredReads;
+    }
+
+    public synchronized long getDeliveredReads() {
+        return deliveredReads;
+    }
+
+    public synchronized long getDroppedReads() {
+        return droppedReads;
+    }
+
+    public synchronized long getDeliveredBatches() {
+        return deliveredBatches;
+    }
+
+    public synchronized int getLargestBatch() {
+        return largestBatch;
+    }
+
+    public synchronized int getPendingReads() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.rfidscanner;
+
+/**
+ * Suppresses repeated reads of the same tag on the same reader inside a sliding window.
+ * The firmware re-notifies a card every ~100 ms while it sits on the antenna, this turns
+ * that stream into FIRST_SEEN / STILL_PRESENT / GONE events.
+ *
+ * Entries live in a primitive open-addressing map keyed on (reader, tag) and are removed
+ * once they go quiet for longer than the window, so memory only depends on how many tags
+ * are in range at the same time. Not thread safe on its own, callers serialize access.
+ */
+public final class TagDeduplicator {
+    public enum TagEvent {
+        FIRST_SEEN,
+        STILL_PRESENT,
+        GONE
+    }
+
+    public enum Mode {
+        // only the first read of a tag is forwarded
+        DROP,
+        // repeats are collapsed into one STILL_PRESENT per window
+        COLLAPSE
+    }
+
+    public interface Listener {
+        void onTagEvent(TagEvent event, int readerId, int tagId, int reads, long timeMs);
+    }
+
+    private static final int DEFAULT_MAX_ENTRIES = 8192;
+
+    private final long windowMs;
+    private final Mode mode;
+    private final int maxEntries;
+    private Listener listener;
+
+    private long[] keys;
+    private long[] lastSeen;
+    private long[] lastReported;
+    private int[] reads;
+    private boolean[] used;
+    private int mask;
+    private int size;
+    private long lastSweepMs;
+
+    private long totalReads;
+    private long suppressedReads;
+    private long firstSeenEvents;
+    private long stillPresentEvents;
+    private long goneEvents;
+    private long untrackedReads;
+
+    public TagDeduplicator(long windowMs, Mode mode) {
+        this(windowMs, mode, DEFAULT_MAX_ENTRIES);
+    }
+
+    public TagDeduplicator(long windowMs, Mode mode, int maxEntries) {
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException("windowMs must be positive");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.windowMs = windowMs;
+        this.mode = mode;
+        this.maxEntries = maxEntries;
+        int slots = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+        keys = new long[slots];
+        lastSeen = new long[slots];
+        lastReported = new long[slots];
+        reads = new int[slots];
+        used = new boolean[slots];
+        mask = slots - 1;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Records a read and returns the event it produced, or null when the read was suppressed.
+     */
+    public TagEvent onRead(int readerId, int tagId, long nowMs) {
+        totalReads++;
+        if (nowMs - lastSweepMs >= windowMs / 2) {
+            expire(nowMs);
+        }
+
+        long key = key(readerId, tagId);
+        int slot = TagIdTable.mix(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return onRepeat(slot, readerId, tagId, nowMs);
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size >= maxEntries) {
+            expire(nowMs);
+            if (size >= maxEntries) {
+                // table is full of live tags, pass the read through rather than lose it
+                untrackedReads++;
+                firstSeenEvents++;
+                notify(TagEvent.FIRST_SEEN, readerId, tagId, 1, nowMs);
+                return TagEvent.FIRST_SEEN;
+            }
+            slot = TagIdTable.mix(key) & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        lastSeen[slot] = nowMs;
+        lastReported[slot] = nowMs;
+        reads[slot] = 1;
+        size++;
+        firstSeenEvents++;
+        notify(TagEvent.FIRST_SEEN, readerId, tagId, 1, nowMs);
+        return TagEvent.FIRST_SEEN;
+    }
+
+    private TagEvent onRepeat(int slot, int readerId, int tagId, long nowMs) {
+        if (nowMs - lastSeen[slot] >= windowMs) {
+            // the entry went quiet but no sweep has run yet, treat it as a new arrival
+            goneEvents++;
+            notify(TagEvent.GONE, readerId, tagId, reads[slot], lastSeen[slot]);
+            lastSeen[slot] = nowMs;
+            lastReported[slot] = nowMs;
+            reads[slot] = 1;
+            firstSeenEvents++;
+            notify(TagEvent.FIRST_SEEN, readerId, tagId, 1, nowMs);
+            return TagEvent.FIRST_SEEN;
+        }
+        lastSeen[slot] = nowMs;
+        reads[slot]++;
+        if (mode == Mode.COLLAPSE && nowMs - lastReported[slot] >= windowMs) {
+            lastReported[slot] = nowMs;
+            stillPresentEvents++;
+            notify(TagEvent.STILL_PRESENT, readerId, tagId, reads[slot], nowMs);
+            return TagEvent.STILL_PRESENT;
+        }
+        suppressedReads++;
+        return null;
+    }
+
+    /**
+     * Emits GONE for every tag that has not been read for a full window and frees its entry.
+     */
+    public void expire(long nowMs) {
+        lastSweepMs = nowMs;
+        int slot = 0;
+        while (slot < used.length) {
+            if (used[slot] && nowMs - lastSeen[slot] >= windowMs) {
+                long key = keys[slot];
+                int count = reads[slot];
+                long seen = lastSeen[slot];
+                removeSlot(slot);
+                goneEvents++;
+                notify(TagEvent.GONE, (int) (key >>> 32), (int) key, count, seen);
+                // removeSlot may have shifted a later entry into this slot, look at it again
+                continue;
+            }
+            slot++;
+        }
+    }
+
+    /**
+     * Drops the tags of one reader, emitting GONE for each, e.g. when that reader disconnects.
+     */
+    public void clearReader(int readerId, long nowMs) {
+        int slot = 0;
+        while (slot < used.length) {
+            if (used[slot] && (int) (keys[slot] >>> 32) == readerId) {
+                int tagId = (int) keys[slot];
+                int count = reads[slot];
+                long seen = lastSeen[slot];
+                removeSlot(slot);
+                goneEvents++;
+                notify(TagEvent.GONE, readerId, tagId, count, seen);
+                continue;
+            }
+            slot++;
+        }
+    }
+
+    /**
+     * Drops all tracked tags, emitting GONE for each.
+     */
+    public void clear(long nowMs) {
+        expire(Long.MAX_VALUE / 2);
+        lastSweepMs = nowMs;
+    }
+
+    // backward shift deletion keeps probe chains intact without tombstones
+    private void removeSlot(int slot) {
+        used[slot] = false;
+        size--;
+        int next = (slot + 1) & mask;
+        while (used[next]) {
+            int home = TagIdTable.mix(keys[next]) & mask;
+            boolean movable = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+            if (movable) {
+                used[slot] = true;
+                keys[slot] = keys[next];
+                lastSeen[slot] = lastSeen[next];
+                lastReported[slot] = lastReported[next];
+                reads[slot] = reads[next];
+                used[next] = false;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void notify(TagEvent event, int readerId, int tagId, int count, long timeMs) {
+        if (listener != null) {
+            listener.onTagEvent(event, readerId, tagId, count, timeMs);
+        }
+    }
+
+    private static long key(int readerId, int tagId) {
+        return ((long) readerId << 32) | (tagId & 0xFFFFFFFFL);
+    }
+
+    public int trackedTags() {
+        return size;
+    }
+
+    public long getTotalReads() {
+        return totalReads;
+    }
+
+    public long getSuppressedReads() {
+        return suppressedReads;
+    }
+
+    public long getFirstSeenEvents() {
+        return firstSeenEvents;
+    }
+
+    public long getStillPresentEvents() {
+        return stillPresentEvents;
+    }
+
+    public long getGoneEvents() {
+        return goneEvents;
+    }
+
+    public long getUntrackedReads() {
+        return untrackedReads;
+    }
+}
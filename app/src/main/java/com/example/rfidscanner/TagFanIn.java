@@ -0,0 +1,258 @@
+package com.example.rfidscanner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Merges the tag reads of several readers into one stream. Every reader has its own bounded
+ * lane, so a noisy reader only ever drops its own reads, and each drain pass takes at most
+ * a fixed quantum from every lane so one busy reader cannot starve the others.
+ *
+ * Reads get a global sequence number when they are offered and each pass is merged in
+ * sequence order. Producers (the BLE callback threads) only contend with the drain for
+ * their own lane.
+ */
+public final class TagFanIn {
+    public interface Sink {
+        void onTag(long sequence, int readerId, int tagId, long timeMs);
+    }
+
+    public static final int MAX_READERS = 16;
+    public static final int DEFAULT_LANE_CAPACITY = 1024;
+    public static final int DEFAULT_QUANTUM = 64;
+
+    private static final class Lane {
+        final int readerId;
+        final long[] sequences;
+        final int[] tagIds;
+        final long[] times;
+        int head;
+        int size;
+
+        long offered;
+        long delivered;
+        long dropped;
+        int maxDepth;
+
+        Lane(int readerId, int capacity) {
+            this.readerId = readerId;
+            sequences = new long[capacity];
+            tagIds = new int[capacity];
+            times = new long[capacity];
+        }
+    }
+
+    private final int laneCapacity;
+    private final int quantum;
+    private final TaskScheduler scheduler;
+    private final AtomicReferenceArray<Lane> lanes = new AtomicReferenceArray<>(MAX_READERS);
+    private final AtomicLong nextSequence = new AtomicLong();
+    private Sink sink;
+
+    // drain scratch, only used from the drain thread
+    private final long[] scratchSequences;
+    private final int[] scratchTags;
+    private final long[] scratchTimes;
+    private final int[] scratchReaders;
+    private final int[] segmentStart = new int[MAX_READERS];
+    private final int[] segmentEnd = new int[MAX_READERS];
+
+    private final Object drainLock = new Object();
+    private boolean drainScheduled;
+    private final Runnable drainTask = this::drainAll;
+
+    public TagFanIn(TaskScheduler scheduler) {
+        this(scheduler, DEFAULT_LANE_CAPACITY, DEFAULT_QUANTUM);
+    }
+
+    public TagFanIn(TaskScheduler scheduler, int laneCapacity, int quantum) {
+        if (laneCapacity <= 0 || quantum <= 0) {
+            throw new IllegalArgumentException("laneCapacity and quantum must be positive");
+        }
+        this.scheduler = scheduler;
+        this.laneCapacity = laneCapacity;
+        this.quantum = quantum;
+        int scratch = quantum * MAX_READERS;
+        scratchSequences = new long[scratch];
+        scratchTags = new int[scratch];
+        scratchTimes = new long[scratch];
+        scratchReaders = new int[scratch];
+    }
+
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    public synchronized void addReader(int readerId) {
+        checkReaderId(readerId);
+        if (lanes.get(readerId) == null) {
+            lanes.set(readerId, new Lane(readerId, laneCapacity));
+        }
+    }
+
+    // Pending reads of the reader are discarded
+    public synchronized void removeReader(int readerId) {
+        checkReaderId(readerId);
+        lanes.set(readerId, null);
+    }
+
+    /**
+     * Queues a read from a reader, returns false if that reader's lane is full and the read was dropped.
+     */
+    public boolean offer(int readerId, int tagId, long timeMs) {
+        Lane lane = lanes.get(readerId);
+        if (lane == null) {
+            return false;
+        }
+        synchronized (lane) {
+            lane.offered++;
+            if (lane.size == laneCapacity) {
+                lane.dropped++;
+                return false;
+            }
+            int slot = (lane.head + lane.size) % laneCapacity;
+            lane.sequences[slot] = nextSequence.getAndIncrement();
+            lane.tagIds[slot] = tagId;
+            lane.times[slot] = timeMs;
+            lane.size++;
+            if (lane.size > lane.maxDepth) {
+                lane.maxDepth = lane.size;
+            }
+        }
+        synchronized (drainLock) {
+            if (drainScheduled) {
+                return true;
+            }
+            drainScheduled = true;
+        }
+        scheduler.post(drainTask);
+        return true;
+    }
+
+    private void drainAll() {
+        synchronized (drainLock) {
+            drainScheduled = false;
+        }
+        // bounded passes per run keep the drain thread responsive, leftovers get rescheduled
+        for (int pass = 0; pass < 16; pass++) {
+            if (drain() == 0) {
+                return;
+            }
+        }
+        synchronized (drainLock) {
+            if (drainScheduled) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        scheduler.post(drainTask);
+    }
+
+    /**
+     * Runs one fair pass: up to quantum reads from each lane, delivered in sequence order.
+     * Returns the number of reads delivered.
+     */
+    public int drain() {
+        int total = 0;
+        int segments = 0;
+        for (int r = 0; r < MAX_READERS; r++) {
+            Lane lane = lanes.get(r);
+            if (lane == null) {
+                continue;
+            }
+            synchronized (lane) {
+                int take = Math.min(quantum, lane.size);
+                if (take == 0) {
+                    continue;
+                }
+                segmentStart[segments] = total;
+                for (int i = 0; i < take; i++) {
+                    int slot = (lane.head + i) % laneCapacity;
+                    scratchSequences[total] = lane.sequences[slot];
+                    scratchTags[total] = lane.tagIds[slot];
+                    scratchTimes[total] = lane.times[slot];
+                    scratchReaders[total] = lane.readerId;
+                    total++;
+                }
+                lane.head = (lane.head + take) % laneCapacity;
+                lane.size -= take;
+                lane.delivered += take;
+                segmentEnd[segments] = total;
+                segments++;
+            }
+        }
+
+        // k-way merge of the per lane segments, each already in sequence order
+        Sink target = sink;
+        for (int n = 0; n < total; n++) {
+            int best = -1;
+            for (int s = 0; s < segments; s++) {
+                if (segmentStart[s] < segmentEnd[s]
+                        && (best < 0 || scratchSequences[segmentStart[s]] < scratchSequences[segmentStart[best]])) {
+                    best = s;
+                }
+            }
+            int i = segmentStart[best]++;
+            if (target != null) {
+                target.onTag(scratchSequences[i], scratchReaders[i], scratchTags[i], scratchTimes[i]);
+            }
+        }
+        return total;
+    }
+
+    public int getDepth(int readerId) {
+        Lane lane = lanes.get(readerId);
+        if (lane == null) {
+            return 0;
+        }
+        synchronized (lane) {
+            return lane.size;
+        }
+    }
+
+    public int getMaxDepth(int readerId) {
+        Lane lane = lanes.get(readerId);
+        if (lane == null) {
+            return 0;
+        }
+        synchronized (lane) {
+            return lane.maxDepth;
+        }
+    }
+
+    public long getOffered(int readerId) {
+        Lane lane = lanes.get(readerId);
+        if (lane == null) {
+            return 0;
+        }
+        synchronized (lane) {
+            return lane.offered;
+        }
+    }
+
+    public long getDelivered(int readerId) {
+        Lane lane = lanes.get(readerId);
+        if (lane == null) {
+            return 0;
+        }
+        synchronized (lane) {
+            return lane.delivered;
+        }
+    }
+
+    public long getDropped(int readerId) {
+        Lane lane = lanes.get(readerId);
+        if (lane == null) {
+            return 0;
+        }
+        synchronized (lane) {
+            return lane.dropped;
+        }
+    }
+
+    private static void checkReaderId(int readerId) {
+        if (readerId < 0 || readerId >= MAX_READERS) {
+            throw new IllegalArgumentException("Reader id out of range: " + readerId);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.rfidscanner;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Splits one notification into UIDs. Two payloads exist:
+ *
+ * - legacy: the raw UID, 1 to 10 bytes, as old firmware sends it
+ * - version 1 frame, little endian:
+ *   0 magic 0xA5, 1 version, 2 sequence (uint16), 4 reader millis() of the first read
+ *   (uint32), 8 UID count, 9 count x [length][UID bytes]
+ *
+ * A frame is at least 14 bytes, so any payload of 10 bytes or less is a legacy UID.
+ * UIDs are handed to the visitor as a range of the notification array, nothing is copied.
+ *
+ * One parser per reader: it follows that reader's sequence numbers and counts the frames
+ * lost in between. Not thread safe, a reader's notifications arrive on one thread.
+ */
+public final class TagFrameParser {
+    public interface Visitor {
+        void onUid(byte[] array, int offset, int length);
+    }
+
+    public enum Result {
+        LEGACY,
+        FRAME,
+        MALFORMED
+    }
+
+    public static final int MAGIC = 0xA5;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 9;
+
+    private static final int SEQUENCE_SPACE = 1 << 16;
+
+    private int lastSequence = -1;
+    private long lastTimestampMs;
+
+    private long frames;
+    private long legacyPayloads;
+    private long malformed;
+    private long uids;
+    private long missedFrames;
+    private long lateFrames;
+
+    /**
+     * Parses the payload and calls the visitor for every UID in it. A malformed frame is
+     * rejected as a whole, the visitor is not called for any part of it.
+     */
+    public Result parse(byte[] value, int offset, int length, Visitor visitor) {
+        if (length <= 0) {
+            malformed++;
+            return Result.MALFORMED;
+        }
+        if (length <= TagIdTable.MAX_UID_LENGTH) {
+            legacyPayloads++;
+            uids++;
+            visitor.onUid(value, offset, length);
+            return Result.LEGACY;
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(value, offset, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+        if ((frame.get(0) & 0xFF) != MAGIC || (frame.get(1) & 0xFF) != VERSION) {
+            malformed++;
+            return Result.MALFORMED;
+        }
+        int count = frame.get(8) & 0xFF;
+        if (!validate(frame, count)) {
+            malformed++;
+            return Result.MALFORMED;
+        }
+
+        frames++;
+        trackSequence(frame.getShort(2) & 0xFFFF);
+        lastTimestampMs = frame.getInt(4) & 0xFFFFFFFFL;
+        int position = HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            int uidLength = frame.get(position) & 0xFF;
+            visitor.onUid(value, offset + position + 1, uidLength);
+            position += 1 + uidLength;
+        }
+        uids += count;
+        return Result.FRAME;
+    }
+
+    // The UID list has to fill the frame exactly, trailing bytes mean the frame is not what it claims
+    private static boolean validate(ByteBuffer frame, int count) {
+        if (count == 0) {
+            return false;
+        }
+        int position = HEADER_SIZE;
+        int limit = frame.limit();
+        for (int i = 0; i < count; i++) {
+            if (position >= limit) {
+                return false;
+            }
+            int uidLength = frame.get(position) & 0xFF;
+            if (uidLength == 0 || uidLength > TagIdTable.MAX_UID_LENGTH || position + 1 + uidLength > limit) {
+                return false;
+            }
+            position += 1 + uidLength;
+        }
+        return position == limit;
+    }
+
+    private void trackSequence(int sequence) {
+        if (lastSequence >= 0) {
+            int gap = (sequence - lastSequence - 1) & (SEQUENCE_SPACE - 1);
+            if (gap >= SEQUENCE_SPACE / 2) {
+                // behind the last one: a duplicate or reordered frame, keep the newer position
+                lateFrames++;
+                return;
+            }
+            missedFrames += gap;
+        }
+        lastSequence = sequence;
+    }
+
+    // Sequence numbers restart with every connection
+    public void reset() {
+        lastSequence = -1;
+    }
+
+    public int getLastSequence() {
+        return lastSequence;
+    }
+
+    // Reader clock of the first read in the last frame
+    public long getLastTimestampMs() {
+        return lastTimestampMs;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getLegacyPayloads() {
+        return legacyPayloads;
+    }
+
+    public long getMalformed() {
+        return malformed;
+    }
+
+    public long getUids() {
+        return uids;
+    }
+
+    public long getMissedFrames() {
+        return missedFrames;
+    }
+
+    public long getLateFrames() {
+        return lateFrames;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.rfidscanner;
+
+/**
+ * Builds version 1 notification frames, the same layout the firmware sends (see
+ * TagFrameParser). Used by SimulatedReader and the tests; the buffer is reused so writing
+ * frames does not allocate.
+ */
+public final class TagFrameWriter {
+    private final byte[] buffer;
+    private int length = TagFrameParser.HEADER_SIZE;
+    private int count;
+
+    // maxFrameSize is the notification payload limit, MTU minus the 3 byte ATT header
+    public TagFrameWriter(int maxFrameSize) {
+        if (maxFrameSize < TagFrameParser.HEADER_SIZE + 1 + TagIdTable.MAX_UID_LENGTH) {
+            throw new IllegalArgumentException("Frame too small for one UID: " + maxFrameSize);
+        }
+        buffer = new byte[maxFrameSize];
+    }
+
+    // Returns false when the UID does not fit anymore, finish the frame and start a new one
+    public boolean add(byte[] uid, int offset, int uidLength) {
+        if (uidLength <= 0 || uidLength > TagIdTable.MAX_UID_LENGTH) {
+            throw new IllegalArgumentException("Invalid UID length: " + uidLength);
+        }
+        if (count == 255 || length + 1 + uidLength > buffer.length) {
+            return false;
+        }
+        buffer[length++] = (byte) uidLength;
+        System.arraycopy(uid, offset, buffer, length, uidLength);
+        length += uidLength;
+        count++;
+        return true;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Writes the header and returns the frame length, the frame is buffer()[0..length).
+     * The writer is empty again afterwards.
+     */
+    public int finish(int sequence, long timestampMs) {
+        int frameLength = length;
+        buffer[0] = (byte) TagFrameParser.MAGIC;
+        buffer[1] = (byte) TagFrameParser.VERSION;
+        buffer[2] = (byte) sequence;
+        buffer[3] = (byte) (sequence >>> 8);
+        buffer[4] = (byte) timestampMs;
+        buffer[5] = (byte) (timestampMs >>> 8);
+        buffer[6] = (byte) (timestampMs >>> 16);
+        buffer[7] = (byte) (timestampMs >>> 24);
+        buffer[8] = (byte) count;
+        length = TagFrameParser.HEADER_SIZE;
+        count = 0;
+        return frameLength;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+}
@@ -0,0 +1,404 @@
+package com.example.rfidscanner;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Export format for read histories, e.g. a shift out of the journal for analysis. Reads are
+ * written in blocks; each block has its own UID dictionary and stores the reads of every
+ * reader as separate columns, so time deltas within a column are small and the UIDs become
+ * dictionary indexes of one or two bytes. Writer and Reader stream block by block and need
+ * memory for one block only, however long the history.
+ *
+ * File layout, little endian:
+ *   magic "RFTH" (int), version (int)
+ *   blocks until the end of the file, each
+ *     header: payload length (int), read count (int), min time (long), max time (long),
+ *             CRC32 of the payload (int)
+ *     payload (varints unless noted):
+ *       dictionary size, then every UID of the block once as a length byte and the bytes
+ *       column count, then per column: reader id (byte), read count,
+ *         first time minus the block's min time, then zigzag deltas to the previous time,
+ *         dictionary index of each read
+ *
+ * The min and max time of the header let Reader skip blocks outside a time range without
+ * decoding them. Each reader's reads come back in the order they were written, the columns of
+ * a block are merged by time (lower reader id first on equal times); how the writer interleaved
+ * the readers is not kept.
+ */
+public final class TagHistoryFile {
+    public static final int DEFAULT_BLOCK_READS = 4096;
+    // largest block Reader accepts, anything bigger is a corrupt header
+    static final int MAX_BLOCK_READS = 1 << 20;
+    private static final int MAGIC = 0x48544652;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 28;
+    private static final int READER_IDS = 256;
+
+    public interface Visitor {
+        // uid is only valid during the call
+        void onRead(long timeMs, int readerId, byte[] uid, int offset, int length);
+    }
+
+    private TagHistoryFile() {
+    }
+
+    /**
+     * Writes reads in the order given; a block is written each time blockReads reads are
+     * collected and on close(). Not thread safe.
+     */
+    public static final class Writer implements TagJournal.Visitor, AutoCloseable {
+        private final OutputStream out;
+        private final int blockReads;
+        private final long[] timesMs;
+        private final byte[] readerIds;
+        private final int[] uidIndexes;
+        // reads of the block sorted by reader, filled when the block is written
+        private final int[] byReader;
+        private final int[] readerCounts = new int[READER_IDS];
+        private final int[] starts = new int[READER_IDS + 1];
+        private final int[] next = new int[READER_IDS];
+        private TagIdTable dictionary = new TagIdTable(256);
+        private int size;
+        private long minTimeMs;
+        private long maxTimeMs;
+        private final ByteCodec.Buffer payload = new ByteCodec.Buffer(64 * 1024);
+        private final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final byte[] uid = new byte[TagIdTable.MAX_UID_LENGTH];
+        private final CRC32 crc = new CRC32();
+        private long reads;
+        private long blocks;
+        private boolean closed;
+
+        public Writer(OutputStream out) throws IOException {
+            this(out, DEFAULT_BLOCK_READS);
+        }
+
+        public Writer(OutputStream out, int blockReads) throws IOException {
+            if (blockReads <= 0 || blockReads > MAX_BLOCK_READS) {
+                throw new IllegalArgumentException("Invalid block size: " + blockReads);
+            }
+            this.out = out;
+            this.blockReads = blockReads;
+            timesMs = new long[blockReads];
+            readerIds = new byte[blockReads];
+            uidIndexes = new int[blockReads];
+            byReader = new int[blockReads];
+            ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            fileHeader.putInt(MAGIC).putInt(VERSION);
+            out.write(fileHeader.array());
+        }
+
+        public void write(long timeMs, int readerId, byte[] uid, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            if (readerId < 0 || readerId >= READER_IDS) {
+                throw new IllegalArgumentException("Invalid reader id: " + readerId);
+            }
+            if (size == 0) {
+                minTimeMs = timeMs;
+                maxTimeMs = timeMs;
+            } else {
+                minTimeMs = Math.min(minTimeMs, timeMs);
+                maxTimeMs = Math.max(maxTimeMs, timeMs);
+            }
+            timesMs[size] = timeMs;
+            readerIds[size] = (byte) readerId;
+            // ids are handed out in order, so they double as dictionary indexes
+            uidIndexes[size] = dictionary.intern(uid, offset, length);
+            size++;
+            reads++;
+            if (size == blockReads) {
+                writeBlock();
+            }
+        }
+
+        // Lets a journal replay feed the writer directly, the RSSI is not exported
+        @Override
+        public void onRecord(long timeMs, int readerId, int rssi, byte[] uid, int offset, int length) {
+            try {
+                write(timeMs, readerId, uid, offset, length);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            payload.reset();
+            int tags = dictionary.size();
+            ByteCodec.writeVarLong(payload, tags);
+            for (int tag = 0; tag < tags; tag++) {
+                int length = dictionary.copyUid(tag, uid, 0);
+                payload.write(length);
+                payload.write(uid, 0, length);
+            }
+
+            // counting sort by reader, stable so every column keeps the order reads came in
+            Arrays.fill(readerCounts, 0);
+            int columns = 0;
+            for (int i = 0; i < size; i++) {
+                if (readerCounts[readerIds[i] & 0xFF]++ == 0) {
+                    columns++;
+                }
+            }
+            for (int r = 0; r < READER_IDS; r++) {
+                starts[r + 1] = starts[r] + readerCounts[r];
+            }
+            System.arraycopy(starts, 0, next, 0, READER_IDS);
+            for (int i = 0; i < size; i++) {
+                byReader[next[readerIds[i] & 0xFF]++] = i;
+            }
+
+            ByteCodec.writeVarLong(payload, columns);
+            for (int r = 0; r < READER_IDS; r++) {
+                int count = readerCounts[r];
+                if (count == 0) {
+                    continue;
+                }
+                payload.write(r);
+                ByteCodec.writeVarLong(payload, count);
+                long previous = minTimeMs;
+                for (int k = starts[r]; k < starts[r + 1]; k++) {
+                    long time = timesMs[byReader[k]];
+                    ByteCodec.writeVarLong(payload, k == starts[r] ? time - minTimeMs : ByteCodec.zigzag(time - previous));
+                    previous = time;
+                }
+                for (int k = starts[r]; k < starts[r + 1]; k++) {
+                    ByteCodec.writeVarLong(payload, uidIndexes[byReader[k]]);
+                }
+            }
+
+            byte[] bytes = payload.array();
+            int length = payload.size();
+            crc.reset();
+            crc.update(bytes, 0, length);
+            header.clear();
+            header.putInt(length).putInt(size).putLong(minTimeMs).putLong(maxTimeMs).putInt((int) crc.getValue());
+            out.write(header.array());
+            out.write(bytes, 0, length);
+            blocks++;
+            size = 0;
+            dictionary = new TagIdTable(256);
+        }
+
+        public long getReads() {
+            return reads;
+        }
+
+        public long getBlocks() {
+            return blocks;
+        }
+
+        // Writes the last block and closes the stream
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            try {
+                writeBlock();
+                out.flush();
+            } finally {
+                closed = true;
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a history file front to back. Not thread safe.
+     */
+    public static final class Reader implements AutoCloseable {
+        private final InputStream in;
+        private final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private byte[] payload = new byte[0];
+        private final ByteCodec.Cursor block = new ByteCodec.Cursor();
+        // one block, grown to the largest block seen
+        private byte[] dictionary = new byte[0];
+        private int[] dictionaryOffsets = new int[0];
+        private long[] timesMs = new long[0];
+        private int[] uidIndexes = new int[0];
+        private final int[] columnReaders = new int[READER_IDS];
+        private final int[] columnStarts = new int[READER_IDS + 1];
+        private final int[] cursors = new int[READER_IDS];
+        private long blocksRead;
+        private long blocksSkipped;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = in;
+            byte[] fileHeader = new byte[FILE_HEADER_SIZE];
+            if (!ByteCodec.readFully(in, fileHeader, FILE_HEADER_SIZE, true)) {
+                throw new IOException("Not a tag history file");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(fileHeader).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a tag history file");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported tag history version " + buffer.getInt(4));
+            }
+        }
+
+        public long read(Visitor visitor) throws IOException {
+            return read(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+        }
+
+        /**
+         * Visits the reads with fromMs <= time <= toMs and returns how many there were. Blocks
+         * entirely outside the range are skipped without being decoded.
+         */
+        public long read(long fromMs, long toMs, Visitor visitor) throws IOException {
+            long visited = 0;
+            while (ByteCodec.readFully(in, header.array(), BLOCK_HEADER_SIZE, false)) {
+                int length = header.getInt(0);
+                int count = header.getInt(4);
+                long minTimeMs = header.getLong(8);
+                long maxTimeMs = header.getLong(16);
+                int expectedCrc = header.getInt(24);
+                if (length < 0 || count <= 0 || count > MAX_BLOCK_READS || minTimeMs > maxTimeMs) {
+                    throw new IOException("Corrupt block header");
+                }
+                if (maxTimeMs < fromMs || minTimeMs > toMs) {
+                    skipFully(length);
+                    blocksSkipped++;
+                    continue;
+                }
+                if (payload.length < length) {
+                    payload = new byte[length];
+                }
+                if (!ByteCodec.readFully(in, payload, length, true)) {
+                    throw new EOFException("Truncated block");
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != expectedCrc) {
+                    throw new IOException("Block CRC mismatch");
+                }
+                visited += decodeBlock(length, count, minTimeMs, fromMs, toMs, visitor);
+                blocksRead++;
+            }
+            return visited;
+        }
+
+        private long decodeBlock(int length, int count, long minTimeMs, long fromMs, long toMs, Visitor visitor) throws IOException {
+            block.reset(payload, length);
+            int tags = readInt(count);
+            if (dictionaryOffsets.length < tags + 1) {
+                dictionaryOffsets = new int[tags + 1];
+            }
+            if (dictionary.length < tags * TagIdTable.MAX_UID_LENGTH) {
+                dictionary = new byte[tags * TagIdTable.MAX_UID_LENGTH];
+            }
+            int dictionarySize = 0;
+            for (int tag = 0; tag < tags; tag++) {
+                int uidLength = block.readByte();
+                if (uidLength == 0 || uidLength > TagIdTable.MAX_UID_LENGTH || uidLength > block.remaining()) {
+                    throw new IOException("Corrupt dictionary");
+                }
+                dictionaryOffsets[tag] = dictionarySize;
+                System.arraycopy(payload, block.position(), dictionary, dictionarySize, uidLength);
+                dictionarySize += uidLength;
+                block.skip(uidLength);
+            }
+            dictionaryOffsets[tags] = dictionarySize;
+
+            if (timesMs.length < count) {
+                timesMs = new long[count];
+                uidIndexes = new int[count];
+            }
+            int columns = readInt(READER_IDS);
+            int filled = 0;
+            for (int c = 0; c < columns; c++) {
+                columnReaders[c] = block.readByte();
+                int n = readInt(count - filled);
+                columnStarts[c] = filled;
+                long time = minTimeMs;
+                for (int k = 0; k < n; k++) {
+                    long value = block.readVarLong();
+                    time = k == 0 ? minTimeMs + value : time + ByteCodec.unzigzag(value);
+                    timesMs[filled + k] = time;
+                }
+                for (int k = 0; k < n; k++) {
+                    uidIndexes[filled + k] = readInt(tags - 1);
+                }
+                filled += n;
+            }
+            columnStarts[columns] = filled;
+            if (filled != count) {
+                throw new IOException("Block holds " + filled + " reads, header says " + count);
+            }
+
+            // merge the columns by time, there are only a handful of readers
+            long visited = 0;
+            for (int c = 0; c < columns; c++) {
+                cursors[c] = columnStarts[c];
+            }
+            for (int i = 0; i < count; i++) {
+                int best = -1;
+                for (int c = 0; c < columns; c++) {
+                    if (cursors[c] < columnStarts[c + 1]
+                            && (best < 0 || timesMs[cursors[c]] < timesMs[cursors[best]])) {
+                        best = c;
+                    }
+                }
+                int k = cursors[best]++;
+                long time = timesMs[k];
+                if (time >= fromMs && time <= toMs) {
+                    int tag = uidIndexes[k];
+                    visitor.onRead(time, columnReaders[best], dictionary, dictionaryOffsets[tag],
+                            dictionaryOffsets[tag + 1] - dictionaryOffsets[tag]);
+                    visited++;
+                }
+            }
+            return visited;
+        }
+
+        public long getBlocksRead() {
+            return blocksRead;
+        }
+
+        public long getBlocksSkipped() {
+            return blocksSkipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private void skipFully(int length) throws IOException {
+            long remaining = length;
+            while (remaining > 0) {
+                long n = in.skip(remaining);
+                if (n <= 0) {
+                    // skip() may give up early, read() says whether it is the end of the file
+                    if (in.read() < 0) {
+                        throw new EOFException("Truncated block");
+                    }
+                    n = 1;
+                }
+                remaining -= n;
+            }
+        }
+
+        private int readInt(int max) throws IOException {
+            long value = block.readVarLong();
+            if (value < 0 || value > max) {
+                throw new IOException("Value " + value + " out of range in block");
+            }
+            return (int) value;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.rfidscanner;
+
+import java.util.Arrays;
+
+/**
+ * Interns raw tag UIDs (4, 7 or 10 bytes from the MFRC522) into compact int ids.
+ * Looking up a UID that is already known does not allocate, the hex string is only
+ * built the first time someone asks for it and is cached after that.
+ */
+public final class TagIdTable {
+    public static final int NO_TAG = -1;
+    public static final int MAX_UID_LENGTH = 10;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    // open addressing slots, slotIds holds id + 1 so that 0 means empty
+    private long[] slotKeys;
+    private int[] slotIds;
+    private int mask;
+
+    // per id storage, indexed by the compact tag id
+    private long[] keys;
+    private byte[] lengths;
+    private byte[] uids;
+    private String[] hex;
+    private int size;
+
+    public TagIdTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TagIdTable(int expectedTags) {
+        int slots = Integer.highestOneBit(Math.max(16, expectedTags * 2 - 1)) << 1;
+        slotKeys = new long[slots];
+        slotIds = new int[slots];
+        mask = slots - 1;
+        int capacity = Math.max(16, expectedTags);
+        keys = new long[capacity];
+        lengths = new byte[capacity];
+        uids = new byte[capacity * MAX_UID_LENGTH];
+        hex = new String[capacity];
+    }
+
+    /**
+     * Packs a UID into a single long. UIDs of up to 7 bytes are stored losslessly with the
+     * length in the top byte, longer ones (10 byte UIDs) are hashed and must be confirmed
+     * against the stored bytes.
+     */
+    public static long packKey(byte[] uid, int offset, int length) {
+        if (length < 0 || length > MAX_UID_LENGTH) {
+            throw new IllegalArgumentException("Invalid UID length: " + length);
+        }
+        long key = 0;
+        if (length <= 7) {
+            for (int i = 0; i < length; i++) {
+                key = (key << 8) | (uid[offset + i] & 0xFF);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                key = (key ^ (uid[offset + i] & 0xFF)) * 0x100000001B3L;
+            }
+            key &= 0x00FFFFFFFFFFFFFFL;
+        }
+        return ((long) length << 56) | key;
+    }
+
+    public int intern(byte[] uid) {
+        return intern(uid, 0, uid.length);
+    }
+
+    /**
+     * Returns the id of the given UID, assigning the next free id if it has not been seen yet.
+     */
+    public synchronized int intern(byte[] uid, int offset, int length) {
+        long key = packKey(uid, offset, length);
+        int slot = mix(key) & mask;
+        while (true) {
+            int stored = slotIds[slot];
+            if (stored == 0) {
+                break;
+            }
+            if (slotKeys[slot] == key && (length <= 7 || sameUid(stored - 1, uid, offset, length))) {
+                return stored - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int id = size;
+        if (id == keys.length) {
+            growStorage();
+        }
+        keys[id] = key;
+        lengths[id] = (byte) length;
+        System.arraycopy(uid, offset, uids, id * MAX_UID_LENGTH, length);
+        size++;
+        slotKeys[slot] = key;
+        slotIds[slot] = id + 1;
+        if (size * 2 > slotIds.length) {
+            rehash(slotIds.length << 1);
+        }
+        return id;
+    }
+
+    /**
+     * Same as {@link #intern(byte[], int, int)} but never adds, returns {@link #NO_TAG} for unknown UIDs.
+     */
+    public synchronized int find(byte[] uid, int offset, int length) {
+        long key = packKey(uid, offset, length);
+        int slot = mix(key) & mask;
+        while (true) {
+            int stored = slotIds[slot];
+            if (stored == 0) {
+                return NO_TAG;
+            }
+            if (slotKeys[slot] == key && (length <= 7 || sameUid(stored - 1, uid, offset, length))) {
+                return stored - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long key(int id) {
+        checkId(id);
+        return keys[id];
+    }
+
+    public synchronized int uidLength(int id) {
+        checkId(id);
+        return lengths[id];
+    }
+
+    /**
+     * Copies the raw UID bytes of the tag into dst and returns the number of bytes written.
+     */
+    public synchronized int copyUid(int id, byte[] dst, int offset) {
+        checkId(id);
+        int length = lengths[id];
+        System.arraycopy(uids, id * MAX_UID_LENGTH, dst, offset, length);
+        return length;
+    }
+
+    public byte[] uid(int id) {
+        byte[] out;
+        synchronized (this) {
+            checkId(id);
+            out = new byte[lengths[id]];
+        }
+        copyUid(id, out, 0);
+        return out;
+    }
+
+    /**
+     * Hex representation in the "AB CD EF 01" form the UI shows, cached after the first call.
+     */
+    public synchronized String hex(int id) {
+        checkId(id);
+        String cached = hex[id];
+        if (cached == null) {
+            cached = toHex(uids, id * MAX_UID_LENGTH, lengths[id]);
+            hex[id] = cached;
+        }
+        return cached;
+    }
+
+    public static String toHex(byte[] data, int offset, int length) {
+        if (length == 0) {
+            return "";
+        }
+        char[] chars = new char[length * 3 - 1];
+        for (int i = 0; i < length; i++) {
+            int b = data[offset + i] & 0xFF;
+            int pos = i * 3;
+            chars[pos] = HEX_DIGITS[b >>> 4];
+            chars[pos + 1] = HEX_DIGITS[b & 0x0F];
+            if (i < length - 1) {
+                chars[pos + 2] = ' ';
+            }
+        }
+        return new String(chars);
+    }
+
+    private boolean sameUid(int id, byte[] uid, int offset, int length) {
+        if (lengths[id] != length) {
+            return false;
+        }
+        int base = id * MAX_UID_LENGTH;
+        for (int i = 0; i < length; i++) {
+            if (uids[base + i] != uid[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("Unknown tag id: " + id);
+        }
+    }
+
+    private void growStorage() {
+        int capacity = keys.length << 1;
+        keys = Arrays.copyOf(keys, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        uids = Arrays.copyOf(uids, capacity * MAX_UID_LENGTH);
+        hex = Arrays.copyOf(hex, capacity);
+    }
+
+    private void rehash(int slots) {
+        long[] newKeys = new long[slots];
+        int[] newIds = new int[slots];
+        int newMask = slots - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(keys[id]) & newMask;
+            while (newIds[slot] != 0) {
+                slot = (slot + 1) & newMask;
+            }
+            newKeys[slot] = keys[id];
+            newIds[slot] = id + 1;
+        }
+        slotKeys = newKeys;
+        slotIds = newIds;
+        mask = newMask;
+    }
+
+    static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
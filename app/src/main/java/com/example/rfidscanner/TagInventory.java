@@ -0,0 +1,418 @@
+package com.example.rfidscanner;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Everything known about each tag of the site: first and last time seen, read count, which
+ * readers saw it. State lives in parallel primitive arrays indexed by the TagIdTable id, so a
+ * lookup is one hash probe plus array reads and 100k tags cost a few MB.
+ *
+ * Time range queries walk two orderings kept next to the arrays: tags in order of first
+ * sighting (an array, binary searched) and tags in order of last sighting (a linked list
+ * through prev/next arrays, a read moves its tag to the tail). Reads arrive almost in time
+ * order, so keeping both sorted is O(1) per read.
+ *
+ * Times are wall clock milliseconds so they stay meaningful across reboots. Thread safe.
+ */
+public final class TagInventory {
+    private static final int SNAPSHOT_MAGIC = 0x52464956;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int NONE = -1;
+
+    public interface Visitor {
+        void onTag(int tagId);
+    }
+
+    private final TagIdTable tagIds;
+
+    // per tag id, readCount 0 means the id is not in the inventory
+    private long[] firstSeen;
+    private long[] lastSeen;
+    private int[] readCount;
+    private int[] readerMask;
+    private byte[] lastReader;
+    private int[] prev;
+    private int[] next;
+
+    // tag ids ordered by first sighting
+    private int[] byFirstSeen;
+    private int size;
+    // oldest and newest by last sighting
+    private int head = NONE;
+    private int tail = NONE;
+
+    private long totalReads;
+
+    public TagInventory(TagIdTable tagIds) {
+        this(tagIds, 1024);
+    }
+
+    public TagInventory(TagIdTable tagIds, int expectedTags) {
+        this.tagIds = tagIds;
+        int capacity = Math.max(16, expectedTags);
+        firstSeen = new long[capacity];
+        lastSeen = new long[capacity];
+        readCount = new int[capacity];
+        readerMask = new int[capacity];
+        lastReader = new byte[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        byFirstSeen = new int[capacity];
+    }
+
+    public TagIdTable getTagIds() {
+        return tagIds;
+    }
+
+    /**
+     * Records one read of a tag interned in the table given to the constructor.
+     */
+    public synchronized void record(int readerId, int tagId, long timeMs) {
+        if (tagId >= readCount.length) {
+            grow(Math.max(readCount.length << 1, tagId + 1));
+        }
+        totalReads++;
+        if (readCount[tagId] == 0) {
+            firstSeen[tagId] = timeMs;
+            lastSeen[tagId] = timeMs;
+            readCount[tagId] = 1;
+            readerMask[tagId] = 1 << readerId;
+            lastReader[tagId] = (byte) readerId;
+            insertByFirstSeen(tagId, timeMs);
+            linkByLastSeen(tagId);
+            return;
+        }
+        if (readCount[tagId] != Integer.MAX_VALUE) {
+            readCount[tagId]++;
+        }
+        readerMask[tagId] |= 1 << readerId;
+        lastReader[tagId] = (byte) readerId;
+        if (timeMs > lastSeen[tagId]) {
+            lastSeen[tagId] = timeMs;
+            unlink(tagId);
+            linkByLastSeen(tagId);
+        }
+    }
+
+    // Interns the UID first, for reads that do not come through the pipeline (journal replay)
+    public void record(int readerId, byte[] uid, int offset, int length, long timeMs) {
+        record(readerId, tagIds.intern(uid, offset, length), timeMs);
+    }
+
+    // Nearly sorted input: the new tag almost always goes at the end
+    private void insertByFirstSeen(int tagId, long timeMs) {
+        int i = size;
+        while (i > 0 && firstSeen[byFirstSeen[i - 1]] > timeMs) {
+            byFirstSeen[i] = byFirstSeen[i - 1];
+            i--;
+        }
+        byFirstSeen[i] = tagId;
+        size++;
+    }
+
+    // Inserts from the tail backwards, so the list stays ordered when reads come slightly out of order
+    private void linkByLastSeen(int tagId) {
+        long time = lastSeen[tagId];
+        int after = tail;
+        while (after != NONE && lastSeen[after] > time) {
+            after = prev[after];
+        }
+        int before = after == NONE ? head : next[after];
+        prev[tagId] = after;
+        next[tagId] = before;
+        if (after == NONE) {
+            head = tagId;
+        } else {
+            next[after] = tagId;
+        }
+        if (before == NONE) {
+            tail = tagId;
+        } else {
+            prev[before] = tagId;
+        }
+    }
+
+    private void unlink(int tagId) {
+        int p = prev[tagId];
+        int n = next[tagId];
+        if (p == NONE) {
+            head = n;
+        } else {
+            next[p] = n;
+        }
+        if (n == NONE) {
+            tail = p;
+        } else {
+            prev[n] = p;
+        }
+    }
+
+    private void grow(int capacity) {
+        firstSeen = Arrays.copyOf(firstSeen, capacity);
+        lastSeen = Arrays.copyOf(lastSeen, capacity);
+        readCount = Arrays.copyOf(readCount, capacity);
+        readerMask = Arrays.copyOf(readerMask, capacity);
+        lastReader = Arrays.copyOf(lastReader, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        next = Arrays.copyOf(next, capacity);
+        byFirstSeen = Arrays.copyOf(byFirstSeen, capacity);
+    }
+
+    /**
+     * Tag id of a UID that is in the inventory, or TagIdTable.NO_TAG.
+     */
+    public synchronized int find(byte[] uid, int offset, int length) {
+        int tagId = tagIds.find(uid, offset, length);
+        return contains(tagId) ? tagId : TagIdTable.NO_TAG;
+    }
+
+    public synchronized boolean contains(int tagId) {
+        return tagId >= 0 && tagId < readCount.length && readCount[tagId] > 0;
+    }
+
+    public synchronized long getFirstSeen(int tagId) {
+        checkTag(tagId);
+        return firstSeen[tagId];
+    }
+
+    public synchronized long getLastSeen(int tagId) {
+        checkTag(tagId);
+        return lastSeen[tagId];
+    }
+
+    public synchronized int getReadCount(int tagId) {
+        checkTag(tagId);
+        return readCount[tagId];
+    }
+
+    public synchronized int getLastReader(int tagId) {
+        checkTag(tagId);
+        return lastReader[tagId] & 0xFF;
+    }
+
+    // Bit r is set when reader r has read the tag
+    public synchronized int getReaderMask(int tagId) {
+        checkTag(tagId);
+        return readerMask[tagId];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getTotalReads() {
+        return totalReads;
+    }
+
+    /**
+     * Visits the tags first seen in [fromMs, toMs), oldest first, and returns how many there were.
+     */
+    public synchronized int firstSeenBetween(long fromMs, long toMs, Visitor visitor) {
+        int count = 0;
+        for (int i = lowerBound(fromMs); i < size; i++) {
+            int tagId = byFirstSeen[i];
+            if (firstSeen[tagId] >= toMs) {
+                break;
+            }
+            if (visitor != null) {
+                visitor.onTag(tagId);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Visits the tags last seen in [fromMs, toMs), most recent first, and returns how many there
+     * were. Cost is proportional to the tags seen since fromMs.
+     */
+    public synchronized int lastSeenBetween(long fromMs, long toMs, Visitor visitor) {
+        int count = 0;
+        for (int tagId = tail; tagId != NONE && lastSeen[tagId] >= fromMs; tagId = prev[tagId]) {
+            if (lastSeen[tagId] >= toMs) {
+                continue;
+            }
+            if (visitor != null) {
+                visitor.onTag(tagId);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private int lowerBound(long timeMs) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (firstSeen[byFirstSeen[mid]] < timeMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(readCount, 0);
+        size = 0;
+        head = NONE;
+        tail = NONE;
+        totalReads = 0;
+    }
+
+    /**
+     * Writes the inventory to file, through a temporary file and a rename so a crash while
+     * saving leaves the previous snapshot in place. Returns the newest read time it contains.
+     *
+     * Tags are written in first seen order followed by the last seen order as record indices,
+     * so restore() rebuilds both orderings without sorting.
+     */
+    public long save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        long newest;
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc), 64 * 1024));
+            byte[] uid = new byte[TagIdTable.MAX_UID_LENGTH];
+            synchronized (this) {
+                newest = tail == NONE ? 0 : lastSeen[tail];
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(size);
+                out.writeLong(totalReads);
+                out.writeLong(newest);
+                int[] position = new int[readCount.length];
+                for (int i = 0; i < size; i++) {
+                    int tagId = byFirstSeen[i];
+                    position[tagId] = i;
+                    int length = tagIds.copyUid(tagId, uid, 0);
+                    out.writeByte(length);
+                    out.write(uid, 0, length);
+                    out.writeLong(firstSeen[tagId]);
+                    out.writeLong(lastSeen[tagId]);
+                    out.writeInt(readCount[tagId]);
+                    out.writeInt(readerMask[tagId]);
+                    out.writeByte(lastReader[tagId]);
+                }
+                for (int tagId = head; tagId != NONE; tagId = next[tagId]) {
+                    out.writeInt(position[tagId]);
+                }
+            }
+            out.flush();
+            // the checksum covers everything before it
+            new DataOutputStream(fileOut).writeInt((int) crc.getValue());
+            fileOut.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot replace snapshot " + file);
+        }
+        return newest;
+    }
+
+    /**
+     * Replaces the contents with a snapshot written by save() and returns the newest read time
+     * in it, so only reads after that have to be replayed from the journal. A missing file is
+     * an empty inventory, a corrupt one throws and leaves the inventory empty.
+     */
+    public long restore(File file) throws IOException {
+        clear();
+        if (!file.exists()) {
+            return 0;
+        }
+        byte[] data = readFile(file);
+        if (data.length < 4) {
+            throw new IOException("Truncated snapshot: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 4));
+        DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(data, data.length - 4, 4));
+        if (trailer.readInt() != (int) crc.getValue()) {
+            throw new IOException("Snapshot checksum mismatch: " + file);
+        }
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not an inventory snapshot: " + file);
+            }
+            int count = in.readInt();
+            long reads = in.readLong();
+            long newest = in.readLong();
+            byte[] uid = new byte[TagIdTable.MAX_UID_LENGTH];
+            synchronized (this) {
+                int[] ids = new int[count];
+                for (int i = 0; i < count; i++) {
+                    int length = in.readUnsignedByte();
+                    if (length == 0 || length > TagIdTable.MAX_UID_LENGTH) {
+                        throw new IOException("Corrupt snapshot, UID length " + length);
+                    }
+                    in.readFully(uid, 0, length);
+                    int tagId = tagIds.intern(uid, 0, length);
+                    if (tagId >= readCount.length) {
+                        grow(Math.max(readCount.length << 1, tagId + 1));
+                    }
+                    ids[i] = tagId;
+                    firstSeen[tagId] = in.readLong();
+                    lastSeen[tagId] = in.readLong();
+                    readCount[tagId] = in.readInt();
+                    readerMask[tagId] = in.readInt();
+                    lastReader[tagId] = in.readByte();
+                    byFirstSeen[size++] = tagId;
+                }
+                for (int i = 0; i < count; i++) {
+                    int position = in.readInt();
+                    if (position < 0 || position >= count) {
+                        throw new IOException("Corrupt snapshot, record index " + position);
+                    }
+                    appendByLastSeen(ids[position]);
+                }
+                totalReads = reads;
+            }
+            return newest;
+        } catch (IOException e) {
+            clear();
+            throw e;
+        }
+    }
+
+    private void appendByLastSeen(int tagId) {
+        prev[tagId] = tail;
+        next[tagId] = NONE;
+        if (tail == NONE) {
+            head = tagId;
+        } else {
+            next[tail] = tagId;
+        }
+        tail = tagId;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(file.length(), Integer.MAX_VALUE - 8));
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                out.write(chunk, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private void checkTag(int tagId) {
+        if (!contains(tagId)) {
+            throw new IllegalArgumentException("Tag not in inventory: " + tagId);
+        }
+    }
+}
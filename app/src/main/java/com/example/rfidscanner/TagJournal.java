@@ -0,0 +1,374 @@
+package com.example.rfidscanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of tag reads, so a shift survives the app being killed. Records are
+ * written into memory-mapped segment files: once put() returns, the bytes belong to the
+ * kernel's page cache and outlive the process. force() is only needed against power loss,
+ * that is done as a group commit after commitRecords reads or commitDelayMs, whichever comes
+ * first, instead of once per read.
+ *
+ * Record, little endian:
+ *   0  CRC32 of bytes 4 to the end (int)
+ *   4  wall clock time (long)
+ *   12 reader id
+ *   13 RSSI in dBm, RSSI_UNKNOWN when not known
+ *   14 UID length, 1 to 10 (0 marks the end of a segment, the file is zero filled)
+ *   15 UID bytes
+ *
+ * On open the last segment is scanned up to the last record with a valid CRC; anything after
+ * it (a record torn by a crash) is zeroed and overwritten by the next append.
+ *
+ * A position names the place just past a record, segment index in the high 32 bits and offset
+ * in the low ones; positions only grow, so a reader can keep one as an exact cursor where
+ * timestamps repeat. Thread safe.
+ */
+public final class TagJournal {
+    public static final int RSSI_UNKNOWN = 127;
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+    public static final int DEFAULT_COMMIT_RECORDS = 256;
+    public static final long DEFAULT_COMMIT_DELAY_MS = 200;
+
+    static final int HEADER_SIZE = 15;
+    static final int MAX_RECORD_SIZE = HEADER_SIZE + TagIdTable.MAX_UID_LENGTH;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".seg";
+
+    public interface Visitor {
+        // uid is only valid during the call
+        void onRecord(long timeMs, int readerId, int rssi, byte[] uid, int offset, int length);
+    }
+
+    // Visitor that also gets the position just past the record
+    public interface PositionVisitor {
+        void onRecord(long position, long timeMs, int readerId, int rssi, byte[] uid, int offset, int length);
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final TaskScheduler scheduler;
+    private int commitRecords = DEFAULT_COMMIT_RECORDS;
+    private long commitDelayMs = DEFAULT_COMMIT_DELAY_MS;
+
+    private final CRC32 crc = new CRC32();
+    private final byte[] record = new byte[MAX_RECORD_SIZE];
+    private final List<Long> segments = new ArrayList<>();
+    private MappedByteBuffer buffer;
+    private long segmentIndex;
+    private int uncommitted;
+    private boolean commitScheduled;
+    private boolean closed;
+
+    private long appended;
+    private long commits;
+    private long recoveredRecords;
+    private long truncatedBytes;
+
+    private final Runnable commitTask = () -> {
+        synchronized (this) {
+            commitScheduled = false;
+            if (!closed) {
+                commit();
+            }
+        }
+    };
+
+    public TagJournal(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS, null);
+    }
+
+    /**
+     * Opens the journal in dir and recovers it. Without a scheduler the delayed commit is left
+     * to the caller (flush()), the record count trigger still applies.
+     */
+    public TagJournal(File dir, int segmentSize, int maxSegments, TaskScheduler scheduler) throws IOException {
+        if (segmentSize < MAX_RECORD_SIZE + 1) {
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        }
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("maxSegments must be positive");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + dir);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.scheduler = scheduler;
+        recover();
+    }
+
+    // Group commit thresholds, reads are forced to disk after this many records or this long
+    public synchronized void setCommitPolicy(int commitRecords, long commitDelayMs) {
+        if (commitRecords <= 0 || commitDelayMs < 0) {
+            throw new IllegalArgumentException("Invalid commit policy");
+        }
+        this.commitRecords = commitRecords;
+        this.commitDelayMs = commitDelayMs;
+    }
+
+    private void recover() throws IOException {
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                        // not ours
+                    }
+                }
+            }
+        }
+        Collections.sort(segments);
+        if (segments.isEmpty()) {
+            openSegment(0);
+            return;
+        }
+        // earlier segments were sealed by a roll, only the last one can end in a torn record
+        segmentIndex = segments.get(segments.size() - 1);
+        buffer = map(segmentFile(segmentIndex));
+        int end = scan(segmentIndex, buffer, null);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            recoveredRecords += count(segments.get(i));
+        }
+        recoveredRecords += countRecords(buffer, end);
+        int dirty = lastNonZero(buffer, end);
+        if (dirty > end) {
+            truncatedBytes = dirty - end;
+            for (int i = end; i < dirty; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+        buffer.position(end);
+    }
+
+    private long count(long index) throws IOException {
+        MappedByteBuffer segment = map(segmentFile(index));
+        return countRecords(segment, scan(index, segment, null));
+    }
+
+    private static long countRecords(MappedByteBuffer segment, int end) {
+        long records = 0;
+        int position = 0;
+        while (position < end) {
+            position += HEADER_SIZE + (segment.get(position + 14) & 0xFF);
+            records++;
+        }
+        return records;
+    }
+
+    private static int lastNonZero(MappedByteBuffer segment, int from) {
+        for (int i = segment.capacity() - 1; i >= from; i--) {
+            if (segment.get(i) != 0) {
+                return i + 1;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Appends one read and returns its position. The record is durable against an app crash on
+     * return and against power loss after the next commit.
+     */
+    public synchronized long append(long timeMs, int readerId, int rssi, byte[] uid, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        if (length <= 0 || length > TagIdTable.MAX_UID_LENGTH) {
+            throw new IllegalArgumentException("Invalid UID length: " + length);
+        }
+        int size = HEADER_SIZE + length;
+        // keep one zero byte after the last record as the end marker
+        if (buffer.position() + size >= segmentSize) {
+            roll();
+        }
+        byte[] r = record;
+        putLong(r, 4, timeMs);
+        r[12] = (byte) readerId;
+        r[13] = (byte) Math.max(-128, Math.min(127, rssi));
+        r[14] = (byte) length;
+        System.arraycopy(uid, offset, r, HEADER_SIZE, length);
+        crc.reset();
+        crc.update(r, 4, size - 4);
+        putInt(r, 0, (int) crc.getValue());
+        buffer.put(r, 0, size);
+        appended++;
+        if (++uncommitted >= commitRecords) {
+            commit();
+        } else if (!commitScheduled && scheduler != null) {
+            commitScheduled = true;
+            scheduler.postDelayed(commitTask, commitDelayMs);
+        }
+        return position(segmentIndex, buffer.position());
+    }
+
+    private static long position(long segment, int offset) {
+        return segment << 32 | offset;
+    }
+
+    // Forces everything appended so far to disk
+    public synchronized void flush() {
+        if (!closed) {
+            commit();
+        }
+    }
+
+    private void commit() {
+        if (uncommitted == 0) {
+            return;
+        }
+        buffer.force();
+        uncommitted = 0;
+        commits++;
+    }
+
+    private void roll() throws IOException {
+        commit();
+        openSegment(segmentIndex + 1);
+        while (segments.size() > maxSegments) {
+            long oldest = segments.remove(0);
+            if (!segmentFile(oldest).delete()) {
+                throw new IOException("Cannot delete old segment " + oldest);
+            }
+        }
+    }
+
+    private void openSegment(long index) throws IOException {
+        segmentIndex = index;
+        segments.add(index);
+        buffer = map(segmentFile(index));
+    }
+
+    private MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return mapped;
+        }
+    }
+
+    private File segmentFile(long index) {
+        return new File(dir, String.format(Locale.US, "%s%010d%s", PREFIX, index, SUFFIX));
+    }
+
+    /**
+     * Calls the visitor for every record, oldest first, and returns how many there were.
+     */
+    public synchronized long replay(Visitor visitor) throws IOException {
+        return replay((position, timeMs, readerId, rssi, uid, offset, length) ->
+                visitor.onRecord(timeMs, readerId, rssi, uid, offset, length));
+    }
+
+    // Same with each record's position
+    public synchronized long replay(PositionVisitor visitor) throws IOException {
+        long records = 0;
+        for (long index : segments) {
+            MappedByteBuffer segment = index == segmentIndex ? buffer : map(segmentFile(index));
+            records += countRecords(segment, scan(index, segment, visitor));
+        }
+        return records;
+    }
+
+    // Returns the offset after the last valid record, calling visitor for each one when not null
+    private static int scan(long index, MappedByteBuffer segment, PositionVisitor visitor) {
+        byte[] r = new byte[MAX_RECORD_SIZE];
+        CRC32 check = new CRC32();
+        int limit = segment.capacity();
+        int position = 0;
+        while (position + HEADER_SIZE < limit) {
+            int length = segment.get(position + 14) & 0xFF;
+            int size = HEADER_SIZE + length;
+            if (length == 0 || length > TagIdTable.MAX_UID_LENGTH || position + size > limit) {
+                break;
+            }
+            for (int i = 0; i < size; i++) {
+                r[i] = segment.get(position + i);
+            }
+            check.reset();
+            check.update(r, 4, size - 4);
+            if ((int) check.getValue() != getInt(r, 0)) {
+                break;
+            }
+            position += size;
+            if (visitor != null) {
+                visitor.onRecord(position(index, position), getLong(r, 4), r[12] & 0xFF, r[13], r, HEADER_SIZE, length);
+            }
+        }
+        return position;
+    }
+
+    // Commits and stops accepting reads
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        commit();
+        closed = true;
+        if (scheduler != null) {
+            scheduler.cancel(commitTask);
+        }
+    }
+
+    // Position just past the newest record, or of the start of an empty journal
+    public synchronized long getPosition() {
+        return position(segmentIndex, buffer.position());
+    }
+
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    // Valid records found on open
+    public synchronized long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    // Bytes of torn records zeroed on open
+    public synchronized long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            b[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static void putLong(byte[] b, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            b[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 | (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+    }
+
+    private static long getLong(byte[] b, int offset) {
+        return (getInt(b, offset) & 0xFFFFFFFFL) | ((long) getInt(b, offset + 4) << 32);
+    }
+}
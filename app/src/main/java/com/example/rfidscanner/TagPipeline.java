@@ -0,0 +1,426 @@
+package com.example.rfidscanner;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The tag hot path behind every transport: notifications are split into UIDs by a per reader
+ * TagFrameParser, UIDs are interned in a TagIdTable, merged across
+ * readers by a TagFanIn, deduplicated on the ingest scheduler and handed to the UI in
+ * batches by a TagBatchDispatcher.
+ *
+ * Notification timestamps have to come from the same clock as ingest.nowMs(), the dedup
+ * sweep compares the two.
+ */
+public final class TagPipeline implements RfidTransport.Sink {
+    public static final long DEFAULT_DEDUP_WINDOW_MS = 1000;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 512;
+
+    private final TaskScheduler ingest;
+    private final TagIdTable tagIds = new TagIdTable();
+    private final TagFanIn fanIn;
+    private final TagBatchDispatcher batchDispatcher;
+    // every merged read, repeats included, for views that count reads
+    private final TagBatchDispatcher mergedDispatcher;
+    private final TagStream stream;
+    private volatile RfidMetrics metrics = new RfidMetrics();
+    private volatile RfidBatchListener batchListener;
+    private volatile RfidBatchListener mergedBatchListener;
+
+    private final Object dedupLock = new Object();
+    private TagDeduplicator deduplicator;
+    private volatile TagDeduplicator.Listener tagEventListener;
+
+    private final Object readerLock = new Object();
+    private final boolean[] connected = new boolean[TagFanIn.MAX_READERS];
+    private final ReaderFrames[] frames = new ReaderFrames[TagFanIn.MAX_READERS];
+    private int connectedReaders;
+    private final AtomicIntegerArray rssi = new AtomicIntegerArray(TagFanIn.MAX_READERS);
+
+    private volatile TagJournal journal;
+    private volatile TagUploader uploader;
+    // held while a read is journaled and handed to the uploader
+    private final Object persistLock = new Object();
+    private volatile TagInventory inventory;
+    private volatile TagPresence presence;
+    private volatile TagAnalytics analytics;
+    // only touched on the ingest thread
+    private boolean presenceTicking;
+    // journal, uploader and inventory keep wall clock time, the pipeline runs on the ingest clock;
+    // taken once so a read has the same wall clock time everywhere
+    private final long wallClockOffsetMs;
+    // only touched on the ingest thread
+    private final byte[] journalUid = new byte[TagIdTable.MAX_UID_LENGTH];
+
+    // Without reads the dedup stage has nothing driving it, so GONE events come from this sweep
+    private final Runnable dedupSweep = new Runnable() {
+        @Override
+        public void run() {
+            long window;
+            synchronized (dedupLock) {
+                deduplicator.expire(ingest.nowMs());
+                window = deduplicator.getWindowMs();
+            }
+            synchronized (readerLock) {
+                if (connectedReaders == 0) {
+                    return;
+                }
+            }
+            ingest.postDelayed(this, window);
+        }
+    };
+
+    // Departures need time to pass rather than reads, this runs while any tag is present
+    private final Runnable presenceTick = new Runnable() {
+        @Override
+        public void run() {
+            TagPresence p = presence;
+            if (p == null) {
+                presenceTicking = false;
+                return;
+            }
+            p.advance(ingest.nowMs());
+            if (p.getPresentTags() > 0) {
+                ingest.postDelayed(this, p.getTickMs());
+            } else {
+                presenceTicking = false;
+            }
+        }
+    };
+
+    public TagPipeline(TaskScheduler ingest, TagBatchDispatcher.Scheduler uiScheduler) {
+        this(ingest, uiScheduler, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    // Frame parsing state of one reader, reused for every notification so parsing does not allocate
+    private final class ReaderFrames implements TagFrameParser.Visitor {
+        final int readerId;
+        final TagFrameParser parser = new TagFrameParser();
+        long timeMs;
+
+        ReaderFrames(int readerId) {
+            this.readerId = readerId;
+        }
+
+        @Override
+        public void onUid(byte[] array, int offset, int length) {
+            int tagId = tagIds.intern(array, offset, length);
+            if (!fanIn.offer(readerId, tagId, timeMs)) {
+                metrics.increment(RfidMetrics.Counter.FAN_IN_DROPS);
+            }
+        }
+    }
+
+    public TagPipeline(TaskScheduler ingest, TagBatchDispatcher.Scheduler uiScheduler, int maxBatchSize) {
+        this.ingest = ingest;
+        this.wallClockOffsetMs = System.currentTimeMillis() - ingest.nowMs();
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new ReaderFrames(i);
+        }
+        this.fanIn = new TagFanIn(ingest);
+        this.batchDispatcher = new TagBatchDispatcher(uiScheduler, maxBatchSize);
+        this.mergedDispatcher = new TagBatchDispatcher(uiScheduler, maxBatchSize);
+        this.stream = new TagStream(ingest);
+        this.deduplicator = newDeduplicator(DEFAULT_DEDUP_WINDOW_MS, TagDeduplicator.Mode.DROP);
+        for (int i = 0; i < TagFanIn.MAX_READERS; i++) {
+            rssi.set(i, TagJournal.RSSI_UNKNOWN);
+        }
+        fanIn.setSink(this::onMergedTag);
+        batchDispatcher.setListener(this::onBatch);
+        mergedDispatcher.setListener(this::onMergedBatch);
+    }
+
+    public void setBatchListener(RfidBatchListener listener) {
+        this.batchListener = listener;
+    }
+
+    // Like setBatchListener() but with every merged read, repeats the deduplicator drops included
+    public void setMergedBatchListener(RfidBatchListener listener) {
+        this.mergedBatchListener = listener;
+    }
+
+    // Shared with the GATT side when the manager wants one registry for everything
+    public void setMetrics(RfidMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public RfidMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Every read that passes deduplication is appended here, null to stop journaling
+    public void setJournal(TagJournal journal) {
+        this.journal = journal;
+    }
+
+    public TagJournal getJournal() {
+        return journal;
+    }
+
+    // Gets every read that passes deduplication with the time it is journaled under, null to stop.
+    // Once this returns the previous uploader gets no more reads from this pipeline.
+    public void setUploader(TagUploader uploader) {
+        synchronized (persistLock) {
+            this.uploader = uploader;
+        }
+    }
+
+    public TagUploader getUploader() {
+        return uploader;
+    }
+
+    // Ingest clock to wall clock, what journal, uploader and inventory times are shifted by
+    public long getWallClockOffsetMs() {
+        return wallClockOffsetMs;
+    }
+
+    // Every merged read, repeats included, updates the inventory. It has to use getTagIds().
+    public void setInventory(TagInventory inventory) {
+        if (inventory != null && inventory.getTagIds() != tagIds) {
+            throw new IllegalArgumentException("Inventory must share the pipeline's TagIdTable");
+        }
+        this.inventory = inventory;
+    }
+
+    public TagInventory getInventory() {
+        return inventory;
+    }
+
+    // Every merged read, repeats included, feeds presence. Its times are on the ingest clock.
+    public void setPresence(TagPresence presence) {
+        this.presence = presence;
+    }
+
+    public TagPresence getPresence() {
+        return presence;
+    }
+
+    // Every merged read, repeats included, feeds the live statistics
+    public void setAnalytics(TagAnalytics analytics) {
+        this.analytics = analytics;
+    }
+
+    public TagAnalytics getAnalytics() {
+        return analytics;
+    }
+
+    // Signal strength of the reader's link, recorded with its reads in the journal
+    public void setReaderRssi(int readerId, int rssi) {
+        this.rssi.set(readerId, rssi);
+    }
+
+    // Receives every dedup event including GONE, called on the ingest thread
+    public void setTagEventListener(TagDeduplicator.Listener listener) {
+        this.tagEventListener = listener;
+    }
+
+    // Repeated reads of a tag inside windowMs are dropped (DROP) or reported once per window (COLLAPSE)
+    public void setDeduplication(long windowMs, TagDeduplicator.Mode mode) {
+        synchronized (dedupLock) {
+            deduplicator.clear(ingest.nowMs());
+            deduplicator = newDeduplicator(windowMs, mode);
+        }
+    }
+
+    private TagDeduplicator newDeduplicator(long windowMs, TagDeduplicator.Mode mode) {
+        TagDeduplicator dedup = new TagDeduplicator(windowMs, mode);
+        dedup.setListener(this::onTagEvent);
+        return dedup;
+    }
+
+    // Lane for a reader, done up front so the first notification is not lost
+    public void addReader(int readerId) {
+        fanIn.addReader(readerId);
+    }
+
+    // Pending reads of the reader are discarded and its tags reported GONE
+    public void removeReader(int readerId) {
+        onReaderDisconnected(readerId);
+        fanIn.removeReader(readerId);
+    }
+
+    @Override
+    public void onReaderConnected(int readerId) {
+        fanIn.addReader(readerId);
+        synchronized (readerLock) {
+            if (connected[readerId]) {
+                return;
+            }
+            connected[readerId] = true;
+            // called before the first notification of the connection, on the same thread
+            frames[readerId].parser.reset();
+            connectedReaders++;
+        }
+        ingest.cancel(dedupSweep);
+        ingest.post(dedupSweep);
+    }
+
+    @Override
+    public void onReaderDisconnected(int readerId) {
+        synchronized (readerLock) {
+            if (connected[readerId]) {
+                connected[readerId] = false;
+                connectedReaders--;
+            }
+        }
+        synchronized (dedupLock) {
+            deduplicator.clearReader(readerId, ingest.nowMs());
+        }
+    }
+
+    // Called on the transport thread, everything after the fan-in runs on the ingest scheduler
+    @Override
+    public void onNotification(int readerId, byte[] value, int offset, int length, long timeMs) {
+        RfidMetrics m = metrics;
+        m.increment(RfidMetrics.Counter.NOTIFICATIONS);
+        ReaderFrames reader = frames[readerId];
+        TagFrameParser parser = reader.parser;
+        long missedBefore = parser.getMissedFrames();
+        reader.timeMs = timeMs;
+        TagFrameParser.Result result = parser.parse(value, offset, length, reader);
+        if (result == TagFrameParser.Result.MALFORMED) {
+            m.increment(RfidMetrics.Counter.INVALID_PAYLOADS);
+        } else if (result == TagFrameParser.Result.FRAME) {
+            m.increment(RfidMetrics.Counter.FRAMES);
+            long missed = parser.getMissedFrames() - missedBefore;
+            if (missed > 0) {
+                m.add(RfidMetrics.Counter.MISSED_FRAMES, missed);
+            }
+        }
+    }
+
+    // Frame counters and sequence state of one reader
+    public TagFrameParser getFrameParser(int readerId) {
+        return frames[readerId].parser;
+    }
+
+    private void onMergedTag(long sequence, int readerId, int tagId, long timeMs) {
+        TagInventory inv = inventory;
+        if (inv != null) {
+            inv.record(readerId, tagId, timeMs + wallClockOffsetMs);
+        }
+        TagPresence p = presence;
+        if (p != null) {
+            p.onRead(readerId, tagId, timeMs);
+            if (!presenceTicking) {
+                presenceTicking = true;
+                ingest.postDelayed(presenceTick, p.getTickMs());
+            }
+        }
+        TagAnalytics a = analytics;
+        if (a != null) {
+            a.onRead(readerId, tagId, timeMs);
+        }
+        if (mergedBatchListener != null && !mergedDispatcher.offer(readerId, tagId, timeMs)) {
+            metrics.increment(RfidMetrics.Counter.BATCH_DROPS);
+        }
+        TagDeduplicator.TagEvent event;
+        synchronized (dedupLock) {
+            event = deduplicator.onRead(readerId, tagId, timeMs);
+        }
+        // outside the lock, a BLOCK subscriber must not hold up a disconnect on the GATT thread
+        if (event != null) {
+            onDeduplicatedRead(readerId, tagId, timeMs);
+        }
+    }
+
+    // Runs under dedupLock, on whichever thread drove the deduplicator
+    private void onTagEvent(TagDeduplicator.TagEvent event, int readerId, int tagId, int reads, long timeMs) {
+        TagDeduplicator.Listener listener = tagEventListener;
+        if (listener != null) {
+            listener.onTagEvent(event, readerId, tagId, reads, timeMs);
+        }
+    }
+
+    // A read that passed deduplication, onRead never returns GONE
+    private void onDeduplicatedRead(int readerId, int tagId, long timeMs) {
+        synchronized (persistLock) {
+            TagJournal j = journal;
+            TagUploader u = uploader;
+            if (j != null || u != null) {
+                long wallMs = timeMs + wallClockOffsetMs;
+                int length = tagIds.copyUid(tagId, journalUid, 0);
+                long position = -1;
+                if (j != null) {
+                    try {
+                        position = j.append(wallMs, readerId, rssi.get(readerId), journalUid, 0, length);
+                    } catch (IOException | IllegalStateException e) {
+                        metrics.increment(RfidMetrics.Counter.JOURNAL_ERRORS);
+                    }
+                }
+                // straight from here rather than through the stream, so a burst cannot drop reads
+                if (u != null) {
+                    u.record(readerId, journalUid, 0, length, wallMs, position);
+                }
+            }
+        }
+        stream.publish(readerId, tagId, timeMs);
+        if (!batchDispatcher.offer(readerId, tagId, timeMs)) {
+            metrics.increment(RfidMetrics.Counter.BATCH_DROPS);
+        }
+    }
+
+    // Runs where the dispatcher's scheduler delivers, the UI thread on the device
+    private void onBatch(TagReadBatch batch) {
+        RfidBatchListener listener = batchListener;
+        if (listener != null) {
+            listener.onRfidBatch(batch);
+        }
+        // measured after the listener so the time it spends drawing is included
+        RfidMetrics m = metrics;
+        long now = ingest.nowMs();
+        for (int i = 0; i < batch.size(); i++) {
+            m.recordNotifyToListener(now - batch.timeMs(i));
+        }
+        m.add(RfidMetrics.Counter.READS_DELIVERED, batch.size());
+    }
+
+    private void onMergedBatch(TagReadBatch batch) {
+        RfidBatchListener listener = mergedBatchListener;
+        if (listener != null) {
+            listener.onRfidBatch(batch);
+        }
+    }
+
+    // Stops the dedup sweep, reads already queued are still delivered and present tags still depart
+    public void stop() {
+        synchronized (readerLock) {
+            for (int i = 0; i < connected.length; i++) {
+                connected[i] = false;
+            }
+            connectedReaders = 0;
+        }
+        ingest.cancel(dedupSweep);
+    }
+
+    public TagIdTable getTagIds() {
+        return tagIds;
+    }
+
+    public TagFanIn getFanIn() {
+        return fanIn;
+    }
+
+    public TagBatchDispatcher getBatchDispatcher() {
+        return batchDispatcher;
+    }
+
+    // Deduplicated reads for any number of independent consumers, published on the ingest thread
+    public TagStream getTagStream() {
+        return stream;
+    }
+
+    public TagDeduplicator getDeduplicator() {
+        synchronized (dedupLock) {
+            return deduplicator;
+        }
+    }
+
+    public long getNotifications() {
+        return metrics.get(RfidMetrics.Counter.NOTIFICATIONS);
+    }
+
+    public long getInvalidPayloads() {
+        return metrics.get(RfidMetrics.Counter.INVALID_PAYLOADS);
+    }
+}
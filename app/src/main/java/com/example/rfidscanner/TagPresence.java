@@ -0,0 +1,333 @@
+package com.example.rfidscanner;
+
+import java.util.Arrays;
+
+/**
+ * Which tags are in the zone right now. The first read of a tag makes it ARRIVED, the next
+ * one PRESENT, and departMs without a read makes it depart again. Arrivals and departures
+ * are collected and handed to the listener in one Changes batch per advance().
+ *
+ * Departures are found with a hashed timing wheel: every tracked tag sits in the bucket of
+ * the tick its deadline falls in, in an intrusive list of tag id arrays, so nothing is
+ * allocated per tag and no timer exists per tag. A read only stores its time; when the
+ * bucket comes round the tag either departs or moves to the bucket of its new deadline, so
+ * both a read and a departure are O(1) and advance() only looks at the buckets that are due.
+ * State is indexed by tag id, memory grows with the TagIdTable and not with the read rate.
+ *
+ * Not thread safe, the pipeline calls it on the ingest thread.
+ */
+public final class TagPresence {
+    public static final long DEFAULT_DEPART_MS = 2000;
+    public static final long DEFAULT_TICK_MS = 50;
+    public static final int DEFAULT_WHEEL_SLOTS = 512;
+
+    public enum State {
+        ABSENT,
+        // read once so far
+        ARRIVED,
+        // read again after arriving
+        PRESENT
+    }
+
+    public enum Event {
+        ARRIVED,
+        DEPARTED
+    }
+
+    public interface Listener {
+        // changes is reused after the call returns
+        void onPresenceChanged(Changes changes);
+    }
+
+    /**
+     * Arrivals and departures of one advance(), in the order they happened. A departure
+     * carries the time of the tag's last read.
+     */
+    public static final class Changes {
+        private Event[] events = new Event[64];
+        private int[] tagIds = new int[64];
+        private int[] readerIds = new int[64];
+        private long[] timesMs = new long[64];
+        private int size;
+
+        void add(Event event, int tagId, int readerId, long timeMs) {
+            if (size == tagIds.length) {
+                int capacity = size << 1;
+                events = Arrays.copyOf(events, capacity);
+                tagIds = Arrays.copyOf(tagIds, capacity);
+                readerIds = Arrays.copyOf(readerIds, capacity);
+                timesMs = Arrays.copyOf(timesMs, capacity);
+            }
+            events[size] = event;
+            tagIds[size] = tagId;
+            readerIds[size] = readerId;
+            timesMs[size] = timeMs;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Event event(int index) {
+            checkIndex(index);
+            return events[index];
+        }
+
+        public int tagId(int index) {
+            checkIndex(index);
+            return tagIds[index];
+        }
+
+        // reader of the first read for an arrival, of the last read for a departure
+        public int readerId(int index) {
+            checkIndex(index);
+            return readerIds[index];
+        }
+
+        public long timeMs(int index) {
+            checkIndex(index);
+            return timesMs[index];
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+            }
+        }
+    }
+
+    private static final int NONE = -1;
+    private static final byte ABSENT = 0;
+    private static final byte ARRIVED = 1;
+    private static final byte PRESENT = 2;
+
+    private final long departMs;
+    private final long tickMs;
+    private final int[] buckets;
+    private final int mask;
+    private Listener listener;
+
+    // per tag id
+    private byte[] states = new byte[0];
+    private long[] lastSeen = new long[0];
+    private int[] lastReader = new int[0];
+    private long[] dueTick = new long[0];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+
+    private long currentTick;
+    private boolean started;
+    private int presentTags;
+    private final Changes changes = new Changes();
+
+    private long arrivals;
+    private long departures;
+    private long reinserts;
+
+    public TagPresence() {
+        this(DEFAULT_DEPART_MS, DEFAULT_TICK_MS, DEFAULT_WHEEL_SLOTS);
+    }
+
+    /**
+     * A departure is noticed between departMs and departMs + tickMs after the last read.
+     * slots * tickMs should cover departMs, longer deadlines still work but take more
+     * than one turn of the wheel.
+     */
+    public TagPresence(long departMs, long tickMs, int slots) {
+        if (departMs <= 0 || tickMs <= 0) {
+            throw new IllegalArgumentException("departMs and tickMs must be positive");
+        }
+        if (slots <= 0 || Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("slots must be a power of two");
+        }
+        this.departMs = departMs;
+        this.tickMs = tickMs;
+        buckets = new int[slots];
+        Arrays.fill(buckets, NONE);
+        mask = slots - 1;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public long getDepartMs() {
+        return departMs;
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    public void onRead(int readerId, int tagId, long timeMs) {
+        if (tagId >= states.length) {
+            grow(tagId + 1);
+        }
+        if (!started) {
+            currentTick = Math.floorDiv(timeMs, tickMs);
+            started = true;
+        }
+        switch (states[tagId]) {
+            case ABSENT:
+                states[tagId] = ARRIVED;
+                lastSeen[tagId] = timeMs;
+                lastReader[tagId] = readerId;
+                presentTags++;
+                arrivals++;
+                schedule(tagId, timeMs + departMs);
+                changes.add(Event.ARRIVED, tagId, readerId, timeMs);
+                return;
+            case ARRIVED:
+                states[tagId] = PRESENT;
+                break;
+            default:
+                break;
+        }
+        // the wheel is only touched when the old deadline comes round
+        if (timeMs >= lastSeen[tagId]) {
+            lastSeen[tagId] = timeMs;
+            lastReader[tagId] = readerId;
+        }
+    }
+
+    /**
+     * Departs every tag whose deadline has passed and delivers the changes collected since
+     * the last call, arrivals included.
+     */
+    public void advance(long nowMs) {
+        long nowTick = Math.floorDiv(nowMs, tickMs);
+        if (!started) {
+            currentTick = nowTick;
+            started = true;
+        }
+        if (nowTick - currentTick >= buckets.length) {
+            // a long pause, one look at every bucket covers it
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                expireBucket(bucket, nowMs, nowTick);
+            }
+        } else {
+            for (long tick = currentTick + 1; tick <= nowTick; tick++) {
+                expireBucket((int) (tick & mask), nowMs, nowTick);
+            }
+        }
+        if (nowTick > currentTick) {
+            currentTick = nowTick;
+        }
+        Listener l = listener;
+        if (changes.size() > 0 && l != null) {
+            l.onPresenceChanged(changes);
+        }
+        changes.clear();
+    }
+
+    private void expireBucket(int bucket, long nowMs, long nowTick) {
+        int tag = buckets[bucket];
+        while (tag != NONE) {
+            int following = next[tag];
+            if (dueTick[tag] <= nowTick) {
+                unlink(tag);
+                long deadline = lastSeen[tag] + departMs;
+                if (deadline <= nowMs) {
+                    depart(tag);
+                } else {
+                    // read since it was scheduled
+                    reinserts++;
+                    schedule(tag, deadline);
+                }
+            }
+            tag = following;
+        }
+    }
+
+    private void depart(int tag) {
+        states[tag] = ABSENT;
+        presentTags--;
+        departures++;
+        changes.add(Event.DEPARTED, tag, lastReader[tag], lastSeen[tag]);
+    }
+
+    // Links the tag into the bucket of the first tick at or after deadlineMs
+    private void schedule(int tag, long deadlineMs) {
+        long tick = Math.max(Math.floorDiv(deadlineMs + tickMs - 1, tickMs), currentTick + 1);
+        int bucket = (int) (tick & mask);
+        dueTick[tag] = tick;
+        int head = buckets[bucket];
+        next[tag] = head;
+        prev[tag] = NONE;
+        if (head != NONE) {
+            prev[head] = tag;
+        }
+        buckets[bucket] = tag;
+    }
+
+    private void unlink(int tag) {
+        int p = prev[tag];
+        int n = next[tag];
+        if (p != NONE) {
+            next[p] = n;
+        } else {
+            buckets[(int) (dueTick[tag] & mask)] = n;
+        }
+        if (n != NONE) {
+            prev[n] = p;
+        }
+        next[tag] = NONE;
+        prev[tag] = NONE;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, Math.max(1024, states.length * 2));
+        states = Arrays.copyOf(states, capacity);
+        lastSeen = Arrays.copyOf(lastSeen, capacity);
+        lastReader = Arrays.copyOf(lastReader, capacity);
+        dueTick = Arrays.copyOf(dueTick, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+    }
+
+    public State getState(int tagId) {
+        if (tagId < 0 || tagId >= states.length) {
+            return State.ABSENT;
+        }
+        switch (states[tagId]) {
+            case ARRIVED:
+                return State.ARRIVED;
+            case PRESENT:
+                return State.PRESENT;
+            default:
+                return State.ABSENT;
+        }
+    }
+
+    public boolean isPresent(int tagId) {
+        return getState(tagId) != State.ABSENT;
+    }
+
+    // Tags that arrived and have not departed yet
+    public int getPresentTags() {
+        return presentTags;
+    }
+
+    // Time of the tag's last read, meaningless for absent tags
+    public long getLastSeen(int tagId) {
+        return lastSeen[tagId];
+    }
+
+    public long getArrivals() {
+        return arrivals;
+    }
+
+    public long getDepartures() {
+        return departures;
+    }
+
+    // Bucket moves of tags that were read again before their deadline came round
+    public long getReinserts() {
+        return reinserts;
+    }
+}
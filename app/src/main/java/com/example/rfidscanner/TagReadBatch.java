@@ -0,0 +1,77 @@
+package com.example.rfidscanner;
+
+import java.util.Arrays;
+
+/**
+ * A reusable batch of tag reads stored in parallel primitive arrays.
+ */
+public final class TagReadBatch {
+    private int[] readerIds;
+    private int[] tagIds;
+    private long[] timesMs;
+    private int size;
+    private long droppedBefore;
+
+    public TagReadBatch(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        readerIds = new int[capacity];
+        tagIds = new int[capacity];
+        timesMs = new long[capacity];
+    }
+
+    void add(int readerId, int tagId, long timeMs) {
+        if (size == tagIds.length) {
+            int capacity = size << 1;
+            readerIds = Arrays.copyOf(readerIds, capacity);
+            tagIds = Arrays.copyOf(tagIds, capacity);
+            timesMs = Arrays.copyOf(timesMs, capacity);
+        }
+        readerIds[size] = readerId;
+        tagIds[size] = tagId;
+        timesMs[size] = timeMs;
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+        droppedBefore = 0;
+    }
+
+    void setDroppedBefore(long dropped) {
+        droppedBefore = dropped;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int readerId(int index) {
+        checkIndex(index);
+        return readerIds[index];
+    }
+
+    public int tagId(int index) {
+        checkIndex(index);
+        return tagIds[index];
+    }
+
+    public long timeMs(int index) {
+        checkIndex(index);
+        return timesMs[index];
+    }
+
+    // Number of reads that were dropped because the buffer was full while this batch was filling
+    public long droppedBefore() {
+        return droppedBefore;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+}
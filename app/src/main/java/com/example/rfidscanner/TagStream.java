@@ -0,0 +1,383 @@
+package com.example.rfidscanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Publish/subscribe stream of tag reads with the semantics of java.util.concurrent.Flow
+ * (which needs API 30): subscribers signal demand with request(n) and get onNext calls on
+ * their own executor. Each subscriber has its own bounded buffer of primitive slots and its
+ * own overflow policy, so a slow consumer only ever loses its own reads and publish() never
+ * waits on it, except with Overflow.BLOCK, and then at most BLOCK_TIMEOUT_MS.
+ *
+ * publish() is called on the ingest thread, never on a BLE callback thread, and outside the
+ * pipeline's dedup lock, so even a blocking subscriber cannot stall notifications or a reader
+ * disconnect; the fan-in in front absorbs and counts it.
+ */
+public final class TagStream {
+    public static final long BLOCK_TIMEOUT_MS = 250;
+    // reads delivered per executor task before yielding to other work on that executor
+    private static final int MAX_DELIVERIES_PER_RUN = 64;
+
+    public enum Overflow {
+        // the oldest buffered read makes room
+        DROP_OLDEST,
+        // the new read is discarded
+        DROP_NEWEST,
+        // publish() waits for room, up to BLOCK_TIMEOUT_MS, then discards the new read
+        BLOCK,
+        // the newest buffered read is replaced, the subscriber always ends up with the latest
+        CONFLATE_LATEST
+    }
+
+    public interface Subscriber {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(int readerId, int tagId, long timeMs);
+
+        // onNext threw, the subscription is cancelled
+        void onError(Throwable error);
+
+        // the stream was closed and everything buffered has been delivered
+        void onComplete();
+    }
+
+    public interface Subscription {
+        // Long.MAX_VALUE for unbounded demand
+        void request(long n);
+
+        void cancel();
+    }
+
+    private final TaskScheduler clock;
+    private final List<Handle> handles = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    // clock has to be the one the read timestamps come from, lag is measured against it
+    public TagStream(TaskScheduler clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Adds a subscriber. onSubscribe is called on its executor before anything else.
+     */
+    public Handle subscribe(String name, Subscriber subscriber, Executor executor, int bufferSize, Overflow overflow) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        Handle handle = new Handle(name, subscriber, executor, bufferSize, overflow);
+        // queued first so onComplete from a close cannot overtake it
+        executor.execute(() -> subscriber.onSubscribe(handle));
+        if (!closed) {
+            handles.add(handle);
+        }
+        if (closed) {
+            // closed before or while it was being added, complete() is safe to call twice
+            handles.remove(handle);
+            handle.complete();
+        }
+        return handle;
+    }
+
+    public void publish(int readerId, int tagId, long timeMs) {
+        for (Handle handle : handles) {
+            handle.offer(readerId, tagId, timeMs);
+        }
+    }
+
+    // Completes every subscriber once its buffer has been delivered
+    public void close() {
+        closed = true;
+        for (Handle handle : handles) {
+            handle.complete();
+        }
+        handles.clear();
+    }
+
+    public List<Handle> getSubscribers() {
+        return new ArrayList<>(handles);
+    }
+
+    // One line per subscriber for the debug panel
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        long now = clock.nowMs();
+        for (Handle handle : handles) {
+            LatencyHistogram.Snapshot lag = handle.lag.snapshot();
+            text.append(String.format(Locale.US, "%-12s q %d/%d drop %d confl %d lag p99 %d oldest %d%n",
+                    handle.name, handle.getQueued(), handle.capacity, handle.getDropped(), handle.getConflated(),
+                    lag.getPercentile(0.99), handle.getOldestQueuedAgeMs(now)));
+        }
+        return text.toString();
+    }
+
+    /**
+     * One subscriber's buffer, demand and lag metrics.
+     */
+    public final class Handle implements Subscription, Runnable {
+        private final String name;
+        private final Subscriber subscriber;
+        private final Executor executor;
+        private final Overflow overflow;
+        private final int capacity;
+        private final int[] readerIds;
+        private final int[] tagIds;
+        private final long[] timesMs;
+        private int head;
+        private int count;
+
+        private long demand;
+        private boolean scheduled;
+        private boolean cancelled;
+        private boolean completing;
+        private boolean done;
+
+        private long delivered;
+        private long dropped;
+        private long conflated;
+        private long blockedMs;
+        private int maxQueued;
+        // read time to onNext
+        private final LatencyHistogram lag = new LatencyHistogram();
+
+        Handle(String name, Subscriber subscriber, Executor executor, int capacity, Overflow overflow) {
+            this.name = name;
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.capacity = capacity;
+            this.overflow = overflow;
+            readerIds = new int[capacity];
+            tagIds = new int[capacity];
+            timesMs = new long[capacity];
+        }
+
+        void offer(int readerId, int tagId, long timeMs) {
+            boolean schedule;
+            synchronized (this) {
+                if (cancelled || completing) {
+                    return;
+                }
+                if (count == capacity) {
+                    switch (overflow) {
+                        case DROP_OLDEST:
+                            head = (head + 1) % capacity;
+                            count--;
+                            dropped++;
+                            break;
+                        case DROP_NEWEST:
+                            dropped++;
+                            return;
+                        case CONFLATE_LATEST:
+                            int newest = (head + count - 1) % capacity;
+                            readerIds[newest] = readerId;
+                            tagIds[newest] = tagId;
+                            timesMs[newest] = timeMs;
+                            conflated++;
+                            return;
+                        case BLOCK:
+                            if (!awaitRoom()) {
+                                dropped++;
+                                return;
+                            }
+                            break;
+                    }
+                }
+                int tail = (head + count) % capacity;
+                readerIds[tail] = readerId;
+                tagIds[tail] = tagId;
+                timesMs[tail] = timeMs;
+                count++;
+                if (count > maxQueued) {
+                    maxQueued = count;
+                }
+                schedule = shouldSchedule();
+            }
+            if (schedule) {
+                executor.execute(this);
+            }
+        }
+
+        // Called holding the lock, false when there is still no room after the timeout
+        private boolean awaitRoom() {
+            long start = System.nanoTime();
+            long deadline = start + BLOCK_TIMEOUT_MS * 1_000_000L;
+            try {
+                while (count == capacity && !cancelled) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                blockedMs += (System.nanoTime() - start) / 1_000_000L;
+            }
+            return count < capacity && !cancelled;
+        }
+
+        private boolean shouldSchedule() {
+            if (scheduled || done) {
+                return false;
+            }
+            if ((count > 0 && demand > 0) || (completing && count == 0)) {
+                scheduled = true;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // Flow rule 3.9
+                fail(new IllegalArgumentException("request must be positive: " + n));
+                return;
+            }
+            boolean schedule;
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                schedule = shouldSchedule();
+            }
+            if (schedule) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                done = true;
+                count = 0;
+                notifyAll();
+            }
+            handles.remove(this);
+        }
+
+        void complete() {
+            boolean schedule;
+            synchronized (this) {
+                completing = true;
+                schedule = shouldSchedule();
+            }
+            if (schedule) {
+                executor.execute(this);
+            }
+        }
+
+        // Delivers on the subscriber's executor
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_DELIVERIES_PER_RUN; i++) {
+                int readerId;
+                int tagId;
+                long timeMs;
+                synchronized (this) {
+                    if (cancelled) {
+                        scheduled = false;
+                        return;
+                    }
+                    if (count == 0 || demand == 0) {
+                        scheduled = false;
+                        if (completing && count == 0 && !done) {
+                            done = true;
+                            break;
+                        }
+                        return;
+                    }
+                    readerId = readerIds[head];
+                    tagId = tagIds[head];
+                    timeMs = timesMs[head];
+                    head = (head + 1) % capacity;
+                    count--;
+                    if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                    delivered++;
+                    notifyAll();
+                }
+                lag.record(clock.nowMs() - timeMs);
+                try {
+                    subscriber.onNext(readerId, tagId, timeMs);
+                } catch (RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+            }
+            boolean finished;
+            boolean schedule;
+            synchronized (this) {
+                finished = done && !cancelled;
+                if (finished) {
+                    cancelled = true;
+                }
+                scheduled = false;
+                schedule = shouldSchedule();
+            }
+            if (finished) {
+                subscriber.onComplete();
+            } else if (schedule) {
+                // more to deliver, go to the back of the executor's queue
+                executor.execute(this);
+            }
+        }
+
+        private void fail(Throwable error) {
+            synchronized (this) {
+                if (done && cancelled) {
+                    return;
+                }
+            }
+            cancel();
+            executor.execute(() -> subscriber.onError(error));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized int getQueued() {
+            return count;
+        }
+
+        public synchronized int getMaxQueued() {
+            return maxQueued;
+        }
+
+        public synchronized long getDelivered() {
+            return delivered;
+        }
+
+        // Reads lost to DROP_OLDEST, DROP_NEWEST or a BLOCK timeout
+        public synchronized long getDropped() {
+            return dropped;
+        }
+
+        // Reads overwritten by a newer one under CONFLATE_LATEST
+        public synchronized long getConflated() {
+            return conflated;
+        }
+
+        // Time publish() spent waiting for this subscriber under BLOCK
+        public synchronized long getBlockedMs() {
+            return blockedMs;
+        }
+
+        public synchronized long getOldestQueuedAgeMs(long nowMs) {
+            return count == 0 ? 0 : nowMs - timesMs[head];
+        }
+
+        public LatencyHistogram getLag() {
+            return lag;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package com.example.rfidscanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Ships deduplicated reads to the backend in compressed batches instead of one request per
+ * tag. Reads come from the pipeline right where they are journaled, with the same wall clock
+ * time and their journal position, or from a journal replay; both through record(). They are
+ * collected until
+ * maxBatchReads or maxBatchAgeMs; the batch is then encoded with TagBatchCodec and
+ * written to the outbox directory before anything is sent, so a sealed batch survives a
+ * restart. The outbox is sent oldest first on the network scheduler with exponential backoff,
+ * and a batch is only deleted once the backend has acknowledged it.
+ *
+ * Batch ids are never reused on an install, so a batch that is sent again after a lost
+ * response or a crash is recognised by the backend rather than counted twice. The state file
+ * keeps the next batch id, the acknowledged cursor and the journal position of the newest read
+ * that made it into a batch; reads after that are only in the TagJournal and have to be
+ * replayed from there on start, see getSealedThroughPosition(). Thread safe.
+ */
+public final class TagUploader {
+    public static final int DEFAULT_MAX_BATCH_READS = 1000;
+    public static final long DEFAULT_MAX_BATCH_AGE_MS = 30_000;
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 1000;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 5 * 60_000;
+    // about 20 MB of outbox, the oldest batches go first when the backend stays unreachable
+    public static final int MAX_OUTBOX_BATCHES = 10_000;
+
+    private static final String STATE_FILE = "upload.state";
+    private static final String OUTBOX_DIR = "outbox";
+    private static final int STATE_MAGIC = 0x53555452;
+    private static final int STATE_VERSION = 2;
+    private static final int STATE_SIZE = 52;
+
+    public interface Sender {
+        // Returns the HTTP status of the upload, an IOException is retried like a 5xx
+        int send(String installId, long batchId, byte[] body) throws IOException;
+    }
+
+    private final File stateFile;
+    private final File outboxDir;
+    private final TaskScheduler batcher;
+    private final TaskScheduler network;
+    private volatile Sender sender;
+    private int maxBatchReads = DEFAULT_MAX_BATCH_READS;
+    private long maxBatchAgeMs = DEFAULT_MAX_BATCH_AGE_MS;
+    private long initialBackoffMs = DEFAULT_INITIAL_BACKOFF_MS;
+    private long maxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+
+    private final TagBatchCodec.Encoder encoder = new TagBatchCodec.Encoder();
+
+    private String installId;
+    private long nextBatchId = 1;
+    private long ackedBatchId;
+    private long sealedThroughPosition;
+    // of the newest read in the encoder, or sealedThroughPosition when it is empty
+    private long recordedThroughPosition;
+    // sealed batches that were not acknowledged yet, oldest first, as {batch id, reads, journal position}
+    private final ArrayDeque<long[]> outbox = new ArrayDeque<>();
+    private boolean uploadScheduled;
+    private int attempt;
+    private boolean closed;
+
+    private long sealedBatches;
+    private long uploadedBatches;
+    private long uploadedReads;
+    private long retries;
+    private long rejectedBatches;
+    private long droppedBatches;
+    private long rawBytes;
+    private long sentBytes;
+    private long errors;
+    private int lastStatus;
+
+    private final Runnable ageTask = this::flush;
+    private final Runnable uploadTask = this::uploadNext;
+
+    /**
+     * Opens the state and outbox in dir, creating them on first use. Batching runs on
+     * batcher, uploads on network; sender may be null until a backend is configured.
+     */
+    public TagUploader(File dir, TaskScheduler batcher, TaskScheduler network, Sender sender) throws IOException {
+        this.stateFile = new File(dir, STATE_FILE);
+        this.outboxDir = new File(dir, OUTBOX_DIR);
+        this.batcher = batcher;
+        this.network = network;
+        this.sender = sender;
+        open();
+        synchronized (this) {
+            scheduleUpload();
+        }
+    }
+
+    private void open() throws IOException {
+        if (!outboxDir.isDirectory() && !outboxDir.mkdirs()) {
+            throw new IOException("Cannot create " + outboxDir);
+        }
+        boolean dirty = !readState();
+        List<long[]> found = new ArrayList<>();
+        File[] files = outboxDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                long[] batch = parseBatchName(file.getName());
+                if (batch == null || batch[0] <= ackedBatchId) {
+                    // a tmp file of a batch that was never sealed, or one acknowledged before a crash
+                    deleteQuietly(file);
+                } else {
+                    found.add(batch);
+                }
+            }
+        }
+        Collections.sort(found, (a, b) -> Long.compare(a[0], b[0]));
+        outbox.addAll(found);
+        long[] newest = outbox.peekLast();
+        if (newest != null && newest[0] >= nextBatchId) {
+            // sealed, but the state was not written before the process died
+            nextBatchId = newest[0] + 1;
+            sealedThroughPosition = newest[2];
+            dirty = true;
+        }
+        recordedThroughPosition = sealedThroughPosition;
+        if (dirty) {
+            writeState();
+        }
+    }
+
+    public void setSender(Sender sender) {
+        this.sender = sender;
+        synchronized (this) {
+            scheduleUpload();
+        }
+    }
+
+    // A batch is sealed at maxReads reads or maxAgeMs after its first read, whichever comes first
+    public synchronized void setBatchPolicy(int maxReads, long maxAgeMs) {
+        if (maxReads <= 0 || maxAgeMs <= 0) {
+            throw new IllegalArgumentException("Batch limits must be positive");
+        }
+        maxBatchReads = maxReads;
+        maxBatchAgeMs = maxAgeMs;
+    }
+
+    public synchronized void setBackoff(long initialMs, long maxMs) {
+        if (initialMs <= 0 || maxMs < initialMs) {
+            throw new IllegalArgumentException("Invalid backoff range");
+        }
+        initialBackoffMs = initialMs;
+        maxBackoffMs = maxMs;
+    }
+
+    /**
+     * Adds a read with a wall clock time and its TagJournal position, -1 when it was not
+     * journaled. Called on the ingest thread, which also seals a batch that this read fills.
+     */
+    public synchronized void record(int readerId, byte[] uid, int offset, int length, long timeMs, long journalPosition) {
+        if (closed) {
+            return;
+        }
+        encoder.add(timeMs, readerId, uid, offset, length);
+        if (journalPosition >= 0) {
+            recordedThroughPosition = journalPosition;
+        }
+        if (encoder.size() == 1) {
+            batcher.postDelayed(ageTask, maxBatchAgeMs);
+        }
+        if (encoder.size() >= maxBatchReads) {
+            seal();
+        }
+    }
+
+    // Seals the reads collected so far without waiting for the batch to fill up
+    public synchronized void flush() {
+        seal();
+    }
+
+    private void seal() {
+        batcher.cancel(ageTask);
+        int reads = encoder.size();
+        if (reads == 0) {
+            return;
+        }
+        long[] batch = {nextBatchId, reads, recordedThroughPosition};
+        byte[] body = encoder.encode(batch[0]);
+        try {
+            writeAtomically(batchFile(batch), body);
+        } catch (IOException e) {
+            errors++;
+            // the reads stay in the encoder, the age timer tries again
+            batcher.postDelayed(ageTask, maxBatchAgeMs);
+            return;
+        }
+        nextBatchId++;
+        sealedThroughPosition = recordedThroughPosition;
+        sealedBatches++;
+        rawBytes += encoder.getRawSize();
+        encoder.reset();
+        outbox.addLast(batch);
+        while (outbox.size() > MAX_OUTBOX_BATCHES) {
+            long[] oldest = outbox.pollFirst();
+            droppedBatches++;
+            ackedBatchId = Math.max(ackedBatchId, oldest[0]);
+            deleteQuietly(batchFile(oldest));
+        }
+        try {
+            writeState();
+        } catch (IOException e) {
+            // open() finds the batch file and catches up
+            errors++;
+        }
+        scheduleUpload();
+    }
+
+    private void scheduleUpload() {
+        if (!uploadScheduled && !closed && sender != null && !outbox.isEmpty()) {
+            uploadScheduled = true;
+            network.post(uploadTask);
+        }
+    }
+
+    // Runs on the network scheduler, one batch per run
+    private void uploadNext() {
+        Sender s = sender;
+        long[] batch;
+        synchronized (this) {
+            batch = outbox.peekFirst();
+            if (batch == null || s == null || closed) {
+                uploadScheduled = false;
+                return;
+            }
+        }
+        byte[] body;
+        try {
+            body = readFile(batchFile(batch));
+        } catch (IOException e) {
+            synchronized (this) {
+                errors++;
+                // nothing left to send, move on rather than retry forever
+                finish(batch);
+            }
+            network.post(uploadTask);
+            return;
+        }
+        int status;
+        try {
+            status = s.send(installId, batch[0], body);
+        } catch (IOException e) {
+            status = 0;
+        }
+        synchronized (this) {
+            lastStatus = status;
+            if (isAcknowledged(status)) {
+                attempt = 0;
+                uploadedBatches++;
+                uploadedReads += batch[1];
+                sentBytes += body.length;
+                finish(batch);
+                network.post(uploadTask);
+            } else if (isRejected(status)) {
+                // the backend will never take this batch, sending it again cannot help
+                attempt = 0;
+                rejectedBatches++;
+                finish(batch);
+                network.post(uploadTask);
+            } else {
+                attempt++;
+                retries++;
+                network.postDelayed(uploadTask, backoffMs(attempt));
+            }
+        }
+    }
+
+    // 409 means the backend already has this batch id, from an attempt whose response got lost
+    private static boolean isAcknowledged(int status) {
+        return (status >= 200 && status < 300) || status == 409;
+    }
+
+    private static boolean isRejected(int status) {
+        return status == 400 || status == 413 || status == 415 || status == 422;
+    }
+
+    long backoffMs(int attempt) {
+        long delay = initialBackoffMs;
+        for (int i = 1; i < attempt && delay < maxBackoffMs; i++) {
+            delay <<= 1;
+        }
+        return Math.min(delay, maxBackoffMs);
+    }
+
+    // Moves the cursor past the batch, it is never sent again
+    private void finish(long[] batch) {
+        if (outbox.peekFirst() == batch) {
+            outbox.pollFirst();
+        }
+        ackedBatchId = Math.max(ackedBatchId, batch[0]);
+        try {
+            writeState();
+        } catch (IOException e) {
+            // the batch is sent once more after a restart, the backend drops it by its id
+            errors++;
+        }
+        deleteQuietly(batchFile(batch));
+    }
+
+    /**
+     * Seals what is collected and stops. Uploads stop after the current one; the outbox is
+     * picked up again by the next TagUploader on this directory.
+     */
+    public synchronized void close() {
+        seal();
+        closed = true;
+        network.cancel(uploadTask);
+    }
+
+    private boolean readState() {
+        if (!stateFile.exists()) {
+            installId = UUID.randomUUID().toString();
+            return false;
+        }
+        byte[] data;
+        try {
+            data = readFile(stateFile);
+        } catch (IOException e) {
+            data = new byte[0];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, Math.max(0, data.length - 4));
+        if (data.length != STATE_SIZE || buffer.getInt(0) != STATE_MAGIC || buffer.getInt(4) != STATE_VERSION
+                || buffer.getInt(STATE_SIZE - 4) != (int) crc.getValue()) {
+            // written by tmp and rename, so this is not a torn write; start over as a new
+            // install so that reused batch ids cannot collide with what was sent before
+            errors++;
+            installId = UUID.randomUUID().toString();
+            return false;
+        }
+        installId = new UUID(buffer.getLong(8), buffer.getLong(16)).toString();
+        nextBatchId = buffer.getLong(24);
+        ackedBatchId = buffer.getLong(32);
+        sealedThroughPosition = buffer.getLong(40);
+        return true;
+    }
+
+    private void writeState() throws IOException {
+        UUID id = UUID.fromString(installId);
+        ByteBuffer buffer = ByteBuffer.allocate(STATE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(STATE_MAGIC).putInt(STATE_VERSION)
+                .putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits())
+                .putLong(nextBatchId).putLong(ackedBatchId).putLong(sealedThroughPosition);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, STATE_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+        writeAtomically(stateFile, buffer.array());
+    }
+
+    private File batchFile(long[] batch) {
+        return new File(outboxDir, String.format(Locale.US, "batch-%016d-%d-%d.bin", batch[0], batch[1], batch[2]));
+    }
+
+    // {batch id, reads, journal position} of an outbox file name, null for anything else
+    private static long[] parseBatchName(String name) {
+        if (!name.startsWith("batch-") || !name.endsWith(".bin")) {
+            return null;
+        }
+        String[] parts = name.substring(6, name.length() - 4).split("-");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeAtomically(File file, byte[] data) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+    public synchronized String getInstallId() {
+        return installId;
+    }
+
+    // Journal position of the newest read in a sealed batch, 0 before the first; journal reads
+    // after it still need sending
+    public synchronized long getSealedThroughPosition() {
+        return sealedThroughPosition;
+    }
+
+    // Like getSealedThroughPosition() but counting the reads still buffered, what a replay into
+    // this same instance has to start after
+    public synchronized long getRecordedThroughPosition() {
+        return recordedThroughPosition;
+    }
+
+    public synchronized long getNextBatchId() {
+        return nextBatchId;
+    }
+
+    // Every batch up to this id is acknowledged or given up on
+    public synchronized long getAckedBatchId() {
+        return ackedBatchId;
+    }
+
+    public synchronized int getPendingBatches() {
+        return outbox.size();
+    }
+
+    // Reads collected for the next batch
+    public synchronized int getBufferedReads() {
+        return encoder.size();
+    }
+
+    public synchronized long getSealedBatches() {
+        return sealedBatches;
+    }
+
+    public synchronized long getUploadedBatches() {
+        return uploadedBatches;
+    }
+
+    public synchronized long getUploadedReads() {
+        return uploadedReads;
+    }
+
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    // Batches the backend refused as malformed
+    public synchronized long getRejectedBatches() {
+        return rejectedBatches;
+    }
+
+    // Batches pushed out of a full outbox before they could be sent
+    public synchronized long getDroppedBatches() {
+        return droppedBatches;
+    }
+
+    // Encoded size before compression of all sealed batches
+    public synchronized long getRawBytes() {
+        return rawBytes;
+    }
+
+    // Compressed request bodies of all acknowledged batches
+    public synchronized long getSentBytes() {
+        return sentBytes;
+    }
+
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    // 0 after a network error
+    public synchronized int getLastStatus() {
+        return lastStatus;
+    }
+
+    // One line for the debug panel
+    public synchronized String describe() {
+        long perThousand = uploadedReads == 0 ? 0 : sentBytes * 1000 / uploadedReads;
+        return String.format(Locale.US, "upload out %d buf %d sent %d/%d reads %d B/kread retry %d rej %d drop %d http %d%n",
+                outbox.size(), encoder.size(), uploadedBatches, uploadedReads, perThousand, retries,
+                rejectedBatches, droppedBatches, lastStatus);
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.rfidscanner;
+
+// Thread and clock abstraction for the BLE engines, backed by a Handler on the device
+// and by a manual clock in JVM tests.
+public interface TaskScheduler {
+    void post(Runnable task);
+
+    void postDelayed(Runnable task, long delayMs);
+
+    void cancel(Runnable task);
+
+    long nowMs();
+}
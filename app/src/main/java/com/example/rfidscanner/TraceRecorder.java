@@ -0,0 +1,111 @@
+package com.example.rfidscanner;
+
+import java.io.IOException;
+import java.util.function.LongSupplier;
+
+/**
+ * Sits between a transport and its sink and writes everything that passes into a
+ * NotificationTrace before handing it on. Events are timestamped under the recorder's lock,
+ * so the trace is in the order the pipeline received them even with several BLE callback
+ * threads. The buffered block is written from whichever thread fills it; at 64 KB per block
+ * that is a rare sequential write, the capture mode is meant for chasing field problems and
+ * not for every shift.
+ *
+ * A write error stops the recording; the sink keeps getting every event.
+ */
+public final class TraceRecorder implements RfidTransport.Sink, AutoCloseable {
+    private final NotificationTrace.Writer writer;
+    private final LongSupplier clockNs;
+    private final RfidTransport.Sink target;
+    private boolean closed;
+    private IOException error;
+
+    /**
+     * clockNs must be monotonic, SystemClock::elapsedRealtimeNanos on the device and
+     * System::nanoTime on a JVM.
+     */
+    public TraceRecorder(NotificationTrace.Writer writer, LongSupplier clockNs, RfidTransport.Sink target) {
+        this.writer = writer;
+        this.clockNs = clockNs;
+        this.target = target;
+    }
+
+    @Override
+    public void onReaderConnected(int readerId) {
+        synchronized (this) {
+            if (!closed) {
+                try {
+                    writer.connected(clockNs.getAsLong(), readerId);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        target.onReaderConnected(readerId);
+    }
+
+    @Override
+    public void onReaderDisconnected(int readerId) {
+        synchronized (this) {
+            if (!closed) {
+                try {
+                    writer.disconnected(clockNs.getAsLong(), readerId);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        target.onReaderDisconnected(readerId);
+    }
+
+    @Override
+    public void onNotification(int readerId, byte[] value, int offset, int length, long timeMs) {
+        synchronized (this) {
+            if (!closed && length <= NotificationTrace.MAX_VALUE_LENGTH) {
+                try {
+                    writer.notification(clockNs.getAsLong(), readerId, value, offset, length);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        target.onNotification(readerId, value, offset, length, timeMs);
+    }
+
+    private void fail(IOException e) {
+        error = e;
+        closed = true;
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+            // the first error is the one reported
+        }
+    }
+
+    public synchronized long getEvents() {
+        return writer.getEvents();
+    }
+
+    public synchronized long getBytes() {
+        return writer.getBytes();
+    }
+
+    public synchronized boolean isRecording() {
+        return !closed;
+    }
+
+    // The write error that stopped the recording, null if there was none
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    // Writes the last block, events arriving afterwards are only passed on
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.close();
+    }
+}
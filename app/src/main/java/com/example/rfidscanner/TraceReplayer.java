@@ -0,0 +1,176 @@
+package com.example.rfidscanner;
+
+import java.io.IOException;
+
+/**
+ * Plays a NotificationTrace back as a transport, so a pipeline sees the traffic of a field
+ * recording again. At speed 1 events keep their original spacing, at speed N they come N times
+ * as fast, at MAX_SPEED back to back. The sink gets timestamps on the scheduler's clock: the
+ * time an event is due at finite speeds, at MAX_SPEED the start time plus the event's offset
+ * in the trace, so dedup windows and presence timeouts see the recorded spacing.
+ *
+ * With a ManualTaskScheduler at speed 1 a replay takes no wall clock time and delivers the
+ * same events at the same times on every run, which makes recordings usable as regression
+ * tests. All state is confined to the scheduler thread; the replayer owns the trace reader and
+ * closes it when the trace ends or stop() is called.
+ */
+public final class TraceReplayer implements RfidTransport {
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+    // events per task at MAX_SPEED before the scheduler gets a turn
+    static final int MAX_SPEED_BATCH = 1024;
+
+    public interface Listener {
+        // error is null when the trace was played to its end
+        void onReplayFinished(IOException error);
+    }
+
+    private final TaskScheduler scheduler;
+    private final NotificationTrace.Reader reader;
+    private double speed = 1;
+    private Listener listener;
+
+    private volatile Sink sink;
+    private volatile boolean running;
+    private boolean pending;
+    private long startMs;
+    private long firstNs;
+    private boolean started;
+
+    private volatile long events;
+    private volatile long notifications;
+    private volatile boolean finished;
+    private volatile IOException error;
+
+    private final Runnable step = this::onStep;
+
+    public TraceReplayer(TaskScheduler scheduler, NotificationTrace.Reader reader) {
+        this.scheduler = scheduler;
+        this.reader = reader;
+    }
+
+    public TraceReplayer setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        this.speed = speed;
+        return this;
+    }
+
+    // Called on the scheduler thread once the trace ended, failed or was stopped
+    public TraceReplayer setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    @Override
+    public void start(Sink sink) {
+        if (started) {
+            throw new IllegalStateException("A trace is replayed once");
+        }
+        started = true;
+        this.sink = sink;
+        running = true;
+        scheduler.post(step);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        scheduler.cancel(step);
+        scheduler.post(() -> finish(null));
+    }
+
+    private void onStep() {
+        if (!running) {
+            return;
+        }
+        Sink target = sink;
+        try {
+            for (int delivered = 0; ; delivered++) {
+                if (!pending) {
+                    if (!reader.next()) {
+                        finish(null);
+                        return;
+                    }
+                    if (events == 0) {
+                        startMs = scheduler.nowMs();
+                        firstNs = reader.getTimeNs();
+                    }
+                    pending = true;
+                }
+                long offsetNs = reader.getTimeNs() - firstNs;
+                long timeMs;
+                if (speed == MAX_SPEED) {
+                    if (delivered == MAX_SPEED_BATCH) {
+                        scheduler.post(step);
+                        return;
+                    }
+                    timeMs = startMs + offsetNs / 1_000_000;
+                } else {
+                    timeMs = startMs + (long) (offsetNs / speed / 1_000_000);
+                    long now = scheduler.nowMs();
+                    if (timeMs > now) {
+                        scheduler.postDelayed(step, timeMs - now);
+                        return;
+                    }
+                }
+                pending = false;
+                deliver(target, timeMs);
+            }
+        } catch (IOException e) {
+            finish(e);
+        }
+    }
+
+    private void deliver(Sink target, long timeMs) {
+        events++;
+        int readerId = reader.getReaderId();
+        switch (reader.getEvent()) {
+            case CONNECTED:
+                target.onReaderConnected(readerId);
+                break;
+            case DISCONNECTED:
+                target.onReaderDisconnected(readerId);
+                break;
+            case NOTIFICATION:
+                notifications++;
+                target.onNotification(readerId, reader.getValue(), reader.getValueOffset(), reader.getValueLength(), timeMs);
+                break;
+        }
+    }
+
+    private void finish(IOException e) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        running = false;
+        error = e;
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+            // nothing more is read from it
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.onReplayFinished(e);
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    // The error that ended the replay early, null if there was none
+    public IOException getError() {
+        return error;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getNotifications() {
+        return notifications;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.rfidscanner;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+// Runs TagBatchDispatcher deliveries on the main thread, either on the next display frame
+// or after a fixed interval when a lower update rate is enough.
+public class UiBatchScheduler implements TagBatchDispatcher.Scheduler {
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final long intervalMs;
+
+    public static UiBatchScheduler perFrame() {
+        return new UiBatchScheduler(0);
+    }
+
+    public static UiBatchScheduler everyMillis(long intervalMs) {
+        return new UiBatchScheduler(intervalMs);
+    }
+
+    private UiBatchScheduler(long intervalMs) {
+        this.intervalMs = intervalMs;
+    }
+
+    @Override
+    public void schedule(Runnable deliver) {
+        if (intervalMs > 0) {
+            mainHandler.postDelayed(deliver, intervalMs);
+            return;
+        }
+        // Choreographer has to be used from the main thread
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Choreographer.getInstance().postFrameCallback(frameTimeNanos -> deliver.run());
+        } else {
+            mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(frameTimeNanos -> deliver.run()));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.rfidscanner;
+
+import java.lang.management.ManagementFactory;
+
+// Bytes allocated by the calling thread, for tests that check a hot path does not allocate
+final class AllocationMeter {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationMeter() {
+    }
+
+    static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.rfidscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AssetCatalogTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // 4, 7 and 10 byte UIDs, unique through the index in the last four bytes
+    private static byte[] uid(int i) {
+        byte[] uid = new byte[i % 3 == 0 ? 4 : i % 3 == 1 ? 7 : 10];
+        uid[0] = (byte) (i * 31);
+        for (int b = 0; b < 4; b++) {
+            uid[uid.length - 1 - b] = (byte) (i >>> (8 * b));
+        }
+        return uid;
+    }
+
+    @Test
+    public void findsEveryEntryOfLargeCatalog() throws IOException {
+        int entries = 500_000;
+        AssetCatalog.Writer writer = new AssetCatalog.Writer();
+        // added in scrambled order, the writer sorts
+        for (int n = 0; n < entries; n++) {
+            int i = (int) ((n * 0x9E3779B1L) % entries);
+            writer.add(uid(i), new Asset("SKU-" + i, "Pallet " + i, "Aisle " + (i % 40)));
+        }
+        File file = folder.newFile();
+        writer.write(file);
+
+        AssetCatalog catalog = AssetCatalog.open(file);
+        catalog.load();
+        assertEquals(entries, catalog.size());
+        Random random = new Random(3);
+        for (int q = 0; q < 20_000; q++) {
+            int i = random.nextInt(entries);
+            byte[] uid = uid(i);
+            Asset asset = catalog.find(uid, 0, uid.length);
+            assertNotNull("missing " + i, asset);
+            assertEquals("SKU-" + i, asset.getSku());
+            assertEquals("Aisle " + (i % 40), asset.getLocation());
+        }
+        byte[] unknown = uid(entries + 5);
+        assertNull(catalog.find(unknown, 0, unknown.length));
+        // the UID inside a larger notification buffer
+        byte[] padded = new byte[20];
+        System.arraycopy(uid(9), 0, padded, 6, 4);
+        assertEquals("SKU-9", catalog.find(padded, 6, 4).getSku());
+        // same trailing bytes as uid(9) but 7 bytes long, a different UID
+        byte[] longer = new byte[7];
+        System.arraycopy(uid(9), 0, longer, 3, 4);
+        assertNull(catalog.find(longer, 0, longer.length));
+    }
+
+    @Test
+    public void utf8FieldsAndEdges() throws IOException {
+        File file = folder.newFile();
+        new AssetCatalog.Writer()
+                .add(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}, new Asset("Z", "\u00c9tiquette \u2014 \u00e9t\u00e9", "Zone B"))
+                .add(new byte[]{0, 0, 0, 0}, new Asset("A", null, ""))
+                .write(file);
+        AssetCatalog catalog = AssetCatalog.open(file);
+        assertEquals("\u00c9tiquette \u2014 \u00e9t\u00e9", catalog.find(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}, 0, 4).getDescription());
+        Asset first = catalog.find(new byte[]{0, 0, 0, 0}, 0, 4);
+        assertEquals("A", first.getSku());
+        assertEquals("", first.getDescription());
+        assertNull(catalog.find(new byte[]{0, 0, 0, 1}, 0, 4));
+
+        File empty = folder.newFile();
+        new AssetCatalog.Writer().write(empty);
+        assertNull(AssetCatalog.open(empty).find(new byte[]{1, 2, 3, 4}, 0, 4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateUidsAreRejected() throws IOException {
+        new AssetCatalog.Writer()
+                .add(new byte[]{1, 2, 3, 4}, new Asset("A", "", ""))
+                .add(new byte[]{1, 2, 3, 4}, new Asset("B", "", ""))
+                .write(folder.newFile());
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptHeaderIsRejected() throws IOException {
+        File file = folder.newFile();
+        new AssetCatalog.Writer().add(new byte[]{1, 2, 3, 4}, new Asset("A", "", "")).write(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            raf.write(7);
+        }
+        AssetCatalog.open(file);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.rfidscanner;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AssetResolverTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ManualTaskScheduler io = new ManualTaskScheduler();
+    private final TagIdTable tagIds = new TagIdTable();
+    private AssetCatalog catalog;
+
+    private static byte[] uid(int i) {
+        return new byte[]{0x04, 0x10, (byte) (i >> 8), (byte) i};
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        AssetCatalog.Writer writer = new AssetCatalog.Writer();
+        for (int i = 0; i < 100; i++) {
+            writer.add(uid(i), new Asset("SKU-" + i, "Box " + i, "Dock " + (i % 3)));
+        }
+        File file = folder.newFile();
+        writer.write(file);
+        catalog = AssetCatalog.open(file);
+    }
+
+    @Test
+    public void missResolvesAsynchronouslyThenHits() {
+        AssetResolver resolver = new AssetResolver(tagIds, catalog, io, 16);
+        int tag = tagIds.intern(uid(42));
+        List<String> resolved = new ArrayList<>();
+        assertNull(resolver.resolve(tag, (tagId, asset) -> resolved.add(tagId + "=" + asset.getSku())));
+        // the caller got its answer without touching the catalog
+        assertEquals(0, resolver.getLookups());
+        assertTrue(resolved.isEmpty());
+        io.runPending();
+        assertEquals("[" + tag + "=SKU-42]", resolved.toString());
+        assertEquals("Box 42", resolver.resolve(tag, null).getDescription());
+        assertEquals(1, resolver.getHits());
+        assertEquals(1, resolver.getMisses());
+    }
+
+    @Test
+    public void concurrentMissesShareOneLookup() {
+        AssetResolver resolver = new AssetResolver(tagIds, catalog, io, 16);
+        int tag = tagIds.intern(uid(7));
+        int[] callbacks = new int[1];
+        for (int i = 0; i < 5; i++) {
+            assertNull(resolver.resolve(tag, (tagId, asset) -> callbacks[0]++));
+        }
+        assertEquals(1, io.pendingTasks());
+        io.runPending();
+        assertEquals(5, callbacks[0]);
+        assertEquals(1, resolver.getLookups());
+    }
+
+    @Test
+    public void unknownTagsAreCachedAsMissing() {
+        AssetResolver resolver = new AssetResolver(tagIds, catalog, io, 16);
+        int tag = tagIds.intern(new byte[]{1, 2, 3, 4, 5, 6, 7});
+        boolean[] called = new boolean[1];
+        resolver.resolve(tag, (tagId, asset) -> {
+            assertNull(asset);
+            called[0] = true;
+        });
+        io.runPending();
+        assertTrue(called[0]);
+        assertTrue(resolver.isCached(tag));
+        assertNull(resolver.resolve(tag, (tagId, asset) -> fail("looked up again")));
+        assertEquals(0, io.pendingTasks());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        AssetResolver resolver = new AssetResolver(tagIds, catalog, io, 3);
+        int[] tags = new int[4];
+        for (int i = 0; i < 4; i++) {
+            tags[i] = tagIds.intern(uid(i));
+        }
+        for (int i = 0; i < 3; i++) {
+            resolver.resolve(tags[i], null);
+        }
+        io.runPending();
+        // touching tag 0 makes tag 1 the eldest
+        assertNotNull(resolver.resolve(tags[0], null));
+        resolver.resolve(tags[3], null);
+        io.runPending();
+        assertEquals(3, resolver.cachedTags());
+        assertTrue(resolver.isCached(tags[0]));
+        assertFalse(resolver.isCached(tags[1]));
+        assertTrue(resolver.isCached(tags[2]));
+        assertTrue(resolver.isCached(tags[3]));
+        assertNull(resolver.getCached(tags[1]));
+    }
+}
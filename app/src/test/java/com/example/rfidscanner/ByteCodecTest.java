@@ -0,0 +1,80 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ByteCodecTest {
+    private static final long[] VALUES = {0, 1, 127, 128, 16_383, 16_384, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+
+    @Test
+    public void varintsAndZigzagRoundTrip() throws IOException {
+        ByteCodec.Buffer buffer = new ByteCodec.Buffer(16);
+        for (long value : VALUES) {
+            ByteCodec.writeVarLong(buffer, value);
+            ByteCodec.writeVarLong(buffer, ByteCodec.zigzag(value));
+        }
+        ByteCodec.Cursor cursor = new ByteCodec.Cursor();
+        cursor.reset(buffer.array(), buffer.size());
+        for (long value : VALUES) {
+            assertEquals(value, cursor.readVarLong());
+            assertEquals(value, ByteCodec.unzigzag(cursor.readVarLong()));
+        }
+        assertEquals(0, cursor.remaining());
+        // small deltas either way stay one byte
+        assertEquals(1, ByteCodec.zigzag(-1));
+        assertEquals(2, ByteCodec.zigzag(1));
+    }
+
+    @Test
+    public void cursorStopsAtItsLimit() throws IOException {
+        byte[] array = {(byte) 0x80, (byte) 0x80, 5, 7};
+        ByteCodec.Cursor cursor = new ByteCodec.Cursor();
+        cursor.reset(array, 2);
+        try {
+            cursor.readVarLong();
+            fail();
+        } catch (IOException expected) {
+        }
+        cursor.reset(array, array.length);
+        assertEquals(5 << 14, cursor.readVarLong());
+        try {
+            cursor.skip(2);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(7, cursor.readByte());
+
+        byte[] tooLong = new byte[11];
+        Arrays.fill(tooLong, (byte) 0xFF);
+        cursor.reset(tooLong, tooLong.length);
+        try {
+            cursor.readVarLong();
+            fail();
+        } catch (IOException expected) {
+            assertEquals("Corrupt varint", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void readFullyTellsACleanEndFromATruncatedOne() throws IOException {
+        byte[] buffer = new byte[4];
+        assertFalse(ByteCodec.readFully(new ByteArrayInputStream(new byte[0]), buffer, 4, false));
+        assertTrue(ByteCodec.readFully(new ByteArrayInputStream(new byte[]{1, 2, 3, 4}), buffer, 4, false));
+        try {
+            ByteCodec.readFully(new ByteArrayInputStream(new byte[]{1, 2}), buffer, 4, false);
+            fail();
+        } catch (EOFException expected) {
+        }
+        try {
+            ByteCodec.readFully(new ByteArrayInputStream(new byte[0]), buffer, 4, true);
+            fail();
+        } catch (EOFException expected) {
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CardMemoryReaderTest {
+    private final ManualTaskScheduler scheduler = new ManualTaskScheduler();
+    private final SimulatedCard card = new SimulatedCard(scheduler, 5);
+    private final List<CardMemoryReader.SectorRead> reads = new ArrayList<>();
+
+    private CardMemoryReader reader(int window) {
+        CardMemoryReader reader = new CardMemoryReader(scheduler, card, window, 500, 3);
+        reader.setListener(reads::add);
+        card.attach(reader);
+        reader.onConnected();
+        return reader;
+    }
+
+    // Time until every queued read was delivered
+    private long runUntilDone(CardMemoryReader reader) {
+        long start = scheduler.nowMs();
+        while (reader.isReading() && scheduler.nowMs() - start < 60_000) {
+            scheduler.advance(1);
+        }
+        assertFalse(reader.isReading());
+        return scheduler.nowMs() - start;
+    }
+
+    private void assertAllRead(int first, int last) {
+        assertEquals(last - first + 1, reads.size());
+        for (int i = 0; i < reads.size(); i++) {
+            CardMemoryReader.SectorRead read = reads.get(i);
+            assertEquals(first + i, read.getSector());
+            assertEquals(CardMemoryReader.Status.OK, read.getStatus());
+            assertArrayEquals(card.sectors[first + i], read.getData());
+            assertArrayEquals(card.uid, read.getUid());
+        }
+    }
+
+    @Test
+    public void readsEverySectorOfA4kCardAtTheDefaultMtu() {
+        CardMemoryReader reader = reader(CardMemoryReader.MAX_IN_FLIGHT);
+        reader.readSectors(card.uid, 0, 39);
+        runUntilDone(reader);
+        assertAllRead(0, 39);
+        assertEquals(32 * 48 + 8 * 240, reader.getBytesReceived());
+        assertEquals(40, reader.getWrites());
+        assertEquals(0, reader.getRetries());
+        // the window never overran the firmware's queue
+        assertEquals(0, card.rejected);
+        assertEquals(CardMemoryReader.MAX_IN_FLIGHT, reader.getMaxInFlight());
+    }
+
+    @Test
+    public void pipeliningBeatsOneRequestAtATime() {
+        CardMemoryReader serial = reader(1);
+        serial.readSectors(card.uid, 1, 15);
+        long serialMs = runUntilDone(serial);
+        reads.clear();
+
+        CardMemoryReader pipelined = reader(CardMemoryReader.MAX_IN_FLIGHT);
+        pipelined.readSectors(card.uid, 1, 15);
+        long pipelinedMs = runUntilDone(pipelined);
+        assertAllRead(1, 15);
+        // no round trip between sectors, the firmware always has the next one queued
+        assertTrue("pipelined " + pipelinedMs + " ms vs " + serialMs + " ms", pipelinedMs * 3 < serialMs * 2);
+    }
+
+    @Test
+    public void resultsAreDeliveredInRequestOrder() {
+        // the firmware answers the newest request first
+        card.lifo = true;
+        CardMemoryReader reader = reader(CardMemoryReader.MAX_IN_FLIGHT);
+        reader.readSectors(card.uid, 0, 11);
+        runUntilDone(reader);
+        assertAllRead(0, 11);
+        for (int i = 0; i < reads.size(); i++) {
+            assertEquals(i, reads.get(i).getSequence());
+        }
+    }
+
+    @Test
+    public void lostChunksAreReadAgainUnderANewId() {
+        card.chunkLoss = 0.05;
+        CardMemoryReader reader = reader(CardMemoryReader.MAX_IN_FLIGHT);
+        reader.readSectors(card.uid, 0, 31);
+        runUntilDone(reader);
+        // with 4 chunks per sector about one sector in five needs a second attempt
+        assertTrue(reader.getTimeouts() > 0);
+        assertEquals(reader.getTimeouts(), reader.getRetries());
+        assertEquals(32 + reader.getRetries(), reader.getWrites());
+        int failed = 0;
+        for (CardMemoryReader.SectorRead read : reads) {
+            if (read.getStatus() == CardMemoryReader.Status.OK) {
+                assertArrayEquals(card.sectors[read.getSector()], read.getData());
+            } else {
+                assertEquals(CardMemoryReader.Status.TIMEOUT, read.getStatus());
+                assertEquals(3, read.getAttempts());
+                failed++;
+            }
+        }
+        assertEquals(32, reads.size());
+        assertTrue(failed <= 1);
+    }
+
+    @Test
+    public void duplicateChunksAreIgnored() {
+        card.duplicateChunks = true;
+        CardMemoryReader reader = reader(CardMemoryReader.MAX_IN_FLIGHT);
+        reader.readSectors(card.uid, 32, 35);
+        runUntilDone(reader);
+        assertAllRead(32, 35);
+        assertEquals(4 * 240, reader.getBytesReceived());
+        assertTrue(reader.getStaleChunks() >= 4 * 16);
+    }
+
+    @Test
+    public void authFailureIsFinalAndDoesNotHoldBackLaterSectors() {
+        card.lockedSectors.add(2);
+        CardMemoryReader reader = reader(CardMemoryReader.MAX_IN_FLIGHT);
+        reader.readSectors(card.uid, 0, 4);
+        runUntilDone(reader);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), card.sectorsOf(reads));
+        assertEquals(CardMemoryReader.Status.AUTH_FAILED, reads.get(2).getStatus());
+        assertEquals(0, reads.get(2).getData().length);
+        assertEquals(1, reads.get(2).getAttempts());
+        assertEquals(CardMemoryReader.Status.OK, reads.get(4).getStatus());
+        assertEquals(0, reader.getRetries());
+    }
+
+    @Test
+    public void cardThatLeftFailsAfterItsAttempts() {
+        card.present = false;
+        CardMemoryReader reader = reader(CardMemoryReader.MAX_IN_FLIGHT);
+        reader.readSectors(card.uid, 0, 1);
+        runUntilDone(reader);
+        assertEquals(2, reads.size());
+        for (CardMemoryReader.SectorRead read : reads) {
+            assertEquals(CardMemoryReader.Status.NO_CARD, read.getStatus());
+            assertEquals(3, read.getAttempts());
+        }
+        // an empty UID reads whatever card is there
+        card.present = true;
+        reads.clear();
+        reader.readSector(new byte[0], 7);
+        runUntilDone(reader);
+        assertArrayEquals(card.sectors[7], reads.get(0).getData());
+    }
+
+    @Test
+    public void readsInFlightAreSentAgainAfterAReconnect() {
+        CardMemoryReader reader = reader(CardMemoryReader.MAX_IN_FLIGHT);
+        reader.readSectors(card.uid, 0, 9);
+        scheduler.advance(60);
+        int before = reads.size();
+        assertTrue(before < 10);
+        card.disconnect();
+        reader.onDisconnected();
+        scheduler.advance(1000);
+        assertEquals(before, reads.size());
+
+        card.reconnect();
+        reader.onConnected();
+        runUntilDone(reader);
+        assertAllRead(0, 9);
+        // the lost attempts are not counted against the sectors
+        for (CardMemoryReader.SectorRead read : reads) {
+            assertEquals(1, read.getAttempts());
+        }
+    }
+
+    @Test
+    public void cancelDeliversEverythingOutstanding() {
+        CardMemoryReader reader = reader(2);
+        reader.readSectors(card.uid, 0, 5);
+        reader.cancel();
+        assertEquals(6, reads.size());
+        for (CardMemoryReader.SectorRead read : reads) {
+            assertEquals(CardMemoryReader.Status.CANCELLED, read.getStatus());
+        }
+        assertFalse(reader.isReading());
+        // answers to the cancelled requests are dropped
+        scheduler.advance(2000);
+        assertEquals(6, reads.size());
+        assertTrue(reader.getStaleChunks() > 0);
+    }
+
+    @Test
+    public void overlappingReadsKeepTheirListeners() {
+        CardMemoryReader reader = reader(CardMemoryReader.MAX_IN_FLIGHT);
+        List<CardMemoryReader.SectorRead> first = new ArrayList<>();
+        List<CardMemoryReader.SectorRead> second = new ArrayList<>();
+        reader.readSectors(card.uid, 0, 5, first::add);
+        scheduler.advance(20);
+        assertTrue(first.size() < 6);
+        reader.readSectors(card.uid, 10, 12, second::add);
+        runUntilDone(reader);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), card.sectorsOf(first));
+        assertEquals(Arrays.asList(10, 11, 12), card.sectorsOf(second));
+        // neither went to the default listener
+        assertTrue(reads.isEmpty());
+    }
+
+    @Test
+    public void lateChunkWhileIdleIsTakenAndCounted() {
+        CardMemoryReader reader = reader(1);
+        // as long as a 7 byte UID, it must not go to the tag pipeline
+        byte[] chunk = {(byte) 0xB2, 3, 0, 0, 16, 1, 2};
+        assertFalse(reader.isReading());
+        assertTrue(reader.onNotification(chunk, 0, chunk.length));
+        assertEquals(1, reader.getStaleChunks());
+        assertTrue(reads.isEmpty());
+    }
+
+    @Test
+    public void onlyResponseChunksAreTaken() {
+        CardMemoryReader reader = reader(1);
+        byte[] frame = {(byte) 0xA5, 1, 0, 0, 0, 0, 0, 0, 1, 4, 1, 2, 3, 4};
+        assertFalse(reader.onNotification(frame, 0, frame.length));
+        byte[] legacyUid = {(byte) 0xB2, 1, 2, 3};
+        assertFalse(reader.onNotification(legacyUid, 0, legacyUid.length));
+        try {
+            reader.readSector(card.uid, CardMemoryReader.SECTOR_COUNT);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.rfidscanner;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GattCommandQueueTest {
+    // Fake GATT that answers each started operation after a fixed latency, or never when told to drop it
+    private class FakeGatt {
+        final List<String> started = new ArrayList<>();
+        long latencyMs = 10;
+        int dropNext;
+        int refuseNext;
+
+        GattCommand command(GattCommand.Type type, String name) {
+            return new GattCommand(type, () -> {
+                if (refuseNext > 0) {
+                    refuseNext--;
+                    return false;
+                }
+                started.add(name);
+                long token = queue.getRunningToken();
+                if (dropNext > 0) {
+                    dropNext--;
+                    return true;
+                }
+                scheduler.postDelayed(() -> queue.onCommandCompleted(type, token, true), latencyMs);
+                return true;
+            }).setResultListener((command, success) -> results.add(name + (success ? " ok" : " failed")));
+        }
+    }
+
+    private ManualTaskScheduler scheduler;
+    private GattCommandQueue queue;
+    private FakeGatt gatt;
+    private List<String> results;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualTaskScheduler();
+        queue = new GattCommandQueue(scheduler);
+        gatt = new FakeGatt();
+        results = new ArrayList<>();
+    }
+
+    @Test
+    public void commandsRunOneAtATimeInOrder() {
+        for (int i = 0; i < 5; i++) {
+            queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "read" + i));
+        }
+        scheduler.runPending();
+        assertEquals(1, gatt.started.size());
+        assertEquals(4, queue.getDepth());
+
+        scheduler.advance(100);
+        assertEquals(5, gatt.started.size());
+        assertEquals("read4", gatt.started.get(4));
+        assertEquals(5, queue.getCompleted());
+        assertEquals(0, queue.getDepth());
+        assertEquals(5, queue.getMaxDepth());
+        assertEquals(10.0, queue.getAverageExecMs(GattCommand.Type.READ_CHARACTERISTIC), 0.001);
+    }
+
+    @Test
+    public void descriptorWriteOvertakesQueuedReads() {
+        queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "read0"));
+        scheduler.runPending();
+        queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "read1"));
+        queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "read2"));
+        queue.enqueue(gatt.command(GattCommand.Type.WRITE_DESCRIPTOR, "descriptor"));
+        queue.enqueue(gatt.command(GattCommand.Type.DISCOVER_SERVICES, "discover"));
+        scheduler.advance(100);
+
+        assertEquals("read0", gatt.started.get(0));
+        assertEquals("discover", gatt.started.get(1));
+        assertEquals("descriptor", gatt.started.get(2));
+        assertEquals("read1", gatt.started.get(3));
+    }
+
+    @Test
+    public void lostCallbackTimesOutAndRetries() {
+        gatt.dropNext = 1;
+        queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "read"));
+        queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "next"));
+        scheduler.advance(GattCommand.DEFAULT_TIMEOUT_MS - 1);
+        assertEquals(1, gatt.started.size());
+
+        scheduler.advance(100);
+        assertEquals(1, queue.getTimeouts());
+        assertEquals(1, queue.getRetries());
+        assertEquals("read", gatt.started.get(1));
+        assertEquals("next", gatt.started.get(2));
+        assertEquals("read ok", results.get(0));
+    }
+
+    @Test
+    public void commandFailsAfterRetriesAndQueueMovesOn() {
+        gatt.refuseNext = 2;
+        queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "refused"));
+        queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "next"));
+        scheduler.advance(100);
+
+        assertEquals("refused failed", results.get(0));
+        assertEquals("next ok", results.get(1));
+        assertEquals(1, queue.getFailed());
+    }
+
+    @Test
+    public void lateCallbackOfOtherTypeIsIgnored() {
+        gatt.dropNext = 1;
+        long[] token = new long[1];
+        queue.enqueue(new GattCommand(GattCommand.Type.WRITE_DESCRIPTOR, GattCommand.Priority.DESCRIPTOR, 50, 0, () -> {
+            token[0] = queue.getRunningToken();
+            return true;
+        }));
+        queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "read"));
+        scheduler.advance(60);
+        // the descriptor callback finally shows up while the read is running
+        queue.onCommandCompleted(GattCommand.Type.WRITE_DESCRIPTOR, token[0], true);
+        scheduler.runPending();
+        assertEquals(1, queue.getStaleCompletions());
+        assertTrue(results.isEmpty());
+        scheduler.advance(GattCommand.DEFAULT_TIMEOUT_MS * 3);
+        assertEquals("read ok", results.get(0));
+    }
+
+    @Test
+    public void lateCallbackOfAbandonedReadDoesNotFinishTheNextRead() {
+        long[] tokens = new long[2];
+        queue.enqueue(new GattCommand(GattCommand.Type.READ_CHARACTERISTIC, GattCommand.Priority.READ, 50, 0, () -> {
+            tokens[0] = queue.getRunningToken();
+            return true;
+        }).setResultListener((command, success) -> results.add("abandoned " + (success ? "ok" : "failed"))));
+        queue.enqueue(new GattCommand(GattCommand.Type.READ_CHARACTERISTIC, () -> {
+            tokens[1] = queue.getRunningToken();
+            return true;
+        }).setResultListener((command, success) -> results.add("next " + (success ? "ok" : "failed"))));
+        scheduler.advance(60);
+        assertEquals(1, queue.getTimeouts());
+        assertNotEquals(tokens[0], tokens[1]);
+
+        // same type as the running read, only the token gives it away
+        queue.onCommandCompleted(GattCommand.Type.READ_CHARACTERISTIC, tokens[0], true);
+        scheduler.runPending();
+        assertEquals(1, queue.getStaleCompletions());
+        assertEquals(1, results.size());
+
+        queue.onCommandCompleted(GattCommand.Type.READ_CHARACTERISTIC, tokens[1], true);
+        scheduler.runPending();
+        assertEquals("abandoned failed", results.get(0));
+        assertEquals("next ok", results.get(1));
+    }
+
+    @Test
+    public void averageWaitCountsCommandsDroppedByClear() {
+        for (int i = 0; i < 3; i++) {
+            queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "read" + i));
+        }
+        // read0 waited 0 ms and completed, read1 waited 10 ms and is running, read2 never started
+        scheduler.advance(15);
+        queue.clear();
+        scheduler.advance(100);
+        assertEquals(1, queue.getCompleted());
+        assertEquals(5.0, queue.getAverageWaitMs(), 0.001);
+        assertEquals(3, queue.getMaxDepth());
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        for (int i = 0; i < 3; i++) {
+            queue.enqueue(gatt.command(GattCommand.Type.READ_CHARACTERISTIC, "read" + i));
+        }
+        scheduler.runPending();
+        queue.clear();
+        scheduler.advance(100);
+        assertEquals(0, queue.getDepth());
+        assertEquals(3, results.size());
+        assertEquals("read0 failed", results.get(0));
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsCoverEveryValueInOrder() {
+        long previousHigh = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            long high = LatencyHistogram.bucketHigh(bucket);
+            if (high < 0) {
+                // past Long.MAX_VALUE, never used
+                break;
+            }
+            assertEquals(bucket, LatencyHistogram.bucketOf(previousHigh + 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(high));
+            previousHigh = high;
+        }
+        assertEquals(Long.MAX_VALUE, previousHigh);
+    }
+
+    @Test
+    public void percentilesAreWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 10_000; v++) {
+            histogram.record(v);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.getCount());
+        assertEquals(10_000, snapshot.getMax());
+        assertEquals(5000.5, snapshot.getMean(), 0.001);
+        assertEquals(5000, snapshot.getPercentile(0.5), 5000 * 0.125);
+        assertEquals(9900, snapshot.getPercentile(0.99), 9900 * 0.125);
+        assertEquals(10_000, snapshot.getPercentile(1.0));
+        // small values are exact
+        histogram.reset();
+        histogram.record(3);
+        histogram.record(7);
+        assertEquals(3, histogram.snapshot().getPercentile(0.5));
+        assertEquals(7, histogram.snapshot().getPercentile(0.9));
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(random.nextInt(5000));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400_000, histogram.snapshot().getCount());
+    }
+
+    @Test
+    public void recordDoesNotAllocate() {
+        RfidMetrics metrics = new RfidMetrics();
+        int iterations = 200_000;
+        // warm up so the JIT has compiled the loop
+        for (int i = 0; i < iterations; i++) {
+            metrics.recordNotifyToListener(i & 1023);
+            metrics.increment(RfidMetrics.Counter.READS_DELIVERED);
+        }
+        long before = AllocationMeter.allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            metrics.recordNotifyToListener(i & 1023);
+            metrics.recordGattOp(GattCommand.Type.READ_CHARACTERISTIC, i & 63);
+            metrics.increment(RfidMetrics.Counter.READS_DELIVERED);
+        }
+        long allocated = AllocationMeter.allocatedBytes() - before;
+        assertEquals("bytes allocated per record", 0, allocated / iterations);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.rfidscanner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Single threaded TaskScheduler with a virtual clock, tasks only run from runPending or advance
+class ManualTaskScheduler implements TaskScheduler {
+    private static class Task {
+        final Runnable runnable;
+        final long dueMs;
+        final long order;
+
+        Task(Runnable runnable, long dueMs, long order) {
+            this.runnable = runnable;
+            this.dueMs = dueMs;
+            this.order = order;
+        }
+    }
+
+    private final List<Task> tasks = new ArrayList<>();
+    private long nowMs;
+    private long order;
+
+    @Override
+    public synchronized void post(Runnable task) {
+        tasks.add(new Task(task, nowMs, order++));
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable task, long delayMs) {
+        tasks.add(new Task(task, nowMs + delayMs, order++));
+    }
+
+    @Override
+    public synchronized void cancel(Runnable task) {
+        tasks.removeIf(t -> t.runnable == task);
+    }
+
+    @Override
+    public synchronized long nowMs() {
+        return nowMs;
+    }
+
+    // Runs everything that is due now, including tasks posted while running
+    void runPending() {
+        Runnable next;
+        while ((next = pollDue()) != null) {
+            next.run();
+        }
+    }
+
+    // Moves the clock forward task by task, running each when its time comes
+    void advance(long deltaMs) {
+        long target;
+        synchronized (this) {
+            target = nowMs + deltaMs;
+        }
+        while (true) {
+            runPending();
+            synchronized (this) {
+                Task earliest = earliest();
+                if (earliest == null || earliest.dueMs > target) {
+                    nowMs = target;
+                    break;
+                }
+                nowMs = earliest.dueMs;
+            }
+        }
+        runPending();
+    }
+
+    synchronized int pendingTasks() {
+        return tasks.size();
+    }
+
+    private synchronized Runnable pollDue() {
+        Task earliest = earliest();
+        if (earliest == null || earliest.dueMs > nowMs) {
+            return null;
+        }
+        tasks.remove(earliest);
+        return earliest.runnable;
+    }
+
+    private Task earliest() {
+        Task best = null;
+        for (Task t : tasks) {
+            if (best == null || t.dueMs < best.dueMs || (t.dueMs == best.dueMs && t.order < best.order)) {
+                best = t;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.*;
+
+public class NotificationReadPolicyTest {
+    private static final long CONNECTION_INTERVAL_MS = 10;
+
+    /**
+     * Peripheral on a shared link where every notification and every read round trip takes one
+     * connection interval. It notifies the next tag whenever the link goes idle, so the number of
+     * tags delivered only depends on how much link time the central spends on reads.
+     */
+    private static class SimulatedPeripheral {
+        private final ManualTaskScheduler scheduler;
+        private final ArrayDeque<Runnable> link = new ArrayDeque<>();
+        private final byte[] value = new byte[4];
+        private boolean busy;
+        private int nextTag;
+        Runnable onIdle;
+
+        SimulatedPeripheral(ManualTaskScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        void submit(Runnable operation) {
+            link.add(operation);
+            if (!busy) {
+                startNext();
+            }
+        }
+
+        private void startNext() {
+            Runnable operation = link.poll();
+            if (operation == null) {
+                busy = false;
+                onIdle.run();
+                return;
+            }
+            busy = true;
+            scheduler.postDelayed(() -> {
+                operation.run();
+                startNext();
+            }, CONNECTION_INTERVAL_MS);
+        }
+
+        byte[] nextValue() {
+            int tag = nextTag++;
+            value[0] = (byte) (tag >>> 24);
+            value[1] = (byte) (tag >>> 16);
+            value[2] = (byte) (tag >>> 8);
+            value[3] = (byte) tag;
+            return value;
+        }
+    }
+
+    private static double tagsPerSecond(NotificationReadPolicy policy, long durationMs) {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        GattCommandQueue queue = new GattCommandQueue(scheduler);
+        SimulatedPeripheral peripheral = new SimulatedPeripheral(scheduler);
+        TagIdTable tags = new TagIdTable();
+        long[] received = new long[1];
+
+        peripheral.onIdle = () -> peripheral.submit(() -> {
+            byte[] value = peripheral.nextValue();
+            tags.intern(value, 0, value.length);
+            received[0]++;
+            if (policy.onNotification(value, 0, value.length, scheduler.nowMs())) {
+                queue.enqueue(new GattCommand(GattCommand.Type.READ_CHARACTERISTIC, () -> {
+                    long token = queue.getRunningToken();
+                    peripheral.submit(() -> {
+                        policy.onReadResult(peripheral.value.clone());
+                        queue.onCommandCompleted(GattCommand.Type.READ_CHARACTERISTIC, token, true);
+                    });
+                    return true;
+                }));
+            }
+        });
+        peripheral.onIdle.run();
+        scheduler.advance(durationMs);
+        return received[0] * 1000.0 / durationMs;
+    }
+
+    @Test
+    public void streamingRoughlyDoublesThroughput() {
+        long durationMs = 60_000;
+        double readAfterNotify = tagsPerSecond(NotificationReadPolicy.readAfterNotify(), durationMs);
+        double streaming = tagsPerSecond(NotificationReadPolicy.streaming(), durationMs);
+
+        assertTrue(readAfterNotify > 0);
+        assertTrue("streaming " + streaming + " vs " + readAfterNotify, streaming > readAfterNotify * 1.8);
+    }
+
+    @Test
+    public void readAfterNotifyReadsEveryTime() {
+        NotificationReadPolicy policy = NotificationReadPolicy.readAfterNotify();
+        byte[] uid = {1, 2, 3, 4};
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.onNotification(uid, 0, uid.length, i));
+        }
+        assertEquals(10, policy.getReadsRequested());
+    }
+
+    @Test
+    public void streamingOnlyReadsForIntegrityCheck() {
+        NotificationReadPolicy policy = new NotificationReadPolicy(NotificationReadPolicy.Mode.STREAMING, 1000);
+        byte[] uid = {1, 2, 3, 4};
+        int reads = 0;
+        for (long t = 0; t < 5000; t += 100) {
+            if (policy.onNotification(uid, 0, uid.length, t)) {
+                reads++;
+            }
+        }
+        assertEquals(5, reads);
+
+        NotificationReadPolicy off = new NotificationReadPolicy(NotificationReadPolicy.Mode.STREAMING, 0);
+        assertFalse(off.onNotification(uid, 0, uid.length, 0));
+    }
+
+    @Test
+    public void integrityCheckSpotsMissedNotification() {
+        NotificationReadPolicy policy = NotificationReadPolicy.streaming();
+        policy.onNotification(new byte[]{1, 2, 3, 4}, 0, 4, 0);
+        assertTrue(policy.onReadResult(new byte[]{1, 2, 3, 4}));
+        assertFalse(policy.onReadResult(new byte[]{9, 9, 9, 9}));
+        assertFalse(policy.onReadResult(new byte[]{1, 2, 3}));
+        assertEquals(1, policy.getIntegrityMatches());
+        assertEquals(2, policy.getIntegrityMismatches());
+    }
+
+    @Test
+    public void notificationsDuringTheReadAreNotMismatches() {
+        NotificationReadPolicy policy = new NotificationReadPolicy(NotificationReadPolicy.Mode.STREAMING, 1000);
+        assertTrue(policy.onNotification(new byte[]{1, 0, 0, 0}, 0, 4, 1000));
+        // the read waits in the queue while the firmware keeps notifying, a card chunk among them
+        assertFalse(policy.onNotification(new byte[]{2, 0, 0, 0}, 0, 4, 1010));
+        policy.onRoutedNotification(new byte[]{(byte) 0xB2, 7, 7}, 0, 3);
+        assertFalse(policy.onNotification(new byte[]{3, 0, 0, 0}, 0, 4, 1020));
+
+        assertTrue(policy.onReadResult(new byte[]{(byte) 0xB2, 7, 7}));
+        assertEquals(1, policy.getIntegrityMatches());
+        assertEquals(3, policy.getNotifications());
+
+        // the next read only accepts what was notified from its request on
+        assertTrue(policy.onNotification(new byte[]{4, 0, 0, 0}, 0, 4, 2020));
+        assertFalse(policy.onReadResult(new byte[]{2, 0, 0, 0}));
+        assertTrue(policy.onNotification(new byte[]{5, 0, 0, 0}, 0, 4, 3020));
+        assertFalse(policy.onReadResult(new byte[]{6, 0, 0, 0}));
+        assertEquals(2, policy.getIntegrityMismatches());
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NotificationTraceTest {
+
+    private static NotificationTrace.Reader open(byte[] trace) throws IOException {
+        return new NotificationTrace.Reader(new ByteArrayInputStream(trace));
+    }
+
+    @Test
+    public void eventsComeBackAsWritten() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Random random = new Random(7);
+        List<byte[]> values = new ArrayList<>();
+        long[] times = new long[5000];
+        NotificationTrace.Writer writer = new NotificationTrace.Writer(out, 4096);
+        writer.connected(1_000_000_000L, 3);
+        long time = 1_000_000_000L;
+        for (int i = 0; i < times.length; i++) {
+            time += random.nextInt(20_000_000);
+            times[i] = time;
+            byte[] value = new byte[i == 0 ? NotificationTrace.MAX_VALUE_LENGTH : 1 + random.nextInt(200)];
+            random.nextBytes(value);
+            values.add(value);
+            writer.notification(time, i % 4, value, 0, value.length);
+        }
+        writer.disconnected(time, 3);
+        writer.close();
+        assertTrue(writer.getBlocks() > 50);
+        assertEquals(out.size(), writer.getBytes());
+        // 100 payload bytes on average, type, reader, length and a three or four byte delta
+        assertTrue(out.size() < 5000 * (100 + 9) + writer.getBlocks() * 20);
+
+        NotificationTrace.Reader reader = open(out.toByteArray());
+        assertTrue(reader.next());
+        assertEquals(NotificationTrace.Event.CONNECTED, reader.getEvent());
+        assertEquals(1_000_000_000L, reader.getTimeNs());
+        assertEquals(3, reader.getReaderId());
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(reader.next());
+            assertEquals(NotificationTrace.Event.NOTIFICATION, reader.getEvent());
+            assertEquals(times[i], reader.getTimeNs());
+            assertEquals(i % 4, reader.getReaderId());
+            byte[] value = Arrays.copyOfRange(reader.getValue(), reader.getValueOffset(),
+                    reader.getValueOffset() + reader.getValueLength());
+            assertArrayEquals(values.get(i), value);
+        }
+        assertTrue(reader.next());
+        assertEquals(NotificationTrace.Event.DISCONNECTED, reader.getEvent());
+        assertFalse(reader.next());
+        assertEquals(writer.getBlocks(), reader.getBlocksRead());
+    }
+
+    @Test
+    public void damagedBlockEndsTheTrace() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NotificationTrace.Writer writer = new NotificationTrace.Writer(out, 100);
+        byte[] value = new byte[40];
+        for (int i = 0; i < 10; i++) {
+            writer.notification(i * 1000L, 0, value, 0, value.length);
+        }
+        writer.close();
+        byte[] trace = out.toByteArray();
+        // a payload byte of the third block
+        trace[8 + 2 * (20 + 3 * 44) + 30] ^= 1;
+        NotificationTrace.Reader reader = open(trace);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(reader.next());
+        }
+        try {
+            reader.next();
+            fail();
+        } catch (IOException expected) {
+            assertEquals("Block CRC mismatch", expected.getMessage());
+        }
+
+        try {
+            open(Arrays.copyOf(trace, 4));
+            fail();
+        } catch (IOException expected) {
+        }
+        try {
+            writer = new NotificationTrace.Writer(new ByteArrayOutputStream());
+            writer.notification(10, 0, value, 0, value.length);
+            writer.notification(9, 0, value, 0, value.length);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // What the pipeline made of a run, dedup events with their times
+    private static List<String> tagEvents(TagPipeline pipeline) {
+        List<String> events = new ArrayList<>();
+        pipeline.setTagEventListener((event, readerId, tagId, reads, timeMs) ->
+                events.add(event + " " + readerId + " " + pipeline.getTagIds().hex(tagId) + " " + reads + " @" + timeMs));
+        return events;
+    }
+
+    private static byte[] record(List<String> events) throws IOException {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post);
+        List<String> live = tagEvents(pipeline);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceRecorder recorder = new TraceRecorder(new NotificationTrace.Writer(out),
+                () -> scheduler.nowMs() * 1_000_000, pipeline);
+        SimulatedReader reader = new SimulatedReader(scheduler)
+                .setReaders(3)
+                .setTagPopulation(300)
+                .setBurstsPerSecond(30)
+                .setMeanBurstSize(5)
+                .setFrameSize(64)
+                .setDisconnects(4, 800);
+        reader.start(recorder);
+        scheduler.advance(20_000);
+        reader.stop();
+        pipeline.stop();
+        scheduler.advance(5_000);
+        recorder.close();
+        events.addAll(live);
+        assertTrue(reader.getDisconnects() > 0);
+        assertEquals(reader.getNotifications() + 3 + 2 * reader.getDisconnects(), recorder.getEvents());
+        return out.toByteArray();
+    }
+
+    @Test
+    public void replayReproducesTheRecordedRun() throws IOException {
+        List<String> recorded = new ArrayList<>();
+        byte[] trace = record(recorded);
+        assertTrue(recorded.size() > 1000);
+
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post);
+        List<String> replayed = tagEvents(pipeline);
+        TraceReplayer replayer = new TraceReplayer(scheduler, open(trace));
+        IOException[] result = {new IOException("not finished")};
+        replayer.setListener(error -> result[0] = error);
+        replayer.start(pipeline);
+        while (!replayer.isFinished()) {
+            scheduler.advance(100);
+        }
+        pipeline.stop();
+        scheduler.advance(5_000);
+        assertNull(result[0]);
+        assertEquals(recorded, replayed);
+    }
+
+    @Test
+    public void speedScalesTheSpacingOfEvents() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NotificationTrace.Writer writer = new NotificationTrace.Writer(out);
+        byte[] uid = {0x04, 0x11, 0x22, 0x33};
+        writer.connected(5_000_000_000L, 1);
+        for (int i = 0; i <= 100; i++) {
+            uid[3] = (byte) i;
+            writer.notification(5_000_000_000L + i * 100_000_000L, 1, uid, 0, uid.length);
+        }
+        writer.close();
+
+        for (double speed : new double[]{1, 4, TraceReplayer.MAX_SPEED}) {
+            ManualTaskScheduler scheduler = new ManualTaskScheduler();
+            scheduler.advance(1000);
+            List<Long> times = new ArrayList<>();
+            TraceReplayer replayer = new TraceReplayer(scheduler, open(out.toByteArray())).setSpeed(speed);
+            replayer.start(new RfidTransport.Sink() {
+                @Override
+                public void onReaderConnected(int readerId) {
+                    assertEquals(1, readerId);
+                }
+
+                @Override
+                public void onReaderDisconnected(int readerId) {
+                    fail();
+                }
+
+                @Override
+                public void onNotification(int readerId, byte[] value, int offset, int length, long timeMs) {
+                    assertEquals(times.size(), value[offset + 3]);
+                    times.add(timeMs);
+                    if (speed != TraceReplayer.MAX_SPEED) {
+                        // due time and delivery agree at finite speeds
+                        assertEquals(scheduler.nowMs(), timeMs);
+                    }
+                }
+            });
+            long spent = 0;
+            while (!replayer.isFinished()) {
+                scheduler.advance(1);
+                spent++;
+            }
+            assertEquals(102, replayer.getEvents());
+            assertEquals(101, times.size());
+            if (speed == TraceReplayer.MAX_SPEED) {
+                assertEquals(1, spent);
+                // the recorded spacing is kept in the timestamps
+                assertEquals(Long.valueOf(1000 + 10_000), times.get(100));
+            } else {
+                assertEquals(10_000 / speed, spent, 1);
+                assertEquals(Long.valueOf(1000 + (long) (10_000 / speed)), times.get(100));
+            }
+        }
+    }
+
+    @Test
+    public void stopEndsTheReplay() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NotificationTrace.Writer writer = new NotificationTrace.Writer(out);
+        byte[] uid = {0x04, 0x11, 0x22, 0x33};
+        for (int i = 0; i < 10; i++) {
+            writer.notification(i * 1_000_000_000L, 0, uid, 0, uid.length);
+        }
+        writer.close();
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post);
+        TraceReplayer replayer = new TraceReplayer(scheduler, open(out.toByteArray()));
+        replayer.start(pipeline);
+        scheduler.advance(2500);
+        replayer.stop();
+        scheduler.advance(20_000);
+        assertTrue(replayer.isFinished());
+        assertNull(replayer.getError());
+        assertEquals(3, replayer.getNotifications());
+        assertEquals(3, pipeline.getNotifications());
+    }
+}
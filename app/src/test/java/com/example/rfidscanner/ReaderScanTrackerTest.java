@@ -0,0 +1,59 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReaderScanTrackerTest {
+    @Test
+    public void advertisementsAreDeduplicatedByAddress() {
+        ReaderScanTracker<String> tracker = new ReaderScanTracker<>(-70, 2);
+        for (int i = 0; i < 100; i++) {
+            tracker.onAdvertisement("AA:BB", null, -90, false, "phone", i);
+            tracker.onAdvertisement("CC:DD", "speaker", -95, false, "speaker", i);
+        }
+        assertEquals(2, tracker.size());
+        assertNull(tracker.getMatch());
+    }
+
+    @Test
+    public void readerMatchesOnceSmoothedRssiPassesThreshold() {
+        ReaderScanTracker<String> tracker = new ReaderScanTracker<>(-70, 2);
+        assertNull(tracker.onAdvertisement("11:22", "NEW_ESP32", -90, true, "esp", 0));
+        // one strong outlier is not enough to pull the smoothed value over the threshold
+        assertNull(tracker.onAdvertisement("11:22", "NEW_ESP32", -50, true, "esp", 100));
+        ReaderScanTracker.Entry<String> match = null;
+        long t = 200;
+        while (match == null && t < 2000) {
+            match = tracker.onAdvertisement("11:22", "NEW_ESP32", -60, true, "esp", t);
+            t += 100;
+        }
+        assertNotNull(match);
+        assertEquals("NEW_ESP32", match.getName());
+        assertTrue(match.getRssi() >= -70);
+        assertSame(match, tracker.getMatch());
+
+        // later advertisements do not report a second match
+        assertNull(tracker.onAdvertisement("11:22", "NEW_ESP32", -40, true, "esp", t));
+    }
+
+    @Test
+    public void nonReadersNeverMatch() {
+        ReaderScanTracker<String> tracker = new ReaderScanTracker<>(-70, 1);
+        assertNull(tracker.onAdvertisement("AA:BB", "ESP32", -30, false, "other", 0));
+        assertNotNull(tracker.onAdvertisement("11:22", null, -30, true, "reader", 0));
+    }
+
+    @Test
+    public void timelineReportsTimeToFirstTag() {
+        ConnectTimeline timeline = new ConnectTimeline();
+        timeline.start(1000);
+        assertTrue(timeline.mark(ConnectTimeline.Step.READER_FOUND, 1400));
+        timeline.mark(ConnectTimeline.Step.CONNECTED, 1900);
+        timeline.mark(ConnectTimeline.Step.NOTIFICATIONS_ENABLED, 2100);
+        assertTrue(timeline.mark(ConnectTimeline.Step.FIRST_TAG, 2500));
+        assertFalse(timeline.mark(ConnectTimeline.Step.FIRST_TAG, 2600));
+        assertEquals(1500, timeline.elapsedMs(ConnectTimeline.Step.FIRST_TAG));
+        assertEquals("reader_found=400ms, connected=900ms, notifications_enabled=1100ms, first_tag=1500ms", timeline.summary());
+    }
+}
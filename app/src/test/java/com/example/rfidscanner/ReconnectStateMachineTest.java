@@ -0,0 +1,160 @@
+package com.example.rfidscanner;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReconnectStateMachineTest {
+    // Fake GATT link: connects after a delay while the reader is in range, never answers otherwise
+    private class FakeGatt implements ReconnectStateMachine.Connector {
+        final List<String> calls = new ArrayList<>();
+        boolean inRange = true;
+        long connectDelayMs = 100;
+        long setupDelayMs = 50;
+
+        @Override
+        public void connect(String address, int attempt) {
+            calls.add("connect " + address + " #" + attempt);
+            if (!inRange) {
+                return;
+            }
+            scheduler.postDelayed(() -> {
+                machine.onConnected();
+                scheduler.postDelayed(machine::onReady, setupDelayMs);
+            }, connectDelayMs);
+        }
+
+        @Override
+        public void disconnect() {
+            calls.add("disconnect");
+        }
+    }
+
+    private ManualTaskScheduler scheduler;
+    private FakeGatt gatt;
+    private ReconnectStateMachine machine;
+    private List<String> states;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualTaskScheduler();
+        gatt = new FakeGatt();
+        machine = new ReconnectStateMachine(scheduler, gatt, 250, 4000, 1000, 0);
+        states = new ArrayList<>();
+        machine.setListener((state, attempt, delay) -> states.add(state + (delay > 0 ? " " + delay : "")));
+    }
+
+    @Test
+    public void connectsDirectlyToAddress() {
+        machine.start("AA:BB");
+        scheduler.advance(200);
+        assertEquals(ReconnectStateMachine.State.READY, machine.getState());
+        assertEquals("[CONNECTING, SETTING_UP, READY]", states.toString());
+        assertEquals(1, machine.getConnects());
+        assertEquals(0, machine.getReconnects());
+    }
+
+    @Test
+    public void dropReconnectsAfterShortBackoff() {
+        machine.start("AA:BB");
+        scheduler.advance(200);
+        machine.onDisconnected();
+        assertEquals(ReconnectStateMachine.State.BACKOFF, machine.getState());
+        scheduler.advance(500);
+
+        assertEquals(ReconnectStateMachine.State.READY, machine.getState());
+        assertEquals(1, machine.getReconnects());
+        // 250 ms backoff plus 150 ms to connect and set up
+        assertEquals(400, machine.getLastReconnectMs());
+        assertEquals("connect AA:BB #1", gatt.calls.get(1));
+    }
+
+    @Test
+    public void backoffGrowsExponentiallyAndIsCapped() {
+        machine.start("AA:BB");
+        scheduler.advance(200);
+        gatt.inRange = false;
+        machine.onDisconnected();
+        scheduler.advance(20_000);
+
+        List<String> backoffs = new ArrayList<>();
+        for (String state : states) {
+            if (state.startsWith("BACKOFF")) {
+                backoffs.add(state);
+            }
+        }
+        assertEquals("BACKOFF 250", backoffs.get(0));
+        assertEquals("BACKOFF 500", backoffs.get(1));
+        assertEquals("BACKOFF 1000", backoffs.get(2));
+        assertEquals("BACKOFF 2000", backoffs.get(3));
+        assertEquals("BACKOFF 4000", backoffs.get(4));
+        assertEquals("BACKOFF 4000", backoffs.get(5));
+        assertTrue(machine.getTimeouts() >= 5);
+        // every timed out attempt is abandoned before the next one starts
+        assertTrue(gatt.calls.contains("disconnect"));
+
+        gatt.inRange = true;
+        scheduler.advance(10_000);
+        assertEquals(ReconnectStateMachine.State.READY, machine.getState());
+        assertEquals(0, machine.getAttempt());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        machine = new ReconnectStateMachine(scheduler, gatt, 100, 1000, 500, 3);
+        gatt.inRange = false;
+        machine.start("AA:BB");
+        scheduler.advance(10_000);
+        assertEquals(ReconnectStateMachine.State.GAVE_UP, machine.getState());
+        assertEquals(3, machine.getFailedAttempts());
+        assertEquals(0, scheduler.pendingTasks());
+    }
+
+    @Test
+    public void stopCancelsPendingRetry() {
+        machine.start("AA:BB");
+        scheduler.advance(200);
+        machine.onDisconnected();
+        machine.stop();
+        scheduler.advance(10_000);
+        assertEquals(ReconnectStateMachine.State.IDLE, machine.getState());
+        assertEquals(1, gatt.calls.stream().filter(c -> c.startsWith("connect")).count());
+        // a disconnect callback after stop is ignored
+        machine.onDisconnected();
+        assertEquals(ReconnectStateMachine.State.IDLE, machine.getState());
+    }
+
+    @Test
+    public void callbacksAreMadeOutsideTheMonitorInOrder() {
+        List<String> calls = new ArrayList<>();
+        ReconnectStateMachine[] self = new ReconnectStateMachine[1];
+        // connects synchronously, calling back into the machine from inside connect()
+        ReconnectStateMachine.Connector connector = new ReconnectStateMachine.Connector() {
+            @Override
+            public void connect(String address, int attempt) {
+                assertFalse(Thread.holdsLock(self[0]));
+                calls.add("connect #" + attempt);
+                self[0].onConnected();
+                self[0].onReady();
+            }
+
+            @Override
+            public void disconnect() {
+                assertFalse(Thread.holdsLock(self[0]));
+                calls.add("disconnect");
+            }
+        };
+        self[0] = new ReconnectStateMachine(scheduler, connector, 250, 4000, 1000, 0);
+        self[0].setListener((state, attempt, delay) -> {
+            assertFalse(Thread.holdsLock(self[0]));
+            calls.add(state.toString());
+        });
+        self[0].start("AA:BB");
+        self[0].stop();
+        assertEquals("[CONNECTING, connect #1, SETTING_UP, READY, IDLE, disconnect]", calls.toString());
+    }
+}
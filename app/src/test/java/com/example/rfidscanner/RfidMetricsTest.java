@@ -0,0 +1,77 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RfidMetricsTest {
+    @Test
+    public void pipelineRecordsLatencyAndCounters() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        // the UI runs 16 ms after the batch was scheduled, like one display frame
+        TagPipeline pipeline = new TagPipeline(scheduler, deliver -> scheduler.postDelayed(deliver, 16));
+        pipeline.onReaderConnected(0);
+        byte[] uid = {0x04, 0x11, 0x22, 0x33};
+        for (int i = 0; i < 5; i++) {
+            uid[3] = (byte) i;
+            pipeline.onNotification(0, uid, 0, uid.length, scheduler.nowMs());
+        }
+        pipeline.onNotification(0, uid, 0, 0, scheduler.nowMs());
+        scheduler.advance(100);
+
+        RfidMetrics.Snapshot snapshot = pipeline.getMetrics().snapshot(scheduler.nowMs());
+        assertEquals(6, snapshot.get(RfidMetrics.Counter.NOTIFICATIONS));
+        assertEquals(1, snapshot.get(RfidMetrics.Counter.INVALID_PAYLOADS));
+        assertEquals(5, snapshot.get(RfidMetrics.Counter.READS_DELIVERED));
+        assertEquals(5, snapshot.getNotifyToListener().getCount());
+        assertEquals(16, snapshot.getNotifyToListener().getMax());
+    }
+
+    @Test
+    public void commandQueueRecordsWaitAndExecution() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        RfidMetrics metrics = new RfidMetrics();
+        GattCommandQueue queue = new GattCommandQueue(scheduler);
+        queue.setMetrics(metrics);
+        long[] token = new long[1];
+        queue.enqueue(new GattCommand(GattCommand.Type.READ_CHARACTERISTIC, () -> (token[0] = queue.getRunningToken()) != 0));
+        queue.enqueue(new GattCommand(GattCommand.Type.READ_CHARACTERISTIC, () -> (token[0] = queue.getRunningToken()) != 0));
+        scheduler.runPending();
+        scheduler.advance(30);
+        queue.onCommandCompleted(GattCommand.Type.READ_CHARACTERISTIC, token[0], true);
+        scheduler.runPending();
+        scheduler.advance(20);
+        queue.onCommandCompleted(GattCommand.Type.READ_CHARACTERISTIC, token[0], true);
+        scheduler.runPending();
+
+        LatencyHistogram.Snapshot ops = metrics.snapshot(0).getGattOp(GattCommand.Type.READ_CHARACTERISTIC);
+        assertEquals(2, ops.getCount());
+        assertEquals(30, ops.getMax());
+        // the second read waited for the first one
+        assertEquals(30, metrics.getQueueWait().snapshot().getMax());
+    }
+
+    @Test
+    public void snapshotExportsJsonAndText() {
+        RfidMetrics metrics = new RfidMetrics();
+        metrics.increment(RfidMetrics.Counter.RECONNECTS);
+        metrics.add(RfidMetrics.Counter.READS_DELIVERED, 42);
+        metrics.recordScanToConnect(850);
+        metrics.recordGattOp(GattCommand.Type.WRITE_DESCRIPTOR, 12);
+        RfidMetrics.Snapshot snapshot = metrics.snapshot(1234);
+
+        String json = snapshot.toJson();
+        assertTrue(json, json.startsWith("{\"time_ms\":1234,\"counters\":{\"notifications\":0,"));
+        assertTrue(json, json.contains("\"reads_delivered\":42"));
+        assertTrue(json, json.contains("\"reconnects\":1"));
+        assertTrue(json, json.contains("\"scan_to_connect\":{\"count\":1,\"mean\":850.0,"));
+        assertTrue(json, json.contains("\"write_descriptor\":{\"count\":1,\"mean\":12.0,\"p50\":12,"));
+        assertEquals(json.chars().filter(c -> c == '{').count(), json.chars().filter(c -> c == '}').count());
+
+        String text = snapshot.toText();
+        assertTrue(text, text.contains("reads_delivered    42"));
+        assertTrue(text, text.contains("write_descriptor"));
+        // command types that never ran are left out of the panel
+        assertFalse(text, text.contains("discover_services"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScanBatchProcessorTest {
+    private static final class Advertisement {
+        final String address;
+        final int rssi;
+        final boolean reader;
+        final long timeMs;
+
+        Advertisement(String address, int rssi, boolean reader, long timeMs) {
+            this.address = address;
+            this.rssi = rssi;
+            this.reader = reader;
+            this.timeMs = timeMs;
+        }
+    }
+
+    private static final ScanBatchProcessor.Fields<Advertisement, String> FIELDS = new ScanBatchProcessor.Fields<Advertisement, String>() {
+        @Override
+        public String address(Advertisement result) {
+            return result.address;
+        }
+
+        @Override
+        public String name(Advertisement result) {
+            return result.reader ? "NEW_ESP32" : null;
+        }
+
+        @Override
+        public int rssi(Advertisement result) {
+            return result.rssi;
+        }
+
+        @Override
+        public boolean isReader(Advertisement result) {
+            return result.reader;
+        }
+
+        @Override
+        public String device(Advertisement result) {
+            return "device " + result.address;
+        }
+
+        @Override
+        public long timeMs(Advertisement result) {
+            return result.timeMs;
+        }
+    };
+
+    private static ScanBatchProcessor<Advertisement, String> processor(List<String> handedOff) {
+        ScanBatchProcessor<Advertisement, String> processor = new ScanBatchProcessor<>(new ReaderScanTracker<>(-80, 2), FIELDS);
+        processor.setHandoff(reader -> handedOff.add(reader.getAddress() + " " + reader.getRssi()));
+        return processor;
+    }
+
+    @Test
+    public void batchWithoutAReaderHandsNothingOff() {
+        List<String> handedOff = new ArrayList<>();
+        ScanBatchProcessor<Advertisement, String> processor = processor(handedOff);
+        assertNull(processor.process(Arrays.asList(
+                new Advertisement("AA", -40, false, 0),
+                new Advertisement("AA", -40, false, 100),
+                // a reader, but too far away
+                new Advertisement("11", -95, true, 200),
+                new Advertisement("11", -92, true, 300))));
+        assertTrue(handedOff.isEmpty());
+        assertEquals(2, processor.getTracker().size());
+    }
+
+    @Test
+    public void readerIsHandedOffOnceEvenAcrossBatches() {
+        List<String> handedOff = new ArrayList<>();
+        ScanBatchProcessor<Advertisement, String> processor = processor(handedOff);
+        List<Advertisement> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(new Advertisement("11", -60, true, i * 500L));
+            batch.add(new Advertisement("22", -50, true, i * 500L + 10));
+        }
+        ReaderScanTracker.Entry<String> reader = processor.process(batch);
+        assertNotNull(reader);
+        // the first to qualify in receive order, not the strongest
+        assertEquals("11", reader.getAddress());
+        assertEquals("device 11", reader.getDevice());
+        assertEquals(Collections.singletonList("11 -60"), handedOff);
+        assertTrue(processor.isHandedOff());
+
+        assertNull(processor.process(batch));
+        assertEquals(1, handedOff.size());
+        assertEquals(2, processor.getBatches());
+        assertEquals(80, processor.getResults());
+        assertEquals(40, processor.getLargestBatch());
+    }
+
+    @Test
+    public void resetStartsANewDiscoveryWithoutTheConnectedReaders() {
+        List<String> handedOff = new ArrayList<>();
+        ScanBatchProcessor<Advertisement, String> processor = processor(handedOff);
+        List<Advertisement> batch = Arrays.asList(
+                new Advertisement("11", -60, true, 0),
+                new Advertisement("22", -70, true, 5),
+                new Advertisement("11", -60, true, 1000),
+                new Advertisement("22", -70, true, 1005));
+        assertEquals("11", processor.process(batch).getAddress());
+
+        processor.reset(Collections.singletonList("11"));
+        assertFalse(processor.isHandedOff());
+        assertEquals("22", processor.process(batch).getAddress());
+        assertEquals(Arrays.asList("11 -60", "22 -70"), handedOff);
+    }
+
+    @Test
+    public void smoothingUsesAdvertisementTimesNotDeliveryTime() {
+        List<String> handedOff = new ArrayList<>();
+        ScanBatchProcessor<Advertisement, String> processor = processor(handedOff);
+        ReaderScanTracker.Entry<String> reader = processor.process(Arrays.asList(
+                new Advertisement("11", -70, true, 1_000),
+                new Advertisement("11", -70, true, 9_000)));
+        assertEquals(1_000, reader.getFirstSeenMs());
+        assertEquals(9_000, reader.getLastSeenMs());
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionTagListTest {
+    private static String tags(List<SessionTagList.Row> rows) {
+        StringBuilder text = new StringBuilder();
+        for (SessionTagList.Row row : rows) {
+            text.append(row.getTagId()).append(' ');
+        }
+        return text.toString().trim();
+    }
+
+    @Test
+    public void newTagsGoFirstAndKnownTagsUpdateInPlace() {
+        SessionTagList list = new SessionTagList(10);
+        list.record(0, 1, 100);
+        list.record(0, 2, 110);
+        list.record(1, 1, 120);
+        list.record(0, 3, 130);
+        List<SessionTagList.Row> rows = list.snapshot();
+        assertEquals("3 2 1", tags(rows));
+        SessionTagList.Row first = rows.get(2);
+        assertEquals(2, first.getCount());
+        assertEquals(100, first.getFirstSeenMs());
+        assertEquals(120, first.getLastSeenMs());
+        assertEquals(1, first.getReaderId());
+    }
+
+    @Test
+    public void lateReadCountsButKeepsLastSeen() {
+        SessionTagList list = new SessionTagList(10);
+        list.record(0, 1, 200);
+        list.record(1, 1, 150);
+        SessionTagList.Row row = list.snapshot().get(0);
+        assertEquals(2, row.getCount());
+        assertEquals(200, row.getLastSeenMs());
+        assertEquals(0, row.getReaderId());
+    }
+
+    @Test
+    public void snapshotsKeepTheirValuesAndShareUnchangedRows() {
+        SessionTagList list = new SessionTagList(10);
+        list.record(0, 1, 100);
+        list.record(0, 2, 100);
+        List<SessionTagList.Row> before = list.snapshot();
+        assertFalse(list.isChanged());
+        list.record(0, 2, 200);
+        assertTrue(list.isChanged());
+        List<SessionTagList.Row> after = list.snapshot();
+
+        assertEquals(1, before.get(0).getCount());
+        assertEquals(2, after.get(0).getCount());
+        assertFalse(before.get(0).sameContents(after.get(0)));
+        // tag 1 was not read again, the diff sees the same row
+        assertSame(before.get(1), after.get(1));
+    }
+
+    @Test
+    public void fullListEvictsTheStalestTag() {
+        SessionTagList list = new SessionTagList(3);
+        list.record(0, 1, 100);
+        list.record(0, 2, 110);
+        list.record(0, 3, 120);
+        list.record(0, 1, 130);
+        list.record(0, 4, 140);
+        assertEquals("4 3 1", tags(list.snapshot()));
+        assertFalse(list.contains(2));
+        assertEquals(1, list.getEvicted());
+
+        // an evicted tag that comes back is new again
+        list.record(0, 2, 150);
+        assertEquals("2 4 1", tags(list.snapshot()));
+        assertEquals(1, list.snapshot().get(0).getCount());
+    }
+
+    @Test
+    public void staysBoundedUnderManyNewTags() {
+        SessionTagList list = new SessionTagList(50);
+        for (int tag = 0; tag < 10_000; tag++) {
+            list.record(tag % 4, tag, tag);
+            if (tag % 7 == 0) {
+                // keep tag 0 fresh, it is never the stalest
+                list.record(0, 0, tag);
+            }
+        }
+        List<SessionTagList.Row> rows = list.snapshot();
+        assertEquals(50, rows.size());
+        assertEquals(9999, rows.get(0).getTagId());
+        assertTrue(list.contains(0));
+        assertEquals(10_000 - 50, list.getEvicted());
+    }
+
+    @Test
+    public void recordsWholeBatch() {
+        TagReadBatch batch = new TagReadBatch(4);
+        batch.add(0, 5, 10);
+        batch.add(1, 6, 11);
+        batch.add(0, 5, 12);
+        SessionTagList list = new SessionTagList(10);
+        list.record(batch);
+        assertEquals("6 5", tags(list.snapshot()));
+        assertEquals(2, list.snapshot().get(1).getCount());
+    }
+
+    @Test
+    public void tagStayingOnTheAntennaKeepsItsRowCurrent() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post);
+        SessionTagList list = new SessionTagList(10);
+        long[] deduplicated = new long[1];
+        pipeline.setBatchListener(batch -> deduplicated[0] += batch.size());
+        pipeline.setMergedBatchListener(list::record);
+        pipeline.onReaderConnected(0);
+        byte[] uid = {0x04, 0x11, 0x22, 0x33};
+        for (int i = 0; i < 10; i++) {
+            pipeline.onNotification(0, uid, 0, uid.length, scheduler.nowMs());
+            scheduler.advance(100);
+        }
+        // the default DROP mode passes the first read only, the list still sees every one
+        assertEquals(1, deduplicated[0]);
+        SessionTagList.Row row = list.snapshot().get(0);
+        assertEquals(10, row.getCount());
+        assertEquals(900, row.getLastSeenMs() - row.getFirstSeenMs());
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.rfidscanner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The reader firmware and a MIFARE card on its antenna, as seen over BLE: requests arrive
+ * after a link delay, at most CardMemoryReader.MAX_IN_FLIGHT wait in the firmware's queue,
+ * one sector at a time is read and its chunks go out a few per drain, the way
+ * BLE_RFID.ino does it.
+ */
+final class SimulatedCard implements CardMemoryReader.Transport {
+    static final long LINK_DELAY_MS = 8;
+    static final long DRAIN_INTERVAL_MS = 15;
+    static final int NOTIFY_PER_DRAIN = 4;
+    // wake-up, select and authenticate, then one MIFARE_Read per block
+    static final long SELECT_MS = 6;
+    static final long BLOCK_READ_MS = 3;
+
+    private final ManualTaskScheduler scheduler;
+    private CardMemoryReader reader;
+    final byte[] uid;
+    final byte[][] sectors = new byte[CardMemoryReader.SECTOR_COUNT][];
+    private final Random random;
+    private int payloadLimit = 20;
+    final Set<Integer> lockedSectors = new HashSet<>();
+    boolean present = true;
+    boolean lifo;
+    double chunkLoss;
+    boolean duplicateChunks;
+    boolean linkUp = true;
+
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private boolean looping;
+    private long lastDrainMs = -DRAIN_INTERVAL_MS;
+    int rejected;
+    int maxQueued;
+    int served;
+
+    SimulatedCard(ManualTaskScheduler scheduler, long seed) {
+        this.scheduler = scheduler;
+        this.random = new Random(seed);
+        uid = new byte[]{0x04, 0x1A, 0x2B, 0x3C, 0x4D, 0x5E, 0x6F};
+        for (int sector = 0; sector < sectors.length; sector++) {
+            sectors[sector] = new byte[sector < 32 ? 48 : 240];
+            random.nextBytes(sectors[sector]);
+        }
+    }
+
+    void attach(CardMemoryReader reader) {
+        this.reader = reader;
+    }
+
+    // MTU - 3
+    void setPayloadLimit(int payloadLimit) {
+        this.payloadLimit = payloadLimit;
+    }
+
+    @Override
+    public boolean write(byte[] request) {
+        if (!linkUp) {
+            return false;
+        }
+        byte[] copy = request.clone();
+        scheduler.postDelayed(() -> onWrite(copy), LINK_DELAY_MS);
+        return true;
+    }
+
+    private void onWrite(byte[] request) {
+        if (!linkUp) {
+            return;
+        }
+        if (queue.size() == CardMemoryReader.MAX_IN_FLIGHT) {
+            rejected++;
+            return;
+        }
+        queue.add(request);
+        maxQueued = Math.max(maxQueued, queue.size());
+        if (!looping) {
+            looping = true;
+            scheduler.post(this::loop);
+        }
+    }
+
+    // loop() of the firmware: serve a request whenever no response is pending, drain every DRAIN_INTERVAL_MS
+    private void loop() {
+        long now = scheduler.nowMs();
+        if (chunks.isEmpty() && !queue.isEmpty()) {
+            byte[] request = lifo ? queue.pollLast() : queue.poll();
+            int sector = request[2] & 0xFF;
+            serve(request);
+            served++;
+            // reading the card blocks the loop
+            scheduler.postDelayed(this::loop, SELECT_MS + (sector < 32 ? 3 : 15) * BLOCK_READ_MS);
+            return;
+        }
+        if (now - lastDrainMs >= DRAIN_INTERVAL_MS) {
+            lastDrainMs = now;
+            for (int i = 0; i < NOTIFY_PER_DRAIN && !chunks.isEmpty(); i++) {
+                byte[] chunk = chunks.poll();
+                if (random.nextDouble() < chunkLoss) {
+                    continue;
+                }
+                notifyApp(chunk);
+                if (duplicateChunks) {
+                    notifyApp(chunk);
+                }
+            }
+        }
+        if (!chunks.isEmpty()) {
+            scheduler.postDelayed(this::loop, lastDrainMs + DRAIN_INTERVAL_MS - now);
+        } else if (!queue.isEmpty()) {
+            scheduler.post(this::loop);
+        } else {
+            looping = false;
+        }
+    }
+
+    private void notifyApp(byte[] chunk) {
+        scheduler.postDelayed(() -> {
+            if (linkUp) {
+                reader.onNotification(chunk, 0, chunk.length);
+            }
+        }, LINK_DELAY_MS);
+    }
+
+    private void serve(byte[] request) {
+        int id = request[1] & 0xFF;
+        int sector = request[2] & 0xFF;
+        int uidLength = request[3] & 0xFF;
+        boolean sameCard = uidLength == 0 || (uidLength == uid.length
+                && Arrays.equals(uid, Arrays.copyOfRange(request, 4, 4 + uidLength)));
+        int status;
+        if (sector >= CardMemoryReader.SECTOR_COUNT) {
+            status = CardMemoryReader.Status.BAD_REQUEST.ordinal();
+        } else if (!present || !sameCard) {
+            status = CardMemoryReader.Status.NO_CARD.ordinal();
+        } else if (lockedSectors.contains(sector)) {
+            status = CardMemoryReader.Status.AUTH_FAILED.ordinal();
+        } else {
+            status = CardMemoryReader.Status.OK.ordinal();
+        }
+        byte[] data = status == 0 ? sectors[sector] : new byte[0];
+        int sent = 0;
+        do {
+            int length = Math.min(data.length - sent, payloadLimit - CardMemoryReader.RESPONSE_HEADER);
+            byte[] chunk = new byte[CardMemoryReader.RESPONSE_HEADER + length];
+            chunk[0] = CardMemoryReader.RESPONSE_MAGIC;
+            chunk[1] = (byte) id;
+            chunk[2] = (byte) status;
+            chunk[3] = (byte) sent;
+            chunk[4] = (byte) data.length;
+            System.arraycopy(data, sent, chunk, CardMemoryReader.RESPONSE_HEADER, length);
+            chunks.add(chunk);
+            sent += length;
+        } while (sent < data.length);
+    }
+
+    // Link drop: the firmware clears its queue on the next connect, nothing in the air arrives
+    void disconnect() {
+        linkUp = false;
+        queue.clear();
+        chunks.clear();
+    }
+
+    void reconnect() {
+        linkUp = true;
+    }
+
+    List<Integer> sectorsOf(List<CardMemoryReader.SectorRead> reads) {
+        List<Integer> sectorList = new ArrayList<>();
+        for (CardMemoryReader.SectorRead read : reads) {
+            sectorList.add(read.getSector());
+        }
+        return sectorList;
+    }
+}
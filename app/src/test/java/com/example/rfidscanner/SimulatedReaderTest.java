@@ -0,0 +1,174 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SimulatedReaderTest {
+    // Records what a transport hands to its sink
+    private static class RecordingSink implements RfidTransport.Sink {
+        final List<String> events = new ArrayList<>();
+        long reads;
+
+        @Override
+        public void onReaderConnected(int readerId) {
+            events.add("connected " + readerId);
+        }
+
+        @Override
+        public void onReaderDisconnected(int readerId) {
+            events.add("disconnected " + readerId);
+        }
+
+        @Override
+        public void onNotification(int readerId, byte[] value, int offset, int length, long timeMs) {
+            reads++;
+            events.add("read " + readerId + " " + TagIdTable.toHex(value, offset, length) + " @" + timeMs);
+        }
+    }
+
+    @Test
+    public void sameSeedGivesSameStream() {
+        List<String> first = run(42);
+        List<String> second = run(42);
+        assertEquals(first, second);
+        assertNotEquals(first, run(43));
+    }
+
+    private List<String> run(long seed) {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        RecordingSink sink = new RecordingSink();
+        new SimulatedReader(scheduler).setReaders(2).setSeed(seed).start(sink);
+        scheduler.advance(2000);
+        return sink.events;
+    }
+
+    @Test
+    public void readRateFollowsBurstSettings() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        RecordingSink sink = new RecordingSink();
+        SimulatedReader reader = new SimulatedReader(scheduler)
+                .setBurstsPerSecond(20)
+                .setMeanBurstSize(3);
+        reader.start(sink);
+        scheduler.advance(60_000);
+
+        // 20 bursts/s * 3 reads * 60 s, within 10 %
+        assertEquals(3600, sink.reads, 360);
+        assertEquals(1200, reader.getBursts(), 120);
+        assertEquals(sink.reads, reader.getNotifications());
+    }
+
+    @Test
+    public void disconnectedReaderIsSilent() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        RecordingSink sink = new RecordingSink();
+        SimulatedReader reader = new SimulatedReader(scheduler)
+                .setBurstsPerSecond(50)
+                .setDisconnects(30, 1000);
+        reader.start(sink);
+        scheduler.advance(60_000);
+
+        assertTrue(reader.getDisconnects() > 10);
+        boolean connected = false;
+        for (String event : sink.events) {
+            if (event.startsWith("connected")) {
+                assertFalse("connected twice", connected);
+                connected = true;
+            } else if (event.startsWith("disconnected")) {
+                assertTrue(connected);
+                connected = false;
+            } else {
+                assertTrue("read while disconnected", connected);
+            }
+        }
+    }
+
+    @Test
+    public void stopEndsTheStream() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        RecordingSink sink = new RecordingSink();
+        SimulatedReader reader = new SimulatedReader(scheduler).setReaders(3).setDisconnects(10, 500);
+        reader.start(sink);
+        scheduler.advance(1000);
+        reader.stop();
+        long reads = sink.reads;
+        scheduler.advance(10_000);
+        assertEquals(reads, sink.reads);
+        assertEquals(0, scheduler.pendingTasks());
+    }
+
+    @Test
+    public void pipelineDeduplicatesSimulatedTraffic() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        // deliver every batch straight away
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post);
+        long[] delivered = new long[1];
+        pipeline.setBatchListener(batch -> delivered[0] += batch.size());
+        SimulatedReader reader = new SimulatedReader(scheduler)
+                .setReaders(4)
+                .setTagPopulation(200)
+                .setBurstsPerSecond(40)
+                .setDisconnects(6, 500);
+        reader.start(pipeline);
+        scheduler.advance(30_000);
+        reader.stop();
+        scheduler.advance(5_000);
+
+        TagFanIn fanIn = pipeline.getFanIn();
+        long merged = 0;
+        for (int r = 0; r < 4; r++) {
+            assertEquals(0, fanIn.getDropped(r));
+            merged += fanIn.getDelivered(r);
+        }
+        TagDeduplicator dedup = pipeline.getDeduplicator();
+        assertEquals(reader.getNotifications(), merged);
+        assertEquals(merged, dedup.getTotalReads());
+        assertEquals(dedup.getFirstSeenEvents(), delivered[0]);
+        // most reads are repeats of tags already on the antenna
+        assertTrue(delivered[0] < merged / 2);
+        assertTrue(pipeline.getTagIds().size() <= 200);
+        // after the stop every tag went GONE
+        assertEquals(0, dedup.trackedTags());
+    }
+
+    @Test
+    public void highRateTrafficIsDeliveredPromptly() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post, 4096);
+        pipeline.setDeduplication(1, TagDeduplicator.Mode.DROP);
+        long[] delivered = new long[1];
+        long[] maxLatency = new long[1];
+        pipeline.setBatchListener(batch -> {
+            long now = scheduler.nowMs();
+            for (int i = 0; i < batch.size(); i++) {
+                maxLatency[0] = Math.max(maxLatency[0], now - batch.timeMs(i));
+            }
+            delivered[0] += batch.size();
+        });
+        SimulatedReader reader = new SimulatedReader(scheduler)
+                .setReaders(4)
+                .setTagPopulation(100_000)
+                .setBurstsPerSecond(1000)
+                .setMeanBurstSize(8)
+                .setRepeatProbability(0, 1);
+        reader.start(pipeline);
+        scheduler.advance(500);
+        reader.stop();
+        scheduler.advance(1000);
+
+        TagFanIn fanIn = pipeline.getFanIn();
+        for (int r = 0; r < 4; r++) {
+            assertEquals(0, fanIn.getDropped(r));
+        }
+        assertEquals(pipeline.getDeduplicator().getFirstSeenEvents(), delivered[0]);
+        // only the odd pick of the same tag inside 1 ms is dropped
+        assertTrue(delivered[0] > reader.getNotifications() * 0.99);
+        assertTrue(delivered[0] <= reader.getNotifications());
+        // batches are posted, not timed, so no read waits for a later tick
+        assertEquals(0, maxLatency[0]);
+    }
+}
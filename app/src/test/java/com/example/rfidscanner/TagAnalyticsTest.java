@@ -0,0 +1,194 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TagAnalyticsTest {
+
+    @Test
+    public void sketchEstimatesDistinctCountsAndMerges() {
+        HyperLogLog small = new HyperLogLog();
+        for (int i = 0; i < 100; i++) {
+            small.add(HyperLogLog.hash(i));
+            small.add(HyperLogLog.hash(i));
+        }
+        // linear counting, within a few percent
+        assertEquals(100, small.estimate(), 7);
+
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 100_000; i++) {
+            a.add(HyperLogLog.hash(i));
+            b.add(HyperLogLog.hash(i + 50_000));
+        }
+        // three standard errors at precision 10
+        assertEquals(100_000, a.estimate(), 10_000);
+        a.merge(b);
+        assertEquals(150_000, a.estimate(), 15_000);
+        a.clear();
+        assertEquals(0, a.estimate());
+        try {
+            a.merge(new HyperLogLog(12));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void readsPerSecondCoverTheSlidingWindowPerReader() {
+        TagAnalytics analytics = new TagAnalytics();
+        for (long ms = 0; ms < 30_000; ms += 100) {
+            analytics.onRead(0, (int) (ms % 7), ms);
+            if (ms % 200 == 0) {
+                analytics.onRead(1, 100, ms + 50);
+            }
+        }
+        TagAnalytics.Snapshot snapshot = analytics.snapshot(30_500);
+        assertEquals(15, snapshot.getReadsPerSecond(), 0.001);
+        assertEquals(10, snapshot.getReadsPerSecond(0), 0.001);
+        assertEquals(5, snapshot.getReadsPerSecond(1), 0.001);
+        assertEquals(0, snapshot.getReadsPerSecond(2), 0.001);
+
+        // half the window without reads
+        assertEquals(7.5, analytics.snapshot(35_000).getReadsPerSecond(), 0.001);
+        assertEquals(0, analytics.snapshot(40_000).getReadsPerSecond(), 0.001);
+        assertEquals(30 * 15, analytics.snapshot(40_000).getTotalReads());
+    }
+
+    @Test
+    public void rateIsOverTheSecondsSinceTheFirstReadEarlyOn() {
+        TagAnalytics analytics = new TagAnalytics();
+        assertEquals(0, analytics.snapshot(0).getReadsPerSecond(), 0);
+        for (long ms = 1000; ms < 4000; ms += 50) {
+            analytics.onRead(3, 1, ms);
+            if (ms == 1950) {
+                // the open second does not count yet
+                assertEquals(0, analytics.snapshot(1_999).getReadsPerSecond(), 0);
+            }
+        }
+        assertEquals(20, analytics.snapshot(4_000).getReadsPerSecond(), 0.001);
+        assertEquals(20, analytics.snapshot(4_000).getReadsPerSecond(3), 0.001);
+    }
+
+    @Test
+    public void uniqueTagsAndReReadRatioCoverTheLastMinute() {
+        TagAnalytics analytics = new TagAnalytics();
+        // 500 tags read four times each over 40 s
+        for (int round = 0; round < 4; round++) {
+            for (int tag = 0; tag < 500; tag++) {
+                analytics.onRead(tag % 3, tag, round * 10_000 + tag * 20);
+            }
+        }
+        TagAnalytics.Snapshot snapshot = analytics.snapshot(40_000);
+        assertEquals(2000, snapshot.getWindowReads());
+        assertEquals(500, snapshot.getUniqueTags(), 25);
+        assertEquals(0.75, snapshot.getReReadRatio(), 0.02);
+
+        // the first two rounds have left the window
+        snapshot = analytics.snapshot(79_000);
+        assertEquals(1000, snapshot.getWindowReads());
+        assertEquals(500, snapshot.getUniqueTags(), 25);
+        assertEquals(0.5, snapshot.getReReadRatio(), 0.03);
+
+        snapshot = analytics.snapshot(100_000);
+        assertEquals(0, snapshot.getWindowReads());
+        assertEquals(0, snapshot.getUniqueTags());
+        assertEquals(0, snapshot.getReReadRatio(), 0);
+    }
+
+    @Test
+    public void tumblingMinutesKeepTheBusiestPeriod() {
+        TagAnalytics analytics = new TagAnalytics();
+        int[] readsPerMinute = {120, 600, 0, 60};
+        for (int minute = 0; minute < readsPerMinute.length; minute++) {
+            for (int i = 0; i < readsPerMinute[minute]; i++) {
+                analytics.onRead(0, i % 40, minute * 60_000L + i * 60_000L / readsPerMinute[minute]);
+            }
+        }
+        // a burst within the last minute
+        for (int i = 0; i < 90; i++) {
+            analytics.onRead(1, 1000 + i, 185_000 + i);
+        }
+        TagAnalytics.Snapshot snapshot = analytics.snapshot(250_000);
+        assertEquals(3, snapshot.getMinuteCount());
+        assertEquals(0, snapshot.getMinuteStartMs(0));
+        assertEquals(120, snapshot.getMinuteReads(0));
+        assertEquals(40, snapshot.getMinuteTags(0), 2);
+        assertEquals(60_000, snapshot.getMinuteStartMs(1));
+        assertEquals(180_000, snapshot.getMinuteStartMs(2));
+        assertEquals(150, snapshot.getMinuteReads(2));
+        assertEquals(130, snapshot.getMinuteTags(2), 3);
+        assertEquals(0, snapshot.getOpenMinuteReads());
+
+        assertEquals(60_000, snapshot.getBusiestMinuteMs());
+        assertEquals(600, snapshot.getBusiestMinuteReads());
+        assertEquals(40, snapshot.getBusiestMinuteTags(), 2);
+        assertEquals(185_000, snapshot.getPeakSecondMs());
+        assertEquals(91, snapshot.getPeakSecondReads());
+        assertTrue(snapshot.toText().contains("busiest minute     600 reads"));
+
+        // an hour later only the busiest period is left
+        snapshot = analytics.snapshot(4_000_000);
+        assertEquals(0, snapshot.getMinuteCount());
+        assertEquals(600, snapshot.getBusiestMinuteReads());
+    }
+
+    @Test
+    public void slightlyLateReadsStillCount() {
+        TagAnalytics analytics = new TagAnalytics(5);
+        analytics.onRead(0, 1, 10_100);
+        analytics.onRead(1, 2, 11_100);
+        // from a reader whose reads the fan-in released a bit later
+        analytics.onRead(2, 3, 10_900);
+        analytics.onRead(2, 4, 11_050);
+        analytics.onRead(2, 5, 1_000);
+        TagAnalytics.Snapshot snapshot = analytics.snapshot(12_000);
+        assertEquals(1, snapshot.getLateReads());
+        assertEquals(4, snapshot.getWindowReads());
+        assertEquals(4, snapshot.getUniqueTags());
+        // seconds 10 and 11 so far
+        assertEquals(1, snapshot.getReadsPerSecond(2), 0.001);
+        assertEquals(2, snapshot.getPeakSecondReads());
+    }
+
+    @Test
+    public void readsDoNotAllocateWithEitherWindow() {
+        assertEquals(0, bytesPerRead(new TagAnalytics(1)));
+        assertEquals(0, bytesPerRead(new TagAnalytics(TagAnalytics.UNIQUE_WINDOW_SECONDS)));
+    }
+
+    private static long bytesPerRead(TagAnalytics analytics) {
+        int reads = 2_000_000;
+        // 2000 reads a second, warm up over the first tenth
+        for (int i = 0; i < reads / 10; i++) {
+            analytics.onRead(i & 3, i % 5000, i / 2);
+        }
+        long before = AllocationMeter.allocatedBytes();
+        for (int i = reads / 10; i < reads; i++) {
+            analytics.onRead(i & 3, i % 5000, i / 2);
+        }
+        return (AllocationMeter.allocatedBytes() - before) / (reads - reads / 10);
+    }
+
+    @Test
+    public void snapshotMergesTheMinuteOnlyOncePerSecond() {
+        TagAnalytics analytics = new TagAnalytics();
+        for (int i = 0; i < 200_000; i++) {
+            analytics.onRead(i & 3, i % 5000, i / 2);
+        }
+        long nowMs = 100_000;
+        analytics.snapshot(nowMs);
+        long merges = analytics.getSketchMerges();
+        // 59 finished seconds and the open one
+        assertEquals(TagAnalytics.UNIQUE_WINDOW_SECONDS, merges);
+        // the metrics panel polls several times within a second, only the open second is merged again
+        for (int i = 1; i <= 5; i++) {
+            analytics.snapshot(nowMs + i * 100);
+            assertEquals(merges + i, analytics.getSketchMerges());
+        }
+        analytics.onRead(0, 1, nowMs + 1000);
+        analytics.snapshot(nowMs + 1000);
+        assertEquals(merges + 5 + TagAnalytics.UNIQUE_WINDOW_SECONDS, analytics.getSketchMerges());
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TagBatchCodecTest {
+    @Test
+    public void roundTripKeepsOrderTimesReadersAndUids() throws IOException {
+        TagBatchCodec.Encoder encoder = new TagBatchCodec.Encoder();
+        Random random = new Random(3);
+        int reads = 2000;
+        long[] times = new long[reads];
+        int[] readers = new int[reads];
+        byte[][] uids = new byte[reads][];
+        long time = 1_700_000_000_000L;
+        long newest = 0;
+        for (int i = 0; i < reads; i++) {
+            // mostly increasing, now and then a late read from another reader
+            time += random.nextInt(20) - 2;
+            times[i] = time;
+            newest = Math.max(newest, time);
+            readers[i] = random.nextInt(4);
+            int length = i % 3 == 0 ? 4 : i % 3 == 1 ? 7 : 10;
+            uids[i] = new byte[length];
+            uids[i][0] = (byte) random.nextInt(300);
+            encoder.add(times[i], readers[i], uids[i], 0, length);
+        }
+        byte[] body = encoder.encode(42);
+        assertTrue(encoder.getRawSize() > body.length);
+
+        TagBatchCodec.Batch batch = TagBatchCodec.decode(body);
+        assertEquals(42, batch.batchId);
+        assertEquals(reads, batch.size());
+        for (int i = 0; i < reads; i++) {
+            assertEquals(times[i], batch.timesMs[i]);
+            assertEquals(readers[i], batch.readerIds[i]);
+            assertTrue(Arrays.equals(uids[i], batch.uids[i]));
+        }
+        assertEquals(newest, encoder.getLastTimeMs());
+    }
+
+    @Test
+    public void encoderIsReusableAfterReset() throws IOException {
+        TagBatchCodec.Encoder encoder = new TagBatchCodec.Encoder();
+        encoder.add(100, 0, new byte[]{1, 2, 3, 4}, 0, 4);
+        encoder.encode(1);
+        encoder.reset();
+        encoder.add(200, 1, new byte[]{5, 6, 7, 8}, 0, 4);
+        TagBatchCodec.Batch batch = TagBatchCodec.decode(encoder.encode(2));
+        assertEquals(1, batch.size());
+        assertEquals(200, batch.timesMs[0]);
+        assertTrue(Arrays.equals(new byte[]{5, 6, 7, 8}, batch.uids[0]));
+    }
+
+    @Test
+    public void corruptBodyIsRejected() {
+        TagBatchCodec.Encoder encoder = new TagBatchCodec.Encoder();
+        encoder.add(100, 0, new byte[]{1, 2, 3, 4}, 0, 4);
+        byte[] body = encoder.encode(1);
+        try {
+            TagBatchCodec.decode(Arrays.copyOf(body, body.length / 2));
+            fail();
+        } catch (IOException expected) {
+        }
+        try {
+            TagBatchCodec.decode(new byte[]{1, 2, 3});
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
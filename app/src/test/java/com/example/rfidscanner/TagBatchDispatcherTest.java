@@ -0,0 +1,116 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class TagBatchDispatcherTest {
+    // Stands in for the Choreographer, frames are run by the test
+    private static class ManualScheduler implements TagBatchDispatcher.Scheduler {
+        final List<Runnable> scheduled = new ArrayList<>();
+
+        @Override
+        public synchronized void schedule(Runnable deliver) {
+            scheduled.add(deliver);
+        }
+
+        synchronized void runFrame() {
+            List<Runnable> frame = new ArrayList<>(scheduled);
+            scheduled.clear();
+            for (Runnable r : frame) {
+                r.run();
+            }
+        }
+    }
+
+    @Test
+    public void burstIsDeliveredAsOneBatchWithOneScheduledFrame() {
+        ManualScheduler scheduler = new ManualScheduler();
+        TagBatchDispatcher dispatcher = new TagBatchDispatcher(scheduler, 100);
+        List<Integer> sizes = new ArrayList<>();
+        List<Integer> tags = new ArrayList<>();
+        dispatcher.setListener(batch -> {
+            sizes.add(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                tags.add(batch.tagId(i));
+            }
+        });
+
+        for (int i = 0; i < 50; i++) {
+            dispatcher.offer(0, i, i);
+        }
+        assertEquals(1, scheduler.scheduled.size());
+        scheduler.runFrame();
+
+        assertEquals(1, sizes.size());
+        assertEquals(50, (int) sizes.get(0));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) tags.get(i));
+        }
+        assertEquals(50, dispatcher.getDeliveredReads());
+        assertEquals(0, dispatcher.getPendingReads());
+    }
+
+    @Test
+    public void slowUiDropsReadsInsteadOfGrowing() {
+        ManualScheduler scheduler = new ManualScheduler();
+        TagBatchDispatcher dispatcher = new TagBatchDispatcher(scheduler, 10);
+        long[] dropped = new long[1];
+        dispatcher.setListener(batch -> dropped[0] = batch.droppedBefore());
+
+        for (int i = 0; i < 1000; i++) {
+            dispatcher.offer(0, i, i);
+        }
+        assertEquals(10, dispatcher.getPendingReads());
+        assertEquals(990, dispatcher.getDroppedReads());
+        scheduler.runFrame();
+        assertEquals(990, dropped[0]);
+
+        // the next frame starts with a clean count
+        dispatcher.offer(0, 1, 1);
+        scheduler.runFrame();
+        assertEquals(0, dropped[0]);
+        assertEquals(2, dispatcher.getDeliveredBatches());
+    }
+
+    @Test
+    public void emptyFrameDoesNotCallListener() {
+        ManualScheduler scheduler = new ManualScheduler();
+        TagBatchDispatcher dispatcher = new TagBatchDispatcher(scheduler, 10);
+        dispatcher.setListener(batch -> fail("no reads were offered"));
+        dispatcher.deliver();
+        assertEquals(0, dispatcher.getDeliveredBatches());
+    }
+
+    @Test
+    public void concurrentProducersLoseNothingBelowCapacity() throws Exception {
+        ManualScheduler scheduler = new ManualScheduler();
+        TagBatchDispatcher dispatcher = new TagBatchDispatcher(scheduler, 1_000_000);
+        long[] received = new long[1];
+        dispatcher.setListener(batch -> received[0] += batch.size());
+
+        int producers = 4;
+        int readsEach = 50_000;
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int reader = p;
+            new Thread(() -> {
+                for (int i = 0; i < readsEach; i++) {
+                    dispatcher.offer(reader, i, i);
+                }
+                done.countDown();
+            }).start();
+        }
+        while (done.getCount() > 0) {
+            scheduler.runFrame();
+        }
+        scheduler.runFrame();
+
+        assertEquals(producers * readsEach, received[0]);
+        assertEquals(0, dispatcher.getDroppedReads());
+    }
+}
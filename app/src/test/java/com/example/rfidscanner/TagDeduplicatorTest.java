@@ -0,0 +1,117 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TagDeduplicatorTest {
+    private final List<String> events = new ArrayList<>();
+
+    private TagDeduplicator newDedup(long windowMs, TagDeduplicator.Mode mode, int maxEntries) {
+        TagDeduplicator dedup = new TagDeduplicator(windowMs, mode, maxEntries);
+        dedup.setListener((event, readerId, tagId, reads, timeMs) ->
+                events.add(event + " r" + readerId + " t" + tagId + " x" + reads));
+        return dedup;
+    }
+
+    @Test
+    public void repeatsInsideWindowAreSuppressed() {
+        TagDeduplicator dedup = newDedup(500, TagDeduplicator.Mode.DROP, 64);
+        assertEquals(TagDeduplicator.TagEvent.FIRST_SEEN, dedup.onRead(0, 7, 1000));
+        for (long t = 1100; t <= 3000; t += 100) {
+            assertNull(dedup.onRead(0, 7, t));
+        }
+        assertEquals(21, dedup.getTotalReads());
+        assertEquals(20, dedup.getSuppressedReads());
+        assertEquals(1, dedup.trackedTags());
+
+        dedup.expire(3600);
+        assertEquals(0, dedup.trackedTags());
+        assertEquals(2, events.size());
+        assertEquals("GONE r0 t7 x21", events.get(1));
+    }
+
+    @Test
+    public void collapseModeReportsStillPresentOncePerWindow() {
+        TagDeduplicator dedup = newDedup(500, TagDeduplicator.Mode.COLLAPSE, 64);
+        dedup.onRead(0, 1, 0);
+        for (long t = 100; t <= 1000; t += 100) {
+            dedup.onRead(0, 1, t);
+        }
+        assertEquals(2, dedup.getStillPresentEvents());
+        assertEquals("STILL_PRESENT r0 t1 x6", events.get(1));
+        assertEquals("STILL_PRESENT r0 t1 x11", events.get(2));
+    }
+
+    @Test
+    public void readersAreTrackedIndependently() {
+        TagDeduplicator dedup = newDedup(500, TagDeduplicator.Mode.DROP, 64);
+        assertEquals(TagDeduplicator.TagEvent.FIRST_SEEN, dedup.onRead(0, 3, 0));
+        assertEquals(TagDeduplicator.TagEvent.FIRST_SEEN, dedup.onRead(1, 3, 10));
+        assertNull(dedup.onRead(0, 3, 20));
+        assertEquals(2, dedup.trackedTags());
+    }
+
+    @Test
+    public void tagReturningAfterWindowIsSeenAgain() {
+        TagDeduplicator dedup = newDedup(500, TagDeduplicator.Mode.DROP, 64);
+        dedup.onRead(0, 3, 0);
+        assertNull(dedup.onRead(0, 3, 200));
+        assertNull(dedup.onRead(0, 3, 400));
+        assertEquals(TagDeduplicator.TagEvent.FIRST_SEEN, dedup.onRead(0, 3, 1000));
+        assertEquals("GONE r0 t3 x3", events.get(1));
+        assertEquals("FIRST_SEEN r0 t3 x1", events.get(2));
+    }
+
+    @Test
+    public void memoryStaysBoundedWithManyDistinctTags() {
+        TagDeduplicator dedup = newDedup(100, TagDeduplicator.Mode.DROP, 256);
+        long now = 0;
+        for (int tag = 0; tag < 100_000; tag++) {
+            // ten new tags per millisecond, at most ~1000 in a window
+            now = tag / 10;
+            dedup.onRead(0, tag, now);
+            assertTrue(dedup.trackedTags() <= 256);
+        }
+        assertEquals(100_000, dedup.getFirstSeenEvents());
+        assertTrue(dedup.getUntrackedReads() > 0);
+
+        dedup.expire(now + 100);
+        assertEquals(0, dedup.trackedTags());
+    }
+
+    @Test
+    public void expireKeepsProbeChainsIntact() {
+        TagDeduplicator dedup = newDedup(100, TagDeduplicator.Mode.DROP, 64);
+        for (int tag = 0; tag < 60; tag++) {
+            dedup.onRead(0, tag, tag % 2 == 0 ? 0 : 90);
+        }
+        dedup.expire(120);
+        assertEquals(30, dedup.trackedTags());
+        for (int tag = 1; tag < 60; tag += 2) {
+            assertNull("tag " + tag, dedup.onRead(0, tag, 130));
+        }
+        assertEquals(30, dedup.trackedTags());
+    }
+
+    @Test
+    public void clearReaderOnlyDropsThatReader() {
+        TagDeduplicator dedup = newDedup(500, TagDeduplicator.Mode.DROP, 64);
+        for (int tag = 0; tag < 20; tag++) {
+            dedup.onRead(tag % 2, tag, 0);
+        }
+        events.clear();
+        dedup.clearReader(1, 100);
+        assertEquals(10, events.size());
+        for (String event : events) {
+            assertTrue(event, event.startsWith("GONE r1 "));
+        }
+        assertEquals(10, dedup.trackedTags());
+        for (int tag = 0; tag < 20; tag += 2) {
+            assertNull("tag " + tag, dedup.onRead(0, tag, 150));
+        }
+    }
+}
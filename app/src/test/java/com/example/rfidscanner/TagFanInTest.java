@@ -0,0 +1,117 @@
+package com.example.rfidscanner;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TagFanInTest {
+    private ManualTaskScheduler scheduler;
+    private TagFanIn fanIn;
+    private List<long[]> delivered;
+
+    @Before
+    public void setUp() {
+        scheduler = new ManualTaskScheduler();
+        fanIn = new TagFanIn(scheduler, 8, 4);
+        delivered = new ArrayList<>();
+        fanIn.setSink((sequence, readerId, tagId, timeMs) ->
+                delivered.add(new long[]{sequence, readerId, tagId, timeMs}));
+        fanIn.addReader(0);
+        fanIn.addReader(1);
+    }
+
+    @Test
+    public void mergesReadersInArrivalOrder() {
+        fanIn.offer(1, 10, 0);
+        fanIn.offer(0, 20, 1);
+        fanIn.offer(1, 11, 2);
+        fanIn.offer(0, 21, 3);
+        // one drain task for the whole burst
+        assertEquals(1, scheduler.pendingTasks());
+        scheduler.runPending();
+
+        assertEquals(4, delivered.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, delivered.get(i)[0]);
+        }
+        assertEquals(10, delivered.get(0)[2]);
+        assertEquals(20, delivered.get(1)[2]);
+        assertEquals(11, delivered.get(2)[2]);
+        assertEquals(21, delivered.get(3)[2]);
+    }
+
+    @Test
+    public void noisyReaderOnlyDropsItsOwnReads() {
+        for (int i = 0; i < 50; i++) {
+            fanIn.offer(0, i, i);
+        }
+        assertTrue(fanIn.offer(1, 99, 50));
+
+        assertEquals(8, fanIn.getDepth(0));
+        assertEquals(42, fanIn.getDropped(0));
+        assertEquals(0, fanIn.getDropped(1));
+        assertEquals(1, fanIn.getDepth(1));
+    }
+
+    @Test
+    public void eachPassTakesAtMostQuantumPerReader() {
+        for (int i = 0; i < 8; i++) {
+            fanIn.offer(0, i, i);
+        }
+        fanIn.offer(1, 99, 100);
+
+        assertEquals(5, fanIn.drain());
+        // the quiet reader is delivered in the first pass even though it read last
+        assertEquals(1, delivered.get(4)[1]);
+        assertEquals(4, fanIn.getDepth(0));
+        assertEquals(0, fanIn.getDepth(1));
+
+        assertEquals(4, fanIn.drain());
+        assertEquals(0, fanIn.drain());
+        assertEquals(8, fanIn.getDelivered(0));
+        assertEquals(1, fanIn.getDelivered(1));
+    }
+
+    @Test
+    public void removedReaderIsIgnored() {
+        fanIn.offer(1, 5, 0);
+        fanIn.removeReader(1);
+        assertFalse(fanIn.offer(1, 6, 1));
+        scheduler.runPending();
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void concurrentReadersDeliverEverythingOnce() throws Exception {
+        TagFanIn shared = new TagFanIn(scheduler, 100_000, 64);
+        long[] count = new long[1];
+        shared.setSink((sequence, readerId, tagId, timeMs) -> count[0]++);
+        int readers = 4;
+        int perReader = 20_000;
+        Thread[] threads = new Thread[readers];
+        for (int r = 0; r < readers; r++) {
+            shared.addReader(r);
+            final int readerId = r;
+            threads[r] = new Thread(() -> {
+                for (int i = 0; i < perReader; i++) {
+                    shared.offer(readerId, i, i);
+                }
+            });
+            threads[r].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        while (shared.drain() > 0) {
+            // drain whatever the posted tasks did not get to
+        }
+        assertEquals(readers * perReader, count[0]);
+        for (int r = 0; r < readers; r++) {
+            assertEquals(0, shared.getDropped(r));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TagFrameParserTest {
+    private final List<String> seen = new ArrayList<>();
+    private final TagFrameParser.Visitor recorder =
+            (array, offset, length) -> seen.add(TagIdTable.toHex(array, offset, length));
+
+    private static byte[] frame(int sequence, byte[]... uids) {
+        TagFrameWriter writer = new TagFrameWriter(244);
+        for (byte[] uid : uids) {
+            assertTrue(writer.add(uid, 0, uid.length));
+        }
+        int length = writer.finish(sequence, 0x12345678L);
+        return Arrays.copyOf(writer.buffer(), length);
+    }
+
+    @Test
+    public void legacyPayloadIsOneUid() {
+        TagFrameParser parser = new TagFrameParser();
+        byte[] uid = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+        assertEquals(TagFrameParser.Result.LEGACY, parser.parse(uid, 0, uid.length, recorder));
+        assertEquals("[04 11 22 33 44 55 66]", seen.toString());
+        assertEquals(1, parser.getLegacyPayloads());
+    }
+
+    @Test
+    public void frameCarriesSeveralUidsWithoutCopying() {
+        TagFrameParser parser = new TagFrameParser();
+        byte[] value = frame(7, new byte[]{1, 2, 3, 4}, new byte[]{4, 5, 6, 7, 8, 9, 10}, new byte[]{(byte) 0xFF});
+        List<byte[]> arrays = new ArrayList<>();
+        assertEquals(TagFrameParser.Result.FRAME, parser.parse(value, 0, value.length, (array, offset, length) -> {
+            arrays.add(array);
+            recorder.onUid(array, offset, length);
+        }));
+        assertEquals("[01 02 03 04, 04 05 06 07 08 09 0A, FF]", seen.toString());
+        for (byte[] array : arrays) {
+            assertSame(value, array);
+        }
+        assertEquals(7, parser.getLastSequence());
+        assertEquals(0x12345678L, parser.getLastTimestampMs());
+        assertEquals(3, parser.getUids());
+    }
+
+    // Same bytes as frameMatchesAppLayout in firmware_test/rfid_queue_test.cpp
+    @Test
+    public void firmwareGoldenFrame() {
+        byte[] golden = {(byte) 0xA5, 0x01, 0x02, 0x01, 0x0D, 0x0C, 0x0B, 0x0A, 0x02,
+                0x04, 0x01, 0x02, 0x03, 0x04,
+                0x07, (byte) 0xAA, (byte) 0xBB, (byte) 0xCC, (byte) 0xDD, (byte) 0xEE, (byte) 0xFF, 0x11};
+        TagFrameWriter writer = new TagFrameWriter(244);
+        writer.add(new byte[]{1, 2, 3, 4}, 0, 4);
+        writer.add(new byte[]{(byte) 0xAA, (byte) 0xBB, (byte) 0xCC, (byte) 0xDD, (byte) 0xEE, (byte) 0xFF, 0x11}, 0, 7);
+        int length = writer.finish(0x0102, 0x0A0B0C0DL);
+        assertArrayEquals(golden, Arrays.copyOf(writer.buffer(), length));
+
+        TagFrameParser parser = new TagFrameParser();
+        assertEquals(TagFrameParser.Result.FRAME, parser.parse(golden, 0, golden.length, recorder));
+        assertEquals("[01 02 03 04, AA BB CC DD EE FF 11]", seen.toString());
+        assertEquals(0x0102, parser.getLastSequence());
+        assertEquals(0x0A0B0C0DL, parser.getLastTimestampMs());
+    }
+
+    @Test
+    public void frameInsideLargerArrayIsParsedAtOffset() {
+        TagFrameParser parser = new TagFrameParser();
+        byte[] value = frame(1, new byte[]{9, 8, 7, 6});
+        byte[] padded = new byte[value.length + 10];
+        System.arraycopy(value, 0, padded, 5, value.length);
+        assertEquals(TagFrameParser.Result.FRAME, parser.parse(padded, 5, value.length, recorder));
+        assertEquals("[09 08 07 06]", seen.toString());
+    }
+
+    @Test
+    public void sequenceGapsAreCounted() {
+        TagFrameParser parser = new TagFrameParser();
+        byte[] uid = {1, 2, 3, 4};
+        for (int sequence : new int[]{0, 1, 2, 5, 6, 6, 4, 7}) {
+            byte[] value = frame(sequence, uid);
+            parser.parse(value, 0, value.length, recorder);
+        }
+        // 3 and 4 were missing when 5 arrived, the late 4 and the repeated 6 do not count again
+        assertEquals(2, parser.getMissedFrames());
+        assertEquals(2, parser.getLateFrames());
+        assertEquals(7, parser.getLastSequence());
+    }
+
+    @Test
+    public void sequenceWrapsAround() {
+        TagFrameParser parser = new TagFrameParser();
+        byte[] uid = {1, 2, 3, 4};
+        for (int sequence : new int[]{65534, 65535, 0, 2}) {
+            byte[] value = frame(sequence, uid);
+            parser.parse(value, 0, value.length, recorder);
+        }
+        assertEquals(1, parser.getMissedFrames());
+        assertEquals(0, parser.getLateFrames());
+
+        // a new connection starts counting from scratch
+        parser.reset();
+        byte[] value = frame(0, uid);
+        parser.parse(value, 0, value.length, recorder);
+        assertEquals(1, parser.getMissedFrames());
+    }
+
+    @Test
+    public void malformedFramesAreRejectedWhole() {
+        TagFrameParser parser = new TagFrameParser();
+        byte[] good = frame(1, new byte[]{1, 2, 3, 4}, new byte[]{5, 6, 7, 8});
+        List<byte[]> bad = new ArrayList<>();
+        // truncated inside the second UID
+        bad.add(Arrays.copyOf(good, good.length - 1));
+        // trailing garbage
+        bad.add(Arrays.copyOf(good, good.length + 1));
+        byte[] wrongMagic = good.clone();
+        wrongMagic[0] = 0x00;
+        bad.add(wrongMagic);
+        byte[] wrongVersion = good.clone();
+        wrongVersion[1] = 2;
+        bad.add(wrongVersion);
+        byte[] zeroCount = good.clone();
+        zeroCount[8] = 0;
+        bad.add(zeroCount);
+        byte[] longUid = good.clone();
+        longUid[9] = 11;
+        bad.add(longUid);
+        for (byte[] value : bad) {
+            assertEquals(TagFrameParser.Result.MALFORMED, parser.parse(value, 0, value.length, recorder));
+        }
+        assertEquals(TagFrameParser.Result.MALFORMED, parser.parse(good, 0, 0, recorder));
+        assertTrue(seen.isEmpty());
+        assertEquals(bad.size() + 1, parser.getMalformed());
+        assertEquals(-1, parser.getLastSequence());
+    }
+
+    @Test
+    public void fuzzedValidFramesRoundTrip() {
+        Random random = new Random(12);
+        TagFrameParser parser = new TagFrameParser();
+        for (int round = 0; round < 20_000; round++) {
+            int maxFrame = 20 + random.nextInt(225);
+            TagFrameWriter writer = new TagFrameWriter(maxFrame);
+            List<String> expected = new ArrayList<>();
+            while (true) {
+                byte[] uid = new byte[1 + random.nextInt(TagIdTable.MAX_UID_LENGTH)];
+                random.nextBytes(uid);
+                if (!writer.add(uid, 0, uid.length)) {
+                    break;
+                }
+                expected.add(TagIdTable.toHex(uid, 0, uid.length));
+            }
+            int sequence = round & 0xFFFF;
+            int length = writer.finish(sequence, random.nextInt() & 0xFFFFFFFFL);
+            assertTrue(length <= maxFrame);
+            seen.clear();
+            assertEquals(TagFrameParser.Result.FRAME, parser.parse(writer.buffer(), 0, length, recorder));
+            assertEquals(expected, seen);
+        }
+        assertEquals(0, parser.getMissedFrames());
+    }
+
+    @Test
+    public void fuzzedGarbageNeverThrowsOrOverruns() {
+        Random random = new Random(34);
+        TagFrameParser parser = new TagFrameParser();
+        byte[] uid = {1, 2, 3, 4, 5, 6, 7};
+        for (int round = 0; round < 100_000; round++) {
+            byte[] value;
+            if (random.nextBoolean()) {
+                value = new byte[1 + random.nextInt(244)];
+                random.nextBytes(value);
+            } else {
+                // valid frame with a few flipped bytes, the nastier case
+                value = frame(round & 0xFFFF, uid, uid, uid);
+                int flips = 1 + random.nextInt(3);
+                for (int i = 0; i < flips; i++) {
+                    value[random.nextInt(value.length)] = (byte) random.nextInt(256);
+                }
+            }
+            int offset = random.nextInt(value.length);
+            int length = random.nextInt(value.length - offset + 1);
+            parser.parse(value, offset, length, (array, start, uidLength) -> {
+                assertSame(value, array);
+                assertTrue(uidLength >= 1 && uidLength <= TagIdTable.MAX_UID_LENGTH);
+                assertTrue(start >= offset && start + uidLength <= offset + length);
+            });
+        }
+        assertTrue(parser.getMalformed() > 0);
+        assertTrue(parser.getFrames() > 0);
+    }
+
+    @Test
+    public void pipelineUnpacksSimulatedFrames() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post);
+        // default MTU of 23 leaves 20 bytes, enough for a 7 byte UID and a half
+        SimulatedReader reader = new SimulatedReader(scheduler)
+                .setReaders(2)
+                .setMeanBurstSize(6)
+                .setFrameSize(20);
+        reader.start(pipeline);
+        scheduler.advance(10_000);
+        reader.stop();
+        scheduler.runPending();
+
+        long uids = 0;
+        long delivered = 0;
+        for (int r = 0; r < 2; r++) {
+            TagFrameParser parser = pipeline.getFrameParser(r);
+            assertEquals(0, parser.getMalformed());
+            assertEquals(0, parser.getMissedFrames());
+            assertEquals(parser.getUids(), parser.getFrames());
+            uids += parser.getUids();
+            delivered += pipeline.getFanIn().getDelivered(r);
+        }
+        assertEquals(uids, delivered);
+        assertEquals(reader.getNotifications(), pipeline.getMetrics().get(RfidMetrics.Counter.FRAMES));
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.rfidscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TagHistoryFileTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] uid(int tag) {
+        int length = tag % 5 == 0 ? 4 : tag % 5 == 1 ? 10 : 7;
+        byte[] uid = new byte[length];
+        uid[0] = 0x04;
+        uid[length - 2] = (byte) (tag >> 8);
+        uid[length - 1] = (byte) tag;
+        return uid;
+    }
+
+    // "time reader hex" per read, sorted, so histories compare regardless of order across readers
+    private static List<String> lines(long[] times, int[] readers, int[] tags, int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] uid = uid(tags[i]);
+            lines.add(times[i] + " " + readers[i] + " " + TagIdTable.toHex(uid, 0, uid.length));
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private static List<String> readAll(byte[] file, long fromMs, long toMs) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (TagHistoryFile.Reader reader = new TagHistoryFile.Reader(new ByteArrayInputStream(file))) {
+            reader.read(fromMs, toMs, (timeMs, readerId, uid, offset, length) -> {
+                lines.add(timeMs + " " + readerId + " " + TagIdTable.toHex(uid, offset, length));
+            });
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void roundTripAcrossBlocksAndReaders() throws IOException {
+        Random random = new Random(8);
+        int count = 1050;
+        long[] times = new long[count];
+        int[] readers = new int[count];
+        int[] tags = new int[count];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long time = 1_700_000_000_000L;
+        try (TagHistoryFile.Writer writer = new TagHistoryFile.Writer(out, 100)) {
+            for (int i = 0; i < count; i++) {
+                // readers report with some jitter, so times go backwards across readers
+                time += random.nextInt(10);
+                readers[i] = random.nextInt(5);
+                times[i] = time - readers[i] * 7L;
+                tags[i] = random.nextInt(400);
+                byte[] uid = uid(tags[i]);
+                writer.write(times[i], readers[i], uid, 0, uid.length);
+            }
+            assertEquals(10, writer.getBlocks());
+        }
+        assertEquals(lines(times, readers, tags, count), readAll(out.toByteArray(), Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void readersAreMergedByTime() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TagHistoryFile.Writer writer = new TagHistoryFile.Writer(out)) {
+            writer.write(20, 1, uid(1), 0, uid(1).length);
+            writer.write(10, 2, uid(2), 0, uid(2).length);
+            writer.write(30, 1, uid(3), 0, uid(3).length);
+            writer.write(20, 0, uid(4), 0, uid(4).length);
+        }
+        StringBuilder order = new StringBuilder();
+        try (TagHistoryFile.Reader reader = new TagHistoryFile.Reader(new ByteArrayInputStream(out.toByteArray()))) {
+            reader.read((timeMs, readerId, uid, offset, length) -> order.append(timeMs).append('/').append(readerId).append(' '));
+        }
+        assertEquals("10/2 20/0 20/1 30/1 ", order.toString());
+    }
+
+    @Test
+    public void timeRangeSkipsBlocksWithoutDecodingThem() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TagHistoryFile.Writer writer = new TagHistoryFile.Writer(out, 100)) {
+            for (int i = 0; i < 10_000; i++) {
+                byte[] uid = uid(i % 50);
+                writer.write(i * 10L, i % 3, uid, 0, uid.length);
+            }
+        }
+        byte[] file = out.toByteArray();
+        try (TagHistoryFile.Reader reader = new TagHistoryFile.Reader(new ByteArrayInputStream(file))) {
+            long[] min = {Long.MAX_VALUE};
+            long[] max = {Long.MIN_VALUE};
+            long visited = reader.read(50_005, 52_000, (timeMs, readerId, uid, offset, length) -> {
+                min[0] = Math.min(min[0], timeMs);
+                max[0] = Math.max(max[0], timeMs);
+            });
+            assertEquals(200, visited);
+            assertEquals(50_010, min[0]);
+            assertEquals(52_000, max[0]);
+            // 50_000 to 52_990 spans blocks 50 to 52
+            assertEquals(3, reader.getBlocksRead());
+            assertEquals(97, reader.getBlocksSkipped());
+        }
+    }
+
+    @Test
+    public void atLeastFourTimesSmallerThanHexCsv() throws IOException {
+        Random random = new Random(2);
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        ByteArrayOutputStream columnar = new ByteArrayOutputStream();
+        long time = 1_700_000_000_000L;
+        try (TagHistoryFile.Writer writer = new TagHistoryFile.Writer(columnar)) {
+            for (int i = 0; i < 50_000; i++) {
+                time += random.nextInt(5);
+                int reader = random.nextInt(4);
+                byte[] uid = uid(random.nextInt(2000));
+                writer.write(time, reader, uid, 0, uid.length);
+                csv.write((time + "," + reader + "," + TagIdTable.toHex(uid, 0, uid.length) + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        assertTrue("csv " + csv.size() + " B, columnar " + columnar.size() + " B",
+                csv.size() >= 4L * columnar.size());
+    }
+
+    @Test
+    public void corruptPayloadIsDetected() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TagHistoryFile.Writer writer = new TagHistoryFile.Writer(out)) {
+            for (int i = 0; i < 100; i++) {
+                writer.write(i, 0, uid(i), 0, uid(i).length);
+            }
+        }
+        byte[] file = out.toByteArray();
+        file[file.length - 5] ^= 0x40;
+        try {
+            readAll(file, Long.MIN_VALUE, Long.MAX_VALUE);
+            fail();
+        } catch (IOException expected) {
+        }
+        try {
+            readAll(Arrays.copyOf(out.toByteArray(), 50), Long.MIN_VALUE, Long.MAX_VALUE);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void exportsTheJournal() throws IOException {
+        TagJournal journal = new TagJournal(folder.newFolder("journal"), 64 * 1024, 4, null);
+        for (int i = 0; i < 3000; i++) {
+            journal.append(1000 + i, i % 2, -50, uid(i % 30), 0, uid(i % 30).length);
+        }
+        File export = folder.newFile("shift.rfth");
+        try (TagHistoryFile.Writer writer = new TagHistoryFile.Writer(new FileOutputStream(export))) {
+            journal.replay(writer);
+        }
+        journal.close();
+        try (TagHistoryFile.Reader reader = new TagHistoryFile.Reader(new FileInputStream(export))) {
+            long[] count = {0};
+            reader.read((timeMs, readerId, uid, offset, length) -> count[0]++);
+            assertEquals(3000, count[0]);
+        }
+    }
+}
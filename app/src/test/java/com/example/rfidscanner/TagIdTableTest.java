@@ -0,0 +1,93 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TagIdTableTest {
+    @Test
+    public void intern_returnsSameIdForSameUid() {
+        TagIdTable table = new TagIdTable();
+        int a = table.intern(new byte[]{(byte) 0xAB, (byte) 0xCD, (byte) 0xEF, 0x01});
+        int b = table.intern(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07});
+        int c = table.intern(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A});
+
+        assertEquals(0, a);
+        assertEquals(1, b);
+        assertEquals(2, c);
+        assertEquals(a, table.intern(new byte[]{(byte) 0xAB, (byte) 0xCD, (byte) 0xEF, 0x01}));
+        assertEquals(c, table.intern(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A}));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void uidsWithLeadingZerosAndDifferentLengthsAreDistinct() {
+        TagIdTable table = new TagIdTable();
+        int a = table.intern(new byte[]{0x00, 0x00, 0x00, 0x01});
+        int b = table.intern(new byte[]{0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01});
+        assertNotEquals(a, b);
+        assertEquals(TagIdTable.NO_TAG, table.find(new byte[]{0x01}, 0, 1));
+    }
+
+    @Test
+    public void hex_matchesFormattedOutputAndIsCached() {
+        TagIdTable table = new TagIdTable();
+        byte[] uid = {(byte) 0xAB, (byte) 0xCD, (byte) 0xEF, 0x01};
+        int id = table.intern(uid);
+
+        StringBuilder expected = new StringBuilder();
+        for (byte b : uid) {
+            expected.append(String.format("%02X ", b));
+        }
+        assertEquals(expected.toString().trim(), table.hex(id));
+        assertSame(table.hex(id), table.hex(id));
+    }
+
+    @Test
+    public void manyRandomUids_roundTrip() {
+        TagIdTable table = new TagIdTable(16);
+        Random random = new Random(42);
+        byte[][] uids = new byte[20000][];
+        int[] lengths = {4, 7, 10};
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = new byte[lengths[i % 3]];
+            random.nextBytes(uids[i]);
+            assertEquals(i, table.intern(uids[i]));
+        }
+        for (int i = 0; i < uids.length; i++) {
+            assertEquals(i, table.find(uids[i], 0, uids[i].length));
+            assertArrayEquals(uids[i], table.uid(i));
+        }
+    }
+
+    @Test
+    public void repeatedTag_doesNotAllocate() {
+        TagIdTable table = new TagIdTable();
+        byte[][] uids = {
+                {0x11, 0x22, 0x33, 0x44},
+                {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07},
+                {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0A}
+        };
+        for (byte[] uid : uids) {
+            table.hex(table.intern(uid));
+        }
+
+        int iterations = 300_000;
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += table.intern(uids[i % 3], 0, uids[i % 3].length);
+        }
+
+        long before = AllocationMeter.allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            int id = table.intern(uids[i % 3], 0, uids[i % 3].length);
+            sink += table.hex(id).length();
+        }
+        long allocated = AllocationMeter.allocatedBytes() - before;
+
+        assertTrue(sink > 0);
+        assertEquals("bytes allocated per read", 0, allocated / iterations);
+    }
+}
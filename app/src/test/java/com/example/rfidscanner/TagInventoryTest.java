@@ -0,0 +1,185 @@
+package com.example.rfidscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TagInventoryTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] uid(int i) {
+        return new byte[]{0x04, (byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+    }
+
+    @Test
+    public void tracksFirstLastCountAndReaders() {
+        TagInventory inventory = new TagInventory(new TagIdTable());
+        inventory.record(0, uid(1), 0, 5, 1000);
+        inventory.record(2, uid(1), 0, 5, 1500);
+        inventory.record(0, uid(2), 0, 5, 1600);
+        inventory.record(5, uid(1), 0, 5, 1700);
+
+        int tag = inventory.find(uid(1), 0, 5);
+        assertEquals(1000, inventory.getFirstSeen(tag));
+        assertEquals(1700, inventory.getLastSeen(tag));
+        assertEquals(3, inventory.getReadCount(tag));
+        assertEquals(5, inventory.getLastReader(tag));
+        assertEquals((1 << 0) | (1 << 2) | (1 << 5), inventory.getReaderMask(tag));
+        assertEquals(2, inventory.size());
+        assertEquals(4, inventory.getTotalReads());
+        assertEquals(TagIdTable.NO_TAG, inventory.find(uid(3), 0, 5));
+    }
+
+    @Test
+    public void tagKnownToTableButNeverReadIsNotInInventory() {
+        TagIdTable table = new TagIdTable();
+        int tag = table.intern(uid(7));
+        TagInventory inventory = new TagInventory(table);
+        assertFalse(inventory.contains(tag));
+        assertEquals(TagIdTable.NO_TAG, inventory.find(uid(7), 0, 5));
+    }
+
+    @Test
+    public void rangeQueriesMatchFullScanWithOutOfOrderReads() {
+        TagInventory inventory = new TagInventory(new TagIdTable(), 16);
+        Random random = new Random(5);
+        int tags = 5000;
+        long[] first = new long[tags];
+        long[] last = new long[tags];
+        for (int i = 0; i < tags; i++) {
+            first[i] = -1;
+        }
+        long now = 0;
+        for (int read = 0; read < 50_000; read++) {
+            now += random.nextInt(3);
+            // readers deliver a few milliseconds out of order
+            long time = Math.max(0, now - random.nextInt(5));
+            int tag = random.nextInt(tags);
+            inventory.record(random.nextInt(4), uid(tag), 0, 5, time);
+            if (first[tag] < 0) {
+                first[tag] = time;
+                last[tag] = time;
+            } else {
+                last[tag] = Math.max(last[tag], time);
+            }
+        }
+        for (int q = 0; q < 200; q++) {
+            long from = random.nextInt((int) now);
+            long to = from + random.nextInt(2000);
+            int expectedFirst = 0;
+            int expectedLast = 0;
+            for (int i = 0; i < tags; i++) {
+                if (first[i] >= 0 && first[i] >= from && first[i] < to) {
+                    expectedFirst++;
+                }
+                if (first[i] >= 0 && last[i] >= from && last[i] < to) {
+                    expectedLast++;
+                }
+            }
+            List<Long> firstTimes = new ArrayList<>();
+            assertEquals(expectedFirst, inventory.firstSeenBetween(from, to, tag -> firstTimes.add(inventory.getFirstSeen(tag))));
+            for (int i = 1; i < firstTimes.size(); i++) {
+                assertTrue(firstTimes.get(i - 1) <= firstTimes.get(i));
+            }
+            List<Long> lastTimes = new ArrayList<>();
+            assertEquals(expectedLast, inventory.lastSeenBetween(from, to, tag -> lastTimes.add(inventory.getLastSeen(tag))));
+            for (int i = 1; i < lastTimes.size(); i++) {
+                assertTrue(lastTimes.get(i - 1) >= lastTimes.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void snapshotRestoresIntoFreshTable() throws IOException {
+        File file = new File(folder.getRoot(), "inventory.snap");
+        TagInventory inventory = new TagInventory(new TagIdTable());
+        int tags = 200_000;
+        for (int i = 0; i < tags; i++) {
+            inventory.record(i & 7, uid(i), 0, 5, 10_000 + i);
+        }
+        // move some tags to the end of the last seen order
+        for (int i = 0; i < 100; i++) {
+            inventory.record(9, uid(i * 7), 0, 5, 500_000 + i);
+        }
+        assertEquals(500_099, inventory.save(file));
+
+        // a different table assigns different ids, lookups go by UID
+        TagIdTable table = new TagIdTable();
+        table.intern(new byte[]{1, 2, 3, 4});
+        TagInventory restored = new TagInventory(table);
+        assertEquals(500_099, restored.restore(file));
+        assertEquals(tags, restored.size());
+        assertEquals(inventory.getTotalReads(), restored.getTotalReads());
+        int tag = restored.find(uid(7), 0, 5);
+        assertEquals(10_007, restored.getFirstSeen(tag));
+        assertEquals(500_001, restored.getLastSeen(tag));
+        assertEquals(2, restored.getReadCount(tag));
+        assertEquals(9, restored.getLastReader(tag));
+        assertEquals((1 << 7) | (1 << 9), restored.getReaderMask(tag));
+        assertEquals(100, restored.lastSeenBetween(500_000, Long.MAX_VALUE, null));
+        assertEquals(1000, restored.firstSeenBetween(20_000, 21_000, null));
+
+        restored.record(0, uid(tags), 0, 5, 600_000);
+        assertEquals(tags + 1, restored.size());
+        assertEquals(1, restored.lastSeenBetween(600_000, 600_001, null));
+    }
+
+    @Test
+    public void corruptSnapshotIsRejected() throws IOException {
+        File file = new File(folder.getRoot(), "inventory.snap");
+        TagInventory inventory = new TagInventory(new TagIdTable());
+        for (int i = 0; i < 100; i++) {
+            inventory.record(0, uid(i), 0, 5, i);
+        }
+        inventory.save(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(200);
+            raf.write(0x5A);
+        }
+        TagInventory restored = new TagInventory(new TagIdTable());
+        restored.record(0, uid(1), 0, 5, 1);
+        try {
+            restored.restore(file);
+            fail("corrupt snapshot accepted");
+        } catch (IOException expected) {
+            assertEquals(0, restored.size());
+        }
+        assertEquals(0, restored.restore(new File(folder.getRoot(), "missing.snap")));
+    }
+
+    @Test
+    public void pipelineCountsEveryMergedRead() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post);
+        TagInventory inventory = new TagInventory(pipeline.getTagIds());
+        pipeline.setInventory(inventory);
+        pipeline.onReaderConnected(2);
+        byte[] uid = {0x04, 0x11, 0x22, 0x33};
+        for (int i = 0; i < 5; i++) {
+            pipeline.onNotification(2, uid, 0, uid.length, scheduler.nowMs());
+            scheduler.advance(100);
+        }
+        pipeline.stop();
+        int tag = inventory.find(uid, 0, uid.length);
+        // dedup forwards one of them, the inventory still counts all five
+        assertEquals(5, inventory.getReadCount(tag));
+        assertEquals(1 << 2, inventory.getReaderMask(tag));
+        assertEquals(400, inventory.getLastSeen(tag) - inventory.getFirstSeen(tag));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pipelineRejectsInventoryWithOtherTable() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        new TagPipeline(scheduler, scheduler::post).setInventory(new TagInventory(new TagIdTable()));
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.rfidscanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TagJournalTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final class Read {
+        final long timeMs;
+        final int readerId;
+        final int rssi;
+        final String uid;
+
+        Read(long timeMs, int readerId, int rssi, String uid) {
+            this.timeMs = timeMs;
+            this.readerId = readerId;
+            this.rssi = rssi;
+            this.uid = uid;
+        }
+
+        @Override
+        public String toString() {
+            return timeMs + "/" + readerId + "/" + rssi + "/" + uid;
+        }
+    }
+
+    private static List<Read> replay(TagJournal journal) throws IOException {
+        List<Read> reads = new ArrayList<>();
+        long count = journal.replay((timeMs, readerId, rssi, uid, offset, length) ->
+                reads.add(new Read(timeMs, readerId, rssi, TagIdTable.toHex(uid, offset, length))));
+        assertEquals(reads.size(), count);
+        return reads;
+    }
+
+    private static byte[] uid(int i) {
+        return new byte[]{0x04, (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+    }
+
+    @Test
+    public void readsSurviveReopen() throws IOException {
+        File dir = folder.newFolder();
+        TagJournal journal = new TagJournal(dir);
+        journal.append(1_700_000_000_000L, 0, -61, new byte[]{1, 2, 3, 4}, 0, 4);
+        journal.append(1_700_000_000_050L, 3, TagJournal.RSSI_UNKNOWN, new byte[]{9, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, 1, 10);
+        // no close(), as if the process died
+        TagJournal reopened = new TagJournal(dir);
+        assertEquals(2, reopened.getRecoveredRecords());
+        assertEquals(0, reopened.getTruncatedBytes());
+        assertEquals("[1700000000000/0/-61/01 02 03 04, 1700000000050/3/127/01 02 03 04 05 06 07 08 09 0A]",
+                replay(reopened).toString());
+    }
+
+    @Test
+    public void positionsOnlyGrowAcrossSegmentsAndReopen() throws IOException {
+        File dir = folder.newFolder();
+        TagJournal journal = new TagJournal(dir, 256, 8, null);
+        long start = journal.getPosition();
+        List<Long> appended = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // same millisecond throughout, the position still tells the records apart
+            appended.add(journal.append(5, 0, -50, uid(i), 0, 4));
+        }
+        assertTrue(appended.get(0) > start);
+        for (int i = 1; i < appended.size(); i++) {
+            assertTrue(appended.get(i) > appended.get(i - 1));
+        }
+        assertEquals(appended.get(39).longValue(), journal.getPosition());
+
+        TagJournal reopened = new TagJournal(dir, 256, 8, null);
+        List<Long> replayed = new ArrayList<>();
+        reopened.replay((position, timeMs, readerId, rssi, uid, offset, length) -> replayed.add(position));
+        assertEquals(appended, replayed);
+        assertEquals(journal.getPosition(), reopened.getPosition());
+    }
+
+    @Test
+    public void tornRecordIsDroppedAndOverwritten() throws IOException {
+        File dir = folder.newFolder();
+        TagJournal journal = new TagJournal(dir, 4096, 4, null);
+        for (int i = 0; i < 10; i++) {
+            journal.append(i, 0, -50, uid(i), 0, 4);
+        }
+        journal.close();
+        File segment = dir.listFiles()[0];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            // flip a UID byte of the last record and leave half a record of garbage behind it
+            int last = 9 * (TagJournal.HEADER_SIZE + 4);
+            raf.seek(last + TagJournal.HEADER_SIZE + 3);
+            raf.write(0x77);
+            raf.seek(last + TagJournal.HEADER_SIZE + 4 + 5);
+            raf.write(new byte[]{(byte) 0xFF, 0x33, 0x44});
+        }
+        TagJournal reopened = new TagJournal(dir, 4096, 4, null);
+        assertEquals(9, reopened.getRecoveredRecords());
+        assertTrue(reopened.getTruncatedBytes() > 0);
+        reopened.append(100, 1, -40, new byte[]{5, 5, 5, 5, 5}, 0, 5);
+        List<Read> reads = replay(reopened);
+        assertEquals(10, reads.size());
+        assertEquals("8/0/-50/04 00 00 08", reads.get(8).toString());
+        assertEquals("100/1/-40/05 05 05 05 05", reads.get(9).toString());
+        // still intact after another crash
+        assertEquals(10, replay(new TagJournal(dir, 4096, 4, null)).size());
+    }
+
+    @Test
+    public void segmentsRollAndOldestAreDeleted() throws IOException {
+        File dir = folder.newFolder();
+        // 19 byte records, 13 per 256 byte segment
+        TagJournal journal = new TagJournal(dir, 256, 3, null);
+        for (int i = 0; i < 100; i++) {
+            journal.append(i, 0, -50, uid(i), 0, 4);
+        }
+        assertEquals(3, journal.getSegmentCount());
+        assertEquals(3, dir.listFiles().length);
+        List<Read> reads = replay(journal);
+        // the two full segments before the current one are kept, in order
+        assertEquals(100 - 7 * 13 + 2 * 13, reads.size());
+        for (int i = 1; i < reads.size(); i++) {
+            assertEquals(reads.get(i - 1).timeMs + 1, reads.get(i).timeMs);
+        }
+        assertEquals(99, reads.get(reads.size() - 1).timeMs);
+
+        TagJournal reopened = new TagJournal(dir, 256, 3, null);
+        assertEquals(reads.size(), reopened.getRecoveredRecords());
+        reopened.append(100, 0, -50, uid(100), 0, 4);
+        assertEquals(100, replay(reopened).get(reads.size()).timeMs);
+    }
+
+    @Test
+    public void groupCommitByCountOrDelay() throws IOException {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        TagJournal journal = new TagJournal(folder.newFolder(), 4096, 2, scheduler);
+        journal.setCommitPolicy(4, 200);
+        for (int i = 0; i < 3; i++) {
+            journal.append(i, 0, -50, uid(i), 0, 4);
+        }
+        assertEquals(0, journal.getCommits());
+        assertEquals(1, scheduler.pendingTasks());
+        scheduler.advance(199);
+        assertEquals(0, journal.getCommits());
+        scheduler.advance(1);
+        assertEquals(1, journal.getCommits());
+
+        for (int i = 0; i < 4; i++) {
+            journal.append(i, 0, -50, uid(i), 0, 4);
+        }
+        // the fourth record committed the group right away, the timer finds nothing left
+        assertEquals(2, journal.getCommits());
+        scheduler.advance(200);
+        assertEquals(2, journal.getCommits());
+        journal.close();
+        assertEquals(0, scheduler.pendingTasks());
+    }
+
+    @Test
+    public void pipelineJournalsDeduplicatedReads() throws IOException {
+        long before = System.currentTimeMillis();
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post);
+        File dir = folder.newFolder();
+        TagJournal journal = new TagJournal(dir, 4096, 2, scheduler);
+        pipeline.setJournal(journal);
+        pipeline.setReaderRssi(1, -67);
+        pipeline.onReaderConnected(1);
+        byte[] uid = {0x04, 0x11, 0x22, 0x33};
+        for (int i = 0; i < 5; i++) {
+            pipeline.onNotification(1, uid, 0, uid.length, scheduler.nowMs());
+            scheduler.advance(100);
+        }
+        pipeline.stop();
+        journal.close();
+
+        List<Read> reads = replay(new TagJournal(dir, 4096, 2, null));
+        assertEquals(1, reads.size());
+        assertEquals(1, reads.get(0).readerId);
+        assertEquals(-67, reads.get(0).rssi);
+        assertEquals("04 11 22 33", reads.get(0).uid);
+        assertTrue(reads.get(0).timeMs >= before && reads.get(0).timeMs <= System.currentTimeMillis());
+        assertEquals(0, pipeline.getMetrics().get(RfidMetrics.Counter.JOURNAL_ERRORS));
+    }
+}
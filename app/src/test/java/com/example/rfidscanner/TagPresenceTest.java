@@ -0,0 +1,223 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TagPresenceTest {
+    // "ARRIVED 3 r1 @100" per change, one list per delivered batch
+    private static List<List<String>> record(TagPresence presence) {
+        List<List<String>> batches = new ArrayList<>();
+        presence.setListener(changes -> {
+            List<String> batch = new ArrayList<>();
+            for (int i = 0; i < changes.size(); i++) {
+                batch.add(changes.event(i) + " " + changes.tagId(i) + " r" + changes.readerId(i) + " @" + changes.timeMs(i));
+            }
+            batches.add(batch);
+        });
+        return batches;
+    }
+
+    @Test
+    public void arrivesThenIsPresentThenDeparts() {
+        TagPresence presence = new TagPresence(1000, 10, 256);
+        List<List<String>> batches = record(presence);
+        presence.onRead(1, 7, 100);
+        assertEquals(TagPresence.State.ARRIVED, presence.getState(7));
+        presence.onRead(2, 7, 400);
+        assertEquals(TagPresence.State.PRESENT, presence.getState(7));
+        assertEquals(1, presence.getPresentTags());
+
+        presence.advance(1399);
+        assertTrue(presence.isPresent(7));
+        presence.advance(1400);
+        assertFalse(presence.isPresent(7));
+        assertEquals(0, presence.getPresentTags());
+        assertEquals("[[ARRIVED 7 r1 @100], [DEPARTED 7 r2 @400]]", batches.toString());
+
+        // a later read is a new arrival
+        presence.onRead(1, 7, 5000);
+        assertEquals(TagPresence.State.ARRIVED, presence.getState(7));
+        assertEquals(2, presence.getArrivals());
+        assertEquals(1, presence.getDepartures());
+    }
+
+    @Test
+    public void changesAreDeliveredOncePerAdvance() {
+        TagPresence presence = new TagPresence(500, 10, 128);
+        List<List<String>> batches = record(presence);
+        for (int tag = 0; tag < 5; tag++) {
+            presence.onRead(0, tag, 100 + tag);
+        }
+        presence.advance(110);
+        presence.onRead(0, 9, 300);
+        presence.advance(700);
+        presence.advance(1200);
+        assertEquals(3, batches.size());
+        assertEquals(5, batches.get(0).size());
+        // tag 9 departs later, the five early tags go together
+        assertEquals("[DEPARTED 0 r0 @100, DEPARTED 1 r0 @101, DEPARTED 2 r0 @102, DEPARTED 3 r0 @103, DEPARTED 4 r0 @104, ARRIVED 9 r0 @300]",
+                sorted(batches.get(1)));
+        assertEquals("[DEPARTED 9 r0 @300]", batches.get(2).toString());
+    }
+
+    private static String sorted(List<String> batch) {
+        List<String> copy = new ArrayList<>(batch);
+        copy.sort((a, b) -> a.substring(a.indexOf('@')).compareTo(b.substring(b.indexOf('@'))));
+        return copy.toString();
+    }
+
+    @Test
+    public void repeatedReadsOnlyMoveTheTagWhenItsDeadlineComesRound() {
+        TagPresence presence = new TagPresence(1000, 10, 256);
+        for (long t = 0; t < 10_000; t += 20) {
+            presence.onRead(0, 1, t);
+            presence.advance(t);
+        }
+        assertTrue(presence.isPresent(1));
+        // 500 reads, about one bucket move per second of presence
+        assertTrue(presence.getReinserts() <= 10);
+        presence.advance(10_970);
+        assertTrue(presence.isPresent(1));
+        presence.advance(10_980);
+        assertFalse(presence.isPresent(1));
+    }
+
+    @Test
+    public void deadlinesLongerThanTheWheelTakeSeveralTurns() {
+        // the wheel covers 160 ms, the deadline is a second away
+        TagPresence presence = new TagPresence(1000, 10, 16);
+        presence.onRead(0, 3, 0);
+        presence.onRead(0, 4, 75);
+        for (long t = 0; t < 990; t += 10) {
+            presence.advance(t);
+            assertTrue(presence.isPresent(3));
+        }
+        presence.advance(1000);
+        assertFalse(presence.isPresent(3));
+        presence.advance(1070);
+        assertTrue(presence.isPresent(4));
+        presence.advance(1080);
+        assertFalse(presence.isPresent(4));
+    }
+
+    @Test
+    public void longPauseDepartsEverythingInOneAdvance() {
+        TagPresence presence = new TagPresence(1000, 10, 64);
+        int[] departed = {0};
+        presence.setListener(changes -> {
+            for (int i = 0; i < changes.size(); i++) {
+                if (changes.event(i) == TagPresence.Event.DEPARTED) {
+                    departed[0]++;
+                }
+            }
+        });
+        for (int tag = 0; tag < 1000; tag++) {
+            presence.onRead(0, tag, tag);
+        }
+        presence.advance(1500);
+        // last reads up to 500 ms
+        assertEquals(501, departed[0]);
+        presence.advance(60_000);
+        assertEquals(1000, departed[0]);
+        assertEquals(0, presence.getPresentTags());
+    }
+
+    @Test
+    public void pipelineReportsEveryTagGoneAfterTheReadersStop() {
+        ManualTaskScheduler scheduler = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post);
+        TagPresence presence = new TagPresence();
+        pipeline.setPresence(presence);
+        long[] changes = new long[2];
+        presence.setListener(batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                changes[batch.event(i).ordinal()]++;
+            }
+        });
+        SimulatedReader reader = new SimulatedReader(scheduler)
+                .setReaders(2)
+                .setTagPopulation(300)
+                .setBurstsPerSecond(40);
+        reader.start(pipeline);
+        scheduler.advance(20_000);
+        assertTrue(presence.getPresentTags() > 0);
+        reader.stop();
+        pipeline.stop();
+        scheduler.advance(TagPresence.DEFAULT_DEPART_MS + TagPresence.DEFAULT_TICK_MS);
+
+        assertEquals(0, presence.getPresentTags());
+        assertTrue(changes[TagPresence.Event.ARRIVED.ordinal()] >= pipeline.getTagIds().size());
+        assertEquals(changes[TagPresence.Event.ARRIVED.ordinal()], changes[TagPresence.Event.DEPARTED.ordinal()]);
+        // with nothing present the tick stops rescheduling itself
+        long departures = presence.getDepartures();
+        scheduler.advance(60_000);
+        assertEquals(departures, presence.getDepartures());
+        assertEquals(0, scheduler.pendingTasks());
+    }
+
+    // 100k tags on the antennas at once, each read twice a second, with tags leaving and new ones
+    // arriving all the time. Departures have to be on time and the steady state must not allocate.
+    @Test
+    public void hundredThousandConcurrentTags() {
+        final int live = 100_000;
+        final int ids = 200_000;
+        final long stepMs = 10;
+        final int churnPerStep = 20;
+        final long departMs = 2000;
+        final long tickMs = 50;
+        TagPresence presence = new TagPresence(departMs, tickMs, 512);
+        long[] now = {0};
+        long[] late = {0};
+        long[] departed = {0};
+        presence.setListener(changes -> {
+            for (int i = 0; i < changes.size(); i++) {
+                if (changes.event(i) == TagPresence.Event.DEPARTED) {
+                    departed[0]++;
+                    long deadline = changes.timeMs(i) + departMs;
+                    if (now[0] < deadline || now[0] >= deadline + tickMs + stepMs) {
+                        late[0]++;
+                    }
+                }
+            }
+        });
+
+        long steps = 12_000;
+        long warmup = 2_000;
+        long allocatedAtWarmup = 0;
+        int minPresent = Integer.MAX_VALUE;
+        int maxPresent = 0;
+        for (long step = 0; step < steps; step++) {
+            if (step == warmup) {
+                allocatedAtWarmup = AllocationMeter.allocatedBytes();
+            }
+            now[0] = step * stepMs;
+            int base = (int) (step * churnPerStep % ids);
+            // every tag of the live window once per 50 steps
+            int phase = (int) (step % 50);
+            for (int i = phase; i < live; i += 50) {
+                presence.onRead(i & 3, (base + i) % ids, now[0]);
+            }
+            presence.advance(now[0]);
+            if (step >= warmup) {
+                minPresent = Math.min(minPresent, presence.getPresentTags());
+                maxPresent = Math.max(maxPresent, presence.getPresentTags());
+            }
+        }
+        long allocated = AllocationMeter.allocatedBytes() - allocatedAtWarmup;
+
+        assertEquals(0, late[0]);
+        assertEquals(presence.getDepartures(), departed[0]);
+        assertEquals(presence.getArrivals() - presence.getPresentTags(), presence.getDepartures());
+        // the live window plus what left within the last departMs
+        assertTrue(minPresent >= live);
+        assertTrue(maxPresent <= live + (departMs + tickMs + 500) / stepMs * churnPerStep);
+        // a tag moves bucket about once per departMs while it is read
+        assertTrue(presence.getReinserts() <= presence.getArrivals() * (steps * stepMs / (departMs - 500) + 1));
+        // the steady state allocates nothing per read, the margin is for the JVM's own bookkeeping
+        assertTrue("allocated " + allocated, allocated < 1024 * 1024);
+    }
+}
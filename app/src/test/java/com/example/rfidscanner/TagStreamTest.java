@@ -0,0 +1,302 @@
+package com.example.rfidscanner;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TagStreamTest {
+    private final ManualTaskScheduler clock = new ManualTaskScheduler();
+    private final TagStream stream = new TagStream(clock);
+
+    // Runs tasks only when asked, like a busy UI thread
+    private static final class QueueExecutor implements java.util.concurrent.Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static class Recorder implements TagStream.Subscriber {
+        final long initialRequest;
+        final List<Integer> tags = new ArrayList<>();
+        TagStream.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        Recorder(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(TagStream.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(int readerId, int tagId, long timeMs) {
+            tags.add(tagId);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    private void publish(int from, int to) {
+        for (int tag = from; tag < to; tag++) {
+            stream.publish(0, tag, clock.nowMs());
+        }
+    }
+
+    @Test
+    public void deliversOnlyWhatWasRequested() {
+        QueueExecutor executor = new QueueExecutor();
+        Recorder recorder = new Recorder(2);
+        stream.subscribe("ui", recorder, executor, 16, TagStream.Overflow.DROP_NEWEST);
+        executor.runAll();
+        publish(0, 5);
+        executor.runAll();
+        assertEquals("[0, 1]", recorder.tags.toString());
+        recorder.subscription.request(10);
+        executor.runAll();
+        assertEquals("[0, 1, 2, 3, 4]", recorder.tags.toString());
+        publish(5, 6);
+        executor.runAll();
+        assertEquals(6, recorder.tags.size());
+    }
+
+    // Six reads into a buffer of three before the subscriber asks for anything
+    private TagStream.Handle overflow(TagStream.Overflow policy, List<Integer> tags) {
+        QueueExecutor executor = new QueueExecutor();
+        Recorder recorder = new Recorder(0);
+        TagStream.Handle handle = new TagStream(clock).subscribe(policy.name(), recorder, executor, 3, policy);
+        executor.runAll();
+        for (int tag = 0; tag < 6; tag++) {
+            handle.offer(0, tag, clock.nowMs());
+        }
+        assertEquals(3, handle.getQueued());
+        recorder.subscription.request(Long.MAX_VALUE);
+        executor.runAll();
+        tags.addAll(recorder.tags);
+        assertEquals(3, handle.getMaxQueued());
+        return handle;
+    }
+
+    @Test
+    public void overflowPolicies() {
+        List<Integer> tags = new ArrayList<>();
+        assertEquals(3, overflow(TagStream.Overflow.DROP_OLDEST, tags).getDropped());
+        assertEquals("[3, 4, 5]", tags.toString());
+        tags.clear();
+        assertEquals(3, overflow(TagStream.Overflow.DROP_NEWEST, tags).getDropped());
+        assertEquals("[0, 1, 2]", tags.toString());
+        tags.clear();
+        TagStream.Handle conflate = overflow(TagStream.Overflow.CONFLATE_LATEST, tags);
+        assertEquals("[0, 1, 5]", tags.toString());
+        assertEquals(3, conflate.getConflated());
+        assertEquals(0, conflate.getDropped());
+    }
+
+    @Test
+    public void slowSubscriberDoesNotHoldBackOthers() {
+        QueueExecutor fastExecutor = new QueueExecutor();
+        QueueExecutor stuckExecutor = new QueueExecutor();
+        Recorder fast = new Recorder(Long.MAX_VALUE);
+        Recorder stuck = new Recorder(Long.MAX_VALUE);
+        stream.subscribe("fast", fast, fastExecutor, 4, TagStream.Overflow.DROP_OLDEST);
+        TagStream.Handle stuckHandle = stream.subscribe("stuck", stuck, stuckExecutor, 4, TagStream.Overflow.DROP_OLDEST);
+        fastExecutor.runAll();
+        stuckExecutor.runAll();
+        for (int tag = 0; tag < 100; tag++) {
+            stream.publish(0, tag, clock.nowMs());
+            fastExecutor.runAll();
+            clock.advance(10);
+        }
+        assertEquals(100, fast.tags.size());
+        assertEquals(0, stuck.tags.size());
+        assertEquals(96, stuckHandle.getDropped());
+        // the oldest read the stuck subscriber still holds is 40 ms old
+        assertEquals(40, stuckHandle.getOldestQueuedAgeMs(clock.nowMs()));
+        stuckExecutor.runAll();
+        assertEquals("[96, 97, 98, 99]", stuck.tags.toString());
+        assertEquals(40, stuckHandle.getLag().snapshot().getMax());
+    }
+
+    @Test
+    public void blockWaitsForRoomThenGivesUp() throws InterruptedException {
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch all = new CountDownLatch(199);
+            TagStream.Handle handle = stream.subscribe("slow", new Recorder(Long.MAX_VALUE) {
+                @Override
+                public void onNext(int readerId, int tagId, long timeMs) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    all.countDown();
+                }
+            }, consumer, 2, TagStream.Overflow.BLOCK);
+            // one read is held by the stuck onNext, two more fill the buffer
+            publish(0, 1);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            publish(1, 3);
+            long start = System.nanoTime();
+            publish(3, 4);
+            long waitedMs = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("waited " + waitedMs, waitedMs >= TagStream.BLOCK_TIMEOUT_MS - 10);
+            assertEquals(1, handle.getDropped());
+
+            // with the consumer running again the publisher only waits for room
+            release.countDown();
+            publish(4, 200);
+            assertTrue(all.await(5, TimeUnit.SECONDS));
+            assertEquals(1, handle.getDropped());
+            assertEquals(199, handle.getDelivered());
+        } finally {
+            consumer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void throwingSubscriberIsCancelledWithError() {
+        QueueExecutor executor = new QueueExecutor();
+        Recorder recorder = new Recorder(Long.MAX_VALUE) {
+            @Override
+            public void onNext(int readerId, int tagId, long timeMs) {
+                super.onNext(readerId, tagId, timeMs);
+                if (tagId == 1) {
+                    throw new IllegalStateException("boom");
+                }
+            }
+        };
+        TagStream.Handle handle = stream.subscribe("bad", recorder, executor, 8, TagStream.Overflow.DROP_NEWEST);
+        executor.runAll();
+        publish(0, 5);
+        executor.runAll();
+        assertEquals("[0, 1]", recorder.tags.toString());
+        assertTrue(recorder.error instanceof IllegalStateException);
+        assertTrue(handle.isCancelled());
+        assertTrue(stream.getSubscribers().isEmpty());
+    }
+
+    @Test
+    public void closeCompletesAfterBufferedReads() {
+        QueueExecutor executor = new QueueExecutor();
+        Recorder recorder = new Recorder(1);
+        stream.subscribe("log", recorder, executor, 8, TagStream.Overflow.DROP_NEWEST);
+        executor.runAll();
+        publish(0, 3);
+        stream.close();
+        executor.runAll();
+        assertFalse(recorder.completed);
+        recorder.subscription.request(5);
+        executor.runAll();
+        assertEquals("[0, 1, 2]", recorder.tags.toString());
+        assertTrue(recorder.completed);
+
+        Recorder late = new Recorder(1);
+        stream.subscribe("late", late, executor, 8, TagStream.Overflow.DROP_NEWEST);
+        executor.runAll();
+        assertTrue(late.completed);
+    }
+
+    @Test
+    public void subscriberToAClosedStreamIsSubscribedBeforeItCompletes() {
+        stream.close();
+        QueueExecutor executor = new QueueExecutor();
+        List<String> signals = new ArrayList<>();
+        stream.subscribe("late", new Recorder(0) {
+            @Override
+            public void onSubscribe(TagStream.Subscription subscription) {
+                signals.add("subscribe");
+            }
+
+            @Override
+            public void onComplete() {
+                signals.add("complete");
+            }
+        }, executor, 8, TagStream.Overflow.DROP_NEWEST);
+        executor.runAll();
+        assertEquals("[subscribe, complete]", signals.toString());
+        assertTrue(stream.getSubscribers().isEmpty());
+    }
+
+    @Test
+    public void pipelinePublishesDeduplicatedReads() {
+        TagPipeline pipeline = new TagPipeline(clock, clock::post);
+        QueueExecutor executor = new QueueExecutor();
+        Recorder recorder = new Recorder(Long.MAX_VALUE);
+        pipeline.getTagStream().subscribe("sync", recorder, executor, 64, TagStream.Overflow.DROP_OLDEST);
+        pipeline.onReaderConnected(0);
+        byte[] uid = {0x04, 0x11, 0x22, 0x33};
+        for (int i = 0; i < 5; i++) {
+            uid[3] = (byte) (i % 2);
+            pipeline.onNotification(0, uid, 0, uid.length, clock.nowMs());
+            clock.advance(10);
+        }
+        pipeline.stop();
+        executor.runAll();
+        assertEquals(2, recorder.tags.size());
+    }
+
+    @Test
+    public void blockedSubscriberDoesNotHoldUpADisconnect() throws InterruptedException {
+        TagPipeline pipeline = new TagPipeline(clock, clock::post);
+        // never drained, so the second read waits in publish()
+        TagStream.Handle handle = pipeline.getTagStream().subscribe("stuck", new Recorder(0),
+                new QueueExecutor(), 1, TagStream.Overflow.BLOCK);
+        pipeline.onReaderConnected(0);
+        Thread ingest = new Thread(() -> {
+            for (int i = 0; i < 2; i++) {
+                byte[] uid = {0x04, 0x11, 0x22, (byte) i};
+                pipeline.onNotification(0, uid, 0, uid.length, clock.nowMs());
+            }
+            clock.runPending();
+        });
+        ingest.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ingest.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(Thread.State.TIMED_WAITING, ingest.getState());
+
+        // returns while publish() is still waiting for room
+        pipeline.onReaderDisconnected(0);
+        assertEquals(0, handle.getDropped());
+        assertEquals(2, pipeline.getDeduplicator().getGoneEvents());
+        ingest.join();
+        assertEquals(1, handle.getDropped());
+    }
+}
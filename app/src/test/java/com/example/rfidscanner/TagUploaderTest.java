@@ -0,0 +1,432 @@
+package com.example.rfidscanner;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TagUploaderTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ManualTaskScheduler batcher = new ManualTaskScheduler();
+    private final ManualTaskScheduler network = new ManualTaskScheduler();
+
+    // Answers with the given statuses in turn, 200 once they run out; -1 throws an IOException
+    private static final class FakeSender implements TagUploader.Sender {
+        final List<Long> batchIds = new ArrayList<>();
+        final List<String> installIds = new ArrayList<>();
+        final List<TagBatchCodec.Batch> batches = new ArrayList<>();
+        final int[] statuses;
+        int calls;
+
+        FakeSender(int... statuses) {
+            this.statuses = statuses;
+        }
+
+        @Override
+        public int send(String installId, long batchId, byte[] body) throws IOException {
+            batchIds.add(batchId);
+            installIds.add(installId);
+            batches.add(TagBatchCodec.decode(body));
+            int status = calls < statuses.length ? statuses[calls] : 200;
+            calls++;
+            if (status == -1) {
+                throw new IOException("connection reset");
+            }
+            return status;
+        }
+    }
+
+    private static byte[] uid(int i) {
+        return new byte[]{0x04, 0x11, 0x22, (byte) (i >> 16), (byte) (i >> 8), (byte) i, 0x55};
+    }
+
+    private static void record(TagUploader uploader, int from, int to) {
+        for (int i = from; i < to; i++) {
+            uploader.record(i % 4, uid(i % 300), 0, 7, 1_000_000L + i, i + 1);
+        }
+    }
+
+    @Test
+    public void sealsBySizeOrAgeAndUploadsInOrder() throws IOException {
+        FakeSender sender = new FakeSender();
+        TagUploader uploader = new TagUploader(folder.getRoot(), batcher, network, sender);
+        uploader.setBatchPolicy(100, 5000);
+        record(uploader, 0, 250);
+        assertEquals(2, uploader.getSealedBatches());
+        assertEquals(50, uploader.getBufferedReads());
+        batcher.advance(4999);
+        assertEquals(2, uploader.getSealedBatches());
+        batcher.advance(1);
+        assertEquals(3, uploader.getSealedBatches());
+        assertEquals(250, uploader.getSealedThroughPosition());
+
+        network.runPending();
+        assertEquals("[1, 2, 3]", sender.batchIds.toString());
+        assertEquals(50, sender.batches.get(2).size());
+        assertEquals(1_000_200L, sender.batches.get(2).timesMs[0]);
+        assertEquals(250, uploader.getUploadedReads());
+        assertEquals(0, uploader.getPendingBatches());
+        assertEquals(3, uploader.getAckedBatchId());
+        assertEquals(0, folder.getRoot().toPath().resolve("outbox").toFile().list().length);
+    }
+
+    @Test
+    public void failedUploadIsRetriedWithBackoffUnderTheSameId() throws IOException {
+        FakeSender sender = new FakeSender(503, -1, 429);
+        TagUploader uploader = new TagUploader(folder.getRoot(), batcher, network, sender);
+        uploader.setBackoff(100, 250);
+        record(uploader, 0, 10);
+        uploader.flush();
+        network.runPending();
+        assertEquals(1, sender.calls);
+        network.advance(99);
+        assertEquals(1, sender.calls);
+        network.advance(1);
+        assertEquals(2, sender.calls);
+        network.advance(200);
+        assertEquals(3, sender.calls);
+        // capped at 250
+        network.advance(250);
+        assertEquals(4, sender.calls);
+        assertEquals("[1, 1, 1, 1]", sender.batchIds.toString());
+        assertEquals(3, uploader.getRetries());
+        assertEquals(1, uploader.getUploadedBatches());
+
+        // a later batch starts again from the first backoff step
+        sender.calls = 2;
+        record(uploader, 10, 20);
+        uploader.flush();
+        network.runPending();
+        assertEquals(429, uploader.getLastStatus());
+        network.advance(100);
+        assertEquals(2, uploader.getUploadedBatches());
+    }
+
+    @Test
+    public void rejectedBatchIsNotSentAgain() throws IOException {
+        FakeSender sender = new FakeSender(400);
+        TagUploader uploader = new TagUploader(folder.getRoot(), batcher, network, sender);
+        record(uploader, 0, 10);
+        uploader.flush();
+        record(uploader, 10, 20);
+        uploader.flush();
+        network.runPending();
+        assertEquals("[1, 2]", sender.batchIds.toString());
+        assertEquals(1, uploader.getRejectedBatches());
+        assertEquals(1, uploader.getUploadedBatches());
+        assertEquals(0, uploader.getPendingBatches());
+    }
+
+    @Test
+    public void restartSendsWhatWasNotAcknowledgedAndNeverReusesIds() throws IOException {
+        TagUploader offline = new TagUploader(folder.getRoot(), batcher, network, null);
+        offline.setBatchPolicy(100, 5000);
+        record(offline, 0, 250);
+        offline.close();
+        assertEquals(3, offline.getPendingBatches());
+        assertEquals(250, offline.getSealedThroughPosition());
+        // buffered reads are sealed on close, nothing is left for the journal replay
+        assertEquals(0, offline.getBufferedReads());
+
+        FakeSender sender = new FakeSender(200, 500);
+        TagUploader online = new TagUploader(folder.getRoot(), batcher, network, sender);
+        assertEquals(offline.getInstallId(), online.getInstallId());
+        assertEquals(250, online.getSealedThroughPosition());
+        network.runPending();
+        // batch 2 failed, the process dies before the retry
+        assertEquals("[1, 2]", sender.batchIds.toString());
+        assertEquals(1, online.getAckedBatchId());
+
+        FakeSender again = new FakeSender();
+        TagUploader restarted = new TagUploader(folder.getRoot(), batcher, network, again);
+        network.runPending();
+        assertEquals("[2, 3]", again.batchIds.toString());
+        assertEquals(offline.getInstallId(), again.installIds.get(0));
+        record(restarted, 250, 260);
+        restarted.flush();
+        network.runPending();
+        assertEquals("[2, 3, 4]", again.batchIds.toString());
+    }
+
+    @Test
+    public void batchSealedJustBeforeACrashIsRecovered() throws IOException {
+        TagUploader uploader = new TagUploader(folder.getRoot(), batcher, network, null);
+        record(uploader, 0, 10);
+        uploader.flush();
+        File state = new File(folder.getRoot(), "upload.state");
+        byte[] before = Files.readAllBytes(state.toPath());
+        record(uploader, 10, 20);
+        uploader.flush();
+        // the state write of batch 2 never happened
+        Files.write(state.toPath(), before);
+
+        TagUploader reopened = new TagUploader(folder.getRoot(), batcher, network, null);
+        assertEquals(3, reopened.getNextBatchId());
+        assertEquals(20, reopened.getSealedThroughPosition());
+        assertEquals(2, reopened.getPendingBatches());
+    }
+
+    @Test
+    public void pipelineReadsReachTheUploader() throws IOException {
+        ManualTaskScheduler ingest = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(ingest, ingest::post);
+        FakeSender sender = new FakeSender();
+        TagUploader uploader = new TagUploader(folder.getRoot(), batcher, network, sender);
+        pipeline.setUploader(uploader);
+        pipeline.onReaderConnected(0);
+        for (int i = 0; i < 5; i++) {
+            byte[] tag = uid(i);
+            pipeline.onNotification(0, tag, 0, tag.length, ingest.nowMs());
+        }
+        pipeline.stop();
+        ingest.runPending();
+        batcher.runPending();
+        assertEquals(5, uploader.getBufferedReads());
+        uploader.flush();
+        network.runPending();
+        assertEquals(5, sender.batches.get(0).size());
+        assertArrayEquals(uid(3), sender.batches.get(0).uids[3]);
+    }
+
+    @Test
+    public void burstIsUploadedExactlyAsJournaled() throws IOException {
+        ManualTaskScheduler ingest = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(ingest, ingest::post);
+        TagJournal journal = new TagJournal(folder.newFolder("journal"), 1024 * 1024, 4, null);
+        FakeSender sender = new FakeSender();
+        TagUploader uploader = new TagUploader(folder.newFolder("upload"), batcher, network, sender);
+        pipeline.setJournal(journal);
+        pipeline.setUploader(uploader);
+        pipeline.onReaderConnected(0);
+        // more distinct tags than a stream subscriber buffers, and the batcher never runs
+        int reads = 3 * 8192;
+        for (int i = 0; i < reads; i++) {
+            byte[] tag = uid(i);
+            pipeline.onNotification(0, tag, 0, tag.length, ingest.nowMs());
+            if (i % 500 == 499) {
+                ingest.runPending();
+            }
+        }
+        pipeline.stop();
+        ingest.runPending();
+        uploader.flush();
+        network.runPending();
+
+        List<Long> times = new ArrayList<>();
+        List<byte[]> uids = new ArrayList<>();
+        journal.replay((timeMs, readerId, rssi, uid, offset, length) -> {
+            times.add(timeMs);
+            uids.add(Arrays.copyOfRange(uid, offset, offset + length));
+        });
+        journal.close();
+        assertEquals(reads, times.size());
+        int n = 0;
+        for (TagBatchCodec.Batch batch : sender.batches) {
+            for (int i = 0; i < batch.size(); i++, n++) {
+                assertEquals(times.get(n).longValue(), batch.timesMs[i]);
+                assertArrayEquals(uids.get(n), batch.uids[i]);
+            }
+        }
+        assertEquals(reads, n);
+    }
+
+    @Test
+    public void secondPipelineReplaysOnlyWhatTheUploaderHasNotSeen() throws IOException {
+        File dir = folder.newFolder("journal");
+        FakeSender sender = new FakeSender();
+        TagUploader uploader = new TagUploader(folder.newFolder("upload"), batcher, network, sender);
+        ManualTaskScheduler ingest = new ManualTaskScheduler();
+        TagPipeline first = new TagPipeline(ingest, ingest::post);
+        TagJournal journal = new TagJournal(dir, 64 * 1024, 4, null);
+        first.setJournal(journal);
+        first.setUploader(uploader);
+        first.onReaderConnected(0);
+        for (int i = 0; i < 6; i++) {
+            if (i == 5) {
+                // the manager is closing, this read only makes it into the journal
+                first.setUploader(null);
+            }
+            byte[] tag = uid(i);
+            first.onNotification(0, tag, 0, tag.length, ingest.nowMs());
+            ingest.advance(1);
+        }
+        first.stop();
+        ingest.runPending();
+        journal.close();
+        assertEquals(5, uploader.getBufferedReads());
+        assertEquals(0, uploader.getSealedThroughPosition());
+
+        // what the next manager does with the same uploader
+        TagJournal reopened = new TagJournal(dir, 64 * 1024, 4, null);
+        replayUnsent(reopened, uploader);
+        reopened.close();
+        uploader.flush();
+        network.runPending();
+        TagBatchCodec.Batch batch = sender.batches.get(0);
+        assertEquals(6, batch.size());
+        for (int i = 0; i < 6; i++) {
+            assertArrayEquals(uid(i), batch.uids[i]);
+        }
+    }
+
+    @Test
+    public void frameSplitByASealIsCompletedAfterARestart() throws IOException {
+        File dir = folder.newFolder("journal");
+        File uploadDir = folder.newFolder("upload");
+        ManualTaskScheduler ingest = new ManualTaskScheduler();
+        TagPipeline pipeline = new TagPipeline(ingest, ingest::post);
+        TagJournal journal = new TagJournal(dir, 64 * 1024, 4, null);
+        TagUploader uploader = new TagUploader(uploadDir, batcher, network, null);
+        uploader.setBatchPolicy(3, 5000);
+        pipeline.setJournal(journal);
+        pipeline.setUploader(uploader);
+        pipeline.onReaderConnected(0);
+        // one frame, five reads in the same millisecond, the third one seals a batch
+        TagFrameWriter writer = new TagFrameWriter(244);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(writer.add(uid(i), 0, 7));
+        }
+        int length = writer.finish(1, 0);
+        pipeline.onNotification(0, writer.buffer(), 0, length, ingest.nowMs());
+        pipeline.stop();
+        ingest.runPending();
+        assertEquals(1, uploader.getSealedBatches());
+        assertEquals(2, uploader.getBufferedReads());
+
+        // the process dies with the last two reads only in the journal
+        FakeSender sender = new FakeSender();
+        TagJournal recovered = new TagJournal(dir, 64 * 1024, 4, null);
+        TagUploader restarted = new TagUploader(uploadDir, batcher, network, sender);
+        replayUnsent(recovered, restarted);
+        recovered.close();
+        restarted.flush();
+        network.runPending();
+        assertEquals(2, sender.batches.size());
+        int n = 0;
+        for (TagBatchCodec.Batch batch : sender.batches) {
+            for (int i = 0; i < batch.size(); i++, n++) {
+                assertArrayEquals(uid(n), batch.uids[i]);
+            }
+        }
+        assertEquals(5, n);
+        journal.close();
+    }
+
+    // The uploader's part of BLE_MANAGER.openStores()
+    private static void replayUnsent(TagJournal journal, TagUploader uploader) throws IOException {
+        long unsentAfter = uploader.getRecordedThroughPosition();
+        journal.replay((position, timeMs, readerId, rssi, uid, offset, length) -> {
+            if (position > unsentAfter) {
+                uploader.record(readerId, uid, offset, length, timeMs, position);
+            }
+        });
+    }
+
+    @Test
+    public void localServerMeasuresBytesPerThousandReads() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        Set<String> seen = new HashSet<>();
+        List<TagBatchCodec.Batch> received = new ArrayList<>();
+        long[] bodyBytes = {0};
+        long[] headerBytes = {0};
+        int[] requests = {0};
+        server.createContext("/reads", exchange -> {
+            byte[] body = readAll(exchange.getRequestBody());
+            String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+            int status;
+            synchronized (seen) {
+                requests[0]++;
+                bodyBytes[0] += body.length;
+                headerBytes[0] += exchange.getRequestMethod().length() + exchange.getRequestURI().toString().length() + 11;
+                for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+                    for (String value : header.getValue()) {
+                        headerBytes[0] += header.getKey().length() + value.length() + 4;
+                    }
+                }
+                if (requests[0] == 1) {
+                    // backend not up yet
+                    status = 503;
+                } else if (!seen.add(key)) {
+                    status = 409;
+                } else {
+                    received.add(TagBatchCodec.decode(body));
+                    // stored, but the response of the third batch is lost
+                    status = received.size() == 3 && requests[0] < 6 ? 500 : 200;
+                }
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+        ExecutorTaskScheduler net = new ExecutorTaskScheduler("TagUploadTest");
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/reads");
+            TagUploader uploader = new TagUploader(folder.getRoot(), batcher, net, new HttpBatchSender(url));
+            uploader.setBackoff(10, 50);
+            // 10k reads of 300 tags in front of 4 readers, a few ms apart
+            Random random = new Random(11);
+            long time = 1_700_000_000_000L;
+            int reads = 10_000;
+            for (int i = 0; i < reads; i++) {
+                time += random.nextInt(6);
+                int tag = random.nextInt(300);
+                uploader.record(tag % 4, uid(tag), 0, 7, time, i + 1);
+            }
+            uploader.flush();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (uploader.getPendingBatches() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, uploader.getPendingBatches());
+            assertEquals(10, uploader.getUploadedBatches());
+
+            int total = 0;
+            for (TagBatchCodec.Batch batch : received) {
+                total += batch.size();
+            }
+            synchronized (seen) {
+                assertEquals(reads, total);
+                assertEquals(10, received.size());
+                long perThousand = bodyBytes[0] * 1000 / reads;
+                // a read is 8 + 1 + 7 bytes as a plain record, retries included it is still 4x less
+                assertTrue("body " + perThousand, perThousand < 16_000 / 4);
+                assertTrue(uploader.getSentBytes() < bodyBytes[0]);
+                assertTrue(uploader.getSentBytes() < uploader.getRawBytes());
+                assertTrue("headers " + headerBytes[0], headerBytes[0] < bodyBytes[0]);
+            }
+        } finally {
+            net.quit();
+            server.stop(0);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,64 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// The hot path classes of :app have no Android dependencies, so they are compiled straight
+// into this module instead of depending on the Android library output.
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "com/example/rfidscanner/TagIdTable.java",
+                "com/example/rfidscanner/TagDeduplicator.java",
+                "com/example/rfidscanner/TagFanIn.java",
+                "com/example/rfidscanner/TagBatchDispatcher.java",
+                "com/example/rfidscanner/TagReadBatch.java",
+                "com/example/rfidscanner/RfidBatchListener.java",
+                "com/example/rfidscanner/TagPipeline.java",
+                "com/example/rfidscanner/RfidTransport.java",
+                "com/example/rfidscanner/SimulatedReader.java",
+                "com/example/rfidscanner/TaskScheduler.java",
+                "com/example/rfidscanner/ExecutorTaskScheduler.java",
+                "com/example/rfidscanner/GattCommand.java",
+                "com/example/rfidscanner/GattCommandExecutor.java",
+                "com/example/rfidscanner/GattCommandQueue.java",
+                "com/example/rfidscanner/RfidMetrics.java",
+                "com/example/rfidscanner/LatencyHistogram.java",
+                "com/example/rfidscanner/TagFrameParser.java",
+                "com/example/rfidscanner/TagFrameWriter.java",
+                "com/example/rfidscanner/TagJournal.java",
+                "com/example/rfidscanner/TagInventory.java",
+                "com/example/rfidscanner/TagBatchCodec.java",
+                "com/example/rfidscanner/TagUploader.java",
+                "com/example/rfidscanner/TagStream.java",
+                "com/example/rfidscanner/TagPresence.java",
+                "com/example/rfidscanner/TagAnalytics.java",
+                "com/example/rfidscanner/HyperLogLog.java",
+                "com/example/rfidscanner/ByteCodec.java",
+                "com/example/rfidscanner/TagHistoryFile.java",
+                "com/example/rfidscanner/NotificationTrace.java",
+                "com/example/rfidscanner/TraceReplayer.java"
+            )
+        }
+    }
+}
+
+// ./gradlew :benchmarks:jmh, results end up in benchmarks/build/results/jmh/results.json
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    // allocation rate per operation next to the throughput
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    timeOnIteration.set("2s")
+    warmup.set("1s")
+}
@@ -0,0 +1,107 @@
+package com.example.rfidscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand-off of reads between threads under contention: several BLE callback threads feeding
+ * the TagFanIn lanes or the TagBatchDispatcher while one consumer drains, the way the
+ * ingest and UI threads do on the device.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
+public class DispatchBenchmark {
+    // Scheduling is left to the consumer thread, which drains in a loop
+    private static final class PollingScheduler implements TaskScheduler {
+        @Override
+        public void post(Runnable task) {
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+        }
+
+        @Override
+        public long nowMs() {
+            return 0;
+        }
+    }
+
+    private TagFanIn fanIn;
+    private TagBatchDispatcher dispatcher;
+    private long consumed;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        fanIn = new TagFanIn(new PollingScheduler());
+        fanIn.setSink((sequence, readerId, tagId, timeMs) -> consumed++);
+        for (int reader = 0; reader < TagFanIn.MAX_READERS; reader++) {
+            fanIn.addReader(reader);
+        }
+        dispatcher = new TagBatchDispatcher(deliver -> { }, 4096);
+        dispatcher.setListener(batch -> consumed += batch.size());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown(Blackhole blackhole) {
+        blackhole.consume(consumed);
+    }
+
+    // Per producer thread state, each thread is its own reader
+    @State(Scope.Thread)
+    public static class Producer {
+        int readerId;
+        int tagId;
+
+        @Setup
+        public void setUp(ThreadParams params) {
+            readerId = params.getThreadIndex() % TagFanIn.MAX_READERS;
+        }
+    }
+
+    @Benchmark
+    @Group("fanIn")
+    @GroupThreads(3)
+    public boolean fanInOffer(Producer producer) {
+        return fanIn.offer(producer.readerId, producer.tagId++, 0);
+    }
+
+    @Benchmark
+    @Group("fanIn")
+    @GroupThreads(1)
+    public int fanInDrain() {
+        return fanIn.drain();
+    }
+
+    @Benchmark
+    @Group("batch")
+    @GroupThreads(3)
+    public boolean batchOffer(Producer producer) {
+        return dispatcher.offer(producer.readerId, producer.tagId++, 0);
+    }
+
+    @Benchmark
+    @Group("batch")
+    @GroupThreads(1)
+    public void batchDeliver() {
+        dispatcher.deliver();
+    }
+}
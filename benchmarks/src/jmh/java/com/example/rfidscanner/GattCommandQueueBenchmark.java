@@ -0,0 +1,93 @@
+package com.example.rfidscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Enqueue, start and complete GATT commands with the radio taken out of the picture
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class GattCommandQueueBenchmark {
+    private static final int BATCH = 64;
+
+    // Runs posted tasks right away, timeouts never fire since every command completes
+    private static final class InlineScheduler implements TaskScheduler {
+        @Override
+        public void post(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+        }
+
+        @Override
+        public long nowMs() {
+            return 0;
+        }
+    }
+
+    private GattCommandQueue queue;
+    private GattCommand[] reads;
+    private GattCommand[] mixed;
+    // type and token of the command the queue started last, what the GATT callback would report
+    private GattCommand.Type started;
+    private long startedToken;
+
+    @Setup
+    public void setUp() {
+        queue = new GattCommandQueue(new InlineScheduler());
+        reads = new GattCommand[BATCH];
+        mixed = new GattCommand[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            reads[i] = command(GattCommand.Type.READ_CHARACTERISTIC);
+            mixed[i] = command(i % 4 == 0 ? GattCommand.Type.WRITE_DESCRIPTOR : GattCommand.Type.READ_CHARACTERISTIC);
+        }
+    }
+
+    private GattCommand command(GattCommand.Type type) {
+        return new GattCommand(type, () -> {
+            started = type;
+            startedToken = queue.getRunningToken();
+            return true;
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int readsOneLane() {
+        return run(reads);
+    }
+
+    // descriptor writes overtake the queued reads
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int mixedPriorities() {
+        return run(mixed);
+    }
+
+    private int run(GattCommand[] commands) {
+        for (GattCommand command : commands) {
+            queue.enqueue(command);
+        }
+        // the first command started inline, the rest wait until the one before completes
+        int completed = 0;
+        while (completed < commands.length) {
+            queue.onCommandCompleted(started, startedToken, true);
+            completed++;
+        }
+        return queue.getDepth();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.rfidscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Everything onCharacteristicChanged sets off for one notification, on a single thread
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+    private static final int TAGS = 256;
+
+    // Queues posted tasks so the benchmark decides when the ingest thread would run
+    private static final class QueueScheduler implements TaskScheduler {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        long nowMs;
+
+        @Override
+        public void post(Runnable task) {
+            tasks.add(task);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            tasks.remove(task);
+        }
+
+        @Override
+        public long nowMs() {
+            return nowMs;
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private QueueScheduler ingest;
+    private TagPipeline pipeline;
+    private byte[][] uids;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        ingest = new QueueScheduler();
+        pipeline = new TagPipeline(ingest, ingest::post);
+        pipeline.setBatchListener(batch -> { });
+        pipeline.onReaderConnected(0);
+        uids = new byte[TAGS][7];
+        Random random = new Random(1);
+        for (byte[] uid : uids) {
+            random.nextBytes(uid);
+        }
+    }
+
+    // one notification in, then the ingest and UI work it caused
+    @Benchmark
+    public long notification() {
+        next = (next + 1) & (TAGS - 1);
+        if (next == 0) {
+            ingest.nowMs++;
+        }
+        byte[] uid = uids[next];
+        pipeline.onNotification(0, uid, 0, uid.length, ingest.nowMs);
+        ingest.runAll();
+        return pipeline.getNotifications();
+    }
+}
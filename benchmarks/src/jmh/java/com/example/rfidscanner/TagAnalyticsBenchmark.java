@@ -0,0 +1,49 @@
+package com.example.rfidscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Analytics updates at 2000 reads a second over 5000 tags, with the shortest and longest rate window
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class TagAnalyticsBenchmark {
+    private static final int TAGS = 5000;
+
+    @Param({"1", "60"})
+    public int rateWindowSeconds;
+
+    private TagAnalytics analytics;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        analytics = new TagAnalytics(rateWindowSeconds);
+        // a full minute behind the first measured read
+        for (next = 0; next < 2 * 61_000; next++) {
+            analytics.onRead(next & 3, next % TAGS, next / 2);
+        }
+    }
+
+    // one read, every 2000 of them finish a second
+    @Benchmark
+    public void read() {
+        int i = next++;
+        analytics.onRead(i & 3, i % TAGS, i / 2);
+    }
+
+    // the metrics panel polling within the open second, one sketch merge
+    @Benchmark
+    public TagAnalytics.Snapshot snapshot() {
+        return analytics.snapshot(next / 2);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.rfidscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Dedup lookup for a steady population of tags sitting on the antennas
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class TagDeduplicatorBenchmark {
+    @Param({"16", "1024", "4096"})
+    public int tagsInRange;
+
+    private TagDeduplicator dedup;
+    private int next;
+    private long nowMs;
+
+    @Setup
+    public void setUp() {
+        dedup = new TagDeduplicator(1000, TagDeduplicator.Mode.COLLAPSE);
+        for (int tag = 0; tag < tagsInRange; tag++) {
+            dedup.onRead(tag & 3, tag, 0);
+        }
+    }
+
+    // repeats inside the window, every lookup hits and is suppressed or collapsed
+    @Benchmark
+    public TagDeduplicator.TagEvent repeatRead() {
+        int tag = next;
+        next = next + 1 == tagsInRange ? 0 : next + 1;
+        // one millisecond per pass over the population keeps the sweep running now and then
+        if (next == 0) {
+            nowMs++;
+        }
+        return dedup.onRead(tag & 3, tag, nowMs);
+    }
+
+    // tags never repeat, so entries are inserted and later expired by the sweep
+    @Benchmark
+    public TagDeduplicator.TagEvent churn() {
+        nowMs++;
+        return dedup.onRead(0, tagsInRange + (int) nowMs, nowMs);
+    }
+}
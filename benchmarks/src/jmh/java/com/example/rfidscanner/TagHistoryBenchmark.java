@@ -0,0 +1,112 @@
+package com.example.rfidscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Exporting and importing a shift of reads, the columnar history file against CSV with the
+// "AB CD EF 01" hex UIDs the app shows. The size ratio is asserted in TagHistoryFileTest.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class TagHistoryBenchmark {
+    private static final int READS = 100_000;
+    private static final int TAGS = 2000;
+
+    private final long[] times = new long[READS];
+    private final int[] readers = new int[READS];
+    private final byte[][] uids = new byte[READS][];
+    private byte[] csv;
+    private byte[] columnar;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(4);
+        byte[][] tags = new byte[TAGS][7];
+        for (byte[] tag : tags) {
+            random.nextBytes(tag);
+        }
+        long time = 1_700_000_000_000L;
+        for (int i = 0; i < READS; i++) {
+            time += random.nextInt(5);
+            times[i] = time;
+            readers[i] = random.nextInt(4);
+            uids[i] = tags[random.nextInt(TAGS)];
+        }
+        csv = writeCsv().toByteArray();
+        columnar = writeColumnar().toByteArray();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream writeCsv() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII))) {
+            for (int i = 0; i < READS; i++) {
+                writer.write(Long.toString(times[i]));
+                writer.write(',');
+                writer.write(Integer.toString(readers[i]));
+                writer.write(',');
+                writer.write(TagIdTable.toHex(uids[i], 0, uids[i].length));
+                writer.write('\n');
+            }
+        }
+        return out;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream writeColumnar() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TagHistoryFile.Writer writer = new TagHistoryFile.Writer(out)) {
+            for (int i = 0; i < READS; i++) {
+                writer.write(times[i], readers[i], uids[i], 0, uids[i].length);
+            }
+        }
+        return out;
+    }
+
+    @Benchmark
+    public long parseCsv() throws IOException {
+        long sum = 0;
+        byte[] uid = new byte[TagIdTable.MAX_UID_LENGTH];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int first = line.indexOf(',');
+                int second = line.indexOf(',', first + 1);
+                long time = Long.parseLong(line.substring(0, first));
+                int readerId = Integer.parseInt(line.substring(first + 1, second));
+                int length = 0;
+                for (int i = second + 1; i + 1 < line.length(); i += 3) {
+                    uid[length++] = (byte) ((Character.digit(line.charAt(i), 16) << 4) | Character.digit(line.charAt(i + 1), 16));
+                }
+                sum += time + readerId + uid[length - 1];
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long parseColumnar() throws IOException {
+        long[] sum = {0};
+        try (TagHistoryFile.Reader reader = new TagHistoryFile.Reader(new ByteArrayInputStream(columnar))) {
+            reader.read((timeMs, readerId, uid, offset, length) -> sum[0] += timeMs + readerId + uid[offset + length - 1]);
+        }
+        return sum[0];
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.rfidscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// UID bytes to tag id, and tag id to the hex string shown in the UI
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class TagIdTableBenchmark {
+    private static final int TAGS = 1024;
+
+    // 4 and 7 byte UIDs are packed into the key, 10 byte ones go through the hash path
+    @Param({"4", "7", "10"})
+    public int uidLength;
+
+    private TagIdTable table;
+    private byte[][] uids;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        table = new TagIdTable();
+        uids = new byte[TAGS][uidLength];
+        Random random = new Random(1);
+        for (byte[] uid : uids) {
+            random.nextBytes(uid);
+            table.intern(uid, 0, uid.length);
+        }
+    }
+
+    private byte[] nextUid() {
+        next = (next + 1) & (TAGS - 1);
+        return uids[next];
+    }
+
+    // the common case, a tag that was seen before
+    @Benchmark
+    public int internKnown() {
+        byte[] uid = nextUid();
+        return table.intern(uid, 0, uid.length);
+    }
+
+    @Benchmark
+    public int find() {
+        byte[] uid = nextUid();
+        return table.find(uid, 0, uid.length);
+    }
+
+    @Benchmark
+    public String hexCached() {
+        next = (next + 1) & (TAGS - 1);
+        return table.hex(next);
+    }
+
+    // what every notification cost before the table cached the string
+    @Benchmark
+    public String hexUncached() {
+        byte[] uid = nextUid();
+        return TagIdTable.toHex(uid, 0, uid.length);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.rfidscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// Journal appends per second against what the BLE link can deliver, a few thousand reads/s
+// for several readers. commitRecords=1 forces every read to disk like a per read database
+// insert would, the larger values are the group commit.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class TagJournalBenchmark {
+    @Param({"1", "256", "4096"})
+    public int commitRecords;
+
+    private File dir;
+    private TagJournal journal;
+    private final byte[] uid = {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+    private long timeMs;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal-bench").toFile();
+        // segments roll during an iteration, the oldest are deleted so disk use stays bounded
+        journal = new TagJournal(dir, 16 * 1024 * 1024, 4, null);
+        journal.setCommitPolicy(commitRecords, TagJournal.DEFAULT_COMMIT_DELAY_MS);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        journal.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        timeMs++;
+        uid[6] = (byte) timeMs;
+        journal.append(timeMs, (int) timeMs & 3, -60, uid, 0, uid.length);
+    }
+}
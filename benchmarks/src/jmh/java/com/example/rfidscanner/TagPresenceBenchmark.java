@@ -0,0 +1,67 @@
+package com.example.rfidscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Presence tracking with every tag on the antennas read twice a second and a steady churn of
+// tags leaving and arriving, so the wheel keeps departing and reinserting
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class TagPresenceBenchmark {
+    private static final long STEP_MS = 10;
+    private static final int STEPS_PER_PASS = 50;
+    private static final int CHURN_PER_STEP = 20;
+
+    @Param({"1000", "100000"})
+    public int liveTags;
+
+    private TagPresence presence;
+    private int ids;
+    private long step;
+    private int phase;
+    private int offset;
+    private long nowMs;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        presence = new TagPresence();
+        presence.setListener(changes -> { });
+        // room for the churn to run well past the departure timeout before ids come round again
+        ids = liveTags + 10_000;
+        step = 0;
+        phase = 0;
+        offset = 0;
+        nowMs = 0;
+        for (int tag = 0; tag < liveTags; tag++) {
+            presence.onRead(tag & 3, tag, 0);
+        }
+        presence.advance(0);
+    }
+
+    // one read, every 10 ms of reads also runs the wheel tick
+    @Benchmark
+    public int read() {
+        int base = (int) (step * CHURN_PER_STEP % ids);
+        int tag = (base + phase + offset) % ids;
+        presence.onRead(tag & 3, tag, nowMs);
+        offset += STEPS_PER_PASS;
+        if (phase + offset >= liveTags) {
+            offset = 0;
+            step++;
+            phase = (int) (step % STEPS_PER_PASS);
+            nowMs += STEP_MS;
+            presence.advance(nowMs);
+        }
+        return presence.getPresentTags();
+    }
+}
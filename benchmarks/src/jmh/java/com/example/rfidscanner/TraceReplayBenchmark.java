@@ -0,0 +1,112 @@
+package com.example.rfidscanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// A whole trace through the pipeline at MAX_SPEED. -p trace=<file> replays a field recording,
+// without it a synthetic minute of four framed readers is used.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class TraceReplayBenchmark {
+    @Param("")
+    public String trace;
+
+    // Runs posted tasks in order, delayed ones (the pipeline's sweeps) are dropped
+    private static final class QueueScheduler implements TaskScheduler {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void post(Runnable task) {
+            tasks.add(task);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            tasks.remove(task);
+        }
+
+        @Override
+        public long nowMs() {
+            return 0;
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        bytes = trace.isEmpty() ? synthetic() : Files.readAllBytes(Paths.get(trace));
+    }
+
+    private static byte[] synthetic() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NotificationTrace.Writer writer = new NotificationTrace.Writer(out);
+        Random random = new Random(1);
+        byte[][] uids = new byte[2000][7];
+        for (byte[] uid : uids) {
+            random.nextBytes(uid);
+        }
+        TagFrameWriter[] frames = new TagFrameWriter[4];
+        for (int r = 0; r < frames.length; r++) {
+            frames[r] = new TagFrameWriter(244);
+            writer.connected(0, r);
+        }
+        // a frame every 15 ms per reader for a minute
+        for (long ms = 0; ms < 60_000; ms += 15) {
+            for (int r = 0; r < frames.length; r++) {
+                int reads = 1 + random.nextInt(8);
+                for (int i = 0; i < reads; i++) {
+                    byte[] uid = uids[random.nextInt(uids.length)];
+                    frames[r].add(uid, 0, uid.length);
+                }
+                int length = frames[r].finish((int) (ms / 15) & 0xFFFF, ms);
+                writer.notification(ms * 1_000_000 + r * 1000, r, frames[r].buffer(), 0, length);
+            }
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public long replay() throws IOException {
+        QueueScheduler scheduler = new QueueScheduler();
+        TagPipeline pipeline = new TagPipeline(scheduler, scheduler::post);
+        pipeline.setBatchListener(batch -> { });
+        TraceReplayer replayer = new TraceReplayer(scheduler, new NotificationTrace.Reader(new ByteArrayInputStream(bytes)))
+                .setSpeed(TraceReplayer.MAX_SPEED);
+        replayer.start(pipeline);
+        scheduler.runAll();
+        if (replayer.getError() != null) {
+            throw replayer.getError();
+        }
+        return pipeline.getNotifications();
+    }
+}
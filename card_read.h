@@ -0,0 +1,178 @@
+// Sector read requests and their chunked responses for the reader firmware.
+// Plain C++ without Arduino headers so firmware_test/ can build and test it on a PC.
+#ifndef CARD_READ_H
+#define CARD_READ_H
+
+#include <atomic>
+#include <stddef.h>
+#include <stdint.h>
+#include <string.h>
+
+#include "rfid_queue.h"
+
+// Request, written by the app without response:
+//   0  magic 0xB1
+//   1  request id, echoed in the response
+//   2  sector, 0..39 (32..39 only exist on 4K cards)
+//   3  UID length, 0 for whatever card is on the antenna
+//   4  UID bytes, only that card is read
+// Response, one or more notifications per request:
+//   0  magic 0xB2
+//   1  request id
+//   2  status
+//   3  offset of the chunk's data in the sector data
+//   4  total data length
+//   5  data
+// The data is every block of the sector except its trailer, 48 bytes (240 on the large 4K
+// sectors). A failed request gets a single chunk without data.
+#define REQUEST_MAGIC 0xB1
+#define RESPONSE_MAGIC 0xB2
+#define REQUEST_HEADER 4
+#define RESPONSE_HEADER 5
+#define SECTOR_COUNT 40
+#define SECTOR_DATA_MAX 240
+// Requests held while one is served, the app keeps at most this many in flight
+#define REQUEST_QUEUE 4
+
+enum ReadStatus {
+  READ_OK = 0,
+  READ_NO_CARD = 1,
+  READ_AUTH_FAILED = 2,
+  READ_FAILED = 3,
+  READ_BAD_REQUEST = 4
+};
+
+inline uint8_t sectorFirstBlock(uint8_t sector) {
+  return sector < 32 ? sector * 4 : 128 + (sector - 32) * 16;
+}
+
+inline uint8_t sectorDataBlocks(uint8_t sector) {
+  return sector < 32 ? 3 : 15;
+}
+
+inline uint8_t sectorTrailerBlock(uint8_t sector) {
+  return sectorFirstBlock(sector) + sectorDataBlocks(sector);
+}
+
+struct SectorRequest {
+  uint8_t id;
+  uint8_t sector;
+  // READ_BAD_REQUEST for a malformed request, it is still answered so the app does not wait
+  uint8_t status;
+  uint8_t uidLength;
+  uint8_t uid[UID_MAX_LENGTH];
+};
+
+// Requests from the BLE task (push) to loop() (peek/pop), one producer and one consumer
+template <size_t CAPACITY>
+class RequestQueue {
+ public:
+  RequestQueue() : head_(0), tail_(0), rejected_(0) {}
+
+  // False when the write is not a request at all or the queue is full
+  bool push(const uint8_t* data, size_t length) {
+    if (length < 2 || data[0] != REQUEST_MAGIC) {
+      return false;
+    }
+    size_t tail = tail_.load(std::memory_order_relaxed);
+    if (tail - head_.load(std::memory_order_acquire) == CAPACITY) {
+      rejected_++;
+      return false;
+    }
+    SectorRequest& slot = requests_[tail % CAPACITY];
+    slot.id = data[1];
+    slot.status = READ_OK;
+    slot.sector = 0;
+    slot.uidLength = 0;
+    if (length < REQUEST_HEADER || data[2] >= SECTOR_COUNT || data[3] > UID_MAX_LENGTH
+        || length != (size_t)REQUEST_HEADER + data[3]) {
+      slot.status = READ_BAD_REQUEST;
+    } else {
+      slot.sector = data[2];
+      slot.uidLength = data[3];
+      memcpy(slot.uid, data + REQUEST_HEADER, data[3]);
+    }
+    tail_.store(tail + 1, std::memory_order_release);
+    return true;
+  }
+
+  const SectorRequest* peek() const {
+    size_t head = head_.load(std::memory_order_relaxed);
+    return head == tail_.load(std::memory_order_acquire) ? NULL : &requests_[head % CAPACITY];
+  }
+
+  void pop() {
+    size_t head = head_.load(std::memory_order_relaxed);
+    if (head != tail_.load(std::memory_order_acquire)) {
+      head_.store(head + 1, std::memory_order_release);
+    }
+  }
+
+  // Only from loop() while nothing is pushed, i.e. on a new connection
+  void clear() {
+    head_.store(tail_.load(std::memory_order_acquire), std::memory_order_release);
+  }
+
+  bool empty() const { return peek() == NULL; }
+  uint32_t rejected() const { return rejected_; }
+
+ private:
+  SectorRequest requests_[CAPACITY];
+  std::atomic<size_t> head_;
+  std::atomic<size_t> tail_;
+  uint32_t rejected_;
+};
+
+// Splits one response into notifications of at most limit bytes
+class ResponseChunker {
+ public:
+  ResponseChunker() : id_(0), status_(0), length_(0), sent_(0), pending_(false) {}
+
+  void begin(uint8_t id, uint8_t status, const uint8_t* data, size_t length) {
+    if (length > SECTOR_DATA_MAX || status != READ_OK) {
+      length = 0;
+    }
+    id_ = id;
+    status_ = status;
+    memcpy(data_, data, length);
+    length_ = length;
+    sent_ = 0;
+    pending_ = true;
+  }
+
+  bool pending() const { return pending_; }
+
+  void clear() { pending_ = false; }
+
+  // Writes the next chunk to out, returns its length or 0 when nothing is pending
+  size_t next(uint8_t* out, size_t limit) {
+    if (!pending_ || limit <= RESPONSE_HEADER) {
+      return 0;
+    }
+    size_t chunk = length_ - sent_;
+    if (chunk > limit - RESPONSE_HEADER) {
+      chunk = limit - RESPONSE_HEADER;
+    }
+    out[0] = RESPONSE_MAGIC;
+    out[1] = id_;
+    out[2] = status_;
+    out[3] = (uint8_t)sent_;
+    out[4] = (uint8_t)length_;
+    memcpy(out + RESPONSE_HEADER, data_ + sent_, chunk);
+    sent_ += chunk;
+    if (sent_ == length_) {
+      pending_ = false;
+    }
+    return RESPONSE_HEADER + chunk;
+  }
+
+ private:
+  uint8_t id_;
+  uint8_t status_;
+  uint8_t data_[SECTOR_DATA_MAX];
+  size_t length_;
+  size_t sent_;
+  bool pending_;
+};
+
+#endif
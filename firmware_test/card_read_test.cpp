@@ -0,0 +1,140 @@
+// Host side tests for card_read.h, run with `make -C firmware_test`
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "../card_read.h"
+
+static int failures = 0;
+
+#define CHECK(cond)                                                   \
+  do {                                                                \
+    if (!(cond)) {                                                    \
+      printf("  FAIL %s:%d: %s\n", __FILE__, __LINE__, #cond);        \
+      failures++;                                                     \
+    }                                                                 \
+  } while (0)
+
+static void sectorLayoutOf1kAnd4kCards() {
+  CHECK(sectorFirstBlock(0) == 0 && sectorDataBlocks(0) == 3 && sectorTrailerBlock(0) == 3);
+  CHECK(sectorFirstBlock(15) == 60 && sectorTrailerBlock(15) == 63);
+  CHECK(sectorFirstBlock(31) == 124 && sectorTrailerBlock(31) == 127);
+  CHECK(sectorFirstBlock(32) == 128 && sectorDataBlocks(32) == 15 && sectorTrailerBlock(32) == 143);
+  CHECK(sectorFirstBlock(39) == 240 && sectorTrailerBlock(39) == 255);
+}
+
+static void queueParsesRequests() {
+  RequestQueue<REQUEST_QUEUE> queue;
+  uint8_t anyCard[] = {REQUEST_MAGIC, 7, 5, 0};
+  uint8_t oneCard[] = {REQUEST_MAGIC, 8, 1, 4, 0xDE, 0xAD, 0xBE, 0xEF};
+  CHECK(queue.push(anyCard, sizeof(anyCard)));
+  CHECK(queue.push(oneCard, sizeof(oneCard)));
+  const SectorRequest* request = queue.peek();
+  CHECK(request->id == 7 && request->sector == 5 && request->uidLength == 0 && request->status == READ_OK);
+  queue.pop();
+  request = queue.peek();
+  CHECK(request->id == 8 && request->sector == 1 && request->uidLength == 4 && request->uid[3] == 0xEF);
+  queue.pop();
+  CHECK(queue.empty());
+}
+
+static void malformedRequestsAreAnsweredNotDropped() {
+  RequestQueue<REQUEST_QUEUE> queue;
+  uint8_t badSector[] = {REQUEST_MAGIC, 1, SECTOR_COUNT, 0};
+  uint8_t badLength[] = {REQUEST_MAGIC, 2, 1, 4, 0xDE};
+  uint8_t tooShort[] = {REQUEST_MAGIC, 3};
+  uint8_t notARequest[] = {FRAME_MAGIC, 4, 1, 0};
+  CHECK(queue.push(badSector, sizeof(badSector)));
+  CHECK(queue.push(badLength, sizeof(badLength)));
+  CHECK(queue.push(tooShort, sizeof(tooShort)));
+  CHECK(!queue.push(notARequest, sizeof(notARequest)));
+  for (uint8_t id = 1; id <= 3; id++) {
+    CHECK(queue.peek()->id == id && queue.peek()->status == READ_BAD_REQUEST);
+    queue.pop();
+  }
+  CHECK(queue.empty());
+}
+
+static void fullQueueRejectsAndCounts() {
+  RequestQueue<2> queue;
+  uint8_t request[] = {REQUEST_MAGIC, 0, 1, 0};
+  for (uint8_t id = 0; id < 5; id++) {
+    request[1] = id;
+    queue.push(request, sizeof(request));
+  }
+  CHECK(queue.rejected() == 3);
+  CHECK(queue.peek()->id == 0);
+  queue.pop();
+  request[1] = 9;
+  CHECK(queue.push(request, sizeof(request)));
+  queue.pop();
+  CHECK(queue.peek()->id == 9);
+  queue.clear();
+  CHECK(queue.empty());
+}
+
+static void chunksCoverTheDataAtEveryMtu() {
+  uint8_t data[SECTOR_DATA_MAX];
+  for (int i = 0; i < SECTOR_DATA_MAX; i++) {
+    data[i] = (uint8_t)(i * 7);
+  }
+  size_t limits[] = {20, 64, 244};
+  for (size_t l = 0; l < 3; l++) {
+    ResponseChunker chunker;
+    chunker.begin(42, READ_OK, data, SECTOR_DATA_MAX);
+    uint8_t out[FRAME_MAX];
+    uint8_t rebuilt[SECTOR_DATA_MAX];
+    size_t received = 0;
+    int chunks = 0;
+    size_t length;
+    while ((length = chunker.next(out, limits[l])) > 0) {
+      CHECK(length <= limits[l]);
+      CHECK(out[0] == RESPONSE_MAGIC && out[1] == 42 && out[2] == READ_OK);
+      CHECK(out[3] == received && out[4] == SECTOR_DATA_MAX);
+      memcpy(rebuilt + out[3], out + RESPONSE_HEADER, length - RESPONSE_HEADER);
+      received += length - RESPONSE_HEADER;
+      chunks++;
+    }
+    CHECK(received == SECTOR_DATA_MAX);
+    CHECK(memcmp(rebuilt, data, SECTOR_DATA_MAX) == 0);
+    CHECK(!chunker.pending());
+    if (limits[l] == 20) {
+      // 15 data bytes per chunk at the default MTU
+      CHECK(chunks == 16);
+    } else if (limits[l] == 244) {
+      CHECK(chunks == 2);
+    }
+  }
+}
+
+static void failureIsOneEmptyChunk() {
+  ResponseChunker chunker;
+  uint8_t data[48] = {1};
+  chunker.begin(3, READ_AUTH_FAILED, data, sizeof(data));
+  uint8_t out[FRAME_MAX];
+  CHECK(chunker.next(out, 244) == RESPONSE_HEADER);
+  CHECK(out[1] == 3 && out[2] == READ_AUTH_FAILED && out[3] == 0 && out[4] == 0);
+  CHECK(!chunker.pending());
+  CHECK(chunker.next(out, 244) == 0);
+}
+
+#define RUN(test)              \
+  do {                         \
+    int before = failures;     \
+    test();                    \
+    printf("%s %s\n", failures == before ? "ok  " : "FAIL", #test); \
+  } while (0)
+
+int main() {
+  RUN(sectorLayoutOf1kAnd4kCards);
+  RUN(queueParsesRequests);
+  RUN(malformedRequestsAreAnsweredNotDropped);
+  RUN(fullQueueRejectsAndCounts);
+  RUN(chunksCoverTheDataAtEveryMtu);
+  RUN(failureIsOneEmptyChunk);
+  if (failures > 0) {
+    printf("%d check(s) failed\n", failures);
+    return EXIT_FAILURE;
+  }
+  return EXIT_SUCCESS;
+}
@@ -0,0 +1,211 @@
+// Host side tests for rfid_queue.h, run with `make -C firmware_test`
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "../rfid_queue.h"
+
+static int failures = 0;
+
+#define CHECK(cond)                                                   \
+  do {                                                                \
+    if (!(cond)) {                                                    \
+      printf("  FAIL %s:%d: %s\n", __FILE__, __LINE__, #cond);        \
+      failures++;                                                     \
+    }                                                                 \
+  } while (0)
+
+static UidRead read(uint8_t first, uint8_t length, uint32_t timeMs) {
+  UidRead r;
+  r.length = length;
+  for (uint8_t i = 0; i < length; i++) {
+    r.bytes[i] = first + i;
+  }
+  r.timeMs = timeMs;
+  return r;
+}
+
+template <size_t N>
+static void push(UidRing<N>& ring, const UidRead& r) {
+  CHECK(ring.push(r.bytes, r.length, r.timeMs));
+}
+
+static void ringKeepsOrderAcrossWrap() {
+  UidRing<4> ring;
+  for (int round = 0; round < 10; round++) {
+    push(ring, read(round, 4, round));
+    push(ring, read(round + 100, 7, round));
+    CHECK(ring.size() == 2);
+    CHECK(ring.peek()->bytes[0] == round && ring.peek()->length == 4);
+    ring.pop();
+    CHECK(ring.peek()->bytes[0] == round + 100 && ring.peek()->length == 7);
+    ring.pop();
+    CHECK(ring.empty());
+    CHECK(ring.peek() == NULL);
+  }
+}
+
+static void fullRingDropsNewestAndCounts() {
+  UidRing<3> ring;
+  for (int i = 0; i < 5; i++) {
+    UidRead r = read(i, 4, 0);
+    ring.push(r.bytes, r.length, 0);
+  }
+  CHECK(ring.size() == 3);
+  CHECK(ring.dropped() == 2);
+  CHECK(ring.peek()->bytes[0] == 0);
+  ring.pop();
+  ring.pop();
+  CHECK(ring.peek()->bytes[0] == 2);
+}
+
+static void ringRejectsInvalidLengths() {
+  UidRing<4> ring;
+  uint8_t uid[11] = {0};
+  CHECK(!ring.push(uid, 0, 0));
+  CHECK(!ring.push(uid, 11, 0));
+  CHECK(ring.empty());
+  CHECK(ring.dropped() == 0);
+}
+
+// Same bytes as TagFrameParserTest.firmwareGoldenFrame on the app side
+static void frameMatchesAppLayout() {
+  FrameBuilder builder;
+  for (int i = 0; i < 0x0102; i++) {
+    CHECK(builder.add(read(0, 4, 0), FRAME_MAX));
+    builder.finish();
+  }
+  UidRead a = {4, {0x01, 0x02, 0x03, 0x04}, 0x0A0B0C0D};
+  UidRead b = {7, {0xAA, 0xBB, 0xCC, 0xDD, 0xEE, 0xFF, 0x11}, 0x0A0B0CFF};
+  CHECK(builder.add(a, FRAME_MAX));
+  CHECK(builder.add(b, FRAME_MAX));
+  const uint8_t expected[] = {0xA5, 0x01, 0x02, 0x01, 0x0D, 0x0C, 0x0B, 0x0A, 0x02,
+                              0x04, 0x01, 0x02, 0x03, 0x04,
+                              0x07, 0xAA, 0xBB, 0xCC, 0xDD, 0xEE, 0xFF, 0x11};
+  size_t length = builder.finish();
+  CHECK(length == sizeof(expected));
+  CHECK(memcmp(builder.data(), expected, sizeof(expected)) == 0);
+  CHECK(builder.sequence() == 0x0103);
+}
+
+static void frameRespectsPayloadLimit() {
+  FrameBuilder builder;
+  // default 23 byte MTU leaves 20 bytes: header plus one 10 byte UID
+  CHECK(builder.add(read(0, 10, 0), 20));
+  CHECK(!builder.add(read(0, 4, 0), 20));
+  CHECK(builder.finish() == 20);
+  CHECK(builder.add(read(0, 4, 0), 20));
+  CHECK(builder.add(read(0, 4, 0), 20));
+  CHECK(!builder.add(read(0, 1, 0), 20));
+  CHECK(builder.finish() == 19);
+  // a limit above the buffer is clamped
+  int added = 0;
+  while (builder.add(read(0, 10, 0), 1000)) {
+    added++;
+  }
+  CHECK(added == (FRAME_MAX - FRAME_HEADER) / 11);
+  CHECK(builder.finish() <= FRAME_MAX);
+}
+
+static void fullFrameCountsEveryUid() {
+  FrameBuilder builder;
+  int added = 0;
+  while (builder.add(read(0, 4, 0), FRAME_MAX)) {
+    added++;
+  }
+  CHECK(added == (FRAME_MAX - FRAME_HEADER) / 5);
+  CHECK(builder.finish() == FRAME_HEADER + added * 5u);
+  CHECK(builder.data()[8] == added);
+}
+
+static void sequenceWrapsAndResets() {
+  FrameBuilder builder;
+  for (int i = 0; i < 65536; i++) {
+    builder.add(read(0, 4, 0), FRAME_MAX);
+    builder.finish();
+  }
+  CHECK(builder.sequence() == 0);
+  builder.add(read(0, 4, 0), FRAME_MAX);
+  builder.finish();
+  builder.reset();
+  CHECK(builder.sequence() == 0);
+  CHECK(builder.empty());
+  CHECK(builder.finish() == 0);
+}
+
+static void drainSplitsQueueIntoFrames() {
+  UidRing<64> ring;
+  FrameBuilder builder;
+  for (int i = 0; i < 40; i++) {
+    push(ring, read(i, 7, 1000 + i));
+  }
+  int frames = 0;
+  int uids = 0;
+  uint8_t next = 0;
+  size_t length;
+  while ((length = drainFrame(ring, builder, 100)) > 0) {
+    const uint8_t* data = builder.data();
+    CHECK(length <= 100);
+    CHECK(data[0] == FRAME_MAGIC);
+    CHECK((data[2] | (data[3] << 8)) == frames);
+    // frame time is the time of its first read
+    uint32_t timeMs = data[4] | (data[5] << 8) | (data[6] << 16) | ((uint32_t)data[7] << 24);
+    CHECK(timeMs == 1000u + next);
+    size_t pos = FRAME_HEADER;
+    for (int i = 0; i < data[8]; i++) {
+      CHECK(data[pos] == 7);
+      CHECK(data[pos + 1] == next);
+      next++;
+      pos += 1 + data[pos];
+    }
+    CHECK(pos == length);
+    uids += data[8];
+    frames++;
+  }
+  CHECK(uids == 40);
+  // (100 - 9) / 8 = 11 UIDs per frame
+  CHECK(frames == 4);
+  CHECK(ring.empty());
+}
+
+static void repeatFilterHoldsBackCardOnAntenna() {
+  RepeatFilter filter(100);
+  uint8_t a[4] = {1, 2, 3, 4};
+  uint8_t b[4] = {1, 2, 3, 5};
+  CHECK(filter.accept(a, 4, 0));
+  CHECK(!filter.accept(a, 4, 10));
+  CHECK(!filter.accept(a, 4, 99));
+  CHECK(filter.accept(a, 4, 100));
+  CHECK(filter.accept(b, 4, 110));
+  CHECK(filter.accept(a, 4, 120));
+  CHECK(filter.accept(a, 3, 130));
+  // millis() wrapping after 49 days
+  RepeatFilter wrapped(100);
+  CHECK(wrapped.accept(a, 4, 0xFFFFFFF0u));
+  CHECK(!wrapped.accept(a, 4, 0x00000010u));
+  CHECK(wrapped.accept(a, 4, 0x00000060u));
+}
+
+#define RUN(test)              \
+  do {                         \
+    int before = failures;     \
+    test();                    \
+    printf("%s %s\n", failures == before ? "ok  " : "FAIL", #test); \
+  } while (0)
+
+int main() {
+  RUN(ringKeepsOrderAcrossWrap);
+  RUN(fullRingDropsNewestAndCounts);
+  RUN(ringRejectsInvalidLengths);
+  RUN(frameMatchesAppLayout);
+  RUN(frameRespectsPayloadLimit);
+  RUN(fullFrameCountsEveryUid);
+  RUN(sequenceWrapsAndResets);
+  RUN(drainSplitsQueueIntoFrames);
+  RUN(repeatFilterHoldsBackCardOnAntenna);
+  if (failures > 0) {
+    printf("%d check(s) failed\n", failures);
+    return EXIT_FAILURE;
+  }
+  return EXIT_SUCCESS;
+}
@@ -0,0 +1,179 @@
+// UID queue and notification framing for the reader firmware.
+// Plain C++ without Arduino headers so firmware_test/ can build and test it on a PC.
+#ifndef RFID_QUEUE_H
+#define RFID_QUEUE_H
+
+#include <stddef.h>
+#include <stdint.h>
+#include <string.h>
+
+#define UID_MAX_LENGTH 10
+
+// Notification frame, version 1, little endian:
+//   0  magic 0xA5
+//   1  version
+//   2  sequence (uint16), +1 per frame so the app can count lost notifications
+//   4  millis() when the first UID of the frame was read (uint32)
+//   8  UID count
+//   9  count x [length][UID bytes]
+// A frame is always longer than 10 bytes, that is how the app tells it from a legacy raw UID.
+#define FRAME_MAGIC 0xA5
+#define FRAME_VERSION 1
+#define FRAME_HEADER 9
+// MTU the app asks for (247) minus the 3 byte ATT header
+#define FRAME_MAX 244
+
+struct UidRead {
+  uint8_t length;
+  uint8_t bytes[UID_MAX_LENGTH];
+  uint32_t timeMs;
+};
+
+// Fixed size FIFO of reads between the RFID poll and the BLE drain. When it is full the
+// newest read is dropped and counted, the reads already queued are older and go out first.
+template <size_t CAPACITY>
+class UidRing {
+ public:
+  UidRing() : head_(0), count_(0), dropped_(0) {}
+
+  bool push(const uint8_t* uid, uint8_t length, uint32_t timeMs) {
+    if (length == 0 || length > UID_MAX_LENGTH) {
+      return false;
+    }
+    if (count_ == CAPACITY) {
+      dropped_++;
+      return false;
+    }
+    UidRead& slot = reads_[(head_ + count_) % CAPACITY];
+    slot.length = length;
+    memcpy(slot.bytes, uid, length);
+    slot.timeMs = timeMs;
+    count_++;
+    return true;
+  }
+
+  const UidRead* peek() const {
+    return count_ == 0 ? NULL : &reads_[head_];
+  }
+
+  void pop() {
+    if (count_ > 0) {
+      head_ = (head_ + 1) % CAPACITY;
+      count_--;
+    }
+  }
+
+  void clear() {
+    head_ = 0;
+    count_ = 0;
+  }
+
+  size_t size() const { return count_; }
+  bool empty() const { return count_ == 0; }
+  uint32_t dropped() const { return dropped_; }
+
+ private:
+  UidRead reads_[CAPACITY];
+  size_t head_;
+  size_t count_;
+  uint32_t dropped_;
+};
+
+// Builds one frame at a time into its own buffer
+class FrameBuilder {
+ public:
+  FrameBuilder() : length_(0), count_(0), sequence_(0) {}
+
+  // New connection, the app restarts its sequence tracking as well
+  void reset() {
+    length_ = 0;
+    count_ = 0;
+    sequence_ = 0;
+  }
+
+  // False when the read does not fit into limit bytes, finish the frame first
+  bool add(const UidRead& read, size_t limit) {
+    if (limit > FRAME_MAX) {
+      limit = FRAME_MAX;
+    }
+    if (count_ == 255 || headerOr(length_) + 1 + read.length > limit) {
+      return false;
+    }
+    if (count_ == 0) {
+      buffer_[0] = FRAME_MAGIC;
+      buffer_[1] = FRAME_VERSION;
+      buffer_[2] = sequence_ & 0xFF;
+      buffer_[3] = sequence_ >> 8;
+      buffer_[4] = read.timeMs & 0xFF;
+      buffer_[5] = (read.timeMs >> 8) & 0xFF;
+      buffer_[6] = (read.timeMs >> 16) & 0xFF;
+      buffer_[7] = (read.timeMs >> 24) & 0xFF;
+      length_ = FRAME_HEADER;
+    }
+    buffer_[length_++] = read.length;
+    memcpy(buffer_ + length_, read.bytes, read.length);
+    length_ += read.length;
+    count_++;
+    return true;
+  }
+
+  // Completes the frame, returns its length (0 if empty). The frame stays in data() until the next add.
+  size_t finish() {
+    if (count_ == 0) {
+      return 0;
+    }
+    buffer_[8] = count_;
+    size_t length = length_;
+    sequence_++;
+    length_ = 0;
+    count_ = 0;
+    return length;
+  }
+
+  const uint8_t* data() const { return buffer_; }
+  bool empty() const { return count_ == 0; }
+  uint16_t sequence() const { return sequence_; }
+
+ private:
+  static size_t headerOr(size_t length) { return length == 0 ? FRAME_HEADER : length; }
+
+  uint8_t buffer_[FRAME_MAX];
+  size_t length_;
+  uint8_t count_;
+  uint16_t sequence_;
+};
+
+// Moves as many queued reads as fit into one frame, returns the frame length or 0 if the queue was empty
+template <size_t CAPACITY>
+size_t drainFrame(UidRing<CAPACITY>& ring, FrameBuilder& builder, size_t limit) {
+  const UidRead* read;
+  while ((read = ring.peek()) != NULL && builder.add(*read, limit)) {
+    ring.pop();
+  }
+  return builder.finish();
+}
+
+// Holds back a card that is still on the antenna: the same UID is only reported again after
+// holdMs, which is what delay(100) after every notify used to do, without blocking the loop.
+class RepeatFilter {
+ public:
+  explicit RepeatFilter(uint32_t holdMs) : holdMs_(holdMs), length_(0), lastMs_(0) {}
+
+  bool accept(const uint8_t* uid, uint8_t length, uint32_t nowMs) {
+    if (length == length_ && memcmp(uid, last_, length) == 0 && nowMs - lastMs_ < holdMs_) {
+      return false;
+    }
+    length_ = length <= UID_MAX_LENGTH ? length : UID_MAX_LENGTH;
+    memcpy(last_, uid, length_);
+    lastMs_ = nowMs;
+    return true;
+  }
+
+ private:
+  uint32_t holdMs_;
+  uint8_t last_[UID_MAX_LENGTH];
+  uint8_t length_;
+  uint32_t lastMs_;
+};
+
+#endif